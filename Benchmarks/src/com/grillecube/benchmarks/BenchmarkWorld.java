@@ -0,0 +1,92 @@
+package com.grillecube.benchmarks;
+
+import com.grillecube.client.renderer.blocks.BlockRendererCube;
+import com.grillecube.client.renderer.blocks.BlockRendererLeaves;
+import com.grillecube.client.renderer.blocks.BlockRendererLiquid;
+import com.grillecube.client.renderer.blocks.BlockRendererPlant;
+import com.grillecube.client.resources.BlockRendererManager;
+import com.grillecube.common.faces.Face;
+import com.grillecube.common.resources.BlockManager;
+import com.grillecube.common.resources.EventManager;
+import com.grillecube.common.world.World;
+import com.grillecube.common.world.WorldFlat;
+import com.grillecube.common.world.block.Blocks;
+import com.grillecube.common.world.generator.WorldGeneratorHoles;
+import com.grillecube.common.world.terrain.WorldObjectTerrain;
+
+/**
+ * Headless world used by the benchmarks: the default blocks and block
+ * renderers are registered without an engine, a window or an opengl context,
+ * and the terrains are generated with {@link WorldGeneratorHoles}.
+ */
+public class BenchmarkWorld {
+
+	/** true once the resources are registered */
+	private static boolean initialized = false;
+
+	/** register the default blocks and block renderers (once) */
+	public static synchronized final void initialize() {
+		if (initialized) {
+			return;
+		}
+		initialized = true;
+
+		new EventManager(null).initialize();
+
+		BlockManager blockManager = new BlockManager(null);
+		blockManager.initialize();
+		new Blocks().loadBlocks(blockManager);
+
+		// same renderers as the default mod, the texture ids dont matter as no
+		// atlas is built
+		BlockRendererManager blockRendererManager = new BlockRendererManager(null);
+		blockRendererManager.initialize();
+		blockRendererManager.setBlockRenderer(Blocks.DIRT, new BlockRendererCube(1));
+		blockRendererManager.setBlockRenderer(Blocks.GRASS, new BlockRendererCube(Face.LEFT, 3, Face.RIGHT, 3,
+				Face.FRONT, 3, Face.BACK, 3, Face.TOP, 2, Face.BOT, 1));
+		blockRendererManager.setBlockRenderer(Blocks.STONE, new BlockRendererCube(4));
+		blockRendererManager.setBlockRenderer(Blocks.LIGHT, new BlockRendererCube(9));
+		blockRendererManager.setBlockRenderer(Blocks.LOG, new BlockRendererCube(Face.LEFT, 6, Face.RIGHT, 6,
+				Face.FRONT, 6, Face.BACK, 6, Face.TOP, 7, Face.BOT, 7));
+		blockRendererManager.setBlockRenderer(Blocks.LEAVES, new BlockRendererLeaves(8));
+		blockRendererManager.setBlockRenderer(Blocks.LIQUID_WATER, new BlockRendererLiquid(5));
+		for (int i = 0; i < Blocks.PLANTS.length; i++) {
+			blockRendererManager.setBlockRenderer(Blocks.PLANTS[i], new BlockRendererPlant(10 + i));
+		}
+	}
+
+	/** create an empty world */
+	public static final World createWorld() {
+		initialize();
+		World world = new WorldFlat() {
+			@Override
+			public String getName() {
+				return ("Benchmark world");
+			}
+		};
+		world.setWorldGenerator(new WorldGeneratorHoles());
+		return (world);
+	}
+
+	/**
+	 * create a world with (2 * radius + 1)^2 x height generated terrains, around
+	 * the terrain (0, 0, 0), with the sun and block lights propagated
+	 */
+	public static final World createWorld(int radius, int height) {
+		World world = createWorld();
+		for (int z = height - 1; z >= 0; z--) {
+			for (int x = -radius; x <= radius; x++) {
+				for (int y = -radius; y <= radius; y++) {
+					world.generateTerrain(x, y, z);
+				}
+			}
+		}
+		world.getLightEngine().update();
+		return (world);
+	}
+
+	/** the terrain at the center of a world created by this class */
+	public static final WorldObjectTerrain getCenterTerrain(World world) {
+		return (world.getTerrain(0, 0, 0));
+	}
+}
@@ -0,0 +1,99 @@
+package com.grillecube.benchmarks;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.grillecube.client.renderer.particles.WorldObjectParticle;
+import com.grillecube.common.world.World;
+import com.grillecube.common.world.entity.collision.BlockCollisionDetection;
+import com.grillecube.common.world.entity.collision.CollisionDetection;
+import com.grillecube.common.world.physic.WorldObject;
+import com.grillecube.common.world.terrain.WorldObjectTerrain;
+
+/**
+ * Query the blocks colliding with a box of the given size, centered on the
+ * surface of a generated world (half of the box is under the ground).
+ *
+ * Then detect the collision of a box of the given size falling on the
+ * surface: through block objects ({@link #detectObjects()}, as
+ * {@link WorldObject#move(World, WorldObject, double)} used to), and directly
+ * in the terrain blocks ({@link #detectBlocks()}).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CollisionBenchmark {
+
+	/** size of the box, in blocks */
+	@Param({ "1", "4", "16" })
+	public int size;
+
+	/** duration of the movement */
+	private static final double DT = 1.0;
+
+	private World world;
+	private float minx, miny, minz;
+
+	/** the falling box */
+	private WorldObject moving;
+	private BlockCollisionDetection collision;
+
+	@Setup
+	public void setup() {
+		this.world = BenchmarkWorld.createWorld(1, 2);
+		WorldObjectTerrain terrain = BenchmarkWorld.getCenterTerrain(this.world);
+		int x = WorldObjectTerrain.DIMX / 2;
+		int y = WorldObjectTerrain.DIMY / 2;
+		this.minx = terrain.getWorldPosition().x + x - this.size * 0.5f;
+		this.miny = terrain.getWorldPosition().y + y - this.size * 0.5f;
+		this.minz = terrain.getWorldPosition().z + terrain.getHeightAt(x, y) - this.size * 0.5f;
+
+		this.moving = new WorldObjectParticle(1);
+		this.moving.setSize(this.size, this.size, this.size);
+		this.moving.setPosition(this.minx, this.miny, this.minz + this.size * 1.5f);
+		this.moving.setPositionVelocity(0.5f, 0.25f, -2.0f * this.size);
+		this.collision = new BlockCollisionDetection();
+	}
+
+	@Benchmark
+	public int getCollidingPhysicObjects() {
+		return (this.world.getCollidingPhysicObjects(null, this.minx, this.miny, this.minz, this.minx + this.size,
+				this.miny + this.size, this.minz + this.size).size());
+	}
+
+	@Benchmark
+	public float detectObjects() {
+		WorldObject moving = this.moving;
+		float x = moving.getPositionX();
+		float y = moving.getPositionY();
+		float z = moving.getPositionZ();
+		float dx = (float) (moving.getPositionVelocityX() * DT);
+		float dy = (float) (moving.getPositionVelocityY() * DT);
+		float dz = (float) (moving.getPositionVelocityZ() * DT);
+		ArrayList<WorldObject> objects = this.world.getCollidingPhysicObjects(moving, Math.min(x, x + dx),
+				Math.min(y, y + dy), Math.min(z, z + dz), Math.max(x, x + dx) + this.size,
+				Math.max(y, y + dy) + this.size, Math.max(z, z + dz) + this.size);
+		CollisionDetection detection = CollisionDetection.detect(moving, objects, DT);
+		return (detection == null ? -1.0f : detection.dt);
+	}
+
+	@Benchmark
+	public float detectBlocks() {
+		return (this.collision.detect(this.world, this.moving, DT) ? this.collision.dt : -1.0f);
+	}
+}
@@ -0,0 +1,54 @@
+package com.grillecube.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.grillecube.common.world.Compress;
+import com.grillecube.common.world.World;
+import com.grillecube.common.world.terrain.WorldObjectTerrain;
+
+/**
+ * Compress then decompress the data of a generated terrain, as it is done
+ * when a terrain is saved and loaded.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CompressBenchmark {
+
+	private short[] blocks;
+	private byte[] lights;
+
+	@Setup
+	public void setup() {
+		World world = BenchmarkWorld.createWorld(1, 1);
+		WorldObjectTerrain terrain = BenchmarkWorld.getCenterTerrain(world);
+		this.blocks = terrain.getRawBlocks();
+		this.lights = terrain.getRawLights();
+	}
+
+	@Benchmark
+	public short[] blocksRoundTrip() {
+		short[] compressed = Compress.compressShortArray(this.blocks);
+		return (Compress.decompressShortArray(compressed, this.blocks.length));
+	}
+
+	@Benchmark
+	public byte[] lightsRoundTrip() {
+		byte[] compressed = Compress.compressByteArray(this.lights);
+		return (Compress.decompressByteArray(compressed, this.lights.length));
+	}
+}
@@ -0,0 +1,83 @@
+package com.grillecube.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.grillecube.common.world.World;
+import com.grillecube.common.world.entity.WorldEntity;
+import com.grillecube.common.world.entity.WorldEntitySimulation;
+import com.grillecube.common.world.terrain.WorldObjectTerrain;
+
+/**
+ * Update a crowd of simulated entities (one 20 TPS tick) with the
+ * {@link WorldEntitySimulation}, on the caller thread or on the fork/join
+ * pool, with or without the block collisions. The entities are spread over
+ * the terrains around the world origin: a tick should stay under 50 ms.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EntitySimulationBenchmark {
+
+	/** duration of a tick */
+	private static final double DT = 1.0 / 20.0;
+
+	@Param({ "10000", "50000" })
+	public int count;
+
+	@Param({ "false", "true" })
+	public boolean parallel;
+
+	@Param({ "false", "true" })
+	public boolean collisions;
+
+	private World world;
+	private WorldEntitySimulation simulation;
+
+	@Setup
+	public void setup() {
+		this.world = BenchmarkWorld.createWorld(1, 2);
+		this.simulation = new WorldEntitySimulation(this.parallel ? ForkJoinPool.commonPool() : null);
+		Random random = new Random(42);
+		for (int i = 0; i < this.count; i++) {
+			WorldEntity entity = new WorldEntity(this.world) {
+				@Override
+				protected void onUpdate(double dt) {
+				}
+
+				@Override
+				public boolean isSimulated() {
+					return (true);
+				}
+			};
+			this.simulation.add(entity);
+			float x = (random.nextFloat() * 3.0f - 1.0f) * WorldObjectTerrain.DIMX_SIZE;
+			float y = (random.nextFloat() * 3.0f - 1.0f) * WorldObjectTerrain.DIMY_SIZE;
+			float z = random.nextFloat() * 2.0f * WorldObjectTerrain.DIMZ_SIZE;
+			entity.setPosition(x, y, z);
+			entity.setPositionVelocity(random.nextFloat() * 4.0f - 2.0f, random.nextFloat() * 4.0f - 2.0f, 0.0f);
+		}
+	}
+
+	@Benchmark
+	public int update() {
+		this.simulation.update(this.collisions ? this.world : null, DT);
+		return (this.simulation.size());
+	}
+}
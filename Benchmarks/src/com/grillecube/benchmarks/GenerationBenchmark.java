@@ -0,0 +1,47 @@
+package com.grillecube.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.grillecube.common.world.World;
+import com.grillecube.common.world.generator.WorldGeneratorHoles;
+import com.grillecube.common.world.terrain.WorldObjectTerrain;
+
+/**
+ * Generate a terrain with the default world generator. The same terrain is
+ * generated again on each invocation (every block is set again).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GenerationBenchmark {
+
+	private WorldGeneratorHoles generator;
+	private WorldObjectTerrain terrain;
+
+	@Setup
+	public void setup() {
+		World world = BenchmarkWorld.createWorld();
+		this.generator = new WorldGeneratorHoles();
+		this.terrain = world.spawnTerrain(new WorldObjectTerrain(world, 0, 0, 0));
+	}
+
+	@Benchmark
+	public int generate() {
+		this.generator.generate(this.terrain);
+		return (this.terrain.getBlockCount());
+	}
+}
@@ -0,0 +1,77 @@
+package com.grillecube.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.grillecube.common.world.World;
+import com.grillecube.common.world.generator.TerrainGenerationService;
+
+/**
+ * Generate a batch of terrains with the {@link TerrainGenerationService}, for
+ * different numbers of generation threads: the time per batch should drop
+ * close to linearly with the threads (up to the number of cores). The
+ * terrains are spawned in the world on the benchmark thread, as the tick
+ * thread would.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GenerationServiceBenchmark {
+
+	/** number of terrains generated per invocation */
+	private static final int BATCH = 64;
+
+	@Param({ "1", "2", "4", "8" })
+	public int threads;
+
+	private World world;
+	private TerrainGenerationService service;
+
+	/** row of terrains generated by the next invocation */
+	private int row;
+
+	@Setup(Level.Iteration)
+	public void setup() {
+		this.world = BenchmarkWorld.createWorld();
+		this.service = new TerrainGenerationService(this.world, this.threads);
+		this.row = 0;
+	}
+
+	@TearDown(Level.Iteration)
+	public void tearDown() {
+		this.service.stop();
+		this.world.delete();
+	}
+
+	@Benchmark
+	public int generate() throws InterruptedException {
+		long target = this.service.getGeneratedCount() + BATCH;
+		for (int i = 0; i < BATCH; i++) {
+			this.service.requestGeneration(i, this.row, 0);
+		}
+		++this.row;
+		while (this.service.getPendingCount() > 0) {
+			this.service.update();
+			if (this.service.getGeneratedCount() < target) {
+				Thread.sleep(0, 100000);
+			}
+		}
+		return (this.world.getLoadedTerrains().length);
+	}
+}
@@ -0,0 +1,99 @@
+package com.grillecube.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.grillecube.common.world.World;
+import com.grillecube.common.world.block.Blocks;
+import com.grillecube.common.world.terrain.LightEngine;
+import com.grillecube.common.world.terrain.WorldObjectTerrain;
+
+/**
+ * Light propagation through generated terrains: a light source is added then
+ * removed, and the light engine propagates both changes (the world returns to
+ * the same state after each invocation).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LightBenchmark {
+
+	private World world;
+	private LightEngine lightEngine;
+
+	/** an air block in a cave, for the block light */
+	private WorldObjectTerrain blockLightTerrain;
+	private int blockLightIndex;
+
+	/** the highest air block of a column, lit by the sun */
+	private WorldObjectTerrain sunLightTerrain;
+	private int sunLightIndex;
+
+	@Setup
+	public void setup() {
+		this.world = BenchmarkWorld.createWorld(1, 2);
+		this.lightEngine = this.world.getLightEngine();
+
+		// the first air block of the center terrain which isnt lit
+		WorldObjectTerrain center = BenchmarkWorld.getCenterTerrain(this.world);
+		for (int index = 0; index < WorldObjectTerrain.MAX_BLOCK_INDEX; index++) {
+			if (center.getBlockAt(index) == Blocks.AIR && center.getSunLight(index) == 0) {
+				this.blockLightTerrain = center;
+				this.blockLightIndex = index;
+				break;
+			}
+		}
+		if (this.blockLightTerrain == null) {
+			throw new IllegalStateException("no cave in the generated terrain");
+		}
+
+		// the sunlight source of the center column
+		for (int z = 1; z >= 0 && this.sunLightTerrain == null; z--) {
+			WorldObjectTerrain terrain = this.world.getTerrain(0, 0, z);
+			int x = WorldObjectTerrain.DIMX / 2;
+			int y = WorldObjectTerrain.DIMY / 2;
+			int height = terrain.getHeightAt(x, y) + 1;
+			if (height > 0 && height < WorldObjectTerrain.DIMZ
+					&& terrain.getSunLight(x, y, height) == LightEngine.MAX_LIGHT) {
+				this.sunLightTerrain = terrain;
+				this.sunLightIndex = terrain.getIndex(x, y, height);
+			}
+		}
+		if (this.sunLightTerrain == null) {
+			throw new IllegalStateException("no sunlit surface in the generated terrain");
+		}
+	}
+
+	@Benchmark
+	public int blockLight() {
+		this.blockLightTerrain.addBlockLight(LightEngine.MAX_LIGHT, this.blockLightIndex);
+		this.lightEngine.update();
+		int nodes = this.lightEngine.getProcessedNodes();
+		this.blockLightTerrain.removeLight(this.blockLightIndex);
+		this.lightEngine.update();
+		return (nodes + this.lightEngine.getProcessedNodes());
+	}
+
+	@Benchmark
+	public int sunLight() {
+		this.sunLightTerrain.removeSunLight(this.sunLightIndex);
+		this.lightEngine.update();
+		int nodes = this.lightEngine.getProcessedNodes();
+		this.sunLightTerrain.addSunLight(LightEngine.MAX_LIGHT, this.sunLightIndex);
+		this.lightEngine.update();
+		return (nodes + this.lightEngine.getProcessedNodes());
+	}
+}
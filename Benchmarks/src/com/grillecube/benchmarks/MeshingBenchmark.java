@@ -0,0 +1,110 @@
+package com.grillecube.benchmarks;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.grillecube.client.renderer.world.TerrainMesher;
+import com.grillecube.client.renderer.world.TerrainMesherCull;
+import com.grillecube.client.renderer.world.TerrainMesherGreedy;
+import com.grillecube.client.renderer.world.TerrainMesherGreedyMask;
+import com.grillecube.client.renderer.world.TerrainMesherMarchingCubes;
+import com.grillecube.client.renderer.world.TerrainSnapshot;
+import com.grillecube.common.world.World;
+import com.grillecube.common.world.block.Blocks;
+import com.grillecube.common.world.terrain.WorldObjectTerrain;
+
+/**
+ * Mesh a terrain (from a snapshot, as the mesher threads do), for each mesher
+ * and kind of terrain:
+ *
+ * - holes: a terrain generated by the default world generator
+ *
+ * - flat: the lower half of the terrain is stone
+ *
+ * - noise: one block out of two is stone (worst case for the greedy meshers)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MeshingBenchmark {
+
+	@Param({ "greedy", "cull", "marchingcubes", "greedymask" })
+	public String mesher;
+
+	@Param({ "holes", "flat", "noise" })
+	public String chunk;
+
+	private TerrainMesher terrainMesher;
+	private TerrainSnapshot snapshot;
+	private ByteBuffer[] vertices;
+
+	@Setup
+	public void setup() {
+		this.terrainMesher = createMesher(this.mesher);
+
+		World world = BenchmarkWorld.createWorld(1, 1);
+		WorldObjectTerrain terrain = BenchmarkWorld.getCenterTerrain(world);
+		if (this.chunk.equals("flat")) {
+			fill(terrain, 0.0f, WorldObjectTerrain.DIMZ / 2);
+		} else if (this.chunk.equals("noise")) {
+			fill(terrain, 0.5f, WorldObjectTerrain.DIMZ);
+		}
+		world.getLightEngine().update();
+		this.snapshot = new TerrainSnapshot(terrain);
+		this.vertices = new ByteBuffer[2];
+	}
+
+	private static final TerrainMesher createMesher(String name) {
+		if (name.equals("greedy")) {
+			return (new TerrainMesherGreedy());
+		} else if (name.equals("cull")) {
+			return (new TerrainMesherCull());
+		} else if (name.equals("marchingcubes")) {
+			return (new TerrainMesherMarchingCubes());
+		} else if (name.equals("greedymask")) {
+			return (new TerrainMesherGreedyMask());
+		}
+		throw new IllegalArgumentException("unknown mesher: " + name);
+	}
+
+	/**
+	 * fill the terrain with stone under the given height, with the given
+	 * probability of air blocks
+	 */
+	private static final void fill(WorldObjectTerrain terrain, float air, int height) {
+		Random random = new Random(42);
+		for (int x = 0; x < WorldObjectTerrain.DIMX; x++) {
+			for (int y = 0; y < WorldObjectTerrain.DIMY; y++) {
+				for (int z = 0; z < WorldObjectTerrain.DIMZ; z++) {
+					boolean solid = z < height && random.nextFloat() >= air;
+					terrain.setBlockAt(solid ? Blocks.STONE : Blocks.AIR, x, y, z);
+				}
+			}
+		}
+	}
+
+	@Benchmark
+	public int mesh() {
+		this.terrainMesher.buildVertices(this.snapshot, this.vertices, this.terrainMesher.isPackedVertices());
+		int bytes = this.vertices[0].remaining() + this.vertices[1].remaining();
+		TerrainMesher.releaseBuffer(this.vertices[0]);
+		TerrainMesher.releaseBuffer(this.vertices[1]);
+		return (bytes);
+	}
+}
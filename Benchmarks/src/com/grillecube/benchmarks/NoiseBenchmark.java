@@ -0,0 +1,65 @@
+package com.grillecube.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.grillecube.common.world.generator.SimplexNoiseOctave;
+import com.grillecube.common.world.generator.WorldGeneratorHoles;
+import com.grillecube.common.world.terrain.WorldObjectTerrain;
+
+/**
+ * Sample the 3D noise of a whole terrain (as {@link WorldGeneratorHoles}
+ * does), one block at a time or with the batch api ('step' is the coarse grid
+ * step, 1 being exact).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NoiseBenchmark {
+
+	@Param({ "1", "2", "4" })
+	public int step;
+
+	private SimplexNoiseOctave noise;
+	private double[] out;
+
+	@Setup
+	public void setup() {
+		this.noise = new SimplexNoiseOctave(42);
+		this.out = new double[WorldObjectTerrain.MAX_BLOCK_INDEX];
+	}
+
+	@Benchmark
+	public double scalar() {
+		int index = 0;
+		for (int z = 0; z < WorldObjectTerrain.DIMZ; z++) {
+			for (int y = 0; y < WorldObjectTerrain.DIMY; y++) {
+				for (int x = 0; x < WorldObjectTerrain.DIMX; x++) {
+					this.out[index++] = this.noise.noise(x / 64.0, y / 32.0, z / 64.0);
+				}
+			}
+		}
+		return (this.out[index - 1]);
+	}
+
+	@Benchmark
+	public double batch() {
+		this.noise.noise(this.out, 0.0, 0.0, 0.0, 1 / 64.0, 1 / 32.0, 1 / 64.0, WorldObjectTerrain.DIMX,
+				WorldObjectTerrain.DIMY, WorldObjectTerrain.DIMZ, this.step);
+		return (this.out[this.out.length - 1]);
+	}
+}
@@ -30,7 +30,7 @@ public class WorldDefault extends WorldFlat {
 		for (int z = 2; z > 0; z--) {
 			for (int x = -4; x < 4; x++) {
 				for (int y = -4; y < 4; y++) {
-					this.generateTerrain(x, y, 0);
+					this.requestTerrain(x, y, 0);
 				}
 			}
 		}
@@ -12,15 +12,17 @@ public class WorldEntityBipedTest extends WorldEntityBiped {
 	@Override
 	protected void onUpdate(double dt) {
 
-		World world = this.getWorld();
-		if (world == null) {
-			return;
-		}
 		float x = this.getPositionX() + this.getSizeX() * 0.5f;
 		float y = this.getPositionY() - 1.0f;
 		float z = this.getPositionZ() + this.getSizeX() * 0.5f;
-		world.setBlockDurability((byte) ((System.currentTimeMillis() % 2000) / 100), x, y, z);
+		this.setBlockDurability((byte) ((System.currentTimeMillis() % 2000) / 100), x, y, z);
 
 	}
 
+	@Override
+	public boolean isSleepable() {
+		// the block under it is animated on each update
+		return (false);
+	}
+
 }
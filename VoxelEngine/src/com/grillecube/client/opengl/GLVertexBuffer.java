@@ -57,7 +57,7 @@ public class GLVertexBuffer implements GLObject {
 		} else {
 			GL15.glBufferData(target, data, usage);
 			GL15.glBufferSubData(target, 0, data);
-			this.byteCount = data.capacity();
+			this.byteCount = data.remaining();
 		}
 	}
 
@@ -69,6 +69,12 @@ public class GLVertexBuffer implements GLObject {
 	/** set vbo size */
 	public void bufferSize(int target, long size, int usage) {
 		GL15.glBufferData(target, size, usage);
+		this.byteCount = (int) size;
+	}
+
+	/** update a part of the vbo data (the vbo should be large enough) */
+	public void bufferSubData(int target, long offset, ByteBuffer data) {
+		GL15.glBufferSubData(target, offset, data);
 	}
 
 	public void bufferData(int target, float[] data, int usage) {
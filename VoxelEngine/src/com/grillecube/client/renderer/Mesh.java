@@ -138,23 +138,29 @@ public abstract class Mesh {
 		return (this.vertexCount);
 	}
 
+	/** set the vertex count, for meshes whose vertices are stored elsewhere */
+	protected final void setVertexCount(int vertexCount) {
+		this.vertexCount = vertexCount;
+	}
+
 	/** returnt rue if the mesh has been regenerated */
 	public boolean update(TerrainMesher mesher, Camera camera) {
 		return (false);
 	}
 
 	protected final void setVertices(ByteBuffer buffer, int bytesPerVertex) {
-		if (buffer == null || buffer.capacity() == 0) {
+		if (buffer == null || buffer.remaining() == 0) {
 			if (this.isInitialized()) {
 				this.deinitialize();
 			}
+			this.vertexCount = 0;
 			return;
 		}
 
 		if (!this.isInitialized()) {
 			this.initialize();
 		}
-		this.vertexCount = buffer.capacity() / bytesPerVertex;
+		this.vertexCount = buffer.remaining() / bytesPerVertex;
 		this.vbo.bind(GL15.GL_ARRAY_BUFFER);
 		this.vbo.bufferData(GL15.GL_ARRAY_BUFFER, buffer, GL15.GL_STATIC_DRAW);
 	}
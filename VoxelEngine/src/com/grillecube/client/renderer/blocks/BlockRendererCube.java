@@ -117,6 +117,11 @@ public class BlockRendererCube extends BlockRenderer {
 		// get the neighbor of this face
 		Block neighbor = terrain.getBlock(x + vec.x, y + vec.y, z + vec.z);
 
+		return (this.isFaceVisible(block, neighbor));
+	}
+
+	/** return true if a face of the block is visible next to the given neighbor */
+	public boolean isFaceVisible(Block block, Block neighbor) {
 		return (!neighbor.isVisible() || neighbor.isTransparent());
 	}
 
@@ -1,9 +1,6 @@
 package com.grillecube.client.renderer.blocks;
 
-import com.grillecube.common.faces.Face;
-import com.grillecube.common.maths.Vector3i;
 import com.grillecube.common.world.block.Block;
-import com.grillecube.common.world.terrain.WorldObjectTerrain;
 
 public class BlockRendererLeaves extends BlockRendererCube {
 
@@ -12,11 +9,7 @@ public class BlockRendererLeaves extends BlockRendererCube {
 	}
 
 	@Override
-	protected boolean canRenderFace(WorldObjectTerrain terrain, Block block, Face face, int x, int y, int z) {
-		Vector3i vec = face.getVector();
-		// get the neighbor of this face
-		Block neighbor = terrain.getBlock(x + vec.x, y + vec.y, z + vec.z);
-
+	public boolean isFaceVisible(Block block, Block neighbor) {
 		return (!neighbor.isVisible());
 	}
 
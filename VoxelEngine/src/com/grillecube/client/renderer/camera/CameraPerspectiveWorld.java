@@ -28,14 +28,12 @@ public class CameraPerspectiveWorld extends CameraProjectiveWorld {
 			this.point = new Vector3f();
 		}
 
-		void set(Vector3f a, Vector3f b, Vector3f c) {
-
-			Vector3f aux1 = Vector3f.sub(a, b, null);
-			Vector3f aux2 = Vector3f.sub(c, b, null);
-			Vector3f.cross(aux2, aux1, this.normal);
-			this.normal.normalise();
-			this.point.set(b);
-			this.d = -(Vector3f.dot(this.normal, this.point));
+		/** set the plane equation (a.x + b.y + c.z + d = 0), and normalize it */
+		void set(float a, float b, float c, float d) {
+			float length = (float) Math.sqrt(a * a + b * b + c * c);
+			this.normal.set(a / length, b / length, c / length);
+			this.d = d / length;
+			this.point.set(-this.normal.x * this.d, -this.normal.y * this.d, -this.normal.z * this.d);
 		}
 
 		public float distance(float x, float y, float z) {
@@ -99,94 +97,19 @@ public class CameraPerspectiveWorld extends CameraProjectiveWorld {
 				this.getFarDistance());
 	}
 
-	/** recalculate the frustum planes */
-	Vector3f nc = new Vector3f();
-
-	Vector3f ntl = new Vector3f();
-	Vector3f ntr = new Vector3f();
-	Vector3f nbl = new Vector3f();
-	Vector3f nbr = new Vector3f();
-
-	Vector3f fc = new Vector3f();
-
-	Vector3f ftl = new Vector3f();
-	Vector3f ftr = new Vector3f();
-	Vector3f fbl = new Vector3f();
-	Vector3f fbr = new Vector3f();
-
 	/**
 	 * a function which creates the perspective view planes represented by the
-	 * camera
+	 * camera. They are extracted from the projection-view matrix, so their
+	 * normals point inside the frustum.
 	 */
 	private void createPlanes() {
-
-		Vector3f up = Vector3f.AXIS_Y;
-		Vector3f forward = this.getViewVector();
-		Vector3f right = Vector3f.cross(forward, up, null);
-
-		up.normalise();
-		forward = forward.normalise(null);
-		right.normalise();
-
-		float tang = (float) Math.tan(Math.toRadians(this.getFov() * 0.5f));
-
-		float nh = this.nearDistance * tang;
-		float nw = nh * this.getAspect();
-
-		float fh = this.farDistance * tang;
-		float fw = fh * this.getAspect();
-
-		nc.x = this.getPosition().x + forward.x * this.getNearDistance();
-		nc.y = this.getPosition().y + forward.y * this.getNearDistance();
-		nc.z = this.getPosition().z + forward.z * this.getNearDistance();
-
-		fc.x = this.getPosition().x + forward.x * this.getFarDistance();
-		fc.y = this.getPosition().y + forward.y * this.getFarDistance();
-		fc.z = this.getPosition().z + forward.z * this.getFarDistance();
-
-		// calculate rectangle planes corners (ftl = far, top, left) (nbr =
-		// near, bot, right)
-		// near plane corner
-		ntl.x = nc.x + (up.x * nh) - (right.x * nw);
-		ntl.y = nc.y + (up.y * nh) - (right.y * nw);
-		ntl.z = nc.z + (up.z * nh) - (right.z * nw);
-
-		ntr.x = nc.x + (up.x * nh) + (right.x * nw);
-		ntr.y = nc.y + (up.y * nh) + (right.y * nw);
-		ntr.z = nc.z + (up.z * nh) + (right.z * nw);
-
-		nbl.x = nc.x - (up.x * nh) - (right.x * nw);
-		nbl.y = nc.y - (up.y * nh) - (right.y * nw);
-		nbl.z = nc.z - (up.z * nh) - (right.z * nw);
-
-		nbr.x = nc.x - (up.x * nh) + (right.x * nw);
-		nbr.y = nc.y - (up.y * nh) + (right.y * nw);
-		nbr.z = nc.z - (up.z * nh) + (right.z * nw);
-
-		// far plane corners
-		ftl.x = fc.x + (up.x * fh) - (right.x * fw);
-		ftl.y = fc.y + (up.y * fh) - (right.y * fw);
-		ftl.z = fc.z + (up.z * fh) - (right.z * fw);
-
-		ftr.x = fc.x + (up.x * fh) + (right.x * fw);
-		ftr.y = fc.y + (up.y * fh) + (right.y * fw);
-		ftr.z = fc.z + (up.z * fh) + (right.z * fw);
-
-		fbl.x = fc.x - (up.x * fh) - (right.x * fw);
-		fbl.y = fc.y - (up.y * fh) - (right.y * fw);
-		fbl.z = fc.z - (up.z * fh) - (right.z * fw);
-
-		fbr.x = fc.x - (up.x * fh) + (right.x * fw);
-		fbr.y = fc.y - (up.y * fh) + (right.y * fw);
-		fbr.z = fc.z - (up.z * fh) + (right.z * fw);
-
-		// set the planes
-		this.planes[PLANE_TOP].set(ntr, ntl, ftl);
-		this.planes[PLANE_BOT].set(nbl, nbr, fbr);
-		this.planes[PLANE_LEFT].set(ntl, nbl, fbl);
-		this.planes[PLANE_RIGHT].set(nbr, ntr, fbr);
-		this.planes[PLANE_NEAR].set(ntl, ntr, nbr);
-		this.planes[PLANE_FAR].set(ftr, ftl, fbl);
+		Matrix4f m = this.getMVPMatrix();
+		this.planes[PLANE_LEFT].set(m.m03 + m.m00, m.m13 + m.m10, m.m23 + m.m20, m.m33 + m.m30);
+		this.planes[PLANE_RIGHT].set(m.m03 - m.m00, m.m13 - m.m10, m.m23 - m.m20, m.m33 - m.m30);
+		this.planes[PLANE_BOT].set(m.m03 + m.m01, m.m13 + m.m11, m.m23 + m.m21, m.m33 + m.m31);
+		this.planes[PLANE_TOP].set(m.m03 - m.m01, m.m13 - m.m11, m.m23 - m.m21, m.m33 - m.m31);
+		this.planes[PLANE_NEAR].set(m.m03 + m.m02, m.m13 + m.m12, m.m23 + m.m22, m.m33 + m.m32);
+		this.planes[PLANE_FAR].set(m.m03 - m.m02, m.m13 - m.m12, m.m23 - m.m22, m.m33 - m.m32);
 	}
 
 	public void setNearDistance(float f) {
@@ -228,45 +151,30 @@ public class CameraPerspectiveWorld extends CameraProjectiveWorld {
 
 	@Override
 	public boolean isBoxInFrustum(float x, float y, float z, float sx, float sy, float sz) {
+		return (this.getBoxFrustumIntersection(x, y, z, sx, sy, sz) != FRUSTUM_OUTSIDE);
+	}
+
+	@Override
+	public int getBoxFrustumIntersection(float x, float y, float z, float sx, float sy, float sz) {
+		int result = FRUSTUM_INSIDE;
 		for (int i = 0; i < 6; i++) {
 			CameraPlane plane = this.planes[i];
-			if (plane.distance(this.getVertexP(plane.normal, x, y, z, sx, sy, sz)) < 10) {
-				return (false); // outside
+			Vector3f normal = plane.normal;
+			// the box corner the most (p) and the least (n) toward the normal
+			float px = normal.x >= 0 ? x + sx : x;
+			float py = normal.y >= 0 ? y + sy : y;
+			float pz = normal.z >= 0 ? z + sz : z;
+			if (plane.distance(px, py, pz) < 0) {
+				return (FRUSTUM_OUTSIDE);
 			}
-			if (plane.distance(this.getVertexN(plane.normal, x, y, z, sx, sy, sz)) < 0) {
-				return (true); // intersect
+			float nx = normal.x >= 0 ? x : x + sx;
+			float ny = normal.y >= 0 ? y : y + sy;
+			float nz = normal.z >= 0 ? z : z + sz;
+			if (plane.distance(nx, ny, nz) < 0) {
+				result = FRUSTUM_INTERSECT;
 			}
 		}
-		return (true); // fully inside
-	}
-
-	private Vector3f getVertexP(Vector3f normal, float x, float y, float z, float sx, float sy, float sz) {
-		Vector3f res = new Vector3f(x, y, z);
-		if (normal.x >= 0) {
-			res.x += sx;
-		}
-		if (normal.y >= 0) {
-			res.y += sy;
-		}
-		if (normal.z >= 0) {
-			res.z += sz;
-		}
-		return (res);
-	}
-
-	private Vector3f getVertexN(Vector3f normal, float x, float y, float z, float sx, float sy, float sz) {
-
-		Vector3f res = new Vector3f(x, y, z);
-		if (normal.x <= 0) {
-			res.x += sx;
-		}
-		if (normal.y <= 0) {
-			res.y += sy;
-		}
-		if (normal.z <= 0) {
-			res.z += sz;
-		}
-		return (res);
+		return (result);
 	}
 
 	@Override
@@ -15,6 +15,11 @@ import com.grillecube.common.world.physic.Sizeable;
 
 public abstract class CameraProjective extends CameraView {
 
+	/** box and frustum intersection results */
+	public static final int FRUSTUM_OUTSIDE = 0;
+	public static final int FRUSTUM_INTERSECT = 1;
+	public static final int FRUSTUM_INSIDE = 2;
+
 	/** the window linked with this camera */
 	private GLFWWindow window;
 
@@ -202,6 +207,14 @@ public abstract class CameraProjective extends CameraView {
 	/** return true if this box is in this camera frustum */
 	public abstract boolean isBoxInFrustum(float x, float y, float z, float sizex, float sizey, float sizez);
 
+	/**
+	 * @return {@link #FRUSTUM_OUTSIDE}, {@link #FRUSTUM_INTERSECT} or
+	 *         {@link #FRUSTUM_INSIDE} if the box is fully inside the frustum
+	 */
+	public int getBoxFrustumIntersection(float x, float y, float z, float sizex, float sizey, float sizez) {
+		return (this.isBoxInFrustum(x, y, z, sizex, sizey, sizez) ? FRUSTUM_INTERSECT : FRUSTUM_OUTSIDE);
+	}
+
 	public boolean isBoxInFrustum(Positioneable positioneable, Sizeable sizeable) {
 		return (this.isBoxInFrustum(positioneable.getPositionX(), positioneable.getPositionY(),
 				positioneable.getPositionZ(), sizeable.getSizeX(), sizeable.getSizeY(), sizeable.getSizeZ()));
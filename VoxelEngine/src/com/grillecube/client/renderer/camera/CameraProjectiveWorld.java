@@ -5,7 +5,6 @@ import com.grillecube.common.maths.Vector3f;
 import com.grillecube.common.maths.Vector3i;
 import com.grillecube.common.world.World;
 import com.grillecube.common.world.block.Block;
-import com.grillecube.common.world.terrain.WorldObjectTerrain;
 
 public abstract class CameraProjectiveWorld extends CameraProjective implements RaycastingCallback {
 
@@ -78,13 +77,7 @@ public abstract class CameraProjectiveWorld extends CameraProjective implements
 			return;
 		}
 
-		WorldObjectTerrain terrain = this.getWorld().setBlock(block, pos.x, pos.y, pos.z);
-
-		if (terrain == null) {
-			return;
-		}
-
-		terrain.requestFaceVisibilityUpdate();
+		this.getWorld().setBlock(block, pos.x, pos.y, pos.z);
 	}
 
 	/** return the height of the last liquid seen */
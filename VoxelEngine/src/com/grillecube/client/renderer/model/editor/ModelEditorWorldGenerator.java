@@ -1,13 +1,14 @@
 package com.grillecube.client.renderer.model.editor;
 
 import com.grillecube.common.world.block.Blocks;
+import com.grillecube.common.world.generator.TerrainGenerationBuffer;
 import com.grillecube.common.world.generator.WorldGenerator;
 import com.grillecube.common.world.terrain.WorldObjectTerrain;
 
 public class ModelEditorWorldGenerator extends WorldGenerator {
 
 	@Override
-	public void generate(WorldObjectTerrain terrain) {
+	public void generate(TerrainGenerationBuffer terrain) {
 		for (int x = 0; x < WorldObjectTerrain.DIMX; x++) {
 			for (int y = 0; y < WorldObjectTerrain.DIMY; y++) {
 				// terrain.setBlockAt((x + z) % 2 == 0 ? Blocks.GRASS :
@@ -51,17 +51,46 @@ public class ProgramTerrain extends GLProgram {
 
 	private int cameraPosition;
 
+	private int terrainOffsets;
+
+	/** true if this program reads the compact vertex layout */
+	private final boolean packed;
+
 	public ProgramTerrain() {
+		this(false);
+	}
+
+	/** @param packed : true to read the compact vertex layout (see {@link TerrainPackedVertex}) */
+	public ProgramTerrain(boolean packed) {
+		this(packed, false);
+	}
+
+	/**
+	 * @param packed
+	 *            : true to read the compact vertex layout (see
+	 *            {@link TerrainPackedVertex})
+	 * @param arena
+	 *            : true to draw the meshes of a {@link TerrainBufferArena}
+	 *            (compact layout only)
+	 */
+	public ProgramTerrain(boolean packed, boolean arena) {
 		super();
+		this.packed = packed || arena;
 		String header = "# define MESH_TYPE_OPAQUE (" + MESH_TYPE_OPAQUE + ")\n" + "# define MESH_TYPE_TRANSPARENT ("
 				+ MESH_TYPE_TRANSPARENT + ")\n";
 		this.addShader(GLH.glhLoadShader(R.getResPath("shaders/terrain.fs"), GL20.GL_FRAGMENT_SHADER, header));
-		this.addShader(GLH.glhLoadShader(R.getResPath("shaders/terrain.vs"), GL20.GL_VERTEX_SHADER, header));
+		String vertexShader = arena ? "shaders/terrain_arena.vs"
+				: packed ? "shaders/terrain_packed.vs" : "shaders/terrain.vs";
+		this.addShader(GLH.glhLoadShader(R.getResPath(vertexShader), GL20.GL_VERTEX_SHADER, header));
 		this.link();
 	}
 
 	@Override
 	public void bindAttributes() {
+		if (this.packed) {
+			super.bindAttribute(0, "data");
+			return;
+		}
 		super.bindAttribute(0, "position");
 		super.bindAttribute(1, "normal");
 		super.bindAttribute(2, "uv");
@@ -89,6 +118,7 @@ public class ProgramTerrain extends GLProgram {
 		this.ambientLight = super.getUniform("ambient_light");
 
 		this.txAtlas = super.getUniform("tx_atlas");
+		this.terrainOffsets = super.getUniform("terrain_offsets");
 	}
 
 	/** load global terrain uniform */
@@ -113,6 +143,7 @@ public class ProgramTerrain extends GLProgram {
 		this.loadUniformFloat(this.ambientLight, world.getSky().getAmbientLight());
 
 		this.loadUniformInteger(this.txAtlas, 0);
+		this.loadUniformInteger(this.terrainOffsets, TerrainBufferArena.OFFSETS_TEXTURE_UNIT);
 	}
 
 	/** load terrain instance uniforms variable */
@@ -123,4 +154,8 @@ public class ProgramTerrain extends GLProgram {
 	public void loadTypeUniform(int meshType) {
 		this.loadUniformInteger(this.meshType, meshType);
 	}
+
+	public final boolean isPacked() {
+		return (this.packed);
+	}
 }
@@ -6,6 +6,7 @@ import com.grillecube.client.renderer.MainRenderer;
 import com.grillecube.client.renderer.Renderer;
 import com.grillecube.client.renderer.RendererFactory;
 import com.grillecube.common.Logger;
+import com.grillecube.common.TaskScheduler;
 import com.grillecube.common.Taskable;
 import com.grillecube.common.VoxelEngine;
 
@@ -69,6 +70,26 @@ public abstract class RendererFactorized extends Renderer {
 				public String getName() {
 					return (factory.getClass().getSimpleName() + " update");
 				}
+
+				@Override
+				public int getPhase() {
+					return (TaskScheduler.PHASE_RENDER);
+				}
+
+				@Override
+				public int getReads() {
+					return (TaskScheduler.RESOURCE_TERRAIN | TaskScheduler.RESOURCE_ENTITIES);
+				}
+
+				@Override
+				public int getWrites() {
+					return (TaskScheduler.RESOURCE_RENDER);
+				}
+
+				@Override
+				public Object getGroup() {
+					return (RendererFactorized.this);
+				}
 			});
 		}
 	}
@@ -0,0 +1,298 @@
+package com.grillecube.client.renderer.world;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+
+/**
+ * A free list sub-allocator of a fixed size range (the units are up to the
+ * user: blocks of vertices for {@link TerrainBufferArena}).
+ *
+ * The free ranges are kept sorted by offset, an allocation takes the first
+ * range large enough, and a freed range is merged with its free neighbors.
+ * Once the free space is too fragmented to hold an allocation,
+ * {@link #compact(Mover)} moves every allocation to the start of the range.
+ *
+ * This class has no opengl dependency, the data moves are done by the
+ * {@link Mover}.
+ *
+ * @param <T>
+ *            : the value attached to each allocation
+ */
+public class TerrainBufferAllocator<T> {
+
+	/** an allocated range */
+	public static class Allocation<T> {
+
+		/** start of the range (updated when the allocator is compacted) */
+		private int offset;
+
+		/** size of the range */
+		private final int size;
+
+		/** user value */
+		private final T value;
+
+		/** index in the allocation list, -1 once freed */
+		private int index;
+
+		private Allocation(int offset, int size, T value) {
+			this.offset = offset;
+			this.size = size;
+			this.value = value;
+		}
+
+		public final int getOffset() {
+			return (this.offset);
+		}
+
+		public final int getSize() {
+			return (this.size);
+		}
+
+		public final T getValue() {
+			return (this.value);
+		}
+
+		/** true until the allocation is freed */
+		public final boolean isAllocated() {
+			return (this.index >= 0);
+		}
+	}
+
+	/** moves the data of an allocation when compacting */
+	public interface Mover<T> {
+		/**
+		 * called for each allocation which is moved
+		 *
+		 * @param allocation
+		 *            : the allocation (its offset is already updated)
+		 * @param from
+		 *            : previous offset
+		 * @param to
+		 *            : new offset (always lower than 'from')
+		 */
+		public void move(Allocation<T> allocation, int from, int to);
+	}
+
+	private static final Comparator<Allocation<?>> OFFSET_SORT = new Comparator<Allocation<?>>() {
+		@Override
+		public int compare(Allocation<?> a1, Allocation<?> a2) {
+			return (Integer.compare(a1.offset, a2.offset));
+		}
+	};
+
+	/** size of the whole range */
+	private final int capacity;
+
+	/** free ranges, sorted by offset */
+	private int[] freeOffsets;
+	private int[] freeSizes;
+	private int freeCount;
+
+	/** allocated ranges */
+	private final ArrayList<Allocation<T>> allocations;
+
+	/** allocated size */
+	private int used;
+
+	public TerrainBufferAllocator(int capacity) {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("capacity should be positive: " + capacity);
+		}
+		this.capacity = capacity;
+		this.freeOffsets = new int[16];
+		this.freeSizes = new int[16];
+		this.allocations = new ArrayList<Allocation<T>>();
+		this.clear();
+	}
+
+	/**
+	 * allocate a range
+	 *
+	 * @param size
+	 *            : the size of the range
+	 * @param value
+	 *            : value attached to the allocation
+	 * @return the allocation, or null if no free range is large enough
+	 */
+	public final Allocation<T> allocate(int size, T value) {
+		if (size <= 0) {
+			throw new IllegalArgumentException("allocation size should be positive: " + size);
+		}
+		for (int i = 0; i < this.freeCount; i++) {
+			if (this.freeSizes[i] < size) {
+				continue;
+			}
+			Allocation<T> allocation = new Allocation<T>(this.freeOffsets[i], size, value);
+			this.freeOffsets[i] += size;
+			this.freeSizes[i] -= size;
+			if (this.freeSizes[i] == 0) {
+				this.removeFreeRange(i);
+			}
+			allocation.index = this.allocations.size();
+			this.allocations.add(allocation);
+			this.used += size;
+			return (allocation);
+		}
+		return (null);
+	}
+
+	/** free an allocation: its range is merged with the free neighbors */
+	public final void free(Allocation<T> allocation) {
+		if (!allocation.isAllocated() || allocation.index >= this.allocations.size()
+				|| this.allocations.get(allocation.index) != allocation) {
+			throw new IllegalArgumentException("allocation is not owned by this allocator");
+		}
+
+		// remove from the list (swap with the last one)
+		Allocation<T> last = this.allocations.remove(this.allocations.size() - 1);
+		if (last != allocation) {
+			last.index = allocation.index;
+			this.allocations.set(last.index, last);
+		}
+		allocation.index = -1;
+		this.used -= allocation.size;
+
+		// find the first free range after the allocation
+		int offset = allocation.offset;
+		int end = offset + allocation.size;
+		int i = this.findFreeRange(offset);
+		boolean mergePrevious = i > 0 && this.freeOffsets[i - 1] + this.freeSizes[i - 1] == offset;
+		boolean mergeNext = i < this.freeCount && this.freeOffsets[i] == end;
+		if (mergePrevious && mergeNext) {
+			this.freeSizes[i - 1] += allocation.size + this.freeSizes[i];
+			this.removeFreeRange(i);
+		} else if (mergePrevious) {
+			this.freeSizes[i - 1] += allocation.size;
+		} else if (mergeNext) {
+			this.freeOffsets[i] = offset;
+			this.freeSizes[i] += allocation.size;
+		} else {
+			this.insertFreeRange(i, offset, allocation.size);
+		}
+	}
+
+	/**
+	 * move every allocation to the start of the range, in the offset order, so
+	 * the free space is a single range
+	 *
+	 * @param mover
+	 *            : called for each moved allocation
+	 * @return the number of units moved
+	 */
+	public final int compact(Mover<T> mover) {
+		this.allocations.sort(OFFSET_SORT);
+		int offset = 0;
+		int moved = 0;
+		for (int i = 0; i < this.allocations.size(); i++) {
+			Allocation<T> allocation = this.allocations.get(i);
+			allocation.index = i;
+			if (allocation.offset != offset) {
+				int from = allocation.offset;
+				allocation.offset = offset;
+				mover.move(allocation, from, offset);
+				moved += allocation.size;
+			}
+			offset += allocation.size;
+		}
+		this.freeCount = 0;
+		if (offset < this.capacity) {
+			this.insertFreeRange(0, offset, this.capacity - offset);
+		}
+		return (moved);
+	}
+
+	/** free every allocations */
+	public final void clear() {
+		for (Allocation<T> allocation : this.allocations) {
+			allocation.index = -1;
+		}
+		this.allocations.clear();
+		this.used = 0;
+		this.freeCount = 0;
+		this.insertFreeRange(0, 0, this.capacity);
+	}
+
+	/** index of the first free range starting after the given offset */
+	private final int findFreeRange(int offset) {
+		int min = 0;
+		int max = this.freeCount;
+		while (min < max) {
+			int mid = (min + max) >>> 1;
+			if (this.freeOffsets[mid] < offset) {
+				min = mid + 1;
+			} else {
+				max = mid;
+			}
+		}
+		return (min);
+	}
+
+	private final void insertFreeRange(int i, int offset, int size) {
+		if (this.freeCount == this.freeOffsets.length) {
+			int[] offsets = new int[this.freeCount * 2];
+			int[] sizes = new int[this.freeCount * 2];
+			System.arraycopy(this.freeOffsets, 0, offsets, 0, this.freeCount);
+			System.arraycopy(this.freeSizes, 0, sizes, 0, this.freeCount);
+			this.freeOffsets = offsets;
+			this.freeSizes = sizes;
+		}
+		System.arraycopy(this.freeOffsets, i, this.freeOffsets, i + 1, this.freeCount - i);
+		System.arraycopy(this.freeSizes, i, this.freeSizes, i + 1, this.freeCount - i);
+		this.freeOffsets[i] = offset;
+		this.freeSizes[i] = size;
+		++this.freeCount;
+	}
+
+	private final void removeFreeRange(int i) {
+		System.arraycopy(this.freeOffsets, i + 1, this.freeOffsets, i, this.freeCount - i - 1);
+		System.arraycopy(this.freeSizes, i + 1, this.freeSizes, i, this.freeCount - i - 1);
+		--this.freeCount;
+	}
+
+	/** size of the whole range */
+	public final int getCapacity() {
+		return (this.capacity);
+	}
+
+	/** allocated size */
+	public final int getUsed() {
+		return (this.used);
+	}
+
+	/** free size (in every free ranges) */
+	public final int getFree() {
+		return (this.capacity - this.used);
+	}
+
+	/** size of the largest free range (the largest possible allocation) */
+	public final int getLargestFree() {
+		int largest = 0;
+		for (int i = 0; i < this.freeCount; i++) {
+			largest = Math.max(largest, this.freeSizes[i]);
+		}
+		return (largest);
+	}
+
+	/** number of free ranges */
+	public final int getFreeRangeCount() {
+		return (this.freeCount);
+	}
+
+	/** number of allocations */
+	public final int getAllocationCount() {
+		return (this.allocations.size());
+	}
+
+	/**
+	 * fragmentation of the free space: 0 if it is a single range, toward 1 as
+	 * it is split in small ranges
+	 */
+	public final float getFragmentation() {
+		int free = this.getFree();
+		if (free == 0) {
+			return (0.0f);
+		}
+		return (1.0f - this.getLargestFree() / (float) free);
+	}
+}
@@ -0,0 +1,201 @@
+package com.grillecube.client.renderer.world;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.grillecube.client.renderer.world.TerrainBufferAllocator.Allocation;
+
+import junit.framework.Assert;
+
+public class TerrainBufferAllocatorTests {
+
+	public TerrainBufferAllocatorTests() {
+
+	}
+
+	@Test
+	public void testAllocate() {
+		TerrainBufferAllocator<String> allocator = new TerrainBufferAllocator<String>(100);
+		Allocation<String> a = allocator.allocate(30, "a");
+		Allocation<String> b = allocator.allocate(70, "b");
+		Assert.assertEquals(0, a.getOffset());
+		Assert.assertEquals(30, b.getOffset());
+		Assert.assertEquals("b", b.getValue());
+		Assert.assertEquals(100, allocator.getUsed());
+		Assert.assertEquals(0, allocator.getFree());
+		Assert.assertEquals(0, allocator.getFreeRangeCount());
+		Assert.assertNull(allocator.allocate(1, "c"));
+	}
+
+	@Test
+	public void testFreeMerge() {
+		TerrainBufferAllocator<String> allocator = new TerrainBufferAllocator<String>(100);
+		Allocation<String> a = allocator.allocate(10, "a");
+		Allocation<String> b = allocator.allocate(10, "b");
+		Allocation<String> c = allocator.allocate(10, "c");
+		Allocation<String> d = allocator.allocate(10, "d");
+
+		// free range in the middle
+		allocator.free(b);
+		Assert.assertFalse(b.isAllocated());
+		Assert.assertEquals(2, allocator.getFreeRangeCount());
+		Assert.assertEquals(60, allocator.getLargestFree());
+
+		// merged with the previous range
+		allocator.free(c);
+		Assert.assertEquals(2, allocator.getFreeRangeCount());
+		Allocation<String> e = allocator.allocate(20, "e");
+		Assert.assertEquals(10, e.getOffset());
+		allocator.free(e);
+		Assert.assertEquals(2, allocator.getFreeRangeCount());
+
+		// merged with the next range
+		allocator.free(a);
+		Assert.assertEquals(2, allocator.getFreeRangeCount());
+
+		// merged with both
+		allocator.free(d);
+		Assert.assertEquals(1, allocator.getFreeRangeCount());
+		Assert.assertEquals(100, allocator.getLargestFree());
+		Assert.assertEquals(0, allocator.getUsed());
+		Assert.assertEquals(0, allocator.getAllocationCount());
+	}
+
+	@Test
+	public void testFirstFit() {
+		TerrainBufferAllocator<String> allocator = new TerrainBufferAllocator<String>(100);
+		Allocation<String> a = allocator.allocate(20, "a");
+		allocator.allocate(20, "b");
+		Allocation<String> c = allocator.allocate(40, "c");
+		allocator.allocate(20, "d");
+		allocator.free(a);
+		allocator.free(c);
+
+		// too large for the first range
+		Allocation<String> e = allocator.allocate(30, "e");
+		Assert.assertEquals(40, e.getOffset());
+
+		// fits in the first range
+		Allocation<String> f = allocator.allocate(15, "f");
+		Assert.assertEquals(0, f.getOffset());
+
+		// uses the rest of the second range
+		Allocation<String> g = allocator.allocate(10, "g");
+		Assert.assertEquals(70, g.getOffset());
+		Assert.assertEquals(5, allocator.getFree());
+	}
+
+	@Test
+	public void testFragmentation() {
+		TerrainBufferAllocator<String> allocator = new TerrainBufferAllocator<String>(100);
+		Assert.assertEquals(0.0f, allocator.getFragmentation(), 0.0f);
+
+		ArrayList<Allocation<String>> allocations = new ArrayList<Allocation<String>>();
+		for (int i = 0; i < 10; i++) {
+			allocations.add(allocator.allocate(10, "a" + i));
+		}
+		Assert.assertEquals(0.0f, allocator.getFragmentation(), 0.0f);
+
+		// 5 free ranges of 10
+		for (int i = 0; i < 10; i += 2) {
+			allocator.free(allocations.get(i));
+		}
+		Assert.assertEquals(50, allocator.getFree());
+		Assert.assertEquals(10, allocator.getLargestFree());
+		Assert.assertEquals(0.8f, allocator.getFragmentation(), 0.0001f);
+		Assert.assertNull(allocator.allocate(20, "b"));
+	}
+
+	@Test
+	public void testCompact() {
+		TerrainBufferAllocator<String> allocator = new TerrainBufferAllocator<String>(100);
+		ArrayList<Allocation<String>> allocations = new ArrayList<Allocation<String>>();
+		for (int i = 0; i < 10; i++) {
+			allocations.add(allocator.allocate(10, "a" + i));
+		}
+		for (int i = 0; i < 10; i += 2) {
+			allocator.free(allocations.get(i));
+		}
+
+		final int[] moves = new int[1];
+		int moved = allocator.compact(new TerrainBufferAllocator.Mover<String>() {
+			@Override
+			public void move(Allocation<String> allocation, int from, int to) {
+				Assert.assertTrue(to < from);
+				Assert.assertEquals(to, allocation.getOffset());
+				++moves[0];
+			}
+		});
+		Assert.assertEquals(5, moves[0]);
+		Assert.assertEquals(50, moved);
+		Assert.assertEquals(1, allocator.getFreeRangeCount());
+		Assert.assertEquals(0.0f, allocator.getFragmentation(), 0.0f);
+
+		// the allocations keep their order, and are contiguous
+		for (int i = 1; i < 10; i += 2) {
+			Assert.assertEquals((i / 2) * 10, allocations.get(i).getOffset());
+		}
+
+		// the allocations can still be freed
+		Allocation<String> a = allocator.allocate(50, "b");
+		Assert.assertEquals(50, a.getOffset());
+		for (int i = 1; i < 10; i += 2) {
+			allocator.free(allocations.get(i));
+		}
+		allocator.free(a);
+		Assert.assertEquals(100, allocator.getLargestFree());
+	}
+
+	@Test
+	public void testRandom() {
+		TerrainBufferAllocator<Integer> allocator = new TerrainBufferAllocator<Integer>(4096);
+		ArrayList<Allocation<Integer>> allocations = new ArrayList<Allocation<Integer>>();
+		Random random = new Random(42);
+		boolean[] owned = new boolean[4096];
+		for (int i = 0; i < 10000; i++) {
+			if (allocations.size() > 0 && random.nextInt(3) == 0) {
+				Allocation<Integer> allocation = allocations.remove(random.nextInt(allocations.size()));
+				for (int j = 0; j < allocation.getSize(); j++) {
+					owned[allocation.getOffset() + j] = false;
+				}
+				allocator.free(allocation);
+			} else {
+				Allocation<Integer> allocation = allocator.allocate(1 + random.nextInt(64), i);
+				if (allocation == null) {
+					continue;
+				}
+				// allocations should never overlap
+				for (int j = 0; j < allocation.getSize(); j++) {
+					Assert.assertFalse(owned[allocation.getOffset() + j]);
+					owned[allocation.getOffset() + j] = true;
+				}
+				allocations.add(allocation);
+			}
+
+			int used = 0;
+			for (Allocation<Integer> allocation : allocations) {
+				used += allocation.getSize();
+			}
+			Assert.assertEquals(used, allocator.getUsed());
+		}
+		for (Allocation<Integer> allocation : allocations) {
+			allocator.free(allocation);
+		}
+		Assert.assertEquals(1, allocator.getFreeRangeCount());
+		Assert.assertEquals(4096, allocator.getLargestFree());
+	}
+
+	@Test
+	public void testDoubleFree() {
+		TerrainBufferAllocator<String> allocator = new TerrainBufferAllocator<String>(100);
+		Allocation<String> a = allocator.allocate(10, "a");
+		allocator.free(a);
+		try {
+			allocator.free(a);
+			Assert.fail("freeing twice should throw");
+		} catch (IllegalArgumentException e) {
+		}
+	}
+}
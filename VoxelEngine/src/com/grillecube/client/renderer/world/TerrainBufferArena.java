@@ -0,0 +1,279 @@
+package com.grillecube.client.renderer.world;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+
+import org.lwjgl.BufferUtils;
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL13;
+import org.lwjgl.opengl.GL14;
+import org.lwjgl.opengl.GL15;
+import org.lwjgl.opengl.GL30;
+import org.lwjgl.opengl.GL31;
+
+import com.grillecube.client.opengl.GLH;
+import com.grillecube.client.opengl.GLTexture;
+import com.grillecube.client.opengl.GLVertexArray;
+import com.grillecube.client.opengl.GLVertexBuffer;
+import com.grillecube.client.renderer.world.TerrainBufferAllocator.Allocation;
+import com.grillecube.common.maths.Vector3f;
+
+/**
+ * A large vertex buffer holding the opaque meshes of many terrains, in the
+ * compact layout ({@link TerrainPackedVertex}), drawn with a single
+ * glMultiDrawArrays() call.
+ *
+ * The buffer is split in blocks of {@link #BLOCK_VERTICES} vertices, given to
+ * the meshes by a {@link TerrainBufferAllocator}. As the meshes cannot have
+ * their own transformation matrix anymore, the world position of the terrain
+ * owning each block is stored in a texture buffer, read by
+ * 'shaders/terrain_arena.vs' using gl_VertexID / {@link #BLOCK_VERTICES}.
+ */
+public class TerrainBufferArena {
+
+	/** number of vertices per block (should match 'shaders/terrain_arena.vs') */
+	public static final int BLOCK_VERTICES = 64;
+
+	/** bytes per block */
+	public static final int BLOCK_BYTES = BLOCK_VERTICES * TerrainPackedVertex.BYTES_PER_VERTEX;
+
+	/** bytes per block in the offsets buffer (a vec4) */
+	private static final int OFFSET_BYTES = 4 * 4;
+
+	/** texture unit of the offsets texture buffer */
+	public static final int OFFSETS_TEXTURE_UNIT = 2;
+
+	/** block allocator */
+	private final TerrainBufferAllocator<TerrainMesh> allocator;
+
+	/** vertices */
+	private GLVertexArray vao;
+	private GLVertexBuffer vbo;
+
+	/** terrain world position of each block */
+	private GLVertexBuffer offsets;
+	private GLTexture offsetsTexture;
+	private ByteBuffer offsetsData;
+
+	/** queued draws */
+	private IntBuffer firsts;
+	private IntBuffer counts;
+
+	/** number of blocks moved by the compactions */
+	private long compactedBlocks;
+
+	/**
+	 * @param capacity
+	 *            : number of blocks of the arena
+	 */
+	public TerrainBufferArena(int capacity) {
+		this.allocator = new TerrainBufferAllocator<TerrainMesh>(capacity);
+		this.offsetsData = BufferUtils.createByteBuffer(OFFSET_BYTES * 16);
+		this.firsts = BufferUtils.createIntBuffer(256);
+		this.counts = BufferUtils.createIntBuffer(256);
+		this.compactedBlocks = 0;
+	}
+
+	/** create the gl objects (gl thread) */
+	public final void initialize() {
+		this.vao = GLH.glhGenVAO();
+		this.vbo = GLH.glhGenVBO();
+		this.vbo.bind(GL15.GL_ARRAY_BUFFER);
+		this.vbo.bufferSize(GL15.GL_ARRAY_BUFFER, this.getCapacityBytes(), GL15.GL_STATIC_DRAW);
+		this.setAttributes();
+
+		this.offsets = GLH.glhGenVBO();
+		this.offsets.bind(GL31.GL_TEXTURE_BUFFER);
+		this.offsets.bufferSize(GL31.GL_TEXTURE_BUFFER, (long) this.allocator.getCapacity() * OFFSET_BYTES,
+				GL15.GL_DYNAMIC_DRAW);
+		this.offsetsTexture = GLH.glhGenTexture();
+		this.offsetsTexture.bind(GL31.GL_TEXTURE_BUFFER);
+		GL31.glTexBuffer(GL31.GL_TEXTURE_BUFFER, GL30.GL_RGBA32F, this.offsets.getGLID());
+		this.offsetsTexture.unbind(GL31.GL_TEXTURE_BUFFER);
+	}
+
+	private final void setAttributes() {
+		this.vao.bind();
+		this.vbo.bind(GL15.GL_ARRAY_BUFFER);
+		this.vao.setAttributei(0, 3, GL11.GL_INT, TerrainPackedVertex.BYTES_PER_VERTEX, 0);
+		this.vao.enableAttribute(0);
+	}
+
+	/** delete the gl objects (gl thread) */
+	public final void delete() {
+		GLH.glhDeleteObject(this.vao);
+		GLH.glhDeleteObject(this.vbo);
+		GLH.glhDeleteObject(this.offsets);
+		GLH.glhDeleteObject(this.offsetsTexture);
+		this.vao = null;
+		this.vbo = null;
+		this.offsets = null;
+		this.offsetsTexture = null;
+		this.allocator.clear();
+	}
+
+	public final boolean isInitialized() {
+		return (this.vao != null);
+	}
+
+	/**
+	 * store the vertices of a mesh in the arena (gl thread)
+	 *
+	 * @param mesh
+	 *            : the mesh
+	 * @param vertices
+	 *            : the packed vertices
+	 * @return the allocation, or null if the arena has no free range large
+	 *         enough
+	 */
+	public final Allocation<TerrainMesh> allocate(TerrainMesh mesh, ByteBuffer vertices) {
+		int blocks = getBlockCount(vertices.remaining() / TerrainPackedVertex.BYTES_PER_VERTEX);
+		Allocation<TerrainMesh> allocation = this.allocator.allocate(blocks, mesh);
+		if (allocation == null) {
+			return (null);
+		}
+		if (!this.isInitialized()) {
+			this.initialize();
+		}
+		this.vbo.bind(GL15.GL_ARRAY_BUFFER);
+		this.vbo.bufferSubData(GL15.GL_ARRAY_BUFFER, (long) allocation.getOffset() * BLOCK_BYTES, vertices);
+		this.updateOffsets(allocation);
+		return (allocation);
+	}
+
+	/** give the blocks of an allocation back to the arena */
+	public final void free(Allocation<TerrainMesh> allocation) {
+		this.allocator.free(allocation);
+	}
+
+	/** write the terrain position of the blocks of an allocation */
+	private final void updateOffsets(Allocation<TerrainMesh> allocation) {
+		int bytes = allocation.getSize() * OFFSET_BYTES;
+		if (this.offsetsData.capacity() < bytes) {
+			this.offsetsData = BufferUtils.createByteBuffer(Math.max(bytes, this.offsetsData.capacity() * 2));
+		}
+		Vector3f position = allocation.getValue().getTerrain().getWorldPosition();
+		this.offsetsData.clear();
+		for (int i = 0; i < allocation.getSize(); i++) {
+			this.offsetsData.putFloat(position.x);
+			this.offsetsData.putFloat(position.y);
+			this.offsetsData.putFloat(position.z);
+			this.offsetsData.putFloat(0.0f);
+		}
+		this.offsetsData.flip();
+		this.offsets.bind(GL31.GL_TEXTURE_BUFFER);
+		this.offsets.bufferSubData(GL31.GL_TEXTURE_BUFFER, (long) allocation.getOffset() * OFFSET_BYTES,
+				this.offsetsData);
+	}
+
+	/**
+	 * move every mesh to the start of the arena, so the free space is a single
+	 * range. The vertices are copied to a new buffer, as the moved ranges can
+	 * overlap. (gl thread)
+	 */
+	public final void compact() {
+		if (!this.isInitialized()) {
+			this.allocator.compact(new TerrainBufferAllocator.Mover<TerrainMesh>() {
+				@Override
+				public void move(Allocation<TerrainMesh> allocation, int from, int to) {
+				}
+			});
+			return;
+		}
+
+		final GLVertexBuffer src = this.vbo;
+		final GLVertexBuffer dst = GLH.glhGenVBO();
+		dst.bind(GL15.GL_ARRAY_BUFFER);
+		dst.bufferSize(GL15.GL_ARRAY_BUFFER, this.getCapacityBytes(), GL15.GL_STATIC_DRAW);
+		src.bind(GL31.GL_COPY_READ_BUFFER);
+		dst.bind(GL31.GL_COPY_WRITE_BUFFER);
+
+		// copy the moved allocations at their new offset. Once an allocation
+		// moved, every next one moves too: the first ones are copied in a single
+		// call
+		final int[] firstMove = { -1 };
+		int moved = this.allocator.compact(new TerrainBufferAllocator.Mover<TerrainMesh>() {
+			@Override
+			public void move(Allocation<TerrainMesh> allocation, int from, int to) {
+				if (firstMove[0] < 0) {
+					firstMove[0] = to;
+				}
+				GL31.glCopyBufferSubData(GL31.GL_COPY_READ_BUFFER, GL31.GL_COPY_WRITE_BUFFER, (long) from * BLOCK_BYTES,
+						(long) to * BLOCK_BYTES, (long) allocation.getSize() * BLOCK_BYTES);
+				updateOffsets(allocation);
+			}
+		});
+		int unmoved = firstMove[0] < 0 ? this.allocator.getUsed() : firstMove[0];
+		if (unmoved > 0) {
+			GL31.glCopyBufferSubData(GL31.GL_COPY_READ_BUFFER, GL31.GL_COPY_WRITE_BUFFER, 0, 0,
+					(long) unmoved * BLOCK_BYTES);
+		}
+
+		this.vbo = dst;
+		GLH.glhDeleteObject(src);
+		this.setAttributes();
+		this.compactedBlocks += moved;
+	}
+
+	/** queue a draw of the given mesh (which should be stored in this arena) */
+	public final void addDraw(TerrainMesh mesh) {
+		if (!this.firsts.hasRemaining()) {
+			this.firsts = grow(this.firsts);
+			this.counts = grow(this.counts);
+		}
+		this.firsts.put(mesh.getArenaAllocation().getOffset() * BLOCK_VERTICES);
+		this.counts.put(mesh.getVertexCount());
+	}
+
+	private static final IntBuffer grow(IntBuffer buffer) {
+		IntBuffer grown = BufferUtils.createIntBuffer(buffer.capacity() * 2);
+		buffer.flip();
+		grown.put(buffer);
+		return (grown);
+	}
+
+	/**
+	 * draw the queued meshes with a single call, and clear the queue (the
+	 * terrain program should be in use)
+	 *
+	 * @return true if something was drawn
+	 */
+	public final boolean draw() {
+		if (this.firsts.position() == 0) {
+			return (false);
+		}
+		this.firsts.flip();
+		this.counts.flip();
+		this.vao.bind();
+		this.offsetsTexture.bind(GL13.GL_TEXTURE0 + OFFSETS_TEXTURE_UNIT, GL31.GL_TEXTURE_BUFFER);
+		GL14.glMultiDrawArrays(GL11.GL_TRIANGLES, this.firsts, this.counts);
+		this.firsts.clear();
+		this.counts.clear();
+		return (true);
+	}
+
+	/** number of blocks needed to hold the given number of vertices */
+	public static final int getBlockCount(int vertices) {
+		return ((vertices + BLOCK_VERTICES - 1) / BLOCK_VERTICES);
+	}
+
+	/** the block allocator (for the metrics) */
+	public final TerrainBufferAllocator<TerrainMesh> getAllocator() {
+		return (this.allocator);
+	}
+
+	/** size of the vertex buffer */
+	public final long getCapacityBytes() {
+		return ((long) this.allocator.getCapacity() * BLOCK_BYTES);
+	}
+
+	/** bytes of the vertex buffer holding meshes */
+	public final long getResidentBytes() {
+		return ((long) this.allocator.getUsed() * BLOCK_BYTES);
+	}
+
+	/** number of blocks moved by the compactions */
+	public final long getCompactedBlocks() {
+		return (this.compactedBlocks);
+	}
+}
@@ -0,0 +1,177 @@
+package com.grillecube.client.renderer.world;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+
+import com.grillecube.client.renderer.world.TerrainBufferAllocator.Allocation;
+import com.grillecube.common.Logger;
+
+/**
+ * The arenas holding the opaque terrain meshes (see
+ * {@link TerrainBufferArena}).
+ *
+ * A mesh goes in the first arena with a free range large enough. If none has
+ * one, the arena with the most free blocks is compacted if it can then hold
+ * the mesh, else a new arena is created. Empty arenas (but the first one) are
+ * deleted.
+ *
+ * Every function should be called from the gl thread.
+ */
+public class TerrainBufferArenas {
+
+	/** default number of blocks per arena (12 MB of vertices) */
+	public static final int DEFAULT_ARENA_CAPACITY = 16384;
+
+	/** the arenas */
+	private final ArrayList<TerrainBufferArena> arenas;
+
+	/** number of blocks per arena */
+	private final int arenaCapacity;
+
+	/** number of multi draw calls done by the last {@link #draw()} */
+	private int drawCalls;
+
+	public TerrainBufferArenas() {
+		this(DEFAULT_ARENA_CAPACITY);
+	}
+
+	public TerrainBufferArenas(int arenaCapacity) {
+		this.arenas = new ArrayList<TerrainBufferArena>();
+		this.arenaCapacity = arenaCapacity;
+	}
+
+	/**
+	 * store the vertices of a mesh in an arena
+	 *
+	 * @return the allocation, or null if the mesh is larger than an arena
+	 */
+	public final Allocation<TerrainMesh> allocate(TerrainMesh mesh, ByteBuffer vertices) {
+		int blocks = TerrainBufferArena.getBlockCount(vertices.remaining() / TerrainPackedVertex.BYTES_PER_VERTEX);
+		if (blocks > this.arenaCapacity) {
+			return (null);
+		}
+
+		TerrainBufferArena mostFree = null;
+		for (TerrainBufferArena arena : this.arenas) {
+			Allocation<TerrainMesh> allocation = arena.allocate(mesh, vertices);
+			if (allocation != null) {
+				mesh.setArena(arena, allocation);
+				return (allocation);
+			}
+			if (mostFree == null || arena.getAllocator().getFree() > mostFree.getAllocator().getFree()) {
+				mostFree = arena;
+			}
+		}
+
+		// the free space is too fragmented: compact it
+		TerrainBufferArena arena = mostFree;
+		if (arena != null && arena.getAllocator().getFree() >= blocks) {
+			Logger.get().log(Logger.Level.DEBUG, "compacting terrain arena, fragmentation: "
+					+ arena.getAllocator().getFragmentation());
+			arena.compact();
+		} else {
+			arena = new TerrainBufferArena(this.arenaCapacity);
+			this.arenas.add(arena);
+		}
+		Allocation<TerrainMesh> allocation = arena.allocate(mesh, vertices);
+		mesh.setArena(arena, allocation);
+		return (allocation);
+	}
+
+	/** free the arena blocks of a mesh */
+	public final void free(TerrainBufferArena arena, Allocation<TerrainMesh> allocation) {
+		arena.free(allocation);
+		if (arena.getAllocator().getAllocationCount() == 0 && this.arenas.size() > 1) {
+			this.arenas.remove(arena);
+			arena.delete();
+		}
+	}
+
+	/** queue the draw of a mesh stored in an arena */
+	public final void addDraw(TerrainMesh mesh) {
+		mesh.getArena().addDraw(mesh);
+	}
+
+	/** draw the queued meshes, one multi draw call per arena */
+	public final void draw() {
+		for (TerrainBufferArena arena : this.arenas) {
+			if (arena.draw()) {
+				++this.drawCalls;
+			}
+		}
+	}
+
+	/** delete every arenas */
+	public final void delete() {
+		for (TerrainBufferArena arena : this.arenas) {
+			arena.delete();
+		}
+		this.arenas.clear();
+	}
+
+	/** reset the draw call counter (at the start of a frame) */
+	public final void resetDrawCalls() {
+		this.drawCalls = 0;
+	}
+
+	/** number of multi draw calls since the last {@link #resetDrawCalls()} */
+	public final int getDrawCalls() {
+		return (this.drawCalls);
+	}
+
+	/** number of arenas */
+	public final int getArenaCount() {
+		return (this.arenas.size());
+	}
+
+	/** number of meshes stored in the arenas */
+	public final int getMeshCount() {
+		int count = 0;
+		for (TerrainBufferArena arena : this.arenas) {
+			count += arena.getAllocator().getAllocationCount();
+		}
+		return (count);
+	}
+
+	/** size of the arenas vertex buffers */
+	public final long getCapacityBytes() {
+		long bytes = 0;
+		for (TerrainBufferArena arena : this.arenas) {
+			bytes += arena.getCapacityBytes();
+		}
+		return (bytes);
+	}
+
+	/** bytes of the arenas holding meshes */
+	public final long getResidentBytes() {
+		long bytes = 0;
+		for (TerrainBufferArena arena : this.arenas) {
+			bytes += arena.getResidentBytes();
+		}
+		return (bytes);
+	}
+
+	/**
+	 * fragmentation of the free space of the arenas (weighted by their free
+	 * space, see {@link TerrainBufferAllocator#getFragmentation()})
+	 */
+	public final float getFragmentation() {
+		long free = 0;
+		float fragmentation = 0.0f;
+		for (TerrainBufferArena arena : this.arenas) {
+			TerrainBufferAllocator<TerrainMesh> allocator = arena.getAllocator();
+			free += allocator.getFree();
+			fragmentation += allocator.getFragmentation() * allocator.getFree();
+		}
+		return (free == 0 ? 0.0f : fragmentation / free);
+	}
+
+	/** number of blocks moved by the compactions */
+	public final long getCompactedBlocks() {
+		long blocks = 0;
+		for (TerrainBufferArena arena : this.arenas) {
+			blocks += arena.getCompactedBlocks();
+		}
+		return (blocks);
+	}
+}
@@ -21,6 +21,7 @@ import org.lwjgl.opengl.GL11;
 import com.grillecube.client.opengl.GLVertexArray;
 import com.grillecube.client.opengl.GLVertexBuffer;
 import com.grillecube.client.renderer.Mesh;
+import com.grillecube.client.renderer.world.TerrainBufferAllocator.Allocation;
 import com.grillecube.common.world.terrain.WorldObjectTerrain;
 
 public class TerrainMesh extends Mesh {
@@ -34,12 +35,21 @@ public class TerrainMesh extends Mesh {
 	private final WorldObjectTerrain terrain;
 	private boolean cull;
 
+	/** true if the vertices use the compact layout ({@link TerrainPackedVertex}) */
+	private boolean packed;
+
+	/** the arena holding the vertices, if any (see {@link TerrainBufferArena}) */
+	private TerrainBufferArenas arenas;
+	private TerrainBufferArena arena;
+	private Allocation<TerrainMesh> allocation;
+
 	public TerrainMesh(WorldObjectTerrain terrain) {
 		super();
 		this.terrain = terrain;
 		super.getPosition().set(this.terrain.getWorldPosition());
 		super.updateTransformationMatrix();
 		this.cull = false;
+		this.packed = false;
 	}
 
 	/** return true if this terrain can be gl-culled (GL_BACK_FACE_CULLING) */
@@ -76,6 +86,13 @@ public class TerrainMesh extends Mesh {
 
 	@Override
 	protected void setAttributes(GLVertexArray vao, GLVertexBuffer vbo) {
+		if (this.packed) {
+			// position, texture, light
+			vao.setAttributei(0, 3, GL11.GL_INT, TerrainPackedVertex.BYTES_PER_VERTEX, 0);
+			vao.enableAttribute(0);
+			return;
+		}
+
 		vao.setAttribute(0, 3, GL11.GL_FLOAT, false, BYTES_PER_VERTEX, 0); // xyz
 		vao.setAttribute(1, 3, GL11.GL_FLOAT, false, BYTES_PER_VERTEX, 3 * 4); // normal
 		vao.setAttribute(2, 4, GL11.GL_FLOAT, false, BYTES_PER_VERTEX, (3 + 3) * 4); // tx
@@ -92,6 +109,80 @@ public class TerrainMesh extends Mesh {
 	}
 
 	public void setVertices(ByteBuffer buffer) {
-		super.setVertices(buffer, BYTES_PER_VERTEX);
+		this.setVertices(buffer, false);
+	}
+
+	/** set the vertices, using the compact layout or not */
+	public void setVertices(ByteBuffer buffer, boolean packed) {
+		this.freeArena();
+		if (packed != this.packed && this.isInitialized()) {
+			// vertex attributes have to be set again
+			this.deinitialize();
+		}
+		this.packed = packed;
+		super.setVertices(buffer, packed ? TerrainPackedVertex.BYTES_PER_VERTEX : BYTES_PER_VERTEX);
+	}
+
+	/**
+	 * set the vertices (in the compact layout), and store them in an arena
+	 * instead of the mesh own vertex buffer if they fit
+	 */
+	public void setArenaVertices(TerrainBufferArenas arenas, ByteBuffer buffer) {
+		this.freeArena();
+		if (buffer == null || buffer.remaining() == 0) {
+			this.setVertices(buffer, true);
+			return;
+		}
+		if (this.isInitialized()) {
+			this.deinitialize();
+		}
+		if (arenas.allocate(this, buffer) == null) {
+			this.setVertices(buffer, true);
+			return;
+		}
+		this.arenas = arenas;
+		this.packed = true;
+		this.setVertexCount(buffer.remaining() / TerrainPackedVertex.BYTES_PER_VERTEX);
+	}
+
+	/** called by the arenas once the vertices are stored */
+	final void setArena(TerrainBufferArena arena, Allocation<TerrainMesh> allocation) {
+		this.arena = arena;
+		this.allocation = allocation;
+	}
+
+	/** free the arena blocks holding the vertices, if any */
+	private final void freeArena() {
+		if (this.allocation == null) {
+			return;
+		}
+		this.arenas.free(this.arena, this.allocation);
+		this.arenas = null;
+		this.arena = null;
+		this.allocation = null;
+		this.setVertexCount(0);
+	}
+
+	@Override
+	protected void onDeinitialized() {
+		this.freeArena();
+	}
+
+	/** true if the vertices are stored in an arena */
+	public final boolean isInArena() {
+		return (this.allocation != null);
+	}
+
+	public final TerrainBufferArena getArena() {
+		return (this.arena);
+	}
+
+	public final Allocation<TerrainMesh> getArenaAllocation() {
+		return (this.allocation);
+	}
+
+	/** true if the vertices use the compact layout */
+	public final boolean isPacked() {
+		return (this.packed);
 	}
 }
\ No newline at end of file
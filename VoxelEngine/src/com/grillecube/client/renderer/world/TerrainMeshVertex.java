@@ -83,6 +83,11 @@ public class TerrainMeshVertex extends MeshVertex {
 		buffer.putInt((int) this.durability);
 	}
 
+	/** store this vertex using the compact layout (see {@link TerrainPackedVertex}) */
+	public final void storePacked(ByteBuffer buffer) {
+		TerrainPackedVertex.store(this, buffer);
+	}
+
 	@Override
 	public MeshVertex clone() {
 		return (new TerrainMeshVertex(this.posx, this.posy, this.posz, this.normalx, this.normaly, this.normalz,
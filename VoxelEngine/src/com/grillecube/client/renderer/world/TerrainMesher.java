@@ -24,27 +24,140 @@ import com.grillecube.client.resources.BlockRendererManager;
 import com.grillecube.common.faces.Face;
 import com.grillecube.common.world.block.Block;
 import com.grillecube.common.world.block.Blocks;
+import com.grillecube.common.world.terrain.TerrainBlockStorage;
 import com.grillecube.common.world.terrain.WorldObjectTerrain;
 
 /** an object which is used to generate terrain meshes dynamically */
 public abstract class TerrainMesher {
 
+	/** maximum number of buffers kept in the pool */
+	private static final int MAX_POOLED_BUFFERS = 32;
+
+	/** minimum capacity of a pooled buffer */
+	private static final int MIN_BUFFER_CAPACITY = 64 * 1024;
+
+	/** vertex buffers which can be reused */
+	private static final ArrayList<ByteBuffer> BUFFERS_POOL = new ArrayList<ByteBuffer>();
+
+	/** true if vertices are stored using the compact layout */
+	private volatile boolean packedVertices;
+
 	/** number of block is need to know how to calculate UVs */
 	public TerrainMesher() {
 	}
 
+	/**
+	 * build the vertices of the terrain, ready to be uploaded (this doesnt need
+	 * the gl context). vertices[0] receives the opaque vertices, vertices[1] the
+	 * transparent ones, using the compact layout if 'packed' is true. Once
+	 * uploaded, they can be given back with {@link #releaseBuffer(ByteBuffer)}
+	 */
+	public void buildVertices(WorldObjectTerrain terrain, ByteBuffer[] vertices, boolean packed) {
+		ArrayList<TerrainMeshTriangle> opaqueStack = new ArrayList<TerrainMeshTriangle>();
+		ArrayList<TerrainMeshTriangle> transparentStack = new ArrayList<TerrainMeshTriangle>();
+		this.fillVertexStacks(terrain, opaqueStack, transparentStack);
+		vertices[0] = this.getVertices(opaqueStack, packed);
+		vertices[1] = this.getVertices(transparentStack, packed);
+	}
+
+	/** get a cleared direct buffer of at least the given capacity from the pool */
+	public static final ByteBuffer acquireBuffer(int capacity) {
+		synchronized (BUFFERS_POOL) {
+			for (int i = BUFFERS_POOL.size() - 1; i >= 0; i--) {
+				if (BUFFERS_POOL.get(i).capacity() >= capacity) {
+					ByteBuffer buffer = BUFFERS_POOL.remove(i);
+					buffer.clear();
+					return (buffer);
+				}
+			}
+		}
+		int size = MIN_BUFFER_CAPACITY;
+		while (size < capacity) {
+			size <<= 1;
+		}
+		return (BufferUtils.createByteBuffer(size));
+	}
+
+	/** give a buffer back to the pool */
+	public static final void releaseBuffer(ByteBuffer buffer) {
+		if (buffer == null || !buffer.isDirect() || buffer.capacity() < MIN_BUFFER_CAPACITY) {
+			return;
+		}
+		synchronized (BUFFERS_POOL) {
+			if (BUFFERS_POOL.size() < MAX_POOLED_BUFFERS) {
+				BUFFERS_POOL.add(buffer);
+			}
+		}
+	}
+
+	/**
+	 * make sure the buffer can receive the given number of bytes: if not, its
+	 * content is copied into a larger buffer from the pool, and it is released
+	 */
+	public static final ByteBuffer ensureRemaining(ByteBuffer buffer, int bytes) {
+		if (buffer.remaining() >= bytes) {
+			return (buffer);
+		}
+		ByteBuffer larger = acquireBuffer(Math.max(buffer.capacity() * 2, buffer.position() + bytes));
+		buffer.flip();
+		larger.put(buffer);
+		releaseBuffer(buffer);
+		return (larger);
+	}
+
 	public final void pushVerticesToStacks(WorldObjectTerrain terrain, TerrainMesh opaqueMesh, TerrainMesh transparentMesh,
 			ArrayList<TerrainMeshTriangle> opaqueVertices, ArrayList<TerrainMeshTriangle> transparentVertices) {
 		this.fillVertexStacks(terrain, opaqueVertices, transparentVertices);
 	}
 
 	public final void setMeshVertices(TerrainMesh mesh, ArrayList<TerrainMeshTriangle> stack) {
-		ByteBuffer buffer = BufferUtils.createByteBuffer(stack.size() * 3 * TerrainMesh.BYTES_PER_VERTEX);
+		mesh.setVertices(this.getVertices(stack));
+	}
+
+	/**
+	 * store the triangles of the stack into a new buffer, ready to be uploaded
+	 * (this doesnt need the gl context)
+	 */
+	public final ByteBuffer getVertices(ArrayList<TerrainMeshTriangle> stack) {
+		return (this.getVertices(stack, this.packedVertices));
+	}
+
+	/** store the triangles of the stack into a new buffer, using the given layout */
+	public final ByteBuffer getVertices(ArrayList<TerrainMeshTriangle> stack, boolean packed) {
+		ByteBuffer buffer = BufferUtils.createByteBuffer(stack.size() * 3 * this.getBytesPerVertex(packed));
 		for (TerrainMeshTriangle triangle : stack) {
-			triangle.store(buffer);
+			this.storeVertex(triangle.v0, buffer, packed);
+			this.storeVertex(triangle.v1, buffer, packed);
+			this.storeVertex(triangle.v2, buffer, packed);
 		}
 		buffer.flip();
-		mesh.setVertices(buffer);
+		return (buffer);
+	}
+
+	/** store the vertex using the given layout */
+	protected final void storeVertex(TerrainMeshVertex vertex, ByteBuffer buffer, boolean packed) {
+		if (packed) {
+			vertex.storePacked(buffer);
+		} else {
+			vertex.store(buffer);
+		}
+	}
+
+	/** number of bytes per vertex for the given layout */
+	public final int getBytesPerVertex(boolean packed) {
+		return (packed ? TerrainPackedVertex.BYTES_PER_VERTEX : TerrainMesh.BYTES_PER_VERTEX);
+	}
+
+	/**
+	 * use the compact vertex layout ({@link TerrainPackedVertex}) for the next
+	 * built vertices
+	 */
+	public final void setPackedVertices(boolean packed) {
+		this.packedVertices = packed;
+	}
+
+	public final boolean isPackedVertices() {
+		return (this.packedVertices);
 	}
 
 	/**
@@ -61,7 +174,7 @@ public abstract class TerrainMesher {
 	protected final BlockFace[][][][] getFacesVisibility(WorldObjectTerrain terrain, ArrayList<TerrainMeshTriangle> opaqueStack,
 			ArrayList<TerrainMeshTriangle> transparentStack) {
 
-		short[] blocks = terrain.getRawBlocks();
+		TerrainBlockStorage blocks = terrain.getBlockStorage();
 
 		if (blocks == null) {
 			return (null);
@@ -74,7 +187,7 @@ public abstract class TerrainMesher {
 		for (int z = 0; z < WorldObjectTerrain.DIMZ; ++z) {
 			for (int y = 0; y < WorldObjectTerrain.DIMY; ++y) {
 				for (int x = 0; x < WorldObjectTerrain.DIMX; ++x) {
-					Block block = Blocks.getBlockByID(blocks[index]);
+					Block block = Blocks.getBlockByID(blocks.get(index));
 
 					if (block == null) {
 						continue;
@@ -0,0 +1,371 @@
+package com.grillecube.client.renderer.world;
+
+import java.util.ArrayList;
+
+import com.grillecube.client.renderer.blocks.BlockRenderer;
+import com.grillecube.client.renderer.blocks.BlockRendererCube;
+import com.grillecube.client.resources.BlockRendererManager;
+import com.grillecube.common.faces.Face;
+import com.grillecube.common.maths.Vector3i;
+import com.grillecube.common.world.block.Block;
+import com.grillecube.common.world.block.Blocks;
+import com.grillecube.common.world.terrain.TerrainBlockStorage;
+import com.grillecube.common.world.terrain.WorldObjectTerrain;
+
+/**
+ * A greedy mesher working on packed face masks.
+ *
+ * The terrain and the border of its neighbors are first copied into a padded
+ * volume. Then, for each face direction and each slice of the terrain, the
+ * visible faces are packed into a mask of long keys (texture, durability and
+ * the light / ambiant occlusion of the 4 vertices), and equal keys are merged
+ * into quads, which are written straight into a pooled vertex buffer.
+ *
+ * Every scratch array is allocated once per mesher thread, so meshing a
+ * terrain barely allocates anything. Non cubic blocks are still generated by
+ * their {@link BlockRenderer}.
+ */
+public class TerrainMesherGreedyMask extends TerrainMesherMask<TerrainMesherGreedyMask.Scratch> {
+
+	/** padded volume dimensions (1 block of neighbor on each side) */
+	private static final int PX = WorldObjectTerrain.DIMX + 2;
+	private static final int PY = WorldObjectTerrain.DIMY + 2;
+	private static final int PZ = WorldObjectTerrain.DIMZ + 2;
+
+	/** terrain dimensions, by axis */
+	private static final int[] DIMS = { WorldObjectTerrain.DIMX, WorldObjectTerrain.DIMY, WorldObjectTerrain.DIMZ };
+
+	/** padded cell flags */
+	private static final byte FLAG_VISIBLE = 1 << 0;
+	private static final byte FLAG_OPAQUE = 1 << 1; // visible and not transparent
+
+	/**
+	 * face key layout: 4 x 9 bits of vertex light (7 bits: sun + block light of
+	 * the 3 neighbors, 2 bits: ambiant occlusion level), 12 bits of texture, 4
+	 * bits of durability, the transparent bit, and the visible bit (so 0 is no
+	 * face)
+	 */
+	private static final int KEY_VERTEX_BITS = 9;
+	private static final int KEY_AO_SHIFT = 7;
+	private static final int KEY_TEXTURE_SHIFT = 36;
+	private static final int KEY_DURABILITY_SHIFT = 48;
+	private static final long KEY_TRANSPARENT = 1L << 52;
+	private static final long KEY_VISIBLE = 1L << 53;
+
+	/** padded index offset of the face neighbor, and of the vertices neighbors */
+	private static final int[] FACES_OFFSET = new int[Face.faces.length];
+	private static final int[][][] FACES_NEIGHBORS_OFFSET = new int[Face.faces.length][4][3];
+
+	static {
+		for (Face face : Face.faces) {
+			int faceID = face.getID();
+			FACES_OFFSET[faceID] = getPaddedOffset(face.getVector());
+			for (int i = 0; i < 4; i++) {
+				for (int j = 0; j < 3; j++) {
+					FACES_NEIGHBORS_OFFSET[faceID][i][j] = getPaddedOffset(BlockRenderer.FACES_NEIGHBORS[faceID][i][j]);
+				}
+			}
+		}
+	}
+
+	/** per thread scratch buffers */
+	static final class Scratch extends TerrainMesherMask.Scratch {
+
+		/** padded volume */
+		final Block[] blocks = new Block[PX * PY * PZ];
+		final byte[] flags = new byte[PX * PY * PZ];
+		final byte[] lights = new byte[PX * PY * PZ];
+
+		/** cube renderer of each terrain block (null if not a visible cube) */
+		final BlockRendererCube[] cubes = new BlockRendererCube[WorldObjectTerrain.MAX_BLOCK_INDEX];
+
+		/** the terrain and its neighbors data (slot 6 is the terrain) */
+		final boolean[] present = new boolean[Face.faces.length + 1];
+		final TerrainBlockStorage[] storages = new TerrainBlockStorage[Face.faces.length + 1];
+		final byte[][] lightArrays = new byte[Face.faces.length + 1][];
+
+		/** ambiant occlusion level of the current quad vertices */
+		final int[] aos = new int[4];
+
+		/** triangles of the non cubic blocks */
+		final ArrayList<TerrainMeshTriangle> triangles = new ArrayList<TerrainMeshTriangle>();
+
+		Scratch() {
+			super(WorldObjectTerrain.DIMX * WorldObjectTerrain.DIMZ);
+		}
+	}
+
+	public TerrainMesherGreedyMask() {
+		super();
+	}
+
+	@Override
+	protected Scratch createScratch() {
+		return (new Scratch());
+	}
+
+	/** padded index offset of the given vector */
+	private static final int getPaddedOffset(Vector3i vec) {
+		return (vec.x + PX * (vec.y + PY * vec.z));
+	}
+
+	/** padded index of the given terrain relative coordinates */
+	private static final int getPaddedIndex(int x, int y, int z) {
+		return ((x + 1) + PX * ((y + 1) + PY * (z + 1)));
+	}
+
+	@Override
+	protected void mesh(WorldObjectTerrain terrain, Scratch scratch) {
+		if (terrain.getBlockStorage() == null) {
+			return;
+		}
+		this.fillPaddedVolume(terrain, scratch);
+		this.generateBlocks(terrain, scratch);
+		for (int faceID = 0; faceID < Face.faces.length; faceID++) {
+			int axis = FACES_AXIS[faceID];
+			for (int w = 0; w < DIMS[axis]; w++) {
+				if (this.fillMask(terrain, scratch, faceID, w)) {
+					this.mergeMask(scratch, faceID, w, DIMS[FACES_U_AXIS[faceID]], DIMS[FACES_V_AXIS[faceID]], 1);
+				}
+			}
+		}
+		// do not keep references to the data of this terrain
+		for (int i = 0; i < scratch.storages.length; i++) {
+			scratch.storages[i] = null;
+			scratch.lightArrays[i] = null;
+		}
+	}
+
+	/** copy the terrain blocks and lights, and the border of its neighbors */
+	private final void fillPaddedVolume(WorldObjectTerrain terrain, Scratch scratch) {
+		int center = Face.faces.length;
+		for (int faceID = 0; faceID < Face.faces.length; faceID++) {
+			WorldObjectTerrain neighbor = terrain.getNeighbor(faceID);
+			scratch.present[faceID] = neighbor != null;
+			scratch.storages[faceID] = neighbor == null ? null : neighbor.getBlockStorage();
+			scratch.lightArrays[faceID] = neighbor == null ? null : neighbor.getRawLights();
+		}
+		scratch.present[center] = true;
+		scratch.storages[center] = terrain.getBlockStorage();
+		scratch.lightArrays[center] = terrain.getRawLights();
+
+		int index = 0;
+		for (int pz = 0; pz < PZ; pz++) {
+			int z = pz - 1;
+			for (int py = 0; py < PY; py++) {
+				int y = py - 1;
+				for (int px = 0; px < PX; px++, index++) {
+					int x = px - 1;
+
+					// find which terrain holds this cell
+					int slot = center;
+					int outside = 0;
+					int lx = x, ly = y, lz = z;
+					if (x < 0) {
+						slot = Face.BACK;
+						lx += WorldObjectTerrain.DIMX;
+						++outside;
+					} else if (x >= WorldObjectTerrain.DIMX) {
+						slot = Face.FRONT;
+						lx -= WorldObjectTerrain.DIMX;
+						++outside;
+					}
+					if (y < 0) {
+						slot = Face.LEFT;
+						ly += WorldObjectTerrain.DIMY;
+						++outside;
+					} else if (y >= WorldObjectTerrain.DIMY) {
+						slot = Face.RIGHT;
+						ly -= WorldObjectTerrain.DIMY;
+						++outside;
+					}
+					if (z < 0) {
+						slot = Face.BOT;
+						lz += WorldObjectTerrain.DIMZ;
+						++outside;
+					} else if (z >= WorldObjectTerrain.DIMZ) {
+						slot = Face.TOP;
+						lz -= WorldObjectTerrain.DIMZ;
+						++outside;
+					}
+
+					Block block = Blocks.AIR;
+					byte light = 0;
+					if (outside > 1 || !scratch.present[slot]) {
+						// missing terrain: full sun light (diagonal neighbors are not
+						// looked up)
+						light = (byte) 0xF0;
+					} else {
+						int i = lx + WorldObjectTerrain.DIMX * (ly + WorldObjectTerrain.DIMY * lz);
+						TerrainBlockStorage storage = scratch.storages[slot];
+						if (storage != null) {
+							Block b = Blocks.getBlockByID(storage.get(i));
+							if (b != null) {
+								block = b;
+							}
+						}
+						byte[] lights = scratch.lightArrays[slot];
+						if (lights != null) {
+							light = lights[i];
+						}
+					}
+					scratch.blocks[index] = block;
+					scratch.lights[index] = light;
+					byte flags = 0;
+					if (block.isVisible()) {
+						flags |= FLAG_VISIBLE;
+						if (!block.isTransparent()) {
+							flags |= FLAG_OPAQUE;
+						}
+					}
+					scratch.flags[index] = flags;
+				}
+			}
+		}
+	}
+
+	/**
+	 * find the cubes of the terrain, and generate the vertices of the other
+	 * visible blocks with their renderer
+	 */
+	private final void generateBlocks(WorldObjectTerrain terrain, Scratch scratch) {
+		BlockRendererManager manager = BlockRendererManager.instance();
+		int index = 0;
+		for (int z = 0; z < WorldObjectTerrain.DIMZ; z++) {
+			for (int y = 0; y < WorldObjectTerrain.DIMY; y++) {
+				for (int x = 0; x < WorldObjectTerrain.DIMX; x++, index++) {
+					scratch.cubes[index] = null;
+					int p = getPaddedIndex(x, y, z);
+					if ((scratch.flags[p] & FLAG_VISIBLE) == 0) {
+						continue;
+					}
+					Block block = scratch.blocks[p];
+					BlockRenderer renderer = manager.getBlockRenderer(block);
+					if (renderer == null) {
+						continue;
+					}
+					if (renderer instanceof BlockRendererCube) {
+						scratch.cubes[index] = (BlockRendererCube) renderer;
+						continue;
+					}
+					if (scratch.opaqueStack != null) {
+						renderer.generateBlockVertices(this, terrain, block, x, y, z, null,
+								block.isOpaque() ? scratch.opaqueStack : scratch.transparentStack);
+						continue;
+					}
+					renderer.generateBlockVertices(this, terrain, block, x, y, z, null, scratch.triangles);
+					for (TerrainMeshTriangle triangle : scratch.triangles) {
+						this.store(scratch, block.isOpaque(), triangle.v0, triangle.v1, triangle.v2);
+					}
+					scratch.triangles.clear();
+				}
+			}
+		}
+	}
+
+	/**
+	 * fill the mask of the given slice
+	 *
+	 * @return true if the slice has any visible face
+	 */
+	private final boolean fillMask(WorldObjectTerrain terrain, Scratch scratch, int faceID, int w) {
+		int axis = FACES_AXIS[faceID];
+		int uAxis = FACES_U_AXIS[faceID];
+		int vAxis = FACES_V_AXIS[faceID];
+		int du = DIMS[uAxis];
+		int dv = DIMS[vAxis];
+		int[] xyz = scratch.xyz;
+		byte[] durabilities = terrain.getRawDurability();
+		boolean any = false;
+
+		xyz[axis] = w;
+		for (int v = 0; v < dv; v++) {
+			xyz[vAxis] = v;
+			for (int u = 0; u < du; u++) {
+				xyz[uAxis] = u;
+				int index = xyz[0] + WorldObjectTerrain.DIMX * (xyz[1] + WorldObjectTerrain.DIMY * xyz[2]);
+				long key = 0;
+				BlockRendererCube cube = scratch.cubes[index];
+				if (cube != null) {
+					int p = getPaddedIndex(xyz[0], xyz[1], xyz[2]);
+					Block block = scratch.blocks[p];
+					if (cube.isFaceVisible(block, scratch.blocks[p + FACES_OFFSET[faceID]])) {
+						int durability = durabilities == null ? WorldObjectTerrain.MIN_DURABILITY
+								: durabilities[index];
+						key = KEY_VISIBLE | ((long) (durability & 0xF) << KEY_DURABILITY_SHIFT)
+								| ((long) (cube.getTextureIDs()[faceID] & 0xFFF) << KEY_TEXTURE_SHIFT);
+						if (!block.isOpaque()) {
+							key |= KEY_TRANSPARENT;
+						}
+						for (int i = 0; i < 4; i++) {
+							key |= (long) this.getVertexKey(scratch, p, faceID, i) << (i * KEY_VERTEX_BITS);
+						}
+						any = true;
+					}
+				}
+				scratch.mask[u + du * v] = key;
+			}
+		}
+		return (any);
+	}
+
+	/** light and ambiant occlusion key of a face vertex */
+	private final int getVertexKey(Scratch scratch, int p, int faceID, int faceVertexID) {
+		int[] offsets = FACES_NEIGHBORS_OFFSET[faceID][faceVertexID];
+		int p0 = p + offsets[0];
+		int p1 = p + offsets[1];
+		int p2 = p + offsets[2];
+		byte[] lights = scratch.lights;
+		int light = ((lights[p0] >> 4) & 0xF) + ((lights[p1] >> 4) & 0xF) + ((lights[p2] >> 4) & 0xF)
+				+ (lights[p0] & 0xF) + (lights[p1] & 0xF) + (lights[p2] & 0xF);
+
+		byte[] flags = scratch.flags;
+		boolean s1 = (flags[p0] & FLAG_OPAQUE) != 0;
+		boolean s2 = (flags[p1] & FLAG_OPAQUE) != 0;
+		boolean c = (flags[p2] & FLAG_OPAQUE) != 0;
+		int ao;
+		if (s1 && s2) {
+			ao = 3;
+		} else if (s1 || s2) {
+			ao = c ? 2 : 1;
+		} else {
+			ao = c ? 1 : 0;
+		}
+		return (light | (ao << KEY_AO_SHIFT));
+	}
+
+	/** generate the quad vertices, and push them */
+	@Override
+	protected void pushQuad(Scratch scratch, int faceID, long key) {
+		int textureID = (int) (key >>> KEY_TEXTURE_SHIFT) & 0xFFF;
+		byte durability = (byte) ((key >>> KEY_DURABILITY_SHIFT) & 0xF);
+		this.setQuadVertices(scratch, faceID, textureID);
+
+		int[] aos = scratch.aos;
+		for (int i = 0; i < 4; i++) {
+			int vertexKey = (int) (key >>> (i * KEY_VERTEX_BITS)) & ((1 << KEY_VERTEX_BITS) - 1);
+			int ao = vertexKey >>> KEY_AO_SHIFT;
+			int light = vertexKey & ((1 << KEY_AO_SHIFT) - 1);
+
+			TerrainMeshVertex vertex = scratch.quad[i];
+			vertex.ao = ao * BlockRenderer.AO_UNIT;
+			vertex.brightness = Math.max(0.0f, 0.1f + light / 48.0f - vertex.ao);
+			vertex.durability = durability;
+			aos[i] = ao;
+		}
+
+		boolean opaque = (key & KEY_TRANSPARENT) == 0;
+		TerrainMeshVertex v0 = scratch.quad[0];
+		TerrainMeshVertex v1 = scratch.quad[1];
+		TerrainMeshVertex v2 = scratch.quad[2];
+		TerrainMeshVertex v3 = scratch.quad[3];
+		if (aos[0] + aos[2] < aos[1] + aos[3]) {
+			this.push(scratch, opaque, v0, v1, v2);
+			this.push(scratch, opaque, v0, v2, v3);
+		} else {
+			// flip quad
+			this.push(scratch, opaque, v1, v2, v3);
+			this.push(scratch, opaque, v1, v3, v0);
+		}
+	}
+}
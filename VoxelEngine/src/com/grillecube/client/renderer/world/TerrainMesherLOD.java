@@ -0,0 +1,274 @@
+package com.grillecube.client.renderer.world;
+
+import com.grillecube.client.renderer.blocks.BlockRenderer;
+import com.grillecube.client.renderer.blocks.BlockRendererCube;
+import com.grillecube.client.resources.BlockRendererManager;
+import com.grillecube.common.faces.Face;
+import com.grillecube.common.maths.Vector3i;
+import com.grillecube.common.world.block.Block;
+import com.grillecube.common.world.block.Blocks;
+import com.grillecube.common.world.terrain.TerrainBlockStorage;
+import com.grillecube.common.world.terrain.WorldObjectTerrain;
+
+/**
+ * A level of detail mesher, for the far terrains: the terrain is downsampled
+ * into cells of 'lod' x 'lod' x 'lod' blocks, which are then meshed as big
+ * cubes by a greedy mesher.
+ *
+ * A cell is filled if at least half of its blocks are cubes, and it is
+ * rendered with the top most cube of the cell (so grass stays on top). Its
+ * light is the maximum light of its blocks. Non cubic blocks and ambiant
+ * occlusion are dropped.
+ *
+ * Seams: two neighbor terrains with different levels of detail do not have the
+ * same surface, so the faces on the terrain borders are always generated
+ * (skirts), which hides the cracks between the levels.
+ */
+public class TerrainMesherLOD extends TerrainMesherMask<TerrainMesherLOD.Scratch> {
+
+	/** face key layout: 12 bits of texture, 5 bits of light, the transparent bit */
+	private static final int KEY_LIGHT_SHIFT = 12;
+	private static final int KEY_TRANSPARENT = 1 << 17;
+	private static final int KEY_VISIBLE = 1 << 18;
+
+	/** cell size, in blocks */
+	private final int lod;
+
+	/** number of cells on each axis, and padded dimensions */
+	private final int[] dims;
+	private final int px;
+	private final int py;
+	private final int pz;
+
+	/** per thread scratch buffers */
+	final class Scratch extends TerrainMesherMask.Scratch {
+
+		/** padded cells: representative block, light, and cube renderer */
+		final Block[] blocks = new Block[px * py * pz];
+		final byte[] lights = new byte[px * py * pz];
+		final BlockRendererCube[] cubes = new BlockRendererCube[px * py * pz];
+
+		Scratch() {
+			super(Math.max(dims[0], dims[1]) * dims[2]);
+		}
+	}
+
+	/**
+	 * @param lod
+	 *            : the cell size, in blocks (2, 4, 8 or 16)
+	 */
+	public TerrainMesherLOD(int lod) {
+		super();
+		if (lod < 1 || WorldObjectTerrain.DIMX % lod != 0 || WorldObjectTerrain.DIMY % lod != 0
+				|| WorldObjectTerrain.DIMZ % lod != 0) {
+			throw new IllegalArgumentException("the level of detail should divide the terrain dimensions: " + lod);
+		}
+		this.lod = lod;
+		this.dims = new int[] { WorldObjectTerrain.DIMX / lod, WorldObjectTerrain.DIMY / lod,
+				WorldObjectTerrain.DIMZ / lod };
+		this.px = this.dims[0] + 2;
+		this.py = this.dims[1] + 2;
+		this.pz = this.dims[2] + 2;
+	}
+
+	/** the cell size, in blocks */
+	public final int getLOD() {
+		return (this.lod);
+	}
+
+	private final int getPaddedIndex(int x, int y, int z) {
+		return ((x + 1) + this.px * ((y + 1) + this.py * (z + 1)));
+	}
+
+	@Override
+	protected Scratch createScratch() {
+		return (new Scratch());
+	}
+
+	@Override
+	protected void mesh(WorldObjectTerrain terrain, Scratch scratch) {
+		if (terrain.getBlockStorage() == null) {
+			return;
+		}
+		this.downsample(terrain, scratch);
+		for (int faceID = 0; faceID < Face.faces.length; faceID++) {
+			int axis = FACES_AXIS[faceID];
+			for (int w = 0; w < this.dims[axis]; w++) {
+				if (this.fillMask(scratch, faceID, w)) {
+					this.mergeMask(scratch, faceID, w, this.dims[FACES_U_AXIS[faceID]], this.dims[FACES_V_AXIS[faceID]],
+							this.lod);
+				}
+			}
+		}
+	}
+
+	/** downsample the terrain, and the border cells of its neighbors */
+	private final void downsample(WorldObjectTerrain terrain, Scratch scratch) {
+		BlockRendererManager manager = BlockRendererManager.instance();
+		int lod = this.lod;
+		int half = (lod * lod * lod + 1) / 2;
+		int index = 0;
+		for (int cz = -1; cz <= this.dims[2]; cz++) {
+			for (int cy = -1; cy <= this.dims[1]; cy++) {
+				for (int cx = -1; cx <= this.dims[0]; cx++, index++) {
+					// find which terrain holds this cell
+					WorldObjectTerrain source = terrain;
+					int outside = 0;
+					int ox = cx * lod, oy = cy * lod, oz = cz * lod;
+					if (cx < 0) {
+						source = terrain.getNeighbor(Face.BACK);
+						ox += WorldObjectTerrain.DIMX;
+						++outside;
+					} else if (cx >= this.dims[0]) {
+						source = terrain.getNeighbor(Face.FRONT);
+						ox -= WorldObjectTerrain.DIMX;
+						++outside;
+					}
+					if (cy < 0) {
+						source = terrain.getNeighbor(Face.LEFT);
+						oy += WorldObjectTerrain.DIMY;
+						++outside;
+					} else if (cy >= this.dims[1]) {
+						source = terrain.getNeighbor(Face.RIGHT);
+						oy -= WorldObjectTerrain.DIMY;
+						++outside;
+					}
+					if (cz < 0) {
+						source = terrain.getNeighbor(Face.BOT);
+						oz += WorldObjectTerrain.DIMZ;
+						++outside;
+					} else if (cz >= this.dims[2]) {
+						source = terrain.getNeighbor(Face.TOP);
+						oz -= WorldObjectTerrain.DIMZ;
+						++outside;
+					}
+
+					scratch.blocks[index] = Blocks.AIR;
+					scratch.cubes[index] = null;
+					scratch.lights[index] = (byte) 0xF0;
+					if (outside > 1 || source == null) {
+						// missing terrain: empty, full sun light
+						continue;
+					}
+					TerrainBlockStorage storage = source.getBlockStorage();
+					byte[] lights = source.getRawLights();
+
+					// count the cubes, find the top most one, and the max light
+					int cubes = 0;
+					Block top = null;
+					BlockRendererCube topRenderer = null;
+					int sun = 0;
+					int light = 0;
+					for (int dz = lod - 1; dz >= 0; dz--) {
+						for (int dy = 0; dy < lod; dy++) {
+							for (int dx = 0; dx < lod; dx++) {
+								int i = (ox + dx) + WorldObjectTerrain.DIMX
+										* ((oy + dy) + WorldObjectTerrain.DIMY * (oz + dz));
+								if (lights != null) {
+									sun = Math.max(sun, (lights[i] >> 4) & 0xF);
+									light = Math.max(light, lights[i] & 0xF);
+								}
+								if (storage == null) {
+									continue;
+								}
+								Block block = Blocks.getBlockByID(storage.get(i));
+								if (block == null || !block.isVisible()) {
+									continue;
+								}
+								BlockRenderer renderer = manager.getBlockRenderer(block);
+								if (!(renderer instanceof BlockRendererCube)) {
+									continue;
+								}
+								++cubes;
+								if (top == null) {
+									top = block;
+									topRenderer = (BlockRendererCube) renderer;
+								}
+							}
+						}
+					}
+					scratch.lights[index] = (byte) ((sun << 4) | light);
+					if (cubes >= half) {
+						scratch.blocks[index] = top;
+						scratch.cubes[index] = topRenderer;
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * fill the mask of the given slice
+	 *
+	 * @return true if the slice has any visible face
+	 */
+	private final boolean fillMask(Scratch scratch, int faceID, int w) {
+		int axis = FACES_AXIS[faceID];
+		int uAxis = FACES_U_AXIS[faceID];
+		int vAxis = FACES_V_AXIS[faceID];
+		int du = this.dims[uAxis];
+		int dv = this.dims[vAxis];
+		Vector3i vec = Face.get(faceID).getVector();
+		int offset = vec.x + this.px * (vec.y + this.py * vec.z);
+		// is this slice on the terrain border, in the face direction
+		boolean border = (vec.x + vec.y + vec.z > 0) ? w == this.dims[axis] - 1 : w == 0;
+		int[] xyz = scratch.xyz;
+		boolean any = false;
+
+		xyz[axis] = w;
+		for (int v = 0; v < dv; v++) {
+			xyz[vAxis] = v;
+			for (int u = 0; u < du; u++) {
+				xyz[uAxis] = u;
+				int p = this.getPaddedIndex(xyz[0], xyz[1], xyz[2]);
+				long key = 0;
+				BlockRendererCube cube = scratch.cubes[p];
+				if (cube != null) {
+					Block block = scratch.blocks[p];
+					int n = p + offset;
+					// skirts: the faces of the horizontal terrain borders are always
+					// generated
+					boolean skirt = border && axis != 2 && scratch.cubes[n] != null;
+					if (skirt || scratch.cubes[n] == null || cube.isFaceVisible(block, scratch.blocks[n])) {
+						// a skirt is against a filled cell: take the brightest one
+						byte lights = scratch.lights[n];
+						int sun = (lights >> 4) & 0xF;
+						int light = lights & 0xF;
+						if (skirt) {
+							sun = Math.max(sun, (scratch.lights[p] >> 4) & 0xF);
+							light = Math.max(light, scratch.lights[p] & 0xF);
+						}
+						key = KEY_VISIBLE | (cube.getTextureIDs()[faceID] & 0xFFF)
+								| (Math.min(sun + light, 31) << KEY_LIGHT_SHIFT);
+						if (!block.isOpaque()) {
+							key |= KEY_TRANSPARENT;
+						}
+						any = true;
+					}
+				}
+				scratch.mask[u + du * v] = key;
+			}
+		}
+		return (any);
+	}
+
+	/** generate the quad vertices, and push them */
+	@Override
+	protected void pushQuad(Scratch scratch, int faceID, long key) {
+		int textureID = (int) key & 0xFFF;
+		int light = (int) (key >>> KEY_LIGHT_SHIFT) & 0x1F;
+		float brightness = 0.1f + light / 16.0f;
+		this.setQuadVertices(scratch, faceID, textureID);
+
+		for (int i = 0; i < 4; i++) {
+			TerrainMeshVertex vertex = scratch.quad[i];
+			vertex.ao = 0.0f;
+			vertex.brightness = brightness;
+			vertex.durability = WorldObjectTerrain.MIN_DURABILITY;
+		}
+
+		boolean opaque = (key & KEY_TRANSPARENT) == 0;
+		this.push(scratch, opaque, scratch.quad[0], scratch.quad[1], scratch.quad[2]);
+		this.push(scratch, opaque, scratch.quad[0], scratch.quad[2], scratch.quad[3]);
+	}
+}
@@ -0,0 +1,244 @@
+package com.grillecube.client.renderer.world;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+
+import com.grillecube.client.renderer.blocks.BlockRenderer;
+import com.grillecube.common.faces.Face;
+import com.grillecube.common.maths.Vector3f;
+import com.grillecube.common.maths.Vector3i;
+import com.grillecube.common.world.terrain.WorldObjectTerrain;
+
+/**
+ * Base of the greedy meshers working on face masks (see
+ * {@link TerrainMesherGreedyMask} and {@link TerrainMesherLOD}).
+ *
+ * For each face direction and each slice of the terrain, the subclass fills a
+ * mask of long keys (0 is no face): the equal keys are merged into quads of
+ * cells of 'scale' x 'scale' x 'scale' blocks, which are written straight into
+ * a pooled vertex buffer (or pushed to the stacks).
+ */
+public abstract class TerrainMesherMask<S extends TerrainMesherMask.Scratch> extends TerrainMesher {
+
+	/** slice axis, and quad width / height axis, for each face */
+	static final int[] FACES_AXIS = new int[Face.faces.length];
+	static final int[] FACES_U_AXIS = new int[Face.faces.length];
+	static final int[] FACES_V_AXIS = new int[Face.faces.length];
+
+	static {
+		FACES_AXIS[Face.TOP] = 2;
+		FACES_AXIS[Face.BOT] = 2;
+		FACES_AXIS[Face.RIGHT] = 1;
+		FACES_AXIS[Face.LEFT] = 1;
+		FACES_AXIS[Face.FRONT] = 0;
+		FACES_AXIS[Face.BACK] = 0;
+
+		for (Face face : Face.faces) {
+			int faceID = face.getID();
+			int axis = FACES_AXIS[faceID];
+			FACES_U_AXIS[faceID] = axis == 0 ? 1 : 0;
+			FACES_V_AXIS[faceID] = axis == 2 ? 1 : 2;
+		}
+	}
+
+	/** per thread scratch buffers: the slice mask, the current quad, and the output */
+	static class Scratch {
+
+		/** face mask of a slice */
+		final long[] mask;
+
+		/** coordinates and size of the current quad, in blocks */
+		final int[] xyz = new int[3];
+		final int[] size = new int[3];
+
+		/** vertices of the current quad */
+		final TerrainMeshVertex[] quad = { new TerrainMeshVertex(), new TerrainMeshVertex(), new TerrainMeshVertex(),
+				new TerrainMeshVertex() };
+
+		/** output: either buffers, or stacks */
+		boolean packed;
+		ByteBuffer opaqueBuffer;
+		ByteBuffer transparentBuffer;
+		ArrayList<TerrainMeshTriangle> opaqueStack;
+		ArrayList<TerrainMeshTriangle> transparentStack;
+
+		Scratch(int maskSize) {
+			this.mask = new long[maskSize];
+		}
+	}
+
+	private final ThreadLocal<S> scratch = new ThreadLocal<S>() {
+		@Override
+		protected S initialValue() {
+			return (createScratch());
+		}
+	};
+
+	public TerrainMesherMask() {
+		super();
+	}
+
+	/** create the scratch buffers of a mesher thread */
+	protected abstract S createScratch();
+
+	/** mesh the terrain into the scratch output */
+	protected abstract void mesh(WorldObjectTerrain terrain, S scratch);
+
+	/**
+	 * fill the vertices of the current quad (see {@link #setQuadVertices}),
+	 * and push its triangles
+	 */
+	protected abstract void pushQuad(S scratch, int faceID, long key);
+
+	@Override
+	public void buildVertices(WorldObjectTerrain terrain, ByteBuffer[] vertices, boolean packed) {
+		S scratch = this.scratch.get();
+		scratch.packed = packed;
+		scratch.opaqueBuffer = TerrainMesher.acquireBuffer(0);
+		scratch.transparentBuffer = TerrainMesher.acquireBuffer(0);
+		this.mesh(terrain, scratch);
+		scratch.opaqueBuffer.flip();
+		scratch.transparentBuffer.flip();
+		vertices[0] = scratch.opaqueBuffer;
+		vertices[1] = scratch.transparentBuffer;
+		scratch.opaqueBuffer = null;
+		scratch.transparentBuffer = null;
+	}
+
+	@Override
+	protected void fillVertexStacks(WorldObjectTerrain terrain, ArrayList<TerrainMeshTriangle> opaqueStack,
+			ArrayList<TerrainMeshTriangle> transparentStack) {
+		S scratch = this.scratch.get();
+		scratch.opaqueStack = opaqueStack;
+		scratch.transparentStack = transparentStack;
+		this.mesh(terrain, scratch);
+		scratch.opaqueStack = null;
+		scratch.transparentStack = null;
+	}
+
+	/**
+	 * merge the equal faces of the slice mask into quads, and push them
+	 *
+	 * @param w
+	 *            : the slice, in cells
+	 * @param du
+	 *            : the mask width, in cells
+	 * @param dv
+	 *            : the mask height, in cells
+	 * @param scale
+	 *            : the cell size, in blocks
+	 */
+	protected final void mergeMask(S scratch, int faceID, int w, int du, int dv, int scale) {
+		long[] mask = scratch.mask;
+		int axis = FACES_AXIS[faceID];
+		int uAxis = FACES_U_AXIS[faceID];
+		int vAxis = FACES_V_AXIS[faceID];
+
+		for (int v = 0; v < dv; v++) {
+			int u = 0;
+			while (u < du) {
+				long key = mask[u + du * v];
+				if (key == 0) {
+					++u;
+					continue;
+				}
+
+				// quad width
+				int width = 1;
+				while (u + width < du && mask[u + width + du * v] == key) {
+					++width;
+				}
+
+				// quad height
+				int height = 1;
+				height_test: while (v + height < dv) {
+					int row = du * (v + height);
+					for (int dw = 0; dw < width; dw++) {
+						if (mask[u + dw + row] != key) {
+							break height_test;
+						}
+					}
+					++height;
+				}
+
+				// clear the merged faces
+				for (int dh = 0; dh < height; dh++) {
+					int row = du * (v + dh);
+					for (int dw = 0; dw < width; dw++) {
+						mask[u + dw + row] = 0;
+					}
+				}
+
+				int[] xyz = scratch.xyz;
+				int[] size = scratch.size;
+				xyz[axis] = w * scale;
+				xyz[uAxis] = u * scale;
+				xyz[vAxis] = v * scale;
+				size[axis] = scale;
+				size[uAxis] = width * scale;
+				size[vAxis] = height * scale;
+				this.pushQuad(scratch, faceID, key);
+				u += width;
+			}
+		}
+	}
+
+	/**
+	 * set the position, normal, texture and uv of the current quad vertices
+	 * (the light, ambiant occlusion and durability are left to the subclass)
+	 */
+	protected final void setQuadVertices(S scratch, int faceID, int textureID) {
+		int[] xyz = scratch.xyz;
+		int[] size = scratch.size;
+		int uAxis = FACES_U_AXIS[faceID];
+		int vAxis = FACES_V_AXIS[faceID];
+		float atlasX = BlockRenderer.getAtlasX(textureID);
+		float atlasY = BlockRenderer.getAtlasY(textureID);
+		Vector3f normal = Face.get(faceID).getNormal();
+
+		for (int i = 0; i < 4; i++) {
+			Vector3i offset = BlockRenderer.VERTICES[BlockRenderer.FACES_VERTICES[faceID][i]];
+			TerrainMeshVertex vertex = scratch.quad[i];
+			vertex.posx = xyz[0] + offset.x * size[0];
+			vertex.posy = xyz[1] + offset.y * size[1];
+			vertex.posz = xyz[2] + offset.z * size[2];
+			vertex.normalx = normal.x;
+			vertex.normaly = normal.y;
+			vertex.normalz = normal.z;
+			vertex.atlasX = atlasX;
+			vertex.atlasY = atlasY;
+			vertex.u = BlockRenderer.FACES_UV[i][0] * size[uAxis];
+			vertex.v = BlockRenderer.FACES_UV[i][1] * size[vAxis];
+			vertex.color = 0xFFFFFFFF;
+		}
+	}
+
+	/** push a triangle of the quad (the vertices are reused by the next quad) */
+	protected final void push(S scratch, boolean opaque, TerrainMeshVertex v0, TerrainMeshVertex v1,
+			TerrainMeshVertex v2) {
+		if (scratch.opaqueStack != null) {
+			ArrayList<TerrainMeshTriangle> stack = opaque ? scratch.opaqueStack : scratch.transparentStack;
+			stack.add(new TerrainMeshTriangle((TerrainMeshVertex) v0.clone(), (TerrainMeshVertex) v1.clone(),
+					(TerrainMeshVertex) v2.clone()));
+			return;
+		}
+		this.store(scratch, opaque, v0, v1, v2);
+	}
+
+	/** write a triangle into the output buffer */
+	protected final void store(S scratch, boolean opaque, TerrainMeshVertex v0, TerrainMeshVertex v1,
+			TerrainMeshVertex v2) {
+		int bytes = 3 * this.getBytesPerVertex(scratch.packed);
+		if (opaque) {
+			scratch.opaqueBuffer = TerrainMesher.ensureRemaining(scratch.opaqueBuffer, bytes);
+			this.storeVertex(v0, scratch.opaqueBuffer, scratch.packed);
+			this.storeVertex(v1, scratch.opaqueBuffer, scratch.packed);
+			this.storeVertex(v2, scratch.opaqueBuffer, scratch.packed);
+		} else {
+			scratch.transparentBuffer = TerrainMesher.ensureRemaining(scratch.transparentBuffer, bytes);
+			this.storeVertex(v0, scratch.transparentBuffer, scratch.packed);
+			this.storeVertex(v1, scratch.transparentBuffer, scratch.packed);
+			this.storeVertex(v2, scratch.transparentBuffer, scratch.packed);
+		}
+	}
+}
@@ -0,0 +1,206 @@
+package com.grillecube.client.renderer.world;
+
+import java.util.ArrayList;
+
+import com.grillecube.client.renderer.camera.CameraProjective;
+import com.grillecube.common.faces.Face;
+import com.grillecube.common.maths.Vector3f;
+import com.grillecube.common.maths.Vector3i;
+import com.grillecube.common.world.World;
+import com.grillecube.common.world.terrain.WorldObjectTerrain;
+
+/**
+ * Cave culling: find the terrains which can be seen from the camera, using the
+ * faces connectivity graph of each terrain (see
+ * {@link WorldObjectTerrain#canFaceBeSeenFrom(int, int)}).
+ *
+ * A breadth first search starts from the terrain holding the camera and goes
+ * outward. A terrain is entered through one of its face, and its neighbor is
+ * visited through another face only if the flood fill connected both faces.
+ * The search never goes back toward the camera (a direction is not taken if
+ * its opposite one was already taken on the path), and skips the terrains
+ * which are out of the frustum or of the render distance.
+ *
+ * Terrains which are not loaded are considered as empty (every faces are
+ * connected), so the sky and the unloaded area do not stop the search.
+ *
+ * The search works on a grid of cells around the camera which is reused
+ * between frames: it does not allocate once the grid is sized.
+ */
+public class TerrainOcclusionCuller {
+
+	/** no entry face (the camera cell) */
+	private static final byte NO_FACE = 6;
+
+	/** grid around the camera */
+	private int radiusX;
+	private int radiusY;
+	private int radiusZ;
+	private int sizeX;
+	private int sizeY;
+	private int sizeZ;
+
+	/** search id of the last search which visited each cell */
+	private int[] visited;
+	private int search;
+
+	/** search queue: cells, entry face, and taken directions */
+	private int[] queueCells;
+	private byte[] queueFaces;
+	private byte[] queueDirections;
+
+	/** camera terrain index */
+	private final Vector3i cameraIndex;
+
+	/** number of cells visited by the last search */
+	private int visitedCount;
+
+	public TerrainOcclusionCuller() {
+		this.cameraIndex = new Vector3i();
+		this.visited = new int[0];
+		this.queueCells = new int[0];
+		this.queueFaces = new byte[0];
+		this.queueDirections = new byte[0];
+		this.search = 0;
+	}
+
+	/**
+	 * fill the 'visible' list with the loaded terrains which can be seen from the
+	 * given position
+	 *
+	 * @param world
+	 *            : the world
+	 * @param position
+	 *            : the camera position
+	 * @param renderDistance
+	 *            : terrains further than this distance are not visited
+	 * @param camera
+	 *            : the camera to test the frustum with (can be null to only
+	 *            test the connectivity)
+	 * @param visible
+	 *            : the list to fill (cleared first)
+	 */
+	public final void cull(World world, Vector3f position, float renderDistance, CameraProjective camera,
+			ArrayList<WorldObjectTerrain> visible) {
+		visible.clear();
+		this.visitedCount = 0;
+		this.resize(renderDistance);
+		if (++this.search == 0) {
+			// the search id overflowed: reset the cells
+			for (int i = 0; i < this.visited.length; i++) {
+				this.visited[i] = 0;
+			}
+			this.search = 1;
+		}
+
+		Vector3i origin = world.getTerrainIndex(position, this.cameraIndex);
+		float squaredDistance = renderDistance * renderDistance;
+		int head = 0;
+		int tail = 0;
+
+		// the camera terrain
+		int start = this.radiusX + this.sizeX * (this.radiusY + this.sizeY * this.radiusZ);
+		this.visited[start] = this.search;
+		this.queueCells[tail] = start;
+		this.queueFaces[tail] = NO_FACE;
+		this.queueDirections[tail] = 0;
+		++tail;
+
+		while (head < tail) {
+			int cell = this.queueCells[head];
+			int entry = this.queueFaces[head];
+			int directions = this.queueDirections[head];
+			++head;
+
+			int gx = cell % this.sizeX;
+			int gy = (cell / this.sizeX) % this.sizeY;
+			int gz = cell / (this.sizeX * this.sizeY);
+			WorldObjectTerrain terrain = world.getTerrain(origin.x + gx - this.radiusX, origin.y + gy - this.radiusY,
+					origin.z + gz - this.radiusZ);
+			if (terrain != null) {
+				visible.add(terrain);
+			}
+
+			for (int faceID = 0; faceID < Face.faces.length; faceID++) {
+				Face face = Face.faces[faceID];
+				int opposite = face.getOpposite().getID();
+
+				// never go back toward the camera
+				if ((directions & (1 << opposite)) != 0) {
+					continue;
+				}
+
+				// the terrain should connect the entry face to this face
+				if (entry != NO_FACE && terrain != null && !terrain.canFaceBeSeenFrom(entry, faceID)) {
+					continue;
+				}
+
+				Vector3i vec = face.getVector();
+				int nx = gx + vec.x;
+				int ny = gy + vec.y;
+				int nz = gz + vec.z;
+				if (nx < 0 || ny < 0 || nz < 0 || nx >= this.sizeX || ny >= this.sizeY || nz >= this.sizeZ) {
+					continue;
+				}
+
+				int neighbor = nx + this.sizeX * (ny + this.sizeY * nz);
+				if (this.visited[neighbor] == this.search) {
+					continue;
+				}
+
+				float x = (origin.x + nx - this.radiusX) * WorldObjectTerrain.DIMX_SIZE;
+				float y = (origin.y + ny - this.radiusY) * WorldObjectTerrain.DIMY_SIZE;
+				float z = (origin.z + nz - this.radiusZ) * WorldObjectTerrain.DIMZ_SIZE;
+				if (squaredDistanceToBox(position, x, y, z) > squaredDistance) {
+					continue;
+				}
+				if (camera != null && !camera.isBoxInFrustum(x, y, z, WorldObjectTerrain.DIMX_SIZE,
+						WorldObjectTerrain.DIMY_SIZE, WorldObjectTerrain.DIMZ_SIZE)) {
+					continue;
+				}
+
+				this.visited[neighbor] = this.search;
+				this.queueCells[tail] = neighbor;
+				this.queueFaces[tail] = (byte) opposite;
+				this.queueDirections[tail] = (byte) (directions | (1 << faceID));
+				++tail;
+			}
+		}
+		this.visitedCount = tail;
+	}
+
+	/** squared distance from the point to the terrain box at (x, y, z) */
+	private static final float squaredDistanceToBox(Vector3f point, float x, float y, float z) {
+		float dx = Math.max(0.0f, Math.max(x - point.x, point.x - (x + WorldObjectTerrain.DIMX_SIZE)));
+		float dy = Math.max(0.0f, Math.max(y - point.y, point.y - (y + WorldObjectTerrain.DIMY_SIZE)));
+		float dz = Math.max(0.0f, Math.max(z - point.z, point.z - (z + WorldObjectTerrain.DIMZ_SIZE)));
+		return (dx * dx + dy * dy + dz * dz);
+	}
+
+	/** resize the grid so it holds the render distance */
+	private final void resize(float renderDistance) {
+		int rx = (int) Math.ceil(renderDistance / WorldObjectTerrain.DIMX_SIZE) + 1;
+		int ry = (int) Math.ceil(renderDistance / WorldObjectTerrain.DIMY_SIZE) + 1;
+		int rz = (int) Math.ceil(renderDistance / WorldObjectTerrain.DIMZ_SIZE) + 1;
+		if (rx == this.radiusX && ry == this.radiusY && rz == this.radiusZ) {
+			return;
+		}
+		this.radiusX = rx;
+		this.radiusY = ry;
+		this.radiusZ = rz;
+		this.sizeX = 2 * rx + 1;
+		this.sizeY = 2 * ry + 1;
+		this.sizeZ = 2 * rz + 1;
+		int cells = this.sizeX * this.sizeY * this.sizeZ;
+		this.visited = new int[cells];
+		this.queueCells = new int[cells];
+		this.queueFaces = new byte[cells];
+		this.queueDirections = new byte[cells];
+		this.search = 0;
+	}
+
+	/** number of cells (loaded or not) visited by the last search */
+	public final int getVisitedCount() {
+		return (this.visitedCount);
+	}
+}
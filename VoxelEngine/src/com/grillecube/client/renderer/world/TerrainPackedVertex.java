@@ -0,0 +1,140 @@
+package com.grillecube.client.renderer.world;
+
+import java.nio.ByteBuffer;
+
+import com.grillecube.client.resources.BlockRendererManager;
+import com.grillecube.common.faces.Face;
+
+/**
+ * Compact terrain vertex layout: 3 ints (12 bytes) instead of the 13 words of
+ * {@link TerrainMeshVertex#store(ByteBuffer)}. It is decoded in
+ * 'shaders/terrain_packed.vs'.
+ *
+ * position: x (9 bits), y (9 bits), z (11 bits), normal face id (3 bits).
+ * Coordinates are terrain relative, in 1/16 of block, offset by 1 block so
+ * non cubic blocks (plants...) can slightly overflow the terrain.
+ *
+ * texture: u (11 bits), v (11 bits), in 1/16, and the atlas tile (8 bits).
+ *
+ * light: brightness (8 bits, in 1/127, ambiant occlusion included), and
+ * durability (4 bits).
+ */
+public class TerrainPackedVertex {
+
+	/** bytes per vertex */
+	public static final int BYTES_PER_VERTEX = 3 * 4;
+
+	/** fixed point units */
+	public static final int POSITION_UNIT = 16;
+	public static final int POSITION_OFFSET = 1;
+	public static final int UV_UNIT = 16;
+	public static final int BRIGHTNESS_UNIT = 127;
+
+	/** bits */
+	private static final int XY_BITS = 9;
+	private static final int Z_BITS = 11;
+	private static final int UV_BITS = 11;
+	private static final int TILE_BITS = 8;
+	private static final int BRIGHTNESS_BITS = 8;
+
+	/** maximum encoded values */
+	private static final int XY_MAX = (1 << XY_BITS) - 1;
+	private static final int Z_MAX = (1 << Z_BITS) - 1;
+	private static final int UV_MAX = (1 << UV_BITS) - 1;
+	private static final int TILE_MAX = (1 << TILE_BITS) - 1;
+	private static final int BRIGHTNESS_MAX = (1 << BRIGHTNESS_BITS) - 1;
+
+	/** number of tiles per line in the atlas */
+	private static final int TILES_PER_LINE = BlockRendererManager.TEXTURE_PER_LINE;
+
+	/** write the vertex into the buffer */
+	public static final void store(TerrainMeshVertex vertex, ByteBuffer buffer) {
+		int normalID = getNormalID(vertex.normalx, vertex.normaly, vertex.normalz);
+		buffer.putInt(packPosition(vertex.posx, vertex.posy, vertex.posz, normalID));
+		buffer.putInt(packTexture(vertex.u, vertex.v, vertex.atlasX, vertex.atlasY));
+		buffer.putInt(packLight(vertex.brightness, vertex.durability));
+	}
+
+	/** pack a terrain relative position, and a face id */
+	public static final int packPosition(float x, float y, float z, int normalID) {
+		int px = toFixed(x + POSITION_OFFSET, POSITION_UNIT, XY_MAX);
+		int py = toFixed(y + POSITION_OFFSET, POSITION_UNIT, XY_MAX);
+		int pz = toFixed(z + POSITION_OFFSET, POSITION_UNIT, Z_MAX);
+		return (px | (py << XY_BITS) | (pz << (2 * XY_BITS)) | ((normalID & 0x7) << (2 * XY_BITS + Z_BITS)));
+	}
+
+	/** pack the texture coordinates, and the atlas tile */
+	public static final int packTexture(float u, float v, float atlasX, float atlasY) {
+		int pu = toFixed(u, UV_UNIT, UV_MAX);
+		int pv = toFixed(v, UV_UNIT, UV_MAX);
+		int tile = Math.min(Math.max((int) atlasX + (int) atlasY * TILES_PER_LINE, 0), TILE_MAX);
+		return (pu | (pv << UV_BITS) | (tile << (2 * UV_BITS)));
+	}
+
+	/** pack the brightness and the durability */
+	public static final int packLight(float brightness, int durability) {
+		int b = toFixed(brightness, BRIGHTNESS_UNIT, BRIGHTNESS_MAX);
+		return (b | ((durability & 0xF) << BRIGHTNESS_BITS));
+	}
+
+	/** round to the given fixed point unit, clamped to [0, max] */
+	private static final int toFixed(float value, int unit, int max) {
+		int fixed = Math.round(value * unit);
+		return (fixed < 0 ? 0 : fixed > max ? max : fixed);
+	}
+
+	/** get the face id of the closest axis to the given normal */
+	public static final int getNormalID(float nx, float ny, float nz) {
+		float ax = Math.abs(nx);
+		float ay = Math.abs(ny);
+		float az = Math.abs(nz);
+		if (az >= ax && az >= ay) {
+			return (nz >= 0 ? Face.TOP : Face.BOT);
+		}
+		if (ay >= ax) {
+			return (ny >= 0 ? Face.RIGHT : Face.LEFT);
+		}
+		return (nx >= 0 ? Face.FRONT : Face.BACK);
+	}
+
+	/** decoding functions (same as the shader) */
+	public static final float getX(int position) {
+		return ((position & XY_MAX) / (float) POSITION_UNIT - POSITION_OFFSET);
+	}
+
+	public static final float getY(int position) {
+		return (((position >>> XY_BITS) & XY_MAX) / (float) POSITION_UNIT - POSITION_OFFSET);
+	}
+
+	public static final float getZ(int position) {
+		return (((position >>> (2 * XY_BITS)) & Z_MAX) / (float) POSITION_UNIT - POSITION_OFFSET);
+	}
+
+	public static final int getNormalID(int position) {
+		return ((position >>> (2 * XY_BITS + Z_BITS)) & 0x7);
+	}
+
+	public static final float getU(int texture) {
+		return ((texture & UV_MAX) / (float) UV_UNIT);
+	}
+
+	public static final float getV(int texture) {
+		return (((texture >>> UV_BITS) & UV_MAX) / (float) UV_UNIT);
+	}
+
+	public static final int getAtlasX(int texture) {
+		return (((texture >>> (2 * UV_BITS)) & TILE_MAX) % TILES_PER_LINE);
+	}
+
+	public static final int getAtlasY(int texture) {
+		return (((texture >>> (2 * UV_BITS)) & TILE_MAX) / TILES_PER_LINE);
+	}
+
+	public static final float getBrightness(int light) {
+		return ((light & BRIGHTNESS_MAX) / (float) BRIGHTNESS_UNIT);
+	}
+
+	public static final int getDurability(int light) {
+		return ((light >>> BRIGHTNESS_BITS) & 0xF);
+	}
+}
@@ -0,0 +1,120 @@
+package com.grillecube.client.renderer.world;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+import com.grillecube.common.faces.Face;
+
+import junit.framework.Assert;
+
+public class TerrainPackedVertexTests {
+
+	public TerrainPackedVertexTests() {
+
+	}
+
+	@Test
+	public void testBlockPositions() {
+		for (int z = 0; z <= 64; z++) {
+			for (int y = 0; y <= 16; y++) {
+				for (int x = 0; x <= 16; x++) {
+					int packed = TerrainPackedVertex.packPosition(x, y, z, Face.TOP);
+					Assert.assertEquals(x, TerrainPackedVertex.getX(packed), 0.0f);
+					Assert.assertEquals(y, TerrainPackedVertex.getY(packed), 0.0f);
+					Assert.assertEquals(z, TerrainPackedVertex.getZ(packed), 0.0f);
+					Assert.assertEquals(Face.TOP, TerrainPackedVertex.getNormalID(packed));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testFractionalPositions() {
+		float[] values = { -0.5f, -0.2f, 0.1f, 3.33f, 7.5f, 15.9f, 16.7f };
+		float delta = 1.0f / (2 * TerrainPackedVertex.POSITION_UNIT);
+		for (float x : values) {
+			for (float y : values) {
+				int packed = TerrainPackedVertex.packPosition(x, y, y + 40.0f, Face.BACK);
+				Assert.assertEquals(x, TerrainPackedVertex.getX(packed), delta);
+				Assert.assertEquals(y, TerrainPackedVertex.getY(packed), delta);
+				Assert.assertEquals(y + 40.0f, TerrainPackedVertex.getZ(packed), delta);
+				Assert.assertEquals(Face.BACK, TerrainPackedVertex.getNormalID(packed));
+			}
+		}
+	}
+
+	@Test
+	public void testNormals() {
+		for (Face face : Face.faces) {
+			Assert.assertEquals(face.getID(), TerrainPackedVertex.getNormalID(face.getNormal().x, face.getNormal().y,
+					face.getNormal().z));
+			int packed = TerrainPackedVertex.packPosition(16, 16, 64, face.getID());
+			Assert.assertEquals(face.getID(), TerrainPackedVertex.getNormalID(packed));
+			Assert.assertEquals(16.0f, TerrainPackedVertex.getX(packed), 0.0f);
+			Assert.assertEquals(64.0f, TerrainPackedVertex.getZ(packed), 0.0f);
+		}
+	}
+
+	@Test
+	public void testTexture() {
+		for (int atlasY = 0; atlasY < 16; atlasY++) {
+			for (int atlasX = 0; atlasX < 16; atlasX++) {
+				for (int uv = 0; uv <= 64; uv++) {
+					int packed = TerrainPackedVertex.packTexture(uv, 64 - uv, atlasX, atlasY);
+					Assert.assertEquals(uv, TerrainPackedVertex.getU(packed), 0.0f);
+					Assert.assertEquals(64 - uv, TerrainPackedVertex.getV(packed), 0.0f);
+					Assert.assertEquals(atlasX, TerrainPackedVertex.getAtlasX(packed));
+					Assert.assertEquals(atlasY, TerrainPackedVertex.getAtlasY(packed));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testLight() {
+		float delta = 1.0f / (2 * TerrainPackedVertex.BRIGHTNESS_UNIT) + 0.00001f;
+		for (int i = 0; i <= 200; i++) {
+			float brightness = i / 100.0f;
+			for (int durability = 0; durability < 16; durability++) {
+				int packed = TerrainPackedVertex.packLight(brightness, durability);
+				Assert.assertEquals(brightness, TerrainPackedVertex.getBrightness(packed), delta);
+				Assert.assertEquals(durability, TerrainPackedVertex.getDurability(packed));
+			}
+		}
+	}
+
+	@Test
+	public void testStore() {
+		TerrainMeshVertex vertex = new TerrainMeshVertex();
+		vertex.posx = 3.0f;
+		vertex.posy = 15.0f;
+		vertex.posz = 42.0f;
+		vertex.normalx = -1.0f;
+		vertex.atlasX = 5;
+		vertex.atlasY = 2;
+		vertex.u = 4.0f;
+		vertex.v = 1.0f;
+		vertex.brightness = 0.75f;
+		vertex.durability = 3;
+
+		ByteBuffer buffer = ByteBuffer.allocate(64);
+		vertex.storePacked(buffer);
+		Assert.assertEquals(TerrainPackedVertex.BYTES_PER_VERTEX, buffer.position());
+
+		buffer.flip();
+		int position = buffer.getInt();
+		int texture = buffer.getInt();
+		int light = buffer.getInt();
+		Assert.assertEquals(3.0f, TerrainPackedVertex.getX(position), 0.0f);
+		Assert.assertEquals(15.0f, TerrainPackedVertex.getY(position), 0.0f);
+		Assert.assertEquals(42.0f, TerrainPackedVertex.getZ(position), 0.0f);
+		Assert.assertEquals(Face.BACK, TerrainPackedVertex.getNormalID(position));
+		Assert.assertEquals(4.0f, TerrainPackedVertex.getU(texture), 0.0f);
+		Assert.assertEquals(1.0f, TerrainPackedVertex.getV(texture), 0.0f);
+		Assert.assertEquals(5, TerrainPackedVertex.getAtlasX(texture));
+		Assert.assertEquals(2, TerrainPackedVertex.getAtlasY(texture));
+		Assert.assertEquals(0.75f, TerrainPackedVertex.getBrightness(light), 1.0f / 254.0f);
+		Assert.assertEquals(3, TerrainPackedVertex.getDurability(light));
+	}
+}
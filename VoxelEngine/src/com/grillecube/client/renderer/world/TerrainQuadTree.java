@@ -0,0 +1,324 @@
+package com.grillecube.client.renderer.world;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+
+import com.grillecube.client.renderer.camera.CameraProjective;
+import com.grillecube.common.maths.Vector3f;
+import com.grillecube.common.world.terrain.WorldObjectTerrain;
+
+/**
+ * A quadtree over the terrain columns (terrains sharing the same (x, y)
+ * index), used to cull the terrains against the camera frustum and render
+ * distance.
+ *
+ * The world is split in regions of {@link #REGION_SIZE} x {@link #REGION_SIZE}
+ * columns, each one is the root of a quadtree whose leaves are the columns.
+ * Each node caches the bounding box of the terrains it holds (recalculated
+ * lazily once terrains are added or removed), so a whole region can be
+ * rejected with a single test, and the terrains of a node which is fully
+ * inside the frustum are accepted without being tested.
+ *
+ * @param <T>
+ *            : the value attached to each terrain
+ */
+public class TerrainQuadTree<T> {
+
+	/** number of levels under a region root */
+	public static final int REGION_LEVELS = 4;
+
+	/** number of columns on each side of a region */
+	public static final int REGION_SIZE = 1 << REGION_LEVELS;
+
+	/** visitor of the culled terrains */
+	public interface Visitor<T> {
+		/**
+		 * called for each terrain in the frustum and render distance
+		 *
+		 * @param value
+		 *            : the terrain value
+		 * @param squaredDistance
+		 *            : squared distance from the camera to the terrain box
+		 */
+		public void visit(T value, float squaredDistance);
+	}
+
+	/** a terrain of a column */
+	private static class Entry<T> {
+		final WorldObjectTerrain terrain;
+		final T value;
+
+		Entry(WorldObjectTerrain terrain, T value) {
+			this.terrain = terrain;
+			this.value = value;
+		}
+	}
+
+	/** a node (a column for the level 0) */
+	private static class Node<T> {
+
+		final int level;
+
+		/** index of the first column of this node */
+		final int x;
+		final int y;
+
+		/** children (if level > 0) */
+		final Node<T>[] children;
+
+		/** terrains of the column (if level == 0) */
+		final ArrayList<Entry<T>> entries;
+
+		/** number of terrains in this node */
+		int count;
+
+		/** cached bounding box */
+		float minx, miny, minz;
+		float maxx, maxy, maxz;
+		boolean dirty;
+
+		@SuppressWarnings("unchecked")
+		Node(int level, int x, int y) {
+			this.level = level;
+			this.x = x;
+			this.y = y;
+			this.children = level > 0 ? (Node<T>[]) new Node<?>[4] : null;
+			this.entries = level > 0 ? null : new ArrayList<Entry<T>>(4);
+			this.count = 0;
+			this.dirty = true;
+		}
+
+		/** recalculate the bounding box, if terrains were added or removed */
+		final void updateBounds() {
+			if (!this.dirty) {
+				return;
+			}
+			this.dirty = false;
+			int size = 1 << this.level;
+			this.minx = this.x * WorldObjectTerrain.DIMX_SIZE;
+			this.miny = this.y * WorldObjectTerrain.DIMY_SIZE;
+			this.maxx = (this.x + size) * WorldObjectTerrain.DIMX_SIZE;
+			this.maxy = (this.y + size) * WorldObjectTerrain.DIMY_SIZE;
+			this.minz = Float.POSITIVE_INFINITY;
+			this.maxz = Float.NEGATIVE_INFINITY;
+			if (this.entries != null) {
+				for (Entry<T> entry : this.entries) {
+					float z = entry.terrain.getWorldPosition().z;
+					this.minz = Math.min(this.minz, z);
+					this.maxz = Math.max(this.maxz, z + WorldObjectTerrain.DIMZ_SIZE);
+				}
+				return;
+			}
+			for (Node<T> child : this.children) {
+				if (child != null && child.count > 0) {
+					child.updateBounds();
+					this.minz = Math.min(this.minz, child.minz);
+					this.maxz = Math.max(this.maxz, child.maxz);
+				}
+			}
+		}
+	}
+
+	/** region roots */
+	private final HashMap<Long, Node<T>> regions;
+
+	/** number of terrains */
+	private int size;
+
+	/** statistics of the last culling */
+	private int testedNodes;
+	private int visitedTerrains;
+
+	public TerrainQuadTree() {
+		this.regions = new HashMap<Long, Node<T>>();
+		this.size = 0;
+	}
+
+	private static final long getRegionKey(int rx, int ry) {
+		return (((long) rx << 32) | (ry & 0xFFFFFFFFL));
+	}
+
+	/** add a terrain to the tree */
+	public final void add(WorldObjectTerrain terrain, T value) {
+		int ix = terrain.getWorldIndex().x;
+		int iy = terrain.getWorldIndex().y;
+		int rx = Math.floorDiv(ix, REGION_SIZE);
+		int ry = Math.floorDiv(iy, REGION_SIZE);
+		Long key = getRegionKey(rx, ry);
+		Node<T> node = this.regions.get(key);
+		if (node == null) {
+			node = new Node<T>(REGION_LEVELS, rx * REGION_SIZE, ry * REGION_SIZE);
+			this.regions.put(key, node);
+		}
+
+		// go down to the column, marking the nodes as dirty
+		while (node.level > 0) {
+			++node.count;
+			node.dirty = true;
+			int half = 1 << (node.level - 1);
+			int cx = ix - node.x >= half ? 1 : 0;
+			int cy = iy - node.y >= half ? 1 : 0;
+			int child = cx + 2 * cy;
+			if (node.children[child] == null) {
+				node.children[child] = new Node<T>(node.level - 1, node.x + cx * half, node.y + cy * half);
+			}
+			node = node.children[child];
+		}
+		++node.count;
+		node.dirty = true;
+		node.entries.add(new Entry<T>(terrain, value));
+		++this.size;
+	}
+
+	/** remove a terrain from the tree */
+	public final void remove(WorldObjectTerrain terrain) {
+		int ix = terrain.getWorldIndex().x;
+		int iy = terrain.getWorldIndex().y;
+		Long key = getRegionKey(Math.floorDiv(ix, REGION_SIZE), Math.floorDiv(iy, REGION_SIZE));
+		Node<T> root = this.regions.get(key);
+		if (root == null) {
+			return;
+		}
+
+		// find the column
+		Node<T> node = root;
+		while (node != null && node.level > 0) {
+			int half = 1 << (node.level - 1);
+			int cx = ix - node.x >= half ? 1 : 0;
+			int cy = iy - node.y >= half ? 1 : 0;
+			node = node.children[cx + 2 * cy];
+		}
+		if (node == null || !this.removeEntry(node, terrain)) {
+			return;
+		}
+
+		// update the counts of the path
+		node = root;
+		while (node.level > 0) {
+			--node.count;
+			node.dirty = true;
+			int half = 1 << (node.level - 1);
+			int cx = ix - node.x >= half ? 1 : 0;
+			int cy = iy - node.y >= half ? 1 : 0;
+			Node<T> child = node.children[cx + 2 * cy];
+			if (child.count == 1) {
+				// the child is now empty
+				node.children[cx + 2 * cy] = null;
+				break;
+			}
+			node = child;
+		}
+		if (node.level == 0) {
+			--node.count;
+			node.dirty = true;
+		}
+		if (root.count == 0) {
+			this.regions.remove(key);
+		}
+		--this.size;
+	}
+
+	private final boolean removeEntry(Node<T> column, WorldObjectTerrain terrain) {
+		Iterator<Entry<T>> it = column.entries.iterator();
+		while (it.hasNext()) {
+			if (it.next().terrain == terrain) {
+				it.remove();
+				return (true);
+			}
+		}
+		return (false);
+	}
+
+	/** remove every terrains */
+	public final void clear() {
+		this.regions.clear();
+		this.size = 0;
+	}
+
+	/** number of terrains in the tree */
+	public final int size() {
+		return (this.size);
+	}
+
+	/**
+	 * visit every terrain in the camera frustum and render distance
+	 *
+	 * @param camera
+	 *            : the camera
+	 * @param renderDistance
+	 *            : the render distance
+	 * @param visitor
+	 *            : the visitor
+	 */
+	public final void cull(CameraProjective camera, float renderDistance, Visitor<T> visitor) {
+		this.testedNodes = 0;
+		this.visitedTerrains = 0;
+		float squaredDistance = renderDistance * renderDistance;
+		for (Node<T> root : this.regions.values()) {
+			this.cull(root, camera, camera.getPosition(), squaredDistance, false, visitor);
+		}
+	}
+
+	private final void cull(Node<T> node, CameraProjective camera, Vector3f position, float squaredDistance,
+			boolean inside, Visitor<T> visitor) {
+		node.updateBounds();
+		++this.testedNodes;
+		if (squaredDistanceToBox(position, node.minx, node.miny, node.minz, node.maxx, node.maxy,
+				node.maxz) > squaredDistance) {
+			return;
+		}
+		if (!inside) {
+			int intersection = camera.getBoxFrustumIntersection(node.minx, node.miny, node.minz,
+					node.maxx - node.minx, node.maxy - node.miny, node.maxz - node.minz);
+			if (intersection == CameraProjective.FRUSTUM_OUTSIDE) {
+				return;
+			}
+			inside = (intersection == CameraProjective.FRUSTUM_INSIDE);
+		}
+
+		if (node.entries != null) {
+			for (Entry<T> entry : node.entries) {
+				Vector3f pos = entry.terrain.getWorldPosition();
+				float distance = squaredDistanceToBox(position, pos.x, pos.y, pos.z,
+						pos.x + WorldObjectTerrain.DIMX_SIZE, pos.y + WorldObjectTerrain.DIMY_SIZE,
+						pos.z + WorldObjectTerrain.DIMZ_SIZE);
+				if (distance > squaredDistance) {
+					continue;
+				}
+				if (!inside && node.entries.size() > 1 && !camera.isBoxInFrustum(pos.x, pos.y, pos.z,
+						WorldObjectTerrain.DIMX_SIZE, WorldObjectTerrain.DIMY_SIZE, WorldObjectTerrain.DIMZ_SIZE)) {
+					continue;
+				}
+				++this.visitedTerrains;
+				visitor.visit(entry.value, distance);
+			}
+			return;
+		}
+
+		for (Node<T> child : node.children) {
+			if (child != null && child.count > 0) {
+				this.cull(child, camera, position, squaredDistance, inside, visitor);
+			}
+		}
+	}
+
+	/** squared distance from the point to the box */
+	private static final float squaredDistanceToBox(Vector3f point, float minx, float miny, float minz, float maxx,
+			float maxy, float maxz) {
+		float dx = Math.max(0.0f, Math.max(minx - point.x, point.x - maxx));
+		float dy = Math.max(0.0f, Math.max(miny - point.y, point.y - maxy));
+		float dz = Math.max(0.0f, Math.max(minz - point.z, point.z - maxz));
+		return (dx * dx + dy * dy + dz * dz);
+	}
+
+	/** number of nodes tested by the last culling */
+	public final int getTestedNodes() {
+		return (this.testedNodes);
+	}
+
+	/** number of terrains visited by the last culling */
+	public final int getVisitedTerrains() {
+		return (this.visitedTerrains);
+	}
+}
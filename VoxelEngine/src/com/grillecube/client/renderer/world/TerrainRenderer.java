@@ -37,28 +37,48 @@ import com.grillecube.common.world.terrain.WorldObjectTerrain;
 
 public class TerrainRenderer extends Renderer {
 
-	/** rendering program */
+	/** rendering programs (for each vertex layout) */
 	private ProgramTerrain terrainProgram;
+	private ProgramTerrain packedTerrainProgram;
+	private ProgramTerrain arenaTerrainProgram;
 	private GLTexture breakAtlas;
 
+	/** the program currently in use */
+	private ProgramTerrain program;
+
 	public TerrainRenderer(MainRenderer mainRenderer) {
 		super(mainRenderer);
 	}
 
 	@Override
 	public void initialize() {
-		this.terrainProgram = new ProgramTerrain();
+		this.terrainProgram = new ProgramTerrain(false);
+		this.packedTerrainProgram = new ProgramTerrain(true);
+		this.arenaTerrainProgram = new ProgramTerrain(true, true);
 		this.breakAtlas = GLH.glhGenTexture(R.getResPath("textures/block_atlas/break.png"));
 	}
 
 	@Override
 	public void deinitialize() {
 		GLH.glhDeleteObject(this.terrainProgram);
+		GLH.glhDeleteObject(this.packedTerrainProgram);
+		GLH.glhDeleteObject(this.arenaTerrainProgram);
 		this.terrainProgram = null;
+		this.packedTerrainProgram = null;
+		this.arenaTerrainProgram = null;
+		this.program = null;
 	}
 
 	private final void bindTextureAtlas(TerrainMesh mesh, CameraView camera) {
+		GLTexture texture = this.getTextureAtlas(mesh, camera);
+		if (texture != null) {
+			texture.bind(GL13.GL_TEXTURE0, GL11.GL_TEXTURE_2D);
+		}
+		this.breakAtlas.bind(GL13.GL_TEXTURE1, GL11.GL_TEXTURE_2D);
+	}
 
+	/** get the texture atlas resolution to use for the given mesh */
+	private final GLTexture getTextureAtlas(TerrainMesh mesh, CameraView camera) {
 		float distance = (float) Vector3f.distance(camera.getPosition(), mesh.getTerrain().getWorldPosition());
 		BlockRendererManager manager = this.getMainRenderer().getResourceManager().getBlockTextureManager();
 		GLTexture texture = null;
@@ -74,16 +94,20 @@ public class TerrainRenderer extends Renderer {
 		} else {
 			texture = manager.getTextureAtlas(BlockRendererManager.RESOLUTION_1x1);
 		}
-
-		if (texture != null) {
-			texture.bind(GL13.GL_TEXTURE0, GL11.GL_TEXTURE_2D);
-		}
-		this.breakAtlas.bind(GL13.GL_TEXTURE1, GL11.GL_TEXTURE_2D);
-
+		return (texture);
 	}
 
 	public void render(CameraProjective camera, WorldFlat world, ArrayList<TerrainMesh> opaqueMeshes,
 			ArrayList<TerrainMesh> transparentMeshes) {
+		this.render(camera, world, null, opaqueMeshes, transparentMeshes);
+	}
+
+	/**
+	 * render the terrain meshes. The opaque meshes stored in the arenas are
+	 * drawn with one multi draw call per arena and texture atlas resolution.
+	 */
+	public void render(CameraProjective camera, WorldFlat world, TerrainBufferArenas arenas,
+			ArrayList<TerrainMesh> opaqueMeshes, ArrayList<TerrainMesh> transparentMeshes) {
 
 		GL11.glEnable(GL11.GL_DEPTH_TEST);
 
@@ -91,37 +115,101 @@ public class TerrainRenderer extends Renderer {
 			GL11.glPolygonMode(GL11.GL_FRONT_AND_BACK, GL11.GL_LINE);
 		}
 
-		this.terrainProgram.useStart();
-		this.terrainProgram.loadUniforms(camera, world);
+		this.program = null;
+
+		if (arenas != null && opaqueMeshes != null && opaqueMeshes.size() > 0) {
+			arenas.resetDrawCalls();
+			this.drawArenaMeshes(camera, world, arenas, opaqueMeshes);
+		}
 
 		if (opaqueMeshes != null && opaqueMeshes.size() > 0) {
-			this.drawMeshes(camera, opaqueMeshes, ProgramTerrain.MESH_TYPE_OPAQUE);
+			this.drawMeshes(camera, world, opaqueMeshes, ProgramTerrain.MESH_TYPE_OPAQUE);
 		}
 
 		if (transparentMeshes != null && transparentMeshes.size() > 0) {
 			GL11.glEnable(GL11.GL_BLEND);
 			GL11.glBlendFunc(GL11.GL_SRC_ALPHA, GL11.GL_ONE_MINUS_SRC_ALPHA);
 			// bind textures
-			this.drawMeshes(camera, transparentMeshes, ProgramTerrain.MESH_TYPE_TRANSPARENT);
+			this.drawMeshes(camera, world, transparentMeshes, ProgramTerrain.MESH_TYPE_TRANSPARENT);
 			GL11.glDisable(GL11.GL_BLEND);
 		}
 
+		if (this.program != null) {
+			this.program.useStop();
+			this.program = null;
+		}
+
 		GL11.glPolygonMode(GL11.GL_FRONT_AND_BACK, GL11.GL_FILL);
 	}
 
-	private final void drawMeshes(CameraProjective camera, ArrayList<TerrainMesh> transparentMeshes, int meshType) {
-		this.terrainProgram.loadTypeUniform(meshType);
+	private final void drawMeshes(CameraProjective camera, WorldFlat world, ArrayList<TerrainMesh> transparentMeshes,
+			int meshType) {
+		if (this.program != null) {
+			this.program.loadTypeUniform(meshType);
+		}
 		for (TerrainMesh mesh : transparentMeshes) {
-			if (!mesh.isInitialized()) {
+			if (mesh.isInArena() || !mesh.isInitialized()) {
 				continue;
 			}
+			this.useProgram(mesh.isPacked() ? this.packedTerrainProgram : this.terrainProgram, camera, world, meshType);
 			this.bindTextureAtlas(mesh, camera);
-			this.terrainProgram.loadInstanceUniforms(mesh);
+			this.program.loadInstanceUniforms(mesh);
 			mesh.bind();
 			mesh.draw();
 		}
 	}
 
+	/**
+	 * draw the meshes stored in the arenas. The meshes are sorted by distance,
+	 * so they are queued until the texture atlas resolution changes.
+	 */
+	private final void drawArenaMeshes(CameraProjective camera, WorldFlat world, TerrainBufferArenas arenas,
+			ArrayList<TerrainMesh> meshes) {
+		GLTexture atlas = null;
+		boolean queued = false;
+		for (TerrainMesh mesh : meshes) {
+			if (!mesh.isInArena()) {
+				continue;
+			}
+			GLTexture texture = this.getTextureAtlas(mesh, camera);
+			if (!queued || texture != atlas) {
+				if (queued) {
+					arenas.draw();
+				} else {
+					this.useProgram(this.arenaTerrainProgram, camera, world, ProgramTerrain.MESH_TYPE_OPAQUE);
+					this.breakAtlas.bind(GL13.GL_TEXTURE1, GL11.GL_TEXTURE_2D);
+					GL11.glDisable(GL11.GL_CULL_FACE);
+				}
+				if (texture != null) {
+					texture.bind(GL13.GL_TEXTURE0, GL11.GL_TEXTURE_2D);
+				}
+				atlas = texture;
+				queued = true;
+			}
+			arenas.addDraw(mesh);
+		}
+		if (queued) {
+			arenas.draw();
+		}
+	}
+
+	/**
+	 * switch to the given program if it is not in use (meshes of both vertex
+	 * layouts only coexist while they are being rebuilt)
+	 */
+	private final void useProgram(ProgramTerrain program, CameraProjective camera, WorldFlat world, int meshType) {
+		if (this.program == program) {
+			return;
+		}
+		if (this.program != null) {
+			this.program.useStop();
+		}
+		this.program = program;
+		this.program.useStart();
+		this.program.loadUniforms(camera, world);
+		this.program.loadTypeUniform(meshType);
+	}
+
 	@Override
 	public void getTasks(VoxelEngine engine, ArrayList<Callable<Taskable>> tasks) {
 	}
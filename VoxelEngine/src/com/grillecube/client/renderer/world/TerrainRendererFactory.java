@@ -5,6 +5,13 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.lwjgl.glfw.GLFW;
 
@@ -14,6 +21,7 @@ import com.grillecube.client.renderer.MainRenderer;
 import com.grillecube.client.renderer.MainRenderer.GLTask;
 import com.grillecube.client.renderer.RendererFactory;
 import com.grillecube.client.renderer.camera.CameraProjective;
+import com.grillecube.common.Logger;
 import com.grillecube.common.Timer;
 import com.grillecube.common.event.Listener;
 import com.grillecube.common.event.world.EventTerrainBlocklightUpdate;
@@ -27,36 +35,91 @@ import com.grillecube.common.resources.ResourceManager;
 import com.grillecube.common.world.WorldFlat;
 import com.grillecube.common.world.terrain.WorldObjectTerrain;
 
-/** a factory class which create terrain renderer lists */
+/**
+ * a factory class which create terrain renderer lists
+ *
+ * Terrain meshes are built by a pool of mesher threads, from a snapshot of the
+ * terrain and its neighbors (see {@link TerrainSnapshot}). Only the upload of
+ * the built vertices is done on the gl thread, within a byte budget per frame.
+ * A mesh which is still being built when its terrain changes again is
+ * cancelled.
+ */
 public class TerrainRendererFactory extends RendererFactory {
 
+	/** default number of bytes uploaded per frame */
+	public static final int DEFAULT_UPLOAD_BUDGET = 2 * 1024 * 1024;
+
+	/** maximum number of meshes being built or waiting to be uploaded */
+	private static final int MAX_PENDING_JOBS = 64;
+
+	/** cell size of each level of detail (0 is the full detail mesh) */
+	public static final int[] LODS = { 1, 2, 4, 8 };
+
+	/** default distance from which the first level of detail is used */
+	public static final float DEFAULT_LOD_DISTANCE = 8 * WorldObjectTerrain.DIMX_SIZE;
+
+	/**
+	 * a terrain changes its level of detail once it is this fraction further /
+	 * nearer than the level distance, so it doesnt flap between two levels
+	 */
+	private static final float LOD_HYSTERESIS = 0.1f;
+
 	class TerrainRenderingData {
 
 		final WorldObjectTerrain terrain;
 		boolean meshUpToDate;
 		final TerrainMesh opaqueMesh; // mesh holding opaque blocks
 		final TerrainMesh transparentMesh; // mesh holding transparent blocks
-		final ArrayList<TerrainMeshTriangle> opaqueTriangles;
-		final ArrayList<TerrainMeshTriangle> transparentTriangles;
-		ByteBuffer vertices;
-		boolean isInFrustrum;
+
+		/** last frame on which the terrain was reached by the cave culling */
+		int occlusionFrame;
+
+		/** level of detail of the meshes (index in {@link #LODS}) */
+		int lod;
 		Vector3f lastCameraPos;
 		Timer timer;
 		private float distance;
 
+		/** incremented each time the terrain changes */
+		volatile int version;
+
+		/** true once the meshes are removed from the factory */
+		volatile boolean removed;
+
+		/** the last mesh job started for this terrain */
+		MeshJob job;
+
 		TerrainRenderingData(WorldObjectTerrain terrain) {
 			this.terrain = terrain;
 			this.opaqueMesh = new TerrainMesh(terrain);
 			this.transparentMesh = new TerrainMesh(terrain);
-			this.opaqueTriangles = new ArrayList<TerrainMeshTriangle>();
-			this.transparentTriangles = new ArrayList<TerrainMeshTriangle>();
 			this.meshUpToDate = false;
 			this.lastCameraPos = new Vector3f();
 			this.timer = new Timer();
+			this.version = 0;
+			this.removed = false;
+			this.occlusionFrame = -1;
+			this.lod = 0;
 		}
 
 		void requestUpdate() {
 			this.meshUpToDate = false;
+			++this.version;
+			this.cancelJob();
+		}
+
+		/** cancel the mesh job of this terrain, if any */
+		void cancelJob() {
+			if (this.job != null) {
+				this.job.cancel();
+				this.job = null;
+			}
+		}
+
+		/** called when the terrain is removed from the factory */
+		void remove() {
+			this.removed = true;
+			this.cancelJob();
 		}
 
 		void deinitialize() {
@@ -64,31 +127,22 @@ public class TerrainRendererFactory extends RendererFactory {
 			this.transparentMesh.deinitialize();
 		}
 
-		void update(CameraProjective camera) {
-			this.timer.update();
-			// calculate square distance from camera
-			Vector3f center = this.terrain.getWorldPosition();
-			this.distance = (float) Vector3f.distanceSquare(center, camera.getPosition());
-			this.isInFrustrum = (this.distance < camera.getSquaredRenderDistance()
-					&& camera.isBoxInFrustum(terrain.getWorldPosition(), WorldObjectTerrain.TERRAIN_SIZE));
-		}
-
-		boolean isInFrustrum() {
-			return (this.isInFrustrum || true);
+		/** start building the meshes of this terrain on the mesher threads */
+		void startJob() {
+			this.meshUpToDate = true;
+			this.job = new MeshJob(this, meshers[this.lod]);
+			pendingJobs.incrementAndGet();
+			executor.execute(this.job);
 		}
 
-		void glUpdate() {
-			if (COUNT == MAX_COUNT || this.meshUpToDate) {
-				return;
+		/** upload the built vertices (called in the gl thread) */
+		void glUpload(MeshJob job) {
+			if (job.packed && arenaRendering) {
+				this.opaqueMesh.setArenaVertices(arenas, job.vertices[0]);
+			} else {
+				this.opaqueMesh.setVertices(job.vertices[0], job.packed);
 			}
-			++COUNT;
-			this.meshUpToDate = true;
-			mesher.pushVerticesToStacks(this.terrain, this.opaqueMesh, this.transparentMesh, this.opaqueTriangles,
-					this.transparentTriangles);
-			mesher.setMeshVertices(this.opaqueMesh, this.opaqueTriangles);
-			mesher.setMeshVertices(this.transparentMesh, this.transparentTriangles);
-			this.opaqueTriangles.clear();
-			this.transparentTriangles.clear();
+			this.transparentMesh.setVertices(job.vertices[1], job.packed);
 			// this.opaqueMesh.cull(true);
 
 			// TODO : can this be done more properly?
@@ -117,6 +171,97 @@ public class TerrainRendererFactory extends RendererFactory {
 		};
 	}
 
+	/** build the vertices of a terrain from a snapshot (run in a mesher thread) */
+	class MeshJob implements Runnable {
+
+		final TerrainRenderingData data;
+		final TerrainMesher mesher;
+
+		/** version of the terrain when the snapshot was taken */
+		final int version;
+
+		/** terrain data */
+		private TerrainSnapshot snapshot;
+
+		/** built vertices (opaque, transparent) */
+		final ByteBuffer[] vertices;
+
+		/** true if the vertices use the compact layout */
+		final boolean packed;
+
+		/** true if the job result should be dropped */
+		private volatile boolean cancelled;
+
+		/** true if the meshing failed: the terrain is meshed again */
+		private boolean failed;
+
+		MeshJob(TerrainRenderingData data, TerrainMesher mesher) {
+			this.data = data;
+			this.mesher = mesher;
+			this.version = data.version;
+			this.snapshot = new TerrainSnapshot(data.terrain, LODS[data.lod]);
+			this.vertices = new ByteBuffer[2];
+			this.packed = mesher.isPackedVertices();
+			this.cancelled = false;
+			this.failed = false;
+		}
+
+		@Override
+		public void run() {
+			boolean queued = false;
+			try {
+				if (!this.isStale()) {
+					this.mesher.buildVertices(this.snapshot, this.vertices, this.packed);
+					if (!this.isStale()) {
+						meshed.add(this);
+						queued = true;
+					}
+				}
+			} catch (Exception e) {
+				Logger.get().log(Logger.Level.ERROR, "Exception occured when meshing terrain", this.data.terrain);
+				e.printStackTrace(Logger.get().getPrintStream());
+				// the gl thread marks the terrain to be meshed again
+				this.failed = true;
+				meshed.add(this);
+				queued = true;
+			} finally {
+				this.snapshot = null;
+				if (!queued) {
+					// the job will never be uploaded
+					this.release();
+					pendingJobs.decrementAndGet();
+				}
+			}
+		}
+
+		/** give the vertex buffers back to the mesher pool */
+		final void release() {
+			TerrainMesher.releaseBuffer(this.vertices[0]);
+			TerrainMesher.releaseBuffer(this.vertices[1]);
+			this.vertices[0] = null;
+			this.vertices[1] = null;
+		}
+
+		/** cancel the job: it result will be dropped */
+		final void cancel() {
+			this.cancelled = true;
+			if (executor.remove(this)) {
+				// the job was still queued, it will never run
+				pendingJobs.decrementAndGet();
+			}
+		}
+
+		/** true if the terrain changed since the snapshot was taken */
+		final boolean isStale() {
+			return (this.cancelled || this.data.removed || this.version != this.data.version);
+		}
+
+		/** number of bytes to upload */
+		final int getBytes() {
+			return (this.vertices[0].remaining() + this.vertices[1].remaining());
+		}
+	}
+
 	/** array list of terrain to render */
 	private HashMap<WorldObjectTerrain, TerrainRenderingData> terrainsRenderingData;
 
@@ -128,15 +273,95 @@ public class TerrainRendererFactory extends RendererFactory {
 	private WorldFlat world;
 	private CameraProjective camera;
 
-	private TerrainMesher mesher;
+	/** meshers of each level of detail */
+	private final TerrainMesher[] meshers;
+
+	/** distance from which the first level of detail is used (0 to disable) */
+	private float lodDistance;
+
+	/** mesher threads */
+	private final ThreadPoolExecutor executor;
+
+	/** meshes built, waiting to be uploaded on the gl thread */
+	private final ConcurrentLinkedQueue<MeshJob> meshed;
+
+	/** number of meshes being built or waiting to be uploaded */
+	private final AtomicInteger pendingJobs;
+
+	/** maximum number of bytes uploaded per frame */
+	private int uploadBudget;
+
+	/** temporary list of the terrains which needs to be meshed */
+	private final ArrayList<TerrainRenderingData> outdated;
+
+	/** cave culling */
+	private final TerrainOcclusionCuller occlusionCuller;
+	private final ArrayList<WorldObjectTerrain> visibleTerrains;
+	private boolean occlusionCulling;
+
+	/** frustum culling */
+	private final TerrainQuadTree<TerrainRenderingData> quadTree;
+	private final TerrainQuadTree.Visitor<TerrainRenderingData> cullVisitor;
+
+	/** terrains to render this frame, nearest first */
+	private final ArrayList<TerrainRenderingData> visible;
+
+	/** arenas holding the opaque meshes (if the vertices are packed) */
+	private final TerrainBufferArenas arenas;
+	private boolean arenaRendering;
+
+	/** frame counter, and true if the cave culling ran this frame */
+	private int frame;
+	private boolean occluded;
 
 	public TerrainRendererFactory(MainRenderer mainRenderer) {
 		super(mainRenderer);
 
+		int threads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+		this.executor = new ThreadPoolExecutor(threads, threads, 30L, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable runnable) {
+						Thread thread = new Thread(runnable, "Terrain mesher");
+						thread.setDaemon(true);
+						return (thread);
+					}
+				});
+		this.executor.allowCoreThreadTimeOut(true);
+		this.meshed = new ConcurrentLinkedQueue<MeshJob>();
+		this.pendingJobs = new AtomicInteger(0);
+		this.uploadBudget = DEFAULT_UPLOAD_BUDGET;
+		this.outdated = new ArrayList<TerrainRenderingData>();
+		this.occlusionCuller = new TerrainOcclusionCuller();
+		this.visibleTerrains = new ArrayList<WorldObjectTerrain>();
+		this.occlusionCulling = true;
+		this.quadTree = new TerrainQuadTree<TerrainRenderingData>();
+		this.visible = new ArrayList<TerrainRenderingData>();
+		this.frame = 0;
+		this.cullVisitor = new TerrainQuadTree.Visitor<TerrainRenderingData>() {
+			@Override
+			public void visit(TerrainRenderingData terrainRenderingData, float squaredDistance) {
+				if (occluded && terrainRenderingData.occlusionFrame != frame) {
+					return;
+				}
+				terrainRenderingData.distance = squaredDistance;
+				visible.add(terrainRenderingData);
+				updateLOD(terrainRenderingData);
+			}
+		};
+
 		this.terrainsRenderingData = new HashMap<WorldObjectTerrain, TerrainRenderingData>(4096);
-		// this.mesher = new MarchingCubesTerrainMesher();
-		this.mesher = new TerrainMesherGreedy();
-		// this.mesher = new FlatTerrainMesherCull();
+		this.meshers = new TerrainMesher[LODS.length];
+		// this.meshers[0] = new MarchingCubesTerrainMesher();
+		// this.meshers[0] = new TerrainMesherGreedy();
+		this.meshers[0] = new TerrainMesherGreedyMask();
+		// this.meshers[0] = new FlatTerrainMesherCull();
+		for (int i = 1; i < LODS.length; i++) {
+			this.meshers[i] = new TerrainMesherLOD(LODS[i]);
+		}
+		this.lodDistance = DEFAULT_LOD_DISTANCE;
+		this.arenas = new TerrainBufferArenas();
+		this.arenaRendering = true;
 		this.opaqueRenderingList = new ArrayList<TerrainMesh>();
 		this.transparentRenderingList = new ArrayList<TerrainMesh>();
 
@@ -154,10 +379,11 @@ public class TerrainRendererFactory extends RendererFactory {
 				if (terrain.getWorld() != world) {
 					return;
 				}
-				TerrainRenderingData terrainRenderingData = terrainsRenderingData.get(terrain);
+				TerrainRenderingData terrainRenderingData = terrainsRenderingData.remove(terrain);
 				if (terrainRenderingData != null) {
+					terrainRenderingData.remove();
 					terrainRenderingData.deinitialize();
-					terrainsRenderingData.remove(terrain);
+					quadTree.remove(terrain);
 				}
 			}
 		});
@@ -226,6 +452,14 @@ public class TerrainRendererFactory extends RendererFactory {
 	public final void deinitialize() {
 		/** destroy every currently set meshes */
 		Collection<TerrainRenderingData> terrainsRenderingData = this.terrainsRenderingData.values();
+		for (TerrainRenderingData terrainRenderingData : terrainsRenderingData) {
+			terrainRenderingData.remove();
+		}
+		MeshJob job;
+		while ((job = this.meshed.poll()) != null) {
+			job.release();
+			this.pendingJobs.decrementAndGet();
+		}
 		VoxelEngineClient.instance().addGLTask(new GLTask() {
 			@Override
 			public void run() {
@@ -234,19 +468,18 @@ public class TerrainRendererFactory extends RendererFactory {
 						terrainRenderingData.deinitialize();
 					}
 				}
+				arenas.delete();
 			}
 		});
 		this.terrainsRenderingData.clear();
-
+		this.quadTree.clear();
+		this.visible.clear();
 	}
 
 	static double DT = 0;
-	static int COUNT = 0;
-	static int MAX_COUNT = 16;
 
 	@Override
 	public void update(double dt) {
-		COUNT = 0;
 		// DT += dt;
 		// if ((DT < 0 || DT > 0.2)) {
 		// if (GLH.glhGetWindow().isKeyPressed(GLFW.GLFW_KEY_X)) {
@@ -276,46 +509,231 @@ public class TerrainRendererFactory extends RendererFactory {
 	}
 
 	public static boolean LIGHT = true;
-	private final Comparator<? super TerrainMesh> DISTANCE_DESC_SORT = new Comparator<TerrainMesh>() {
+
+	private static final Comparator<TerrainRenderingData> DISTANCE_ASC_SORT = new Comparator<TerrainRenderingData>() {
 		@Override
-		public int compare(TerrainMesh o1, TerrainMesh o2) {
-			return ((int) (Vector3f.distanceSquare(o2.getPosition(), camera.getPosition())
-					- Vector3f.distanceSquare(o1.getPosition(), camera.getPosition())));
+		public int compare(TerrainRenderingData d1, TerrainRenderingData d2) {
+			return (Float.compare(d1.distance, d2.distance));
 		}
 	};
 
 	private final void updateRenderingList() {
 		this.opaqueRenderingList.clear();
 		this.transparentRenderingList.clear();
-		Collection<TerrainRenderingData> collection = this.terrainsRenderingData.values();
-		TerrainRenderingData[] terrainsRenderingData = collection.toArray(new TerrainRenderingData[collection.size()]);
+		this.visible.clear();
+		++this.frame;
 
-		// update meshes and add opaques one first (to be rendered first)
-		for (TerrainRenderingData terrainRenderingData : terrainsRenderingData) {
-			terrainRenderingData.update(this.getCamera());
-			if (terrainRenderingData.isInFrustrum() && terrainRenderingData.opaqueMesh.getVertexCount() > 0) {
+		// cave culling
+		this.occluded = this.occlusionCulling && this.world != null;
+		if (this.occluded) {
+			this.updateVisibleTerrains();
+		}
+
+		// frustum and distance culling: only the visible terrains are visited,
+		// and their distance is calculated once
+		CameraProjective camera = this.getCamera();
+		this.quadTree.cull(camera, camera.getRenderDistance(), this.cullVisitor);
+		this.visible.sort(DISTANCE_ASC_SORT);
+
+		// add opaques one first (to be rendered first), front to back
+		for (TerrainRenderingData terrainRenderingData : this.visible) {
+			if (terrainRenderingData.opaqueMesh.getVertexCount() > 0) {
 				this.opaqueRenderingList.add(terrainRenderingData.opaqueMesh);
 			}
 		}
-		this.opaqueRenderingList.sort(DISTANCE_DESC_SORT);
 
-		// add the transparent meshes (to be rendered after opaque ones)
-		for (TerrainRenderingData terrainRenderingData : terrainsRenderingData) {
-			if (terrainRenderingData.isInFrustrum() && terrainRenderingData.transparentMesh.getVertexCount() > 0) {
+		// add the transparent meshes (to be rendered after opaque ones), back to
+		// front
+		for (int i = this.visible.size() - 1; i >= 0; i--) {
+			TerrainRenderingData terrainRenderingData = this.visible.get(i);
+			if (terrainRenderingData.transparentMesh.getVertexCount() > 0) {
 				this.transparentRenderingList.add(terrainRenderingData.transparentMesh);
 			}
 		}
 
+		this.startMeshJobs();
+
 		VoxelEngineClient.instance().addGLTask(new GLTask() {
 			@Override
 			public void run() {
-				for (TerrainRenderingData terrainRenderingData : terrainsRenderingData) {
-					terrainRenderingData.glUpdate();
-				}
+				uploadMeshes();
 			}
 		});
 	}
 
+	/**
+	 * cave culling: only the terrains reached by the visibility search from the
+	 * camera terrain are rendered (see {@link TerrainOcclusionCuller})
+	 */
+	private final void updateVisibleTerrains() {
+		CameraProjective camera = this.getCamera();
+		this.occlusionCuller.cull(this.world, camera.getPosition(), camera.getRenderDistance(), camera,
+				this.visibleTerrains);
+		for (WorldObjectTerrain terrain : this.visibleTerrains) {
+			TerrainRenderingData terrainRenderingData = this.terrainsRenderingData.get(terrain);
+			if (terrainRenderingData != null) {
+				terrainRenderingData.occlusionFrame = this.frame;
+			}
+		}
+		this.visibleTerrains.clear();
+	}
+
+	/** start building the outdated meshes, the nearest ones first */
+	private final void startMeshJobs() {
+		int jobs = MAX_PENDING_JOBS - this.pendingJobs.get();
+		if (jobs <= 0) {
+			return;
+		}
+
+		Vector3f position = this.getCamera().getPosition();
+		this.outdated.clear();
+		for (TerrainRenderingData terrainRenderingData : this.terrainsRenderingData.values()) {
+			if (!terrainRenderingData.meshUpToDate) {
+				Vector3f center = terrainRenderingData.terrain.getWorldPosition();
+				terrainRenderingData.distance = (float) Vector3f.distanceSquare(center, position);
+				this.outdated.add(terrainRenderingData);
+			}
+		}
+		if (this.outdated.size() > jobs) {
+			this.outdated.sort(DISTANCE_ASC_SORT);
+		}
+		for (int i = 0; i < this.outdated.size() && i < jobs; i++) {
+			this.outdated.get(i).startJob();
+		}
+		this.outdated.clear();
+	}
+
+	/** upload the built meshes, within the upload budget (gl thread) */
+	private final void uploadMeshes() {
+		int bytes = 0;
+		MeshJob job;
+		while ((job = this.meshed.peek()) != null) {
+			if (job.failed) {
+				if (!job.isStale()) {
+					job.data.meshUpToDate = false;
+				}
+			} else if (!job.isStale()) {
+				// at least one mesh is uploaded each frame
+				if (bytes > 0 && bytes + job.getBytes() > this.uploadBudget) {
+					break;
+				}
+				job.data.glUpload(job);
+				bytes += job.getBytes();
+			}
+			job.release();
+			this.meshed.poll();
+			this.pendingJobs.decrementAndGet();
+		}
+	}
+
+	/** enable or disable the cave culling */
+	public final void setOcclusionCulling(boolean enabled) {
+		this.occlusionCulling = enabled;
+	}
+
+	public final boolean isOcclusionCulling() {
+		return (this.occlusionCulling);
+	}
+
+	/** maximum number of bytes uploaded to the gpu per frame */
+	public final void setUploadBudget(int bytes) {
+		this.uploadBudget = bytes;
+	}
+
+	public final int getUploadBudget() {
+		return (this.uploadBudget);
+	}
+
+	/**
+	 * use the compact vertex layout ({@link TerrainPackedVertex}) for the
+	 * terrain meshes. Every loaded mesh is rebuilt.
+	 */
+	public final void setPackedVertices(boolean packed) {
+		if (this.meshers[0].isPackedVertices() == packed) {
+			return;
+		}
+		for (TerrainMesher mesher : this.meshers) {
+			mesher.setPackedVertices(packed);
+		}
+		for (TerrainRenderingData terrainRenderingData : this.terrainsRenderingData.values()) {
+			terrainRenderingData.requestUpdate();
+		}
+	}
+
+	public final boolean isPackedVertices() {
+		return (this.meshers[0].isPackedVertices());
+	}
+
+	/**
+	 * store the opaque meshes in large shared vertex buffers, drawn with one
+	 * call per buffer (see {@link TerrainBufferArena}). It is only used with
+	 * the compact vertex layout ({@link #setPackedVertices(boolean)}). Every
+	 * loaded mesh is rebuilt.
+	 */
+	public final void setArenaRendering(boolean enabled) {
+		if (this.arenaRendering == enabled) {
+			return;
+		}
+		this.arenaRendering = enabled;
+		for (TerrainRenderingData terrainRenderingData : this.terrainsRenderingData.values()) {
+			terrainRenderingData.requestUpdate();
+		}
+	}
+
+	public final boolean isArenaRendering() {
+		return (this.arenaRendering);
+	}
+
+	/** the arenas holding the opaque meshes (for the metrics) */
+	public final TerrainBufferArenas getArenas() {
+		return (this.arenas);
+	}
+
+	/**
+	 * select the level of detail of a visible terrain from its distance, and
+	 * rebuild its meshes if it changed
+	 */
+	private final void updateLOD(TerrainRenderingData terrainRenderingData) {
+		int lod = 0;
+		if (this.lodDistance > 0) {
+			float distance = (float) Math.sqrt(terrainRenderingData.distance);
+			lod = terrainRenderingData.lod;
+			while (lod < LODS.length - 1 && distance > this.getLODDistance(lod + 1) * (1.0f + LOD_HYSTERESIS)) {
+				++lod;
+			}
+			while (lod > 0 && distance < this.getLODDistance(lod) * (1.0f - LOD_HYSTERESIS)) {
+				--lod;
+			}
+		}
+		if (lod != terrainRenderingData.lod) {
+			terrainRenderingData.lod = lod;
+			terrainRenderingData.requestUpdate();
+		}
+	}
+
+	/** distance from which the given level of detail is used */
+	private final float getLODDistance(int lod) {
+		return (this.lodDistance * (1 << (lod - 1)));
+	}
+
+	/**
+	 * set the distance from which the first level of detail is used. The next
+	 * levels start at twice the distance of the previous one. 0 disables the
+	 * levels of detail.
+	 */
+	public final void setLODDistance(float distance) {
+		this.lodDistance = distance;
+	}
+
+	public final float getLODDistance() {
+		return (this.lodDistance);
+	}
+
+	/** number of meshes being built or waiting to be uploaded */
+	public final int getPendingMeshCount() {
+		return (this.pendingJobs.get());
+	}
+
 	private final void requestMeshUpdate(WorldObjectTerrain terrain) {
 		TerrainRenderingData terrainRenderingData = this.terrainsRenderingData.get(terrain);
 		if (terrainRenderingData == null) {
@@ -329,11 +747,15 @@ public class TerrainRendererFactory extends RendererFactory {
 
 		// for each terrain in the factory
 		ArrayList<TerrainRenderingData> oldTerrainsRenderingData = new ArrayList<TerrainRenderingData>();
-		for (WorldObjectTerrain terrain : this.terrainsRenderingData.keySet()) {
+		Iterator<TerrainRenderingData> it = this.terrainsRenderingData.values().iterator();
+		while (it.hasNext()) {
+			TerrainRenderingData terrainRenderingData = it.next();
 			// if this terrain isnt loaded anymore
-			if (!this.getWorld().isTerrainLoaded(terrain)) {
+			if (!this.getWorld().isTerrainLoaded(terrainRenderingData.terrain)) {
 				// then remove it from the factory
-				TerrainRenderingData terrainRenderingData = this.terrainsRenderingData.remove(terrain);
+				it.remove();
+				this.quadTree.remove(terrainRenderingData.terrain);
+				terrainRenderingData.remove();
 				oldTerrainsRenderingData.add(terrainRenderingData);
 			}
 		}
@@ -343,7 +765,9 @@ public class TerrainRendererFactory extends RendererFactory {
 		for (WorldObjectTerrain terrain : terrains) {
 			// add it to the factory if it hasnt already been added
 			if (!this.terrainsRenderingData.containsKey(terrain)) {
-				this.terrainsRenderingData.put(terrain, new TerrainRenderingData(terrain));
+				TerrainRenderingData terrainRenderingData = new TerrainRenderingData(terrain);
+				this.terrainsRenderingData.put(terrain, terrainRenderingData);
+				this.quadTree.add(terrain, terrainRenderingData);
 			}
 		}
 
@@ -361,7 +785,7 @@ public class TerrainRendererFactory extends RendererFactory {
 	public void render() {
 		MainRenderer mainRenderer = this.getMainRenderer();
 		TerrainRenderer terrainRenderer = mainRenderer.getTerrainRenderer();
-		terrainRenderer.render(this.getCamera(), this.getWorld(), this.opaqueRenderingList,
+		terrainRenderer.render(this.getCamera(), this.getWorld(), this.arenas, this.opaqueRenderingList,
 				this.transparentRenderingList);
 	}
 
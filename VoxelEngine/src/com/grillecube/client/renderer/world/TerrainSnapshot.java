@@ -0,0 +1,126 @@
+package com.grillecube.client.renderer.world;
+
+import com.grillecube.common.faces.Face;
+import com.grillecube.common.world.block.Blocks;
+import com.grillecube.common.world.block.instances.BlockInstance;
+import com.grillecube.common.world.terrain.TerrainBlockStorage;
+import com.grillecube.common.world.terrain.WorldObjectTerrain;
+
+/**
+ * A copy of the terrain data needed to build its mesh, so it can be meshed on
+ * another thread while the world keeps being updated.
+ *
+ * The snapshot of the terrain to mesh also holds a snapshot of the border of
+ * its 6 neighbors, so faces, lights and ambiant occlusion on the borders are
+ * consistent. Only the layers of the neighbors touching the terrain are
+ * copied (1 for a full detail mesh, the cell size for a lower level of
+ * detail): the rest of the neighbor snapshots is air, without light.
+ * Neighbors of neighbors are not copied (the diagonal blocks used by the
+ * ambiant occlusion are then considered as air).
+ */
+public class TerrainSnapshot extends WorldObjectTerrain {
+
+	/** the terrain this snapshot was taken from */
+	private final WorldObjectTerrain terrain;
+
+	/** neighbors snapshots (null if they are not copied) */
+	private final TerrainSnapshot[] neighbors;
+
+	/** snapshot the given terrain and the first layer of its neighbors */
+	public TerrainSnapshot(WorldObjectTerrain terrain) {
+		this(terrain, 1);
+	}
+
+	/**
+	 * snapshot the given terrain and the 'border' layers of its neighbors
+	 * touching it
+	 */
+	public TerrainSnapshot(WorldObjectTerrain terrain, int border) {
+		super(terrain.getWorld(), terrain.getWorldIndex());
+		this.terrain = terrain;
+
+		TerrainBlockStorage blocks = terrain.getBlockStorage();
+		byte[] lights = terrain.getRawLights();
+		byte[] durability = terrain.getRawDurability();
+		this.blocks = blocks == null ? null : new TerrainBlockStorage(blocks);
+		this.lights = lights == null ? null : lights.clone();
+		this.durability = durability == null ? null : durability.clone();
+
+		this.neighbors = new TerrainSnapshot[Face.faces.length];
+		for (Face face : Face.faces) {
+			WorldObjectTerrain neighbor = terrain.getNeighbor(face.getID());
+			if (neighbor != null) {
+				this.neighbors[face.getID()] = new TerrainSnapshot(neighbor, face.getID(), border);
+			}
+		}
+	}
+
+	/**
+	 * snapshot the layers of a neighbor touching the terrain on its given face
+	 */
+	private TerrainSnapshot(WorldObjectTerrain neighbor, int faceID, int border) {
+		super(neighbor.getWorld(), neighbor.getWorldIndex());
+		this.terrain = neighbor;
+		this.neighbors = null;
+
+		// the copied box, in the neighbor
+		int x0 = 0, x1 = DIMX, y0 = 0, y1 = DIMY, z0 = 0, z1 = DIMZ;
+		switch (faceID) {
+		case Face.BACK:
+			x0 = DIMX - Math.min(border, DIMX);
+			break;
+		case Face.FRONT:
+			x1 = Math.min(border, DIMX);
+			break;
+		case Face.LEFT:
+			y0 = DIMY - Math.min(border, DIMY);
+			break;
+		case Face.RIGHT:
+			y1 = Math.min(border, DIMY);
+			break;
+		case Face.BOT:
+			z0 = DIMZ - Math.min(border, DIMZ);
+			break;
+		default:
+			z1 = Math.min(border, DIMZ);
+			break;
+		}
+
+		TerrainBlockStorage blocks = neighbor.getBlockStorage();
+		byte[] lights = neighbor.getRawLights();
+		this.blocks = blocks == null ? null : new TerrainBlockStorage(MAX_BLOCK_INDEX, (short) Blocks.AIR_ID);
+		this.lights = lights == null ? null : new byte[lights.length];
+		for (int z = z0; z < z1; z++) {
+			for (int y = y0; y < y1; y++) {
+				int index = getIndex(x0, y, z);
+				if (lights != null) {
+					System.arraycopy(lights, index, this.lights, index, x1 - x0);
+				}
+				if (blocks != null) {
+					for (int x = x0; x < x1; x++, index++) {
+						short id = blocks.get(index);
+						if (id != Blocks.AIR_ID) {
+							this.blocks.set(index, id);
+						}
+					}
+				}
+			}
+		}
+	}
+
+	@Override
+	public WorldObjectTerrain getNeighbor(int id) {
+		return (this.neighbors == null ? null : this.neighbors[id]);
+	}
+
+	/** block instances are not copied: they are read from the terrain */
+	@Override
+	public BlockInstance getBlockInstanceAt(int index) {
+		return (this.terrain.getBlockInstanceAt(index));
+	}
+
+	/** the terrain this snapshot was taken from */
+	public final WorldObjectTerrain getTerrain() {
+		return (this.terrain);
+	}
+}
@@ -0,0 +1,221 @@
+package com.grillecube.common;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import com.grillecube.common.VoxelEngine.Callable;
+
+/**
+ * Run the tasks of a tick.
+ *
+ * Tasks are run phase by phase (see {@link Callable#getPhase()}). Inside a
+ * phase, tasks are packed into waves: a task goes into the wave following the
+ * last wave holding an earlier conflicting task, so independent tasks run in
+ * parallel, and conflicting tasks run in the order they were added.
+ *
+ * Two tasks conflict if one of them writes a resource that the other reads or
+ * writes (see {@link Callable#getReads()} and {@link Callable#getWrites()}),
+ * unless they belong to the same group ({@link Callable#getGroup()}).
+ *
+ * A wave always runs to completion before the next one starts: a task is
+ * never cancelled, as a conflicting task of the next wave would then run
+ * while it is still running. A tick exceeding its budget is only counted
+ * (see {@link #getOverrunWaves()}).
+ */
+public class TaskScheduler {
+
+	/** phases */
+	public static final int PHASE_PRE_UPDATE = 0;
+	public static final int PHASE_UPDATE = 1;
+	public static final int PHASE_PHYSICS = 2;
+	public static final int PHASE_RENDER = 3;
+	public static final int PHASES = 4;
+
+	/** resources */
+	public static final int RESOURCE_TERRAIN = 1 << 0;
+	public static final int RESOURCE_ENTITIES = 1 << 1;
+	public static final int RESOURCE_PHYSICS = 1 << 2;
+	public static final int RESOURCE_RENDER = 1 << 3;
+
+	/** a scheduled task */
+	private static final class Task implements java.util.concurrent.Callable<Taskable> {
+
+		final Callable<Taskable> callable;
+		int wave;
+
+		/** wall time of the last run, in nanoseconds */
+		long time;
+
+		Task(Callable<Taskable> callable) {
+			this.callable = callable;
+		}
+
+		@Override
+		public Taskable call() throws Exception {
+			long start = System.nanoTime();
+			try {
+				return (this.callable.call());
+			} finally {
+				this.time = System.nanoTime() - start;
+			}
+		}
+	}
+
+	/** the tasks of the last tick */
+	private final ArrayList<Task> tasks;
+
+	/** tasks of the wave being run */
+	private final ArrayList<Task> wave;
+
+	/** wall time of the last tick, in nanoseconds */
+	private long tickTime;
+
+	/** number of waves run on the last tick */
+	private int waveCount;
+
+	/** number of waves of the last tick which started after its budget */
+	private int overrunWaves;
+
+	public TaskScheduler() {
+		this.tasks = new ArrayList<Task>();
+		this.wave = new ArrayList<Task>();
+	}
+
+	/** true if the two tasks cannot run at the same time */
+	public static final boolean conflicts(Callable<?> a, Callable<?> b) {
+		if (a.getGroup() != null && a.getGroup() == b.getGroup()) {
+			return (false);
+		}
+		return ((a.getWrites() & (b.getReads() | b.getWrites())) != 0 || (b.getWrites() & a.getReads()) != 0);
+	}
+
+	/**
+	 * run the given tasks
+	 *
+	 * @param executor
+	 *            : the executor running the tasks
+	 * @param callables
+	 *            : the tasks
+	 * @param budget
+	 *            : time given to the whole tick, in milliseconds (the waves
+	 *            started after it are counted, not dropped)
+	 * @param debug
+	 *            : if true, failed tasks are logged
+	 */
+	public final void run(ExecutorService executor, List<Callable<Taskable>> callables, long budget, boolean debug)
+			throws InterruptedException {
+		long start = System.nanoTime();
+		long deadline = start + TimeUnit.MILLISECONDS.toNanos(budget);
+
+		this.tasks.clear();
+		for (Callable<Taskable> callable : callables) {
+			this.tasks.add(new Task(callable));
+		}
+
+		this.waveCount = 0;
+		this.overrunWaves = 0;
+		for (int phase = 0; phase < PHASES; phase++) {
+			int waves = this.pack(phase);
+			for (int w = 0; w < waves; w++) {
+				this.wave.clear();
+				for (Task task : this.tasks) {
+					if (this.getPhase(task) == phase && task.wave == w) {
+						this.wave.add(task);
+					}
+				}
+				if (System.nanoTime() - deadline > 0) {
+					++this.overrunWaves;
+				}
+				List<Future<Taskable>> results = executor.invokeAll(this.wave);
+				if (debug) {
+					this.check(results);
+				}
+				++this.waveCount;
+			}
+		}
+		this.tickTime = System.nanoTime() - start;
+	}
+
+	/** get the phase of the task, clamped to a valid phase */
+	private final int getPhase(Task task) {
+		int phase = task.callable.getPhase();
+		return (phase < 0 ? 0 : phase >= PHASES ? PHASES - 1 : phase);
+	}
+
+	/**
+	 * assign a wave to each task of the given phase
+	 *
+	 * @return the number of waves
+	 */
+	private final int pack(int phase) {
+		int waves = 0;
+		for (int i = 0; i < this.tasks.size(); i++) {
+			Task task = this.tasks.get(i);
+			if (this.getPhase(task) != phase) {
+				continue;
+			}
+			task.wave = 0;
+			for (int j = 0; j < i; j++) {
+				Task previous = this.tasks.get(j);
+				if (this.getPhase(previous) == phase && previous.wave >= task.wave
+						&& conflicts(previous.callable, task.callable)) {
+					task.wave = previous.wave + 1;
+				}
+			}
+			waves = Math.max(waves, task.wave + 1);
+		}
+		return (waves);
+	}
+
+	/** check that each tasks worked properly (none crashed basically) */
+	private final void check(List<Future<Taskable>> results) {
+		for (int i = 0; i < results.size(); i++) {
+			Future<Taskable> result = results.get(i);
+			String task = this.wave.get(i).callable.getName();
+			try {
+				if (result.get() == null) {
+					Logger.get().log(Logger.Level.ERROR, "Task returned null: ", task);
+				}
+			} catch (Exception e) {
+				Logger.get().log(Logger.Level.ERROR, "Exception occured when executing task", task);
+				e.printStackTrace(Logger.get().getPrintStream());
+			}
+		}
+	}
+
+	/** wall time of the last tick, in nanoseconds */
+	public final long getTickTime() {
+		return (this.tickTime);
+	}
+
+	/** number of waves run on the last tick */
+	public final int getWaveCount() {
+		return (this.waveCount);
+	}
+
+	/**
+	 * number of waves of the last tick which started after the tick budget
+	 * (0 if the tick fit in its budget)
+	 */
+	public final int getOverrunWaves() {
+		return (this.overrunWaves);
+	}
+
+	/**
+	 * wall time of each task on the last tick, in nanoseconds (tasks with the
+	 * same name are summed)
+	 */
+	public final LinkedHashMap<String, Long> getTaskTimes() {
+		LinkedHashMap<String, Long> times = new LinkedHashMap<String, Long>();
+		for (Task task : this.tasks) {
+			String name = task.callable.getName();
+			Long time = times.get(name);
+			times.put(name, time == null ? task.time : time + task.time);
+		}
+		return (times);
+	}
+}
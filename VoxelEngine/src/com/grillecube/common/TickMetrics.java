@@ -0,0 +1,152 @@
+package com.grillecube.common;
+
+/**
+ * Tick loop statistics: tick duration histogram, ticks per second gauge and
+ * overload counters
+ */
+public class TickMetrics {
+
+	/** upper bounds of the histogram buckets, in milliseconds */
+	public static final int[] BUCKETS = { 1, 2, 5, 10, 20, 50, 100, 200, 500 };
+
+	/** tick durations histogram (the last bucket holds the overflow) */
+	private final long[] histogram;
+
+	/** total number of ticks */
+	private volatile long ticks;
+
+	/** longest tick duration, in nanoseconds */
+	private volatile long maxTickTime;
+
+	/** number of ticks the loop is currently late of */
+	private volatile long ticksBehind;
+
+	/** total number of ticks which were dropped (too late to catch up) */
+	private volatile long skippedTicks;
+
+	/**
+	 * total number of ticks whose tasks exceeded the tick budget, and of waves
+	 * they started late (see {@link TaskScheduler#getOverrunWaves()})
+	 */
+	private volatile long overrunTicks;
+	private volatile long overrunWaves;
+
+	/** ticks per second gauge */
+	private volatile float tps;
+	private long windowStart;
+	private int windowTicks;
+
+	public TickMetrics() {
+		this.histogram = new long[BUCKETS.length + 1];
+		this.reset();
+	}
+
+	/** reset every statistics */
+	public final void reset() {
+		synchronized (this.histogram) {
+			for (int i = 0; i < this.histogram.length; i++) {
+				this.histogram[i] = 0;
+			}
+		}
+		this.ticks = 0;
+		this.maxTickTime = 0;
+		this.ticksBehind = 0;
+		this.skippedTicks = 0;
+		this.overrunTicks = 0;
+		this.overrunWaves = 0;
+		this.tps = 0.0f;
+		this.windowStart = System.nanoTime();
+		this.windowTicks = 0;
+	}
+
+	/** register a tick which lasted the given duration, in nanoseconds */
+	public final void onTick(long duration) {
+		long millis = duration / 1000000L;
+		int bucket = 0;
+		while (bucket < BUCKETS.length && millis >= BUCKETS[bucket]) {
+			++bucket;
+		}
+		synchronized (this.histogram) {
+			++this.histogram[bucket];
+		}
+		++this.ticks;
+		if (duration > this.maxTickTime) {
+			this.maxTickTime = duration;
+		}
+
+		++this.windowTicks;
+		long now = System.nanoTime();
+		long elapsed = now - this.windowStart;
+		if (elapsed >= 1000000000L) {
+			this.tps = this.windowTicks * 1000000000.0f / elapsed;
+			this.windowStart = now;
+			this.windowTicks = 0;
+		}
+	}
+
+	/** set the number of ticks the loop is late of */
+	public final void setTicksBehind(long ticksBehind) {
+		this.ticksBehind = ticksBehind;
+	}
+
+	/** register ticks which were dropped */
+	public final void onTicksSkipped(long count) {
+		this.skippedTicks += count;
+	}
+
+	/** register a tick whose tasks exceeded the budget */
+	public final void onTasksOverrun(int waves) {
+		++this.overrunTicks;
+		this.overrunWaves += waves;
+	}
+
+	/** a copy of the histogram (see {@link #BUCKETS}) */
+	public final long[] getHistogram() {
+		synchronized (this.histogram) {
+			return (this.histogram.clone());
+		}
+	}
+
+	public final long getTicks() {
+		return (this.ticks);
+	}
+
+	public final long getMaxTickTime() {
+		return (this.maxTickTime);
+	}
+
+	public final long getTicksBehind() {
+		return (this.ticksBehind);
+	}
+
+	public final long getSkippedTicks() {
+		return (this.skippedTicks);
+	}
+
+	public final long getOverrunTicks() {
+		return (this.overrunTicks);
+	}
+
+	public final long getOverrunWaves() {
+		return (this.overrunWaves);
+	}
+
+	/** ticks per second, measured over the last second */
+	public final float getTPS() {
+		return (this.tps);
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder();
+		builder.append("TPS: ").append(this.tps).append(", behind: ").append(this.ticksBehind).append(", skipped: ")
+				.append(this.skippedTicks).append(", overruns: ").append(this.overrunTicks)
+				.append(", histogram (ms):");
+		long[] histogram = this.getHistogram();
+		for (int i = 0; i < histogram.length; i++) {
+			builder.append(i < BUCKETS.length ? " <" + BUCKETS[i] : " >=" + BUCKETS[BUCKETS.length - 1]);
+			builder.append(": ").append(histogram[i]);
+		}
+		return (builder.toString());
+	}
+}
@@ -18,6 +18,16 @@ public class Timer {
 		this.lastCheck = t;
 	}
 
+	/**
+	 * advance the timer by a fixed delta time, in seconds (fixed timestep
+	 * mode)
+	 */
+	public void step(double dt) {
+		this.dt = dt;
+		this.time += dt;
+		this.lastCheck = System.nanoTime();
+	}
+
 	/** return the time for this timer. 1.0d is 1 second, 3.5d is 3s500ms */
 	public final double getTime() {
 		return (this.time);
@@ -3,13 +3,12 @@ package com.grillecube.common;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map.Entry;
 import java.util.Random;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
 
 import com.grillecube.common.Logger.Level;
 import com.grillecube.common.defaultmod.VoxelEngineDefaultMod;
@@ -48,6 +47,29 @@ public abstract class VoxelEngine {
 		public abstract T call() throws Exception;
 
 		public abstract String getName();
+
+		/** the phase in which this task runs (see {@link TaskScheduler}) */
+		public int getPhase() {
+			return (TaskScheduler.PHASE_UPDATE);
+		}
+
+		/** resources read by this task (TaskScheduler.RESOURCE_* bitmask) */
+		public int getReads() {
+			return (0);
+		}
+
+		/** resources written by this task (TaskScheduler.RESOURCE_* bitmask) */
+		public int getWrites() {
+			return (0);
+		}
+
+		/**
+		 * tasks of a same (non null) group never conflict with each other: they
+		 * partition the resources they access themselves
+		 */
+		public Object getGroup() {
+			return (null);
+		}
 	}
 
 	/** the tasks to run each frames */
@@ -56,6 +78,9 @@ public abstract class VoxelEngine {
 	/** executor service */
 	private ExecutorService executor;
 
+	/** schedule the tasks on the executor */
+	private TaskScheduler scheduler;
+
 	/** the resources directory */
 	private File gameDir;
 	private ArrayList<AssetsPack> assets;
@@ -82,6 +107,15 @@ public abstract class VoxelEngine {
 	/** Timer */
 	private Timer timer;
 
+	/** number of ticks per second (0: tick as fast as possible) */
+	private int tickRate;
+
+	/** maximum number of ticks run in a row to catch up after a stall */
+	private int maxCatchUpTicks;
+
+	/** tick loop statistics */
+	private TickMetrics tickMetrics;
+
 	/** events */
 	private EventPreLoop eventPreLoop;
 	private EventLoop eventLoop;
@@ -111,6 +145,7 @@ public abstract class VoxelEngine {
 		this.debug(true);
 
 		this.timer = new Timer();
+		this.tickMetrics = new TickMetrics();
 		this.rng = new Random();
 
 		// assets
@@ -122,7 +157,9 @@ public abstract class VoxelEngine {
 
 		// config
 		this.config = new HashMap<String, Config>();
-		this.loadConfig(MOD_ID, R.getResPath("config.json"));
+		Config cfg = this.loadConfig(MOD_ID, R.getResPath("config.json"));
+		this.setTickRate(cfg.getInt("ticksPerSecond", this.side == Side.SERVER ? 20 : 0));
+		this.setMaxCatchUpTicks(cfg.getInt("maxCatchUpTicks", 5));
 
 		this.modLoader = new ModLoader();
 		this.tasks = new ArrayList<VoxelEngine.Callable<Taskable>>(256);
@@ -265,17 +302,62 @@ public abstract class VoxelEngine {
 		this.isRunning = true;
 
 		this.executor = Executors.newFixedThreadPool(8);
+		this.scheduler = new TaskScheduler();
+		this.tickMetrics.reset();
 		this.invokeEvent(this.eventPreLoop);
 
+		long nextTick = System.nanoTime();
+		long lastOverloadWarning = 0;
 		while (this.isRunning()) {
-			this.timer.update();
-			this.invokeEvent(this.eventLoop);
-			this.updateTasks();
+			int tickRate = this.tickRate;
+			if (tickRate <= 0) {
+				this.timer.update();
+				this.tick();
+				continue;
+			}
+
+			// fixed timestep: wait for the next tick
+			long interval = 1000000000L / tickRate;
+			long now = System.nanoTime();
+			if (now < nextTick) {
+				LockSupport.parkNanos(nextTick - now);
+				continue;
+			}
+
+			// run the late ticks, but no more than 'maxCatchUpTicks' in a row
+			int ticks = 0;
+			do {
+				this.timer.step(interval / 1000000000.0d);
+				this.tick();
+				nextTick += interval;
+				now = System.nanoTime();
+			} while (now >= nextTick && ++ticks < this.maxCatchUpTicks && this.isRunning());
+
+			long behind = now < nextTick ? 0 : (now - nextTick) / interval + 1;
+			this.tickMetrics.setTicksBehind(behind);
+			if (behind > 0 && ticks >= this.maxCatchUpTicks) {
+				// cannot catch up: drop the late ticks
+				this.tickMetrics.onTicksSkipped(behind);
+				nextTick += behind * interval;
+				if (now - lastOverloadWarning > 5000000000L) {
+					Logger.get().log(Level.WARNING,
+							"Can't keep up! Skipped " + behind + " ticks (" + this.tickMetrics + ")");
+					lastOverloadWarning = now;
+				}
+			}
 		}
 
 		this.invokeEvent(this.eventPostLoop);
 	}
 
+	/** run a single tick */
+	private final void tick() {
+		long start = System.nanoTime();
+		this.invokeEvent(this.eventLoop);
+		this.updateTasks();
+		this.tickMetrics.onTick(System.nanoTime() - start);
+	}
+
 	private final void updateTasks() {
 
 		// clear tasks
@@ -288,39 +370,21 @@ public abstract class VoxelEngine {
 	}
 
 	private final void runTasks() {
-
-		// run tasks and get their results
-		List<Future<Taskable>> results;
 		try {
-			results = this.executor.invokeAll(this.tasks, 2, TimeUnit.SECONDS);
-		} catch (InterruptedException e1) {
+			this.scheduler.run(this.executor, this.tasks, 2000, this.debug());
+		} catch (InterruptedException e) {
 			return;
 		}
-
-		// check that each tasks worked properly (none crashed basically)
-		if (this.debug()) {
-
-			// for each tasks
-			int i;
-			for (i = 0; i < results.size(); i++) {
-				Future<Taskable> result = results.get(i);
-				String task = this.tasks.get(i).getName();
-				try {
-					// try to get it
-					if (!result.isCancelled() && result.get() != null) {
-						// task ran properly
-					} else {
-						Logger.get().log(Logger.Level.ERROR, "Task cancelled (timeout): ", task);
-					}
-				} catch (Exception e) {
-					// if get() failed, then an error occured
-					Logger.get().log(Logger.Level.ERROR, "Exception occured when executing task", task);
-					e.printStackTrace(Logger.get().getPrintStream());
-				}
-			}
+		if (this.scheduler.getOverrunWaves() > 0) {
+			this.tickMetrics.onTasksOverrun(this.scheduler.getOverrunWaves());
 		}
 	}
 
+	/** the task scheduler (tasks wall times of the last tick) */
+	public final TaskScheduler getTaskScheduler() {
+		return (this.scheduler);
+	}
+
 	/** stop the thread executor */
 	private final void stopExecutor() {
 		if (this.executor == null) {
@@ -339,6 +403,29 @@ public abstract class VoxelEngine {
 		return (this.timer);
 	}
 
+	/**
+	 * set the number of ticks per second. With 0, the engine ticks as fast as
+	 * possible and the timer delta time is the real elapsed time. Else, the
+	 * loop sleeps between ticks and the timer advances by a fixed delta time
+	 */
+	public final void setTickRate(int ticksPerSecond) {
+		this.tickRate = Math.max(ticksPerSecond, 0);
+	}
+
+	public final int getTickRate() {
+		return (this.tickRate);
+	}
+
+	/** maximum number of late ticks run in a row before dropping them */
+	public final void setMaxCatchUpTicks(int ticks) {
+		this.maxCatchUpTicks = Math.max(ticks, 1);
+	}
+
+	/** tick loop statistics */
+	public final TickMetrics getTickMetrics() {
+		return (this.tickMetrics);
+	}
+
 	protected final void invokeEvent(Event event) {
 		// if (this.getResourceManager() == null ||
 		// this.getResourceManager().getEventManager() == null) {
@@ -14,10 +14,12 @@ public class EventTerrainSetBlock extends EventTerrain {
 		this.index = index;
 	}
 
+	/** the block index (-1 if every blocks of the terrain were replaced) */
 	public final int getIndex() {
 		return (this.index);
 	}
 
+	/** the new block (null if every blocks of the terrain were replaced) */
 	public final Block getBlock() {
 		return (this.block);
 	}
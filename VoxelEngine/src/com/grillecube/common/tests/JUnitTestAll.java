@@ -4,16 +4,32 @@ import org.junit.runner.JUnitCore;
 import org.junit.runner.Result;
 import org.junit.runner.notification.Failure;
 
+import com.grillecube.client.renderer.world.TerrainBufferAllocatorTests;
+import com.grillecube.client.renderer.world.TerrainPackedVertexTests;
 import com.grillecube.client.tests.WorldTests;
 import com.grillecube.common.Logger;
 import com.grillecube.common.maths.MathTests;
+import com.grillecube.common.utils.LongObjectHashMapTests;
+import com.grillecube.common.world.CompressTests;
+import com.grillecube.common.world.entity.WorldEntityGridTests;
+import com.grillecube.common.world.entity.WorldEntitySimulationTests;
+import com.grillecube.common.world.entity.WorldEntityStorageTests;
 import com.grillecube.common.world.entity.collision.CollisionUnitTests;
+import com.grillecube.common.world.generator.SimplexNoiseTests;
+import com.grillecube.common.world.generator.TerrainGenerationPipelineTests;
+import com.grillecube.common.world.generator.TerrainGenerationServiceTests;
+import com.grillecube.common.world.terrain.LightEngineTests;
+import com.grillecube.common.world.terrain.TerrainBlockStorageTests;
 
 public class JUnitTestAll {
 
 	public static void main(String[] args) {
 		Logger.get().log(Logger.Level.FINE, "running tests...");
-		Class<?> classes[] = { CollisionUnitTests.class, WorldTests.class, MathTests.class };
+		Class<?> classes[] = { CollisionUnitTests.class, WorldTests.class, MathTests.class,
+				TerrainPackedVertexTests.class, TerrainBufferAllocatorTests.class, SimplexNoiseTests.class,
+				WorldEntityGridTests.class, WorldEntitySimulationTests.class, WorldEntityStorageTests.class,
+				TerrainGenerationPipelineTests.class, TerrainGenerationServiceTests.class, TerrainBlockStorageTests.class,
+				CompressTests.class, LongObjectHashMapTests.class, LightEngineTests.class };
 		for (Class<?> classToTest : classes) {
 			Logger.get().log(Logger.Level.FINE, "running test for class: " + classToTest.getSimpleName());
 			Result result = JUnitCore.runClasses(classToTest);
@@ -0,0 +1,26 @@
+package com.grillecube.common.tests;
+
+import com.grillecube.common.resources.BlockManager;
+import com.grillecube.common.resources.EventManager;
+import com.grillecube.common.world.block.Blocks;
+
+/** resources the headless tests need, registered without a running engine */
+public class TestResources {
+
+	/** true once the resources are registered */
+	private static boolean initialized = false;
+
+	/** create the event manager, and register the default blocks (once) */
+	public static synchronized final void initialize() {
+		if (initialized) {
+			return;
+		}
+		initialized = true;
+
+		new EventManager(null).initialize();
+
+		BlockManager blockManager = new BlockManager(null);
+		blockManager.initialize();
+		new Blocks().loadBlocks(blockManager);
+	}
+}
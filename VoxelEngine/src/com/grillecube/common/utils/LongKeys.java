@@ -0,0 +1,22 @@
+package com.grillecube.common.utils;
+
+import com.grillecube.common.maths.Vector3i;
+
+/**
+ * Packs integer coordinates (terrain, region or cell indices) into long keys
+ * (i.e for {@link LongObjectHashMap}).
+ */
+public class LongKeys {
+
+	/**
+	 * pack the given coordinates into a long (21 bits per axis, so coordinates
+	 * in [-2^20, 2^20[ never collide)
+	 */
+	public static final long pack(int x, int y, int z) {
+		return (((long) (x & 0x1FFFFF) << 42) | ((long) (y & 0x1FFFFF) << 21) | (long) (z & 0x1FFFFF));
+	}
+
+	public static final long pack(Vector3i index) {
+		return (pack(index.x, index.y, index.z));
+	}
+}
@@ -0,0 +1,255 @@
+package com.grillecube.common.utils;
+
+import java.util.AbstractCollection;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Open addressing (linear probing) hash map with primitive long keys.
+ *
+ * Lookups do not allocate, and removals use backward shifting (no tombstones).
+ * Null values are not allowed (a null value marks an empty slot).
+ *
+ * Not thread safe: a single writer is expected. The keys and values are
+ * published together on resize, so a concurrent reader never indexes the keys
+ * of a table with the values of another one, but it may miss an entry which
+ * is being added or moved.
+ */
+public class LongObjectHashMap<V> {
+
+	/** maximum load factor (3 / 4) */
+	private static final int LOAD_NUM = 3;
+	private static final int LOAD_DEN = 4;
+
+	/** a table: keys and values */
+	private static final class Table {
+		final long[] keys;
+		final Object[] values;
+		final int mask;
+
+		Table(int capacity) {
+			this.keys = new long[capacity];
+			this.values = new Object[capacity];
+			this.mask = capacity - 1;
+		}
+	}
+
+	/** current table */
+	private Table table;
+
+	/** number of entries */
+	private int size;
+
+	/** number of modifications (to detect modifications while iterating) */
+	private int modCount;
+
+	/** values view */
+	private final Values values;
+
+	public LongObjectHashMap() {
+		this(16);
+	}
+
+	public LongObjectHashMap(int capacity) {
+		int n = 16;
+		while (n * LOAD_NUM < capacity * LOAD_DEN) {
+			n <<= 1;
+		}
+		this.table = new Table(n);
+		this.size = 0;
+		this.modCount = 0;
+		this.values = new Values();
+	}
+
+	/** mix the key bits (murmur3 finalizer) */
+	private static final int hash(long key) {
+		key ^= key >>> 33;
+		key *= 0xff51afd7ed558ccdL;
+		key ^= key >>> 33;
+		key *= 0xc4ceb9fe1a85ec53L;
+		key ^= key >>> 33;
+		return ((int) key);
+	}
+
+	/** get the value for the given key, or null */
+	@SuppressWarnings("unchecked")
+	public final V get(long key) {
+		Table table = this.table;
+		long[] keys = table.keys;
+		Object[] values = table.values;
+		int i = hash(key) & table.mask;
+		while (true) {
+			Object value = values[i];
+			if (value == null) {
+				return (null);
+			}
+			if (keys[i] == key) {
+				return ((V) value);
+			}
+			i = (i + 1) & table.mask;
+		}
+	}
+
+	/** true if the key is mapped */
+	public final boolean containsKey(long key) {
+		return (this.get(key) != null);
+	}
+
+	/**
+	 * map the given value to the given key
+	 *
+	 * @return the previous value, or null
+	 */
+	@SuppressWarnings("unchecked")
+	public final V put(long key, V value) {
+		if (value == null) {
+			throw new IllegalArgumentException("Null values are not supported");
+		}
+		Table table = this.table;
+		int i = hash(key) & table.mask;
+		while (table.values[i] != null) {
+			if (table.keys[i] == key) {
+				V previous = (V) table.values[i];
+				table.values[i] = value;
+				return (previous);
+			}
+			i = (i + 1) & table.mask;
+		}
+		table.keys[i] = key;
+		table.values[i] = value;
+		++this.size;
+		++this.modCount;
+		if (this.size * LOAD_DEN > table.keys.length * LOAD_NUM) {
+			this.rehash(table.keys.length << 1);
+		}
+		return (null);
+	}
+
+	/**
+	 * remove the given key
+	 *
+	 * @return the removed value, or null
+	 */
+	@SuppressWarnings("unchecked")
+	public final V remove(long key) {
+		Table table = this.table;
+		int mask = table.mask;
+		int i = hash(key) & mask;
+		while (table.values[i] != null) {
+			if (table.keys[i] == key) {
+				V previous = (V) table.values[i];
+				this.shiftBack(table, i);
+				--this.size;
+				++this.modCount;
+				return (previous);
+			}
+			i = (i + 1) & mask;
+		}
+		return (null);
+	}
+
+	/** fill the hole at 'hole' by moving back the following entries */
+	private final void shiftBack(Table table, int hole) {
+		int mask = table.mask;
+		int i = hole;
+		while (true) {
+			i = (i + 1) & mask;
+			if (table.values[i] == null) {
+				break;
+			}
+			int home = hash(table.keys[i]) & mask;
+			// move the entry if its home slot is not in ]hole, i]
+			if (((i - home) & mask) >= ((i - hole) & mask)) {
+				table.keys[hole] = table.keys[i];
+				table.values[hole] = table.values[i];
+				hole = i;
+			}
+		}
+		table.values[hole] = null;
+	}
+
+	private final void rehash(int capacity) {
+		Table previous = this.table;
+		Table table = new Table(capacity);
+		for (int j = 0; j < previous.keys.length; j++) {
+			if (previous.values[j] == null) {
+				continue;
+			}
+			int i = hash(previous.keys[j]) & table.mask;
+			while (table.values[i] != null) {
+				i = (i + 1) & table.mask;
+			}
+			table.keys[i] = previous.keys[j];
+			table.values[i] = previous.values[j];
+		}
+		this.table = table;
+	}
+
+	/** remove every entries */
+	public final void clear() {
+		Table table = this.table;
+		for (int i = 0; i < table.values.length; i++) {
+			table.values[i] = null;
+		}
+		this.size = 0;
+		++this.modCount;
+	}
+
+	/** number of entries */
+	public final int size() {
+		return (this.size);
+	}
+
+	public final boolean isEmpty() {
+		return (this.size == 0);
+	}
+
+	/** a view of the values (iterators are fail-fast) */
+	public final AbstractCollection<V> values() {
+		return (this.values);
+	}
+
+	private final class Values extends AbstractCollection<V> {
+
+		@Override
+		public Iterator<V> iterator() {
+			return (new Iterator<V>() {
+				private final Table table = LongObjectHashMap.this.table;
+				private final int expectedModCount = LongObjectHashMap.this.modCount;
+				private int next = this.find(0);
+
+				private int find(int i) {
+					while (i < this.table.values.length && this.table.values[i] == null) {
+						++i;
+					}
+					return (i);
+				}
+
+				@Override
+				public boolean hasNext() {
+					return (this.next < this.table.values.length);
+				}
+
+				@SuppressWarnings("unchecked")
+				@Override
+				public V next() {
+					if (this.expectedModCount != LongObjectHashMap.this.modCount) {
+						throw new ConcurrentModificationException();
+					}
+					if (!this.hasNext()) {
+						throw new NoSuchElementException();
+					}
+					V value = (V) this.table.values[this.next];
+					this.next = this.find(this.next + 1);
+					return (value);
+				}
+			});
+		}
+
+		@Override
+		public int size() {
+			return (LongObjectHashMap.this.size);
+		}
+	}
+}
@@ -0,0 +1,130 @@
+package com.grillecube.common.utils;
+
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Random;
+
+import org.junit.Test;
+
+import junit.framework.Assert;
+
+public class LongObjectHashMapTests {
+
+	public LongObjectHashMapTests() {
+
+	}
+
+	private static final void assertEquals(HashMap<Long, String> expected, LongObjectHashMap<String> map) {
+		Assert.assertEquals(expected.size(), map.size());
+		Assert.assertEquals(expected.isEmpty(), map.isEmpty());
+		for (Long key : expected.keySet()) {
+			Assert.assertEquals(expected.get(key), map.get(key));
+		}
+		HashSet<String> values = new HashSet<String>();
+		for (String value : map.values()) {
+			Assert.assertTrue(values.add(value));
+		}
+		Assert.assertEquals(new HashSet<String>(expected.values()), values);
+	}
+
+	@Test
+	public void testPutGetRemove() {
+		LongObjectHashMap<String> map = new LongObjectHashMap<String>();
+		Assert.assertNull(map.get(0));
+		Assert.assertNull(map.put(0, "a"));
+		Assert.assertNull(map.put(-1, "b"));
+		Assert.assertNull(map.put(Long.MIN_VALUE, "c"));
+		Assert.assertEquals("a", map.put(0, "d"));
+		Assert.assertEquals(3, map.size());
+		Assert.assertEquals("d", map.get(0));
+		Assert.assertEquals("b", map.get(-1));
+		Assert.assertEquals("c", map.get(Long.MIN_VALUE));
+		Assert.assertTrue(map.containsKey(-1));
+		Assert.assertFalse(map.containsKey(1));
+
+		Assert.assertEquals("b", map.remove(-1));
+		Assert.assertNull(map.remove(-1));
+		Assert.assertFalse(map.containsKey(-1));
+		Assert.assertEquals(2, map.size());
+
+		map.clear();
+		Assert.assertTrue(map.isEmpty());
+		Assert.assertNull(map.get(0));
+		Assert.assertFalse(map.values().iterator().hasNext());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testNullValue() {
+		new LongObjectHashMap<String>().put(1, null);
+	}
+
+	@Test
+	public void testResize() {
+		LongObjectHashMap<String> map = new LongObjectHashMap<String>(4);
+		HashMap<Long, String> expected = new HashMap<Long, String>();
+		for (int x = -20; x < 20; x++) {
+			for (int y = -20; y < 20; y++) {
+				for (int z = -2; z < 2; z++) {
+					long key = LongKeys.pack(x, y, z);
+					String value = x + " " + y + " " + z;
+					map.put(key, value);
+					expected.put(key, value);
+				}
+			}
+		}
+		assertEquals(expected, map);
+	}
+
+	@Test
+	public void testRandomOperations() {
+		Random random = new Random(42);
+		LongObjectHashMap<String> map = new LongObjectHashMap<String>();
+		HashMap<Long, String> expected = new HashMap<Long, String>();
+		for (int i = 0; i < 200000; i++) {
+			// a small key range, so most operations hit existing keys and
+			// removals shift back long probe chains
+			long key = LongKeys.pack(random.nextInt(64) - 32, random.nextInt(64) - 32, random.nextInt(4));
+			int op = random.nextInt(10);
+			if (op < 5) {
+				String value = Integer.toString(i);
+				Assert.assertEquals(expected.put(key, value), map.put(key, value));
+			} else if (op < 9) {
+				Assert.assertEquals(expected.remove(key), map.remove(key));
+			} else {
+				Assert.assertEquals(expected.get(key), map.get(key));
+			}
+			if (i % 10000 == 0) {
+				assertEquals(expected, map);
+			}
+		}
+		assertEquals(expected, map);
+
+		// remove everything, in random order
+		Long[] keys = expected.keySet().toArray(new Long[expected.size()]);
+		for (int i = keys.length - 1; i > 0; i--) {
+			int j = random.nextInt(i + 1);
+			Long key = keys[i];
+			keys[i] = keys[j];
+			keys[j] = key;
+		}
+		for (Long key : keys) {
+			Assert.assertEquals(expected.remove(key), map.remove(key));
+			Assert.assertNull(map.get(key));
+		}
+		assertEquals(expected, map);
+	}
+
+	@Test(expected = ConcurrentModificationException.class)
+	public void testConcurrentModification() {
+		LongObjectHashMap<String> map = new LongObjectHashMap<String>();
+		for (int i = 0; i < 10; i++) {
+			map.put(i, Integer.toString(i));
+		}
+		Iterator<String> iterator = map.values().iterator();
+		iterator.next();
+		map.remove(5);
+		iterator.next();
+	}
+}
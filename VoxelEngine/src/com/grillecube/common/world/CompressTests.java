@@ -0,0 +1,157 @@
+package com.grillecube.common.world;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.grillecube.common.tests.TestResources;
+import com.grillecube.common.world.block.Blocks;
+import com.grillecube.common.world.terrain.WorldObjectTerrain;
+
+import junit.framework.Assert;
+
+public class CompressTests {
+
+	public CompressTests() {
+
+	}
+
+	/** an array of runs of random lengths, up to 'maxRun' */
+	private static final short[] randomRuns(Random random, int length, int maxRun) {
+		short[] data = new short[length];
+		int i = 0;
+		while (i < length) {
+			short value = (short) random.nextInt(8);
+			int run = 1 + random.nextInt(maxRun);
+			for (int j = 0; j < run && i < length; j++) {
+				data[i++] = value;
+			}
+		}
+		return (data);
+	}
+
+	@Test
+	public void testShortArray() {
+		Random random = new Random(42);
+		int[] maxRuns = { 1, 4, 100, 5000, 100000 };
+		for (int maxRun : maxRuns) {
+			short[] data = randomRuns(random, WorldObjectTerrain.MAX_BLOCK_INDEX, maxRun);
+			short[] rle = Compress.compressShortArray(data);
+			short[] result = Compress.decompressShortArray(rle, data.length);
+			for (int i = 0; i < data.length; i++) {
+				Assert.assertEquals(data[i], result[i]);
+			}
+		}
+
+		// a run longer than Short.MAX_VALUE is split
+		short[] data = new short[Short.MAX_VALUE * 2 + 10];
+		short[] rle = Compress.compressShortArray(data);
+		Assert.assertEquals(6, rle.length);
+		Assert.assertEquals(data.length, Compress.decompressShortArray(rle, data.length).length);
+	}
+
+	@Test
+	public void testByteArray() {
+		Random random = new Random(42);
+		int[] maxRuns = { 1, 4, 100, 127, 128, 1000 };
+		for (int maxRun : maxRuns) {
+			short[] runs = randomRuns(random, WorldObjectTerrain.MAX_BLOCK_INDEX, maxRun);
+			byte[] data = new byte[runs.length];
+			for (int i = 0; i < data.length; i++) {
+				data[i] = (byte) (runs[i] * 37);
+			}
+			byte[] rle = Compress.compressByteArray(data);
+			byte[] result = Compress.decompressByteArray(rle, data.length);
+			for (int i = 0; i < data.length; i++) {
+				Assert.assertEquals(data[i], result[i]);
+			}
+		}
+
+		// the empty array
+		Assert.assertEquals(0, Compress.compressByteArray(new byte[0]).length);
+	}
+
+	@Test
+	public void testIntAndBooleanArrays() {
+		Random random = new Random(42);
+		short[] runs = randomRuns(random, 10000, 300);
+		int[] ints = new int[runs.length];
+		boolean[] booleans = new boolean[runs.length];
+		for (int i = 0; i < runs.length; i++) {
+			ints[i] = runs[i] * 100003;
+			booleans[i] = runs[i] % 2 == 0;
+		}
+		int[] intResult = Compress.decompressIntArray(Compress.compressIntArray(ints), ints.length);
+		boolean[] booleanResult = Compress.decompressBooleanArray(Compress.compressBooleanArray(booleans),
+				booleans.length);
+		for (int i = 0; i < runs.length; i++) {
+			Assert.assertEquals(ints[i], intResult[i]);
+			Assert.assertEquals(booleans[i], booleanResult[i]);
+		}
+	}
+
+	@Test
+	public void testIdleTerrain() {
+		TestResources.initialize();
+		World world = new WorldFlat() {
+			@Override
+			public String getName() {
+				return ("Test world");
+			}
+		};
+		WorldObjectTerrain terrain = new WorldObjectTerrain(world, 0, 0, 0);
+		for (int x = 0; x < WorldObjectTerrain.DIMX; x++) {
+			for (int y = 0; y < WorldObjectTerrain.DIMY; y++) {
+				for (int z = 0; z < WorldObjectTerrain.DIMZ / 2; z++) {
+					terrain.setBlockAt((x + y + z) % 3 == 0 ? Blocks.STONE : Blocks.DIRT, x, y, z);
+				}
+			}
+		}
+		terrain.setDurabilityAt(5, (byte) 3);
+		short[] blocks = terrain.getRawBlocks();
+		byte[] lights = terrain.getRawLights() == null ? null : terrain.getRawLights().clone();
+		byte[] durability = terrain.getRawDurability().clone();
+
+		// compressed once idle for the given number of ticks (the first check
+		// only clears the accesses above)
+		for (int i = 0; i < 4; i++) {
+			Assert.assertFalse(terrain.isCompressed());
+			terrain.updateCompression(3);
+		}
+		Assert.assertTrue(terrain.isCompressed());
+		Assert.assertTrue(terrain.getCompressionGain() > 0);
+		Assert.assertEquals(1, world.getTerrainStorage().getCompressedTerrainCount());
+		Assert.assertEquals(terrain.getCompressionGain(), world.getTerrainStorage().getCompressionBytesSaved());
+
+		// any access decompresses it
+		short[] result = terrain.getRawBlocks();
+		Assert.assertFalse(terrain.isCompressed());
+		Assert.assertEquals(0, world.getTerrainStorage().getCompressedTerrainCount());
+		Assert.assertEquals(0, world.getTerrainStorage().getCompressionBytesSaved());
+		for (int i = 0; i < blocks.length; i++) {
+			Assert.assertEquals(blocks[i], result[i]);
+		}
+		if (lights != null) {
+			byte[] lightsResult = terrain.getRawLights();
+			for (int i = 0; i < lights.length; i++) {
+				Assert.assertEquals(lights[i], lightsResult[i]);
+			}
+		}
+		byte[] durabilityResult = terrain.getRawDurability();
+		for (int i = 0; i < durability.length; i++) {
+			Assert.assertEquals(durability[i], durabilityResult[i]);
+		}
+
+		// an access restarts the idle count
+		for (int i = 0; i < 3; i++) {
+			terrain.updateCompression(3);
+		}
+		terrain.getBlockAt(0, 0, 0);
+		for (int i = 0; i < 3; i++) {
+			terrain.updateCompression(3);
+		}
+		Assert.assertFalse(terrain.isCompressed());
+		terrain.updateCompression(3);
+		Assert.assertTrue(terrain.isCompressed());
+	}
+}
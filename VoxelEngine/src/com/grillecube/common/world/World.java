@@ -14,6 +14,12 @@
 
 package com.grillecube.common.world;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Random;
 
@@ -24,6 +30,9 @@ import com.bulletphysics.collision.dispatch.DefaultCollisionConfiguration;
 import com.bulletphysics.dynamics.DiscreteDynamicsWorld;
 import com.bulletphysics.dynamics.constraintsolver.SequentialImpulseConstraintSolver;
 import com.bulletphysics.extras.gimpact.GImpactCollisionAlgorithm;
+import com.grillecube.common.Logger;
+import com.grillecube.common.Logger.Level;
+import com.grillecube.common.TaskScheduler;
 import com.grillecube.common.Taskable;
 import com.grillecube.common.VoxelEngine;
 import com.grillecube.common.maths.Maths;
@@ -34,12 +43,17 @@ import com.grillecube.common.world.block.instances.BlockInstance;
 import com.grillecube.common.world.entity.WorldEntity;
 import com.grillecube.common.world.entity.WorldEntityStorage;
 import com.grillecube.common.world.generator.SimplexNoiseOctave;
+import com.grillecube.common.world.generator.TerrainGenerationBuffer;
+import com.grillecube.common.world.generator.TerrainGenerationService;
 import com.grillecube.common.world.generator.WorldGenerator;
 import com.grillecube.common.world.generator.WorldGeneratorEmpty;
 import com.grillecube.common.world.physic.WorldObject;
 import com.grillecube.common.world.physic.WorldObjectBlock;
 import com.grillecube.common.world.terrain.WorldObjectTerrain;
+import com.grillecube.common.world.terrain.LightEngine;
 import com.grillecube.common.world.terrain.WorldTerrainStorage;
+import com.grillecube.common.world.terrain.region.TerrainIOService;
+import com.grillecube.common.world.terrain.region.TerrainRegionStorage;
 
 /**
  * TODO Main world class, may change to a "Planet" class, and a new World class
@@ -71,9 +85,20 @@ public abstract class World implements Taskable {
 	/** world bullet physics */
 	private final DiscreteDynamicsWorld dynamicsWorld;
 
+	/** asynchronous terrain I/O (null if the world isnt bound to a folder) */
+	private TerrainIOService io;
+
+	/** asynchronous terrain generation */
+	private final TerrainGenerationService generation;
+
+	/** light propagation */
+	private final LightEngine lightEngine;
+
 	public World() {
 		this.terrains = this.instanciateTerrainStorage();
 		this.entities = new WorldEntityStorage(this);
+		this.lightEngine = new LightEngine();
+		this.generation = new TerrainGenerationService(this);
 		this.rng = new Random();
 		this.tick = 0;
 		this.setWorldGenerator(new WorldGeneratorEmpty());
@@ -94,42 +119,123 @@ public abstract class World implements Taskable {
 	/** tasks to be run to update the world */
 	@Override
 	public void getTasks(VoxelEngine engine, ArrayList<com.grillecube.common.VoxelEngine.Callable<Taskable>> tasks) {
+		if (this.io != null) {
+			this.io.update();
+		}
+		this.generation.update();
 		this.entities.getTasks(engine, tasks);
 		this.terrains.getTasks(engine, tasks);
+		this.lightEngine.getTasks(engine, tasks);
 		this.onTasksGet(engine, tasks);
 		this.tick();
 	}
 
 	/** call back to add tasks to run */
-	protected void onTasksGet(VoxelEngine engine, ArrayList<VoxelEngine.Callable<Taskable>> tasks) {
-		double dt = engine.getTimer().getDt();
+	protected void onTasksGet(final VoxelEngine engine, ArrayList<VoxelEngine.Callable<Taskable>> tasks) {
+		tasks.add(engine.new Callable<Taskable>() {
+			@Override
+			public World call() throws Exception {
+				stepPhysics(engine.getTimer().getDt());
+				return (World.this);
+			}
+
+			@Override
+			public String getName() {
+				return ("World physics");
+			}
+
+			@Override
+			public int getPhase() {
+				return (TaskScheduler.PHASE_PHYSICS);
+			}
+
+			@Override
+			public int getReads() {
+				return (TaskScheduler.RESOURCE_TERRAIN);
+			}
+
+			@Override
+			public int getWrites() {
+				return (TaskScheduler.RESOURCE_PHYSICS | TaskScheduler.RESOURCE_ENTITIES);
+			}
+		});
+	}
+
+	/** step the physic simulation of the awake entities */
+	private final void stepPhysics(double dt) {
+		// the sleeping entities are skipped
+		ArrayList<WorldEntity> entities = this.entities.getActiveEntities();
+		if (entities.isEmpty()) {
+			return;
+		}
 
-		for (WorldEntity entity : this.entities) {
-			entity.preWorldUpdate(engine.getTimer().getDt());
+		for (int i = 0; i < entities.size(); i++) {
+			entities.get(i).preWorldUpdate(dt);
 		}
 
 		this.dynamicsWorld.stepSimulation((float) dt);
 
-		for (WorldEntity entity : this.entities) {
-			entity.postWorldUpdate(dt);
+		for (int i = 0; i < entities.size(); i++) {
+			entities.get(i).postWorldUpdate(dt);
 		}
+		this.entities.updateGrid();
 	}
 
 	/**
-	 * generate the terrain for the given coordinates, spawn it if un-existant
+	 * generate the terrain for the given coordinates, spawn it if un-existant.
+	 * If the terrain was saved in the world region files, it is loaded instead
+	 * of being generated.
+	 *
+	 * This is done on the caller thread (disk read and generation): it should
+	 * not be used in the game loop, see {@link #requestTerrain(int, int, int)}
 	 */
 	public WorldObjectTerrain generateTerrain(int x, int y, int z) {
 		WorldObjectTerrain terrain = this.getTerrain(x, y, z);
 		if (terrain == null) {
+			if (this.io != null) {
+				terrain = this.io.load(x, y, z);
+				if (terrain != null) {
+					return (this.spawnTerrain(terrain));
+				}
+			}
 			terrain = new WorldObjectTerrain(this, x, y, z);
 			this.spawnTerrain(terrain);
 		}
 		return (this.generateTerrain(terrain));
 	}
 
+	/**
+	 * request the terrain at the given coordinates to be loaded asynchronously
+	 * (or generated if it was never saved). If this world isnt bound to a
+	 * folder, the terrain is generated asynchronously (see
+	 * {@link TerrainGenerationService})
+	 */
+	public void requestTerrain(int x, int y, int z) {
+		if (this.getTerrain(x, y, z) != null) {
+			return;
+		}
+		if (this.io != null) {
+			this.io.requestLoad(x, y, z);
+		} else {
+			this.generation.requestGeneration(x, y, z);
+		}
+	}
+
+	/**
+	 * generate the blocks of the given terrain on the caller thread, with the
+	 * blocks its neighbors stages write in it (see
+	 * {@link TerrainGenerationService#generate(int, int, int)})
+	 */
 	public WorldObjectTerrain generateTerrain(WorldObjectTerrain terrain) {
+		Vector3i index = terrain.getWorldIndex();
+		TerrainGenerationBuffer buffer = this.generation.generate(index.x, index.y, index.z);
+		if (buffer == null) {
+			// the thread was interrupted: the terrain is left empty
+			Logger.get().log(Level.WARNING, "Terrain generation interrupted: " + index);
+			return (terrain);
+		}
 		terrain.preGenerated();
-		this.generator.generate(terrain);
+		terrain.setBlocks(buffer.getBlocks());
 		terrain.postGenerated();
 		return (terrain);
 	}
@@ -139,6 +245,11 @@ public abstract class World implements Taskable {
 		this.generator = worldgen;
 	}
 
+	/** get the world generator */
+	public final WorldGenerator getWorldGenerator() {
+		return (this.generator);
+	}
+
 	/** get the rng */
 	public final Random getRNG() {
 		return (this.rng);
@@ -148,6 +259,8 @@ public abstract class World implements Taskable {
 	public final void delete() {
 		this.entities.delete();
 		this.terrains.delete();
+		this.setRegionStorage(null);
+		this.generation.stop();
 		this.onDelete();
 	}
 
@@ -155,6 +268,11 @@ public abstract class World implements Taskable {
 
 	}
 
+	/** the light propagation engine */
+	public final LightEngine getLightEngine() {
+		return (this.lightEngine);
+	}
+
 	/**
 	 * return the terrain with the given location, or null if the terrain doesnt
 	 * exists / is empty
@@ -186,9 +304,17 @@ public abstract class World implements Taskable {
 		return (this.terrains.getBlock(pos.x, pos.y, pos.z));
 	}
 
-	/** set the block at the given world coordinates */
+	/**
+	 * set the block at the given world coordinates, the entities sleeping
+	 * around it are woken up
+	 */
 	public WorldObjectTerrain setBlock(Block block, float x, float y, float z) {
-		return (this.terrains.setBlock(block, x, y, z));
+		WorldObjectTerrain terrain = this.terrains.setBlock(block, x, y, z);
+		float bx = Maths.floor(x);
+		float by = Maths.floor(y);
+		float bz = Maths.floor(z);
+		this.entities.wakeUp(bx - 1.0f, by - 1.0f, bz - 1.0f, bx + 2.0f, by + 2.0f, bz + 2.0f);
+		return (terrain);
 	}
 
 	public byte getBlockLight(Vector3f pos) {
@@ -243,19 +369,12 @@ public abstract class World implements Taskable {
 	public final void tick() {
 		this.tick++;
 
-		// if (tick % 40 == 0) {
-		// int count = 0;
-		// long gain = 0;
-		// Terrain[] t = this.terrains.get();
-		// for (Terrain terrain : t) {
-		// if (terrain.hasState(Terrain.STATE_BLOCK_COMPRESSED)) {
-		// count++;
-		// gain += terrain.gainBlock;
-		// gain += terrain.gainLight;
-		// }
-		// }
-		// Logger.get().log(Logger.Level.DEBUG, count, t.length, gain);
-		// }
+		if (this.tick % 1200 == 0 && VoxelEngine.instance() != null && VoxelEngine.instance().debug()) {
+			Logger.get().log(Level.DEBUG,
+					"Compressed terrains: " + this.terrains.getCompressedTerrainCount() + "/"
+							+ this.terrains.getTerrainCount() + " (" + this.terrains.getCompressionBytesSaved()
+							+ " bytes saved)");
+		}
 	}
 
 	public long getTick() {
@@ -274,18 +393,101 @@ public abstract class World implements Taskable {
 	public BlockInstance getBlockInstance(float x, float y, float z) {
 		return (this.terrains.getBlockInstance(x, y, z));
 	}
-	// TODO: save and load
+
+	/** world information file name (inside the world folder) */
+	public static final String INFO_FILE = "world.dat";
+
+	/** region files directory name (inside the world folder) */
+	public static final String REGIONS_DIRECTORY = "regions";
 
 	/**
 	 * save the given world to the given folder
 	 */
-
 	public static final void save(World world, String filepath) {
+		File folder = new File(filepath);
+		if (!folder.exists()) {
+			folder.mkdirs();
+		}
+
+		// world informations
+		try {
+			DataOutputStream out = new DataOutputStream(new FileOutputStream(new File(folder, INFO_FILE)));
+			out.writeUTF(world.getClass().getName());
+			out.writeLong(world.getTick());
+			out.close();
+		} catch (IOException exception) {
+			Logger.get().log(Level.ERROR, "Couldnt save world informations: " + exception.getLocalizedMessage());
+			return;
+		}
+
+		// terrains
+		File directory = new File(folder, REGIONS_DIRECTORY);
+		TerrainIOService io = world.getTerrainIOService();
+		if (io != null && io.getRegionStorage().getDirectory().getAbsoluteFile().equals(directory.getAbsoluteFile())) {
+			// the world is bound to this folder: save on the I/O threads, and
+			// wait for them
+			io.save();
+			return;
+		}
+		TerrainRegionStorage regions = new TerrainRegionStorage(directory);
+		for (WorldObjectTerrain terrain : world.getTerrainStorage().get()) {
+			regions.save(terrain);
+		}
+		regions.close();
 	}
 
-	/** load the given folder as a world */
+	/**
+	 * load the given folder as a world. Terrains are lazily read from the
+	 * region files when they are requested (see
+	 * {@link #generateTerrain(int, int, int)})
+	 */
 	public static final World load(String filepath) {
-		return (null);
+		File folder = new File(filepath);
+		World world;
+		try {
+			DataInputStream in = new DataInputStream(new FileInputStream(new File(folder, INFO_FILE)));
+			String classname = in.readUTF();
+			long tick = in.readLong();
+			in.close();
+			world = (World) Class.forName(classname).getDeclaredConstructor().newInstance();
+			world.tick = tick;
+		} catch (IOException | ReflectiveOperationException | ClassCastException exception) {
+			Logger.get().log(Level.ERROR, "Couldnt load world at " + filepath + " : " + exception.getLocalizedMessage());
+			return (null);
+		}
+		world.setRegionStorage(new TerrainRegionStorage(new File(folder, REGIONS_DIRECTORY)));
+		return (world);
+	}
+
+	/**
+	 * set the region files where this world terrains are loaded from and saved
+	 * to (can be null). The previous storage is flushed and closed
+	 */
+	public final void setRegionStorage(TerrainRegionStorage regions) {
+		if (this.io != null) {
+			if (this.io.getRegionStorage() == regions) {
+				return;
+			}
+			this.io.flush();
+			this.io.stop();
+			this.io.getRegionStorage().close();
+		}
+		this.io = regions == null ? null : new TerrainIOService(this, regions);
+	}
+
+	/** get the region files where this world terrains are loaded from */
+	public final TerrainRegionStorage getRegionStorage() {
+		return (this.io == null ? null : this.io.getRegionStorage());
+	}
+
+	/** get the asynchronous terrain I/O service (null if not bound to a folder) */
+	public final TerrainIOService getTerrainIOService() {
+		return (this.io);
+	}
+
+	/** get the asynchronous terrain generation service */
+	public final TerrainGenerationService getTerrainGenerationService() {
+		return (this.generation);
 	}
 
 	public final void load() {
@@ -6,7 +6,7 @@ import java.util.Iterator;
 import com.grillecube.common.Logger;
 import com.grillecube.common.Taskable;
 import com.grillecube.common.event.Event;
-import com.grillecube.common.resources.ResourceManager;
+import com.grillecube.common.resources.EventManager;
 
 public abstract class WorldStorage<T> implements Taskable, Iterable<T> {
 
@@ -24,8 +24,8 @@ public abstract class WorldStorage<T> implements Taskable, Iterable<T> {
 	public abstract void delete();
 
 	protected void invokeEvent(Event event) {
-		if (ResourceManager.instance() != null && ResourceManager.instance().getEventManager() != null) {
-			ResourceManager.instance().getEventManager().invokeEvent(event);
+		if (EventManager.instance() != null) {
+			EventManager.instance().invokeEvent(event);
 		} else {
 			Logger.get().log(Logger.Level.WARNING, "Tried to invoke an event before EventManager initialization");
 		}
@@ -25,7 +25,8 @@ public class Blocks implements IModResource {
 		this.loadBlocks(blockmanager);
 	}
 
-	private void loadBlocks(BlockManager blockmanager) {
+	/** register the default blocks (can be called without a running engine) */
+	public void loadBlocks(BlockManager blockmanager) {
 		Blocks.AIR = blockmanager.registerBlock(new BlockAir());
 		Blocks.DIRT = blockmanager.registerBlock(new BlockDirt(blockmanager.getNextID()));
 		Blocks.GRASS = blockmanager.registerBlock(new BlockGrass(blockmanager.getNextID()));
@@ -1,5 +1,9 @@
 package com.grillecube.common.world.block.instances;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
 import com.grillecube.common.world.block.Block;
 import com.grillecube.common.world.terrain.WorldObjectTerrain;
 
@@ -29,6 +33,14 @@ public abstract class BlockInstance {
 	/** called when this instance is unset */
 	public abstract void onUnset();
 
+	/** write the persistent data of this instance (when the terrain is saved) */
+	public void write(DataOutputStream out) throws IOException {
+	}
+
+	/** read the persistent data of this instance (when the terrain is loaded) */
+	public void read(DataInputStream in) throws IOException {
+	}
+
 	/** get the terrain where this block instance is */
 	public WorldObjectTerrain getTerrain() {
 		return (this.terrain);
@@ -1,5 +1,9 @@
 package com.grillecube.common.world.block.instances;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
 import com.grillecube.common.maths.Maths;
 import com.grillecube.common.maths.Vector3i;
 import com.grillecube.common.world.block.Block;
@@ -55,6 +59,16 @@ public class BlockInstanceLiquid extends BlockInstance {
 		return (this.amount);
 	}
 
+	@Override
+	public void write(DataOutputStream out) throws IOException {
+		out.writeShort(this.amount);
+	}
+
+	@Override
+	public void read(DataInputStream in) throws IOException {
+		this.setAmount(in.readShort());
+	}
+
 	@Override
 	public void update() {
 
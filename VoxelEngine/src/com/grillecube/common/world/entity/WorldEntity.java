@@ -16,6 +16,7 @@ package com.grillecube.common.world.entity;
 
 import java.util.ArrayList;
 
+import com.grillecube.common.event.Event;
 import com.grillecube.common.event.world.entity.EventEntityPlaySound;
 import com.grillecube.common.maths.Vector3f;
 import com.grillecube.common.resources.EventManager;
@@ -52,6 +53,31 @@ public abstract class WorldEntity extends WorldObjectEntity {
 	public static final int DEFAULT_ENTITY_ID = 0;
 	private int id = DEFAULT_ENTITY_ID;
 
+	/** cell of the entity in the world entity grid, and its index in it */
+	long gridKey;
+	int gridIndex = -1;
+
+	/** the simulation this entity is a handle on, and its slot in it */
+	WorldEntitySimulation simulation;
+	int slot = -1;
+
+	/**
+	 * the buffer recording the structural changes requested by this entity
+	 * while it is updated (null outside of the entity storage update)
+	 */
+	WorldEntityCommandBuffer commands;
+
+	/** true if the entity sleeps, and its index in the storage awake entities */
+	volatile boolean sleeping;
+	int activeIndex = -1;
+
+	/** number of ticks the entity stayed idle, and its position before it */
+	int idleTicks;
+	float lastX, lastY, lastZ;
+
+	/** resultant of the forces, reused at each update */
+	private final Vector3f resultant = new Vector3f();
+
 	public WorldEntity(World world, float mass, float width, float height, float depth) {
 		super(world, mass, width, height, depth);
 
@@ -80,12 +106,16 @@ public abstract class WorldEntity extends WorldObjectEntity {
 
 	@Override
 	public void preWorldUpdate(double dt) {
+		// the entity itself is updated by the entity storage tasks
 		super.preWorldUpdate(dt);
-		this.update(dt);
 	}
 
 	/** update the entity */
 	public void update(double dt) {
+		// the entity isnt idle while it is controlled
+		if (!this.forces.isEmpty() || !this.controls.isEmpty()) {
+			this.idleTicks = 0;
+		}
 		this.updateAI(dt);
 		this.runControls(dt);
 		this.runForces(dt);
@@ -95,7 +125,9 @@ public abstract class WorldEntity extends WorldObjectEntity {
 
 	@Override
 	public void postWorldUpdate(double dt) {
-		super.postWorldUpdate(dt);
+		if (this.simulation == null) {
+			super.postWorldUpdate(dt);
+		}
 		this.updateBlockUnder();
 	}
 
@@ -108,6 +140,7 @@ public abstract class WorldEntity extends WorldObjectEntity {
 
 	public final void addAI(EntityAI<WorldEntity> ai) {
 		this.ais.add(ai);
+		this.wakeUp();
 	}
 
 	public final void removeAI(EntityAI<WorldEntity> ai) {
@@ -115,14 +148,25 @@ public abstract class WorldEntity extends WorldObjectEntity {
 	}
 
 	private final void runForces(double dt) {
+		// the simulation applies the constant forces itself
+		if (this.simulation != null) {
+			Vector3f resultant = this.resultant.set(0.0f, 0.0f, 0.0f);
+			for (int i = 0; i < this.forces.size(); i++) {
+				this.forces.get(i).updateResultant(this, resultant);
+			}
+			this.forces.clear();
+			this.simulation.addForce(this.slot, resultant.x, resultant.y, resultant.z);
+			return;
+		}
+
 		// add constant forces
-		this.addForce(Force.GRAVITY);
-		this.addForce(Force.FRICTION);
+		this.forces.add(Force.GRAVITY);
+		this.forces.add(Force.FRICTION);
 
 		// calculate resultant of the applied forces
-		Vector3f resultant = new Vector3f();
-		for (Force<WorldEntity> force : this.forces) {
-			force.updateResultant(this, resultant);
+		Vector3f resultant = this.resultant.set(0.0f, 0.0f, 0.0f);
+		for (int i = 0; i < this.forces.size(); i++) {
+			this.forces.get(i).updateResultant(this, resultant);
 		}
 		this.forces.clear();
 
@@ -156,7 +200,7 @@ public abstract class WorldEntity extends WorldObjectEntity {
 
 	/** make the entity jump */
 	public final void jump() {
-		this.forces.add(Force.JUMP);
+		this.addForce(Force.JUMP);
 	}
 
 	/** update the value of the block under this entity */
@@ -175,6 +219,7 @@ public abstract class WorldEntity extends WorldObjectEntity {
 	/** add a force to this entity */
 	public final void addForce(Force<WorldEntity> force) {
 		this.forces.add(force);
+		this.wakeUp();
 	}
 
 	public final void removeForce(Force<WorldEntity> force) {
@@ -183,6 +228,41 @@ public abstract class WorldEntity extends WorldObjectEntity {
 
 	public final void addControl(Control<WorldEntity> control) {
 		this.controls.add(control);
+		this.wakeUp();
+	}
+
+	/**
+	 * wake up this entity if it sleeps, it will be updated again from the next
+	 * entity storage update (see {@link WorldEntityStorage#SLEEP_TICKS})
+	 */
+	public final void wakeUp() {
+		this.idleTicks = 0;
+		if (this.sleeping && this.getWorld() != null) {
+			this.getWorld().getEntityStorage().requestWakeUp(this);
+		}
+	}
+
+	/**
+	 * true if this entity sleeps: it isnt updated (AI, forces, physics) until
+	 * a block changes next to it, an entity collides with it, or it is woken
+	 * up explicitly
+	 */
+	public final boolean isSleeping() {
+		return (this.sleeping);
+	}
+
+	/**
+	 * true if this entity can be put to sleep once idle: by default, if every
+	 * of its ais allows it (see {@link EntityAI#isSleepable()}). Entities which
+	 * act on each update should return false
+	 */
+	public boolean isSleepable() {
+		for (int i = 0; i < this.ais.size(); i++) {
+			if (!this.ais.get(i).isSleepable()) {
+				return (false);
+			}
+		}
+		return (true);
 	}
 
 	/**
@@ -239,8 +319,68 @@ public abstract class WorldEntity extends WorldObjectEntity {
 
 	/** play the sound at the entity position and velocity */
 	public final void playSound(String soundName) {
-		EventEntityPlaySound event = new EventEntityPlaySound(this, soundName);
-		EventManager.instance().invokeEvent(event);
+		this.invokeEvent(new EventEntityPlaySound(this, soundName));
+	}
+
+	/**
+	 * spawn an entity in the world of this entity. During the entity update,
+	 * it is deferred until every entities were updated
+	 */
+	public final void spawnEntity(WorldEntity entity) {
+		if (this.commands != null) {
+			this.commands.spawnEntity(entity);
+		} else if (this.getWorld() != null) {
+			this.getWorld().spawnEntity(entity);
+		}
+	}
+
+	/**
+	 * despawn this entity from its world. During the entity update, it is
+	 * deferred until every entities were updated
+	 */
+	public final void despawn() {
+		if (this.commands != null) {
+			this.commands.despawnEntity(this);
+		} else if (this.getWorld() != null
+				&& this.getWorld().getEntityStorage().getEntityByID(this.getEntityID()) == this) {
+			this.getWorld().getEntityStorage().remove(this);
+		}
+	}
+
+	/**
+	 * set a block in the world of this entity. During the entity update, it
+	 * is deferred until every entities were updated
+	 */
+	public final void setBlock(Block block, float x, float y, float z) {
+		if (this.commands != null) {
+			this.commands.setBlock(block, x, y, z);
+		} else if (this.getWorld() != null) {
+			this.getWorld().setBlock(block, x, y, z);
+		}
+	}
+
+	/**
+	 * set a block durability in the world of this entity. During the entity
+	 * update, it is deferred until every entities were updated
+	 */
+	public final void setBlockDurability(byte durability, float x, float y, float z) {
+		if (this.commands != null) {
+			this.commands.setBlockDurability(durability, x, y, z);
+		} else if (this.getWorld() != null) {
+			this.getWorld().setBlockDurability(durability, x, y, z);
+		}
+	}
+
+	/**
+	 * invoke an event. During the entity update, it is deferred until every
+	 * entities were updated
+	 */
+	public final void invokeEvent(Event event) {
+		if (this.commands != null) {
+			this.commands.invokeEvent(event);
+		} else {
+			EventManager.instance().invokeEvent(event);
+		}
 	}
 
 	public final boolean isVisible() {
@@ -254,4 +394,141 @@ public abstract class WorldEntity extends WorldObjectEntity {
 	public final float getSpeed() {
 		return (1.0f);
 	}
+
+	/**
+	 * true if this entity should be simulated by the world entity simulation
+	 * (see {@link WorldEntitySimulation}): it is then a handle on its state
+	 * there, and the gravity and the air friction are applied in batch
+	 */
+	public boolean isSimulated() {
+		return (false);
+	}
+
+	/***************************************************************************************/
+	/** simulated state begins */
+	/***************************************************************************************/
+
+	@Override
+	public float getPositionX() {
+		return (this.simulation == null ? super.getPositionX() : this.simulation.posX[this.slot]);
+	}
+
+	@Override
+	public float getPositionY() {
+		return (this.simulation == null ? super.getPositionY() : this.simulation.posY[this.slot]);
+	}
+
+	@Override
+	public float getPositionZ() {
+		return (this.simulation == null ? super.getPositionZ() : this.simulation.posZ[this.slot]);
+	}
+
+	@Override
+	public void setPosition(float x, float y, float z) {
+		if (this.simulation == null) {
+			super.setPosition(x, y, z);
+			return;
+		}
+		this.simulation.posX[this.slot] = x;
+		this.simulation.posY[this.slot] = y;
+		this.simulation.posZ[this.slot] = z;
+	}
+
+	@Override
+	public float getPositionVelocityX() {
+		return (this.simulation == null ? super.getPositionVelocityX() : this.simulation.velX[this.slot]);
+	}
+
+	@Override
+	public float getPositionVelocityY() {
+		return (this.simulation == null ? super.getPositionVelocityY() : this.simulation.velY[this.slot]);
+	}
+
+	@Override
+	public float getPositionVelocityZ() {
+		return (this.simulation == null ? super.getPositionVelocityZ() : this.simulation.velZ[this.slot]);
+	}
+
+	@Override
+	public void setPositionVelocityX(float vx) {
+		if (this.simulation == null) {
+			super.setPositionVelocityX(vx);
+		} else {
+			this.simulation.velX[this.slot] = vx;
+		}
+	}
+
+	@Override
+	public void setPositionVelocityY(float vy) {
+		if (this.simulation == null) {
+			super.setPositionVelocityY(vy);
+		} else {
+			this.simulation.velY[this.slot] = vy;
+		}
+	}
+
+	@Override
+	public void setPositionVelocityZ(float vz) {
+		if (this.simulation == null) {
+			super.setPositionVelocityZ(vz);
+		} else {
+			this.simulation.velZ[this.slot] = vz;
+		}
+	}
+
+	@Override
+	public float getPositionAccelerationX() {
+		return (this.simulation == null ? super.getPositionAccelerationX() : this.simulation.accX[this.slot]);
+	}
+
+	@Override
+	public float getPositionAccelerationY() {
+		return (this.simulation == null ? super.getPositionAccelerationY() : this.simulation.accY[this.slot]);
+	}
+
+	@Override
+	public float getPositionAccelerationZ() {
+		return (this.simulation == null ? super.getPositionAccelerationZ() : this.simulation.accZ[this.slot]);
+	}
+
+	@Override
+	public void setPositionAccelerationX(float ax) {
+		if (this.simulation == null) {
+			super.setPositionAccelerationX(ax);
+		} else {
+			this.simulation.accX[this.slot] = ax;
+		}
+	}
+
+	@Override
+	public void setPositionAccelerationY(float ay) {
+		if (this.simulation == null) {
+			super.setPositionAccelerationY(ay);
+		} else {
+			this.simulation.accY[this.slot] = ay;
+		}
+	}
+
+	@Override
+	public void setPositionAccelerationZ(float az) {
+		if (this.simulation == null) {
+			super.setPositionAccelerationZ(az);
+		} else {
+			this.simulation.accZ[this.slot] = az;
+		}
+	}
+
+	@Override
+	public float getMass() {
+		return (this.simulation == null ? super.getMass() : this.simulation.mass[this.slot]);
+	}
+
+	@Override
+	public void setMass(float mass) {
+		super.setMass(mass);
+		if (this.simulation != null) {
+			this.simulation.mass[this.slot] = mass;
+			this.simulation.invMass[this.slot] = 1.0f / mass;
+		}
+	}
 }
\ No newline at end of file
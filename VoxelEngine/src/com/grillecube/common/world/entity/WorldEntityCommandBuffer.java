@@ -0,0 +1,108 @@
+package com.grillecube.common.world.entity;
+
+import java.util.ArrayList;
+
+import com.grillecube.common.Logger;
+import com.grillecube.common.event.Event;
+import com.grillecube.common.resources.EventManager;
+import com.grillecube.common.world.World;
+import com.grillecube.common.world.block.Block;
+
+/**
+ * Structural changes requested by entities while they are updated in
+ * parallel (spawns, despawns, block edits and events).
+ *
+ * Each batch of entities of the parallel update records in its own buffer:
+ * nothing is shared between the workers. Once every batches were updated,
+ * the buffers are applied in the batch order, so the result of a tick does
+ * not depend on the threads scheduling (see
+ * {@link WorldEntityStorage#getTasks(com.grillecube.common.VoxelEngine, ArrayList)}).
+ */
+public class WorldEntityCommandBuffer {
+
+	/** a recorded command */
+	private static abstract class Command {
+		abstract void apply(World world);
+	}
+
+	/** the recorded commands, in the order they were recorded */
+	private final ArrayList<Command> commands;
+
+	public WorldEntityCommandBuffer() {
+		this.commands = new ArrayList<Command>();
+	}
+
+	/** spawn an entity in the world */
+	public final void spawnEntity(final WorldEntity entity) {
+		this.commands.add(new Command() {
+			@Override
+			void apply(World world) {
+				world.spawnEntity(entity);
+			}
+		});
+	}
+
+	/** despawn an entity from the world */
+	public final void despawnEntity(final WorldEntity entity) {
+		this.commands.add(new Command() {
+			@Override
+			void apply(World world) {
+				if (world.getEntityStorage().getEntityByID(entity.getEntityID()) == entity) {
+					world.getEntityStorage().remove(entity);
+				}
+			}
+		});
+	}
+
+	/** set the block at the given world coordinates */
+	public final void setBlock(final Block block, final float x, final float y, final float z) {
+		this.commands.add(new Command() {
+			@Override
+			void apply(World world) {
+				world.setBlock(block, x, y, z);
+			}
+		});
+	}
+
+	/** set the block durability at the given world coordinates */
+	public final void setBlockDurability(final byte durability, final float x, final float y, final float z) {
+		this.commands.add(new Command() {
+			@Override
+			void apply(World world) {
+				world.setBlockDurability(durability, x, y, z);
+			}
+		});
+	}
+
+	/** invoke an event */
+	public final void invokeEvent(final Event event) {
+		this.commands.add(new Command() {
+			@Override
+			void apply(World world) {
+				if (EventManager.instance() != null) {
+					EventManager.instance().invokeEvent(event);
+				} else {
+					Logger.get().log(Logger.Level.WARNING, "Tried to invoke an event before EventManager initialization");
+				}
+			}
+		});
+	}
+
+	/** apply the recorded commands on the given world, and clear them */
+	public final void apply(World world) {
+		for (int i = 0; i < this.commands.size(); i++) {
+			this.commands.get(i).apply(world);
+		}
+		this.commands.clear();
+	}
+
+	/** remove the recorded commands */
+	public final void clear() {
+		this.commands.clear();
+	}
+
+	/** number of recorded commands */
+	public final int size() {
+		return (this.commands.size());
+	}
+}
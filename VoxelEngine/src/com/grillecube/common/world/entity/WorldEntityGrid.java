@@ -0,0 +1,336 @@
+package com.grillecube.common.world.entity;
+
+import java.util.ArrayList;
+
+import com.grillecube.common.utils.LongKeys;
+import com.grillecube.common.utils.LongObjectHashMap;
+
+/**
+ * Uniform grid of the entities (broadphase): each entity is stored in the cell
+ * containing the center of its box, so the entities near a point or a box are
+ * found by visiting the few cells around it, in O(local density) rather than
+ * O(N).
+ *
+ * The cells are only updated on {@link #update(WorldEntity)}: the
+ * {@link WorldEntityStorage} does it for every entities once they moved. The
+ * queries reuse the list they are given (it is cleared first), and read the
+ * entities positions: they shouldnt run while the entities are moved.
+ */
+public class WorldEntityGrid {
+
+	/** size of a cell, in world unit */
+	public static final float DEFAULT_CELL_SIZE = 8.0f;
+
+	/** size of a cell, and its inverse */
+	private final float cellSize;
+	private final float invCellSize;
+
+	/** the cells, by key (primitive keys: queries dont box any key) */
+	private final LongObjectHashMap<ArrayList<WorldEntity>> cells;
+
+	/** number of entities in the grid */
+	private int size;
+
+	/**
+	 * largest half size of an entity in the grid, along any axis: an entity box
+	 * may overlap the cells around its own, up to this distance
+	 */
+	private float maxHalfSize;
+
+	public WorldEntityGrid() {
+		this(DEFAULT_CELL_SIZE);
+	}
+
+	public WorldEntityGrid(float cellSize) {
+		if (cellSize <= 0.0f) {
+			throw new IllegalArgumentException("cell size should be positive: " + cellSize);
+		}
+		this.cellSize = cellSize;
+		this.invCellSize = 1.0f / cellSize;
+		this.cells = new LongObjectHashMap<ArrayList<WorldEntity>>();
+		this.size = 0;
+		this.maxHalfSize = 0.0f;
+	}
+
+	/** add an entity to the grid */
+	public final void add(WorldEntity entity) {
+		if (entity.gridIndex != -1) {
+			return;
+		}
+		float half = 0.5f * Math.max(entity.getSizeX(), Math.max(entity.getSizeY(), entity.getSizeZ()));
+		if (half > this.maxHalfSize) {
+			this.maxHalfSize = half;
+		}
+		this.insert(entity, this.getKey(entity));
+		++this.size;
+	}
+
+	/** remove an entity from the grid */
+	public final void remove(WorldEntity entity) {
+		if (entity.gridIndex == -1) {
+			return;
+		}
+		this.erase(entity);
+		--this.size;
+	}
+
+	/**
+	 * update the cell of an entity, to be called once it moved
+	 *
+	 * @return true if it changed of cell
+	 */
+	public final boolean update(WorldEntity entity) {
+		if (entity.gridIndex == -1) {
+			return (false);
+		}
+		long key = this.getKey(entity);
+		if (key == entity.gridKey) {
+			return (false);
+		}
+		this.erase(entity);
+		this.insert(entity, key);
+		return (true);
+	}
+
+	/** remove every entities */
+	public final void clear() {
+		for (ArrayList<WorldEntity> cell : this.cells.values()) {
+			for (WorldEntity entity : cell) {
+				entity.gridIndex = -1;
+			}
+		}
+		this.cells.clear();
+		this.size = 0;
+		this.maxHalfSize = 0.0f;
+	}
+
+	private final void insert(WorldEntity entity, long key) {
+		ArrayList<WorldEntity> cell = this.cells.get(key);
+		if (cell == null) {
+			cell = new ArrayList<WorldEntity>(4);
+			this.cells.put(key, cell);
+		}
+		entity.gridKey = key;
+		entity.gridIndex = cell.size();
+		cell.add(entity);
+	}
+
+	private final void erase(WorldEntity entity) {
+		ArrayList<WorldEntity> cell = this.cells.get(entity.gridKey);
+		// swap with the last entity of the cell
+		WorldEntity last = cell.remove(cell.size() - 1);
+		if (last != entity) {
+			cell.set(entity.gridIndex, last);
+			last.gridIndex = entity.gridIndex;
+		}
+		if (cell.isEmpty()) {
+			this.cells.remove(entity.gridKey);
+		}
+		entity.gridIndex = -1;
+	}
+
+	/**
+	 * get the entities whose box overlaps the given box
+	 *
+	 * @param exclude
+	 *            : an entity to skip (can be null)
+	 * @param dst
+	 *            : the list to fill (it is cleared)
+	 * @return dst
+	 */
+	public final ArrayList<WorldEntity> getEntities(WorldEntity exclude, float minx, float miny, float minz,
+			float maxx, float maxy, float maxz, ArrayList<WorldEntity> dst) {
+		dst.clear();
+		int mx = this.getCell(minx - this.maxHalfSize);
+		int my = this.getCell(miny - this.maxHalfSize);
+		int mz = this.getCell(minz - this.maxHalfSize);
+		int Mx = this.getCell(maxx + this.maxHalfSize);
+		int My = this.getCell(maxy + this.maxHalfSize);
+		int Mz = this.getCell(maxz + this.maxHalfSize);
+
+		// if the box is larger than the populated area, visit the populated
+		// cells instead
+		if ((long) (Mx - mx + 1) * (My - my + 1) * (Mz - mz + 1) > this.cells.size()) {
+			for (ArrayList<WorldEntity> cell : this.cells.values()) {
+				this.addOverlapping(cell, exclude, minx, miny, minz, maxx, maxy, maxz, dst);
+			}
+			return (dst);
+		}
+
+		for (int z = mz; z <= Mz; z++) {
+			for (int y = my; y <= My; y++) {
+				for (int x = mx; x <= Mx; x++) {
+					ArrayList<WorldEntity> cell = this.cells.get(LongKeys.pack(x, y, z));
+					if (cell != null) {
+						this.addOverlapping(cell, exclude, minx, miny, minz, maxx, maxy, maxz, dst);
+					}
+				}
+			}
+		}
+		return (dst);
+	}
+
+	private final void addOverlapping(ArrayList<WorldEntity> cell, WorldEntity exclude, float minx, float miny,
+			float minz, float maxx, float maxy, float maxz, ArrayList<WorldEntity> dst) {
+		for (int i = 0; i < cell.size(); i++) {
+			WorldEntity entity = cell.get(i);
+			if (entity == exclude) {
+				continue;
+			}
+			float x = entity.getPositionX();
+			float y = entity.getPositionY();
+			float z = entity.getPositionZ();
+			if (x <= maxx && x + entity.getSizeX() >= minx && y <= maxy && y + entity.getSizeY() >= miny
+					&& z <= maxz && z + entity.getSizeZ() >= minz) {
+				dst.add(entity);
+			}
+		}
+	}
+
+	/**
+	 * get the entities whose box is at most 'radius' away from the given point
+	 *
+	 * @param exclude
+	 *            : an entity to skip (can be null)
+	 * @param dst
+	 *            : the list to fill (it is cleared)
+	 * @return dst
+	 */
+	public final ArrayList<WorldEntity> getEntities(WorldEntity exclude, float px, float py, float pz, float radius,
+			ArrayList<WorldEntity> dst) {
+		this.getEntities(exclude, px - radius, py - radius, pz - radius, px + radius, py + radius, pz + radius, dst);
+		float r2 = radius * radius;
+		int count = 0;
+		for (int i = 0; i < dst.size(); i++) {
+			WorldEntity entity = dst.get(i);
+			if (getDistanceSquared(entity, px, py, pz) <= r2) {
+				dst.set(count++, entity);
+			}
+		}
+		while (dst.size() > count) {
+			dst.remove(dst.size() - 1);
+		}
+		return (dst);
+	}
+
+	/** squared distance between a point and the box of an entity */
+	public static final float getDistanceSquared(WorldEntity entity, float px, float py, float pz) {
+		float dx = getDistance(px, entity.getPositionX(), entity.getSizeX());
+		float dy = getDistance(py, entity.getPositionY(), entity.getSizeY());
+		float dz = getDistance(pz, entity.getPositionZ(), entity.getSizeZ());
+		return (dx * dx + dy * dy + dz * dz);
+	}
+
+	private static final float getDistance(float p, float min, float size) {
+		if (p < min) {
+			return (min - p);
+		}
+		if (p > min + size) {
+			return (p - min - size);
+		}
+		return (0.0f);
+	}
+
+	/**
+	 * get the 'k' entities whose box is the nearest from the given point, and
+	 * at most 'radius' away from it. The cells are visited by growing rings
+	 * around the point, until the next ring is further than the k-th entity
+	 *
+	 * @param exclude
+	 *            : an entity to skip (can be null)
+	 * @param dst
+	 *            : the list to fill (it is cleared), sorted by distance
+	 * @return dst
+	 */
+	public final ArrayList<WorldEntity> getNearestEntities(WorldEntity exclude, float px, float py, float pz, int k,
+			float radius, ArrayList<WorldEntity> dst) {
+		dst.clear();
+		if (k <= 0) {
+			return (dst);
+		}
+		float r2 = radius * radius;
+		int cx = this.getCell(px);
+		int cy = this.getCell(py);
+		int cz = this.getCell(pz);
+		int rings = this.getCell(radius + this.maxHalfSize) + 1;
+		int visited = 0;
+
+		for (int ring = 0; ring <= rings && visited < this.size; ring++) {
+			// the entities in this ring are at least this far from the point
+			float min = (ring - 1) * this.cellSize - this.maxHalfSize;
+			if (min > 0.0f && dst.size() == k
+					&& min * min > getDistanceSquared(dst.get(k - 1), px, py, pz)) {
+				break;
+			}
+			for (int z = cz - ring; z <= cz + ring; z++) {
+				boolean zface = (z == cz - ring || z == cz + ring);
+				for (int y = cy - ring; y <= cy + ring; y++) {
+					boolean yface = zface || (y == cy - ring || y == cy + ring);
+					// the inside of the ring was visited
+					int step = yface ? 1 : 2 * ring;
+					for (int x = cx - ring; x <= cx + ring; x += step) {
+						ArrayList<WorldEntity> cell = this.cells.get(LongKeys.pack(x, y, z));
+						if (cell == null) {
+							continue;
+						}
+						visited += cell.size();
+						for (int i = 0; i < cell.size(); i++) {
+							WorldEntity entity = cell.get(i);
+							if (entity != exclude) {
+								insertNearest(entity, px, py, pz, k, r2, dst);
+							}
+						}
+					}
+				}
+			}
+		}
+		return (dst);
+	}
+
+	/** insert an entity in the sorted list of the k nearest ones */
+	private static final void insertNearest(WorldEntity entity, float px, float py, float pz, int k, float r2,
+			ArrayList<WorldEntity> dst) {
+		float d2 = getDistanceSquared(entity, px, py, pz);
+		if (d2 > r2) {
+			return;
+		}
+		int i = dst.size();
+		if (i == k) {
+			if (d2 >= getDistanceSquared(dst.get(k - 1), px, py, pz)) {
+				return;
+			}
+			--i;
+			dst.remove(i);
+		}
+		while (i > 0 && getDistanceSquared(dst.get(i - 1), px, py, pz) > d2) {
+			--i;
+		}
+		dst.add(i, entity);
+	}
+
+	private final int getCell(float coordinate) {
+		return ((int) Math.floor(coordinate * this.invCellSize));
+	}
+
+	private final long getKey(WorldEntity entity) {
+		int x = this.getCell(entity.getPositionX() + 0.5f * entity.getSizeX());
+		int y = this.getCell(entity.getPositionY() + 0.5f * entity.getSizeY());
+		int z = this.getCell(entity.getPositionZ() + 0.5f * entity.getSizeZ());
+		return (LongKeys.pack(x, y, z));
+	}
+
+	/** size of a cell, in world unit */
+	public final float getCellSize() {
+		return (this.cellSize);
+	}
+
+	/** number of non-empty cells */
+	public final int getCellCount() {
+		return (this.cells.size());
+	}
+
+	/** number of entities in the grid */
+	public final int size() {
+		return (this.size);
+	}
+}
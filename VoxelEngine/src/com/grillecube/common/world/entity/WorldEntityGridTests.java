@@ -0,0 +1,117 @@
+package com.grillecube.common.world.entity;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import junit.framework.Assert;
+
+public class WorldEntityGridTests {
+
+	public WorldEntityGridTests() {
+
+	}
+
+	private static final ArrayList<WorldEntity> createEntities(WorldEntityGrid grid, Random random, int count) {
+		ArrayList<WorldEntity> entities = new ArrayList<WorldEntity>();
+		for (int i = 0; i < count; i++) {
+			WorldEntity entity = new WorldEntity() {
+				@Override
+				protected void onUpdate(double dt) {
+				}
+			};
+			entity.setPosition(random.nextFloat() * 100.0f - 50.0f, random.nextFloat() * 100.0f - 50.0f,
+					random.nextFloat() * 20.0f);
+			grid.add(entity);
+			entities.add(entity);
+		}
+		return (entities);
+	}
+
+	@Test
+	public void testBox() {
+		WorldEntityGrid grid = new WorldEntityGrid(4.0f);
+		Random random = new Random(42);
+		ArrayList<WorldEntity> entities = createEntities(grid, random, 500);
+		ArrayList<WorldEntity> dst = new ArrayList<WorldEntity>();
+		for (int test = 0; test < 100; test++) {
+			float minx = random.nextFloat() * 100.0f - 50.0f;
+			float miny = random.nextFloat() * 100.0f - 50.0f;
+			float minz = random.nextFloat() * 20.0f;
+			float size = random.nextFloat() * 30.0f;
+			grid.getEntities(null, minx, miny, minz, minx + size, miny + size, minz + size, dst);
+			int expected = 0;
+			for (WorldEntity entity : entities) {
+				if (entity.getPositionX() <= minx + size && entity.getPositionX() + entity.getSizeX() >= minx
+						&& entity.getPositionY() <= miny + size && entity.getPositionY() + entity.getSizeY() >= miny
+						&& entity.getPositionZ() <= minz + size && entity.getPositionZ() + entity.getSizeZ() >= minz) {
+					Assert.assertTrue(dst.contains(entity));
+					++expected;
+				}
+			}
+			Assert.assertEquals(expected, dst.size());
+		}
+	}
+
+	@Test
+	public void testRadiusAfterMove() {
+		WorldEntityGrid grid = new WorldEntityGrid(4.0f);
+		Random random = new Random(42);
+		ArrayList<WorldEntity> entities = createEntities(grid, random, 500);
+		for (WorldEntity entity : entities) {
+			entity.setPosition(entity.getPositionX() + random.nextFloat() * 20.0f, entity.getPositionY(),
+					entity.getPositionZ());
+			grid.update(entity);
+		}
+		for (int i = 0; i < 100; i++) {
+			grid.remove(entities.remove(entities.size() - 1));
+		}
+		Assert.assertEquals(400, grid.size());
+
+		ArrayList<WorldEntity> dst = new ArrayList<WorldEntity>();
+		for (int test = 0; test < 100; test++) {
+			float px = random.nextFloat() * 100.0f - 50.0f;
+			float py = random.nextFloat() * 100.0f - 50.0f;
+			float pz = random.nextFloat() * 20.0f;
+			float radius = random.nextFloat() * 15.0f;
+			grid.getEntities(entities.get(0), px, py, pz, radius, dst);
+			int expected = 0;
+			for (WorldEntity entity : entities) {
+				if (entity != entities.get(0)
+						&& WorldEntityGrid.getDistanceSquared(entity, px, py, pz) <= radius * radius) {
+					Assert.assertTrue(dst.contains(entity));
+					++expected;
+				}
+			}
+			Assert.assertEquals(expected, dst.size());
+		}
+	}
+
+	@Test
+	public void testNearest() {
+		WorldEntityGrid grid = new WorldEntityGrid(4.0f);
+		Random random = new Random(42);
+		ArrayList<WorldEntity> entities = createEntities(grid, random, 500);
+		ArrayList<WorldEntity> dst = new ArrayList<WorldEntity>();
+		for (int test = 0; test < 100; test++) {
+			float px = random.nextFloat() * 100.0f - 50.0f;
+			float py = random.nextFloat() * 100.0f - 50.0f;
+			float pz = random.nextFloat() * 20.0f;
+			int k = 1 + random.nextInt(8);
+			grid.getNearestEntities(null, px, py, pz, k, 1000.0f, dst);
+			Assert.assertEquals(k, dst.size());
+
+			// the k-th nearest distance, by brute force
+			float[] distances = new float[entities.size()];
+			for (int i = 0; i < distances.length; i++) {
+				distances[i] = WorldEntityGrid.getDistanceSquared(entities.get(i), px, py, pz);
+			}
+			Arrays.sort(distances);
+			for (int i = 0; i < k; i++) {
+				Assert.assertEquals(distances[i], WorldEntityGrid.getDistanceSquared(dst.get(i), px, py, pz), 0.0f);
+			}
+		}
+	}
+}
@@ -0,0 +1,388 @@
+package com.grillecube.common.world.entity;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import com.grillecube.common.world.World;
+import com.grillecube.common.world.physic.Force;
+import com.grillecube.common.world.physic.ForceGravity;
+import com.grillecube.common.world.physic.WorldObject;
+import com.grillecube.common.world.terrain.WorldObjectTerrain;
+
+/**
+ * Structure of arrays simulation of the entities: the position, velocity,
+ * acceleration, size, mass and forces of the simulated entities are stored in
+ * primitive arrays, indexed by a dense slot. The simulated entities are
+ * handles on their slot (see {@link WorldEntity#isSimulated()}): their
+ * getters and setters read and write the arrays.
+ *
+ * {@link #update(World, double)} applies the gravity, the air friction and the
+ * forces added to the entities in tight loops, then moves them (with the
+ * world block collisions). The slots are split in ranges run on a fork/join
+ * pool.
+ *
+ * The slots of the sleeping entities (see {@link #sleep(WorldEntity)}) are
+ * kept after the awake ones: the updates only iterate the awake slots.
+ *
+ * Known limits: a simulated entity still allocates the rigid body state of
+ * its {@link com.grillecube.common.world.physic.WorldObjectEntity} base (rigid
+ * body, box shape, transform, rotation and vectors) when it is created, though
+ * the simulation never uses it. The size and the air friction factor of an
+ * entity are copied when it is added (see {@link #add(WorldEntity)}) and never
+ * read again: an entity whose size or drag coefficient changes should be
+ * removed and added again.
+ */
+public class WorldEntitySimulation {
+
+	/** number of slots under which a range isnt split anymore */
+	public static final int THRESHOLD = 2048;
+
+	/** the entities, by slot */
+	WorldEntity[] entities;
+
+	/** position, velocity, acceleration */
+	float[] posX, posY, posZ;
+	float[] velX, velY, velZ;
+	float[] accX, accY, accZ;
+
+	/** size */
+	float[] sizeX, sizeY, sizeZ;
+
+	/** mass, and 1 / mass */
+	float[] mass, invMass;
+
+	/** air friction factor (1/2 * fluid density * drag coefficient) */
+	float[] drag;
+
+	/** forces added during the update, in Newton */
+	float[] forceX, forceY, forceZ;
+
+	/** number of slots in use */
+	private int size;
+
+	/** number of awake slots: [0, active[ are awake, [active, size[ sleep */
+	private int active;
+
+	/** the pool running the updates (null to run on the caller thread) */
+	private ForkJoinPool pool;
+
+	public WorldEntitySimulation() {
+		this(ForkJoinPool.commonPool());
+	}
+
+	public WorldEntitySimulation(ForkJoinPool pool) {
+		this.pool = pool;
+		this.size = 0;
+		this.active = 0;
+		this.allocate(64);
+	}
+
+	private final void allocate(int capacity) {
+		this.entities = this.grow(this.entities, capacity);
+		this.posX = this.grow(this.posX, capacity);
+		this.posY = this.grow(this.posY, capacity);
+		this.posZ = this.grow(this.posZ, capacity);
+		this.velX = this.grow(this.velX, capacity);
+		this.velY = this.grow(this.velY, capacity);
+		this.velZ = this.grow(this.velZ, capacity);
+		this.accX = this.grow(this.accX, capacity);
+		this.accY = this.grow(this.accY, capacity);
+		this.accZ = this.grow(this.accZ, capacity);
+		this.sizeX = this.grow(this.sizeX, capacity);
+		this.sizeY = this.grow(this.sizeY, capacity);
+		this.sizeZ = this.grow(this.sizeZ, capacity);
+		this.mass = this.grow(this.mass, capacity);
+		this.invMass = this.grow(this.invMass, capacity);
+		this.drag = this.grow(this.drag, capacity);
+		this.forceX = this.grow(this.forceX, capacity);
+		this.forceY = this.grow(this.forceY, capacity);
+		this.forceZ = this.grow(this.forceZ, capacity);
+	}
+
+	private final float[] grow(float[] array, int capacity) {
+		float[] grown = new float[capacity];
+		if (array != null) {
+			System.arraycopy(array, 0, grown, 0, this.size);
+		}
+		return (grown);
+	}
+
+	private final WorldEntity[] grow(WorldEntity[] array, int capacity) {
+		WorldEntity[] grown = new WorldEntity[capacity];
+		if (array != null) {
+			System.arraycopy(array, 0, grown, 0, this.size);
+		}
+		return (grown);
+	}
+
+	/**
+	 * add an entity to the simulation: its state is copied in a slot, and it
+	 * becomes a handle on it
+	 */
+	public final void add(WorldEntity entity) {
+		if (entity.simulation != null) {
+			return;
+		}
+		if (this.size == this.entities.length) {
+			this.allocate(this.size * 2);
+		}
+		int slot = this.size++;
+		this.entities[slot] = entity;
+		this.posX[slot] = entity.getPositionX();
+		this.posY[slot] = entity.getPositionY();
+		this.posZ[slot] = entity.getPositionZ();
+		this.velX[slot] = entity.getPositionVelocityX();
+		this.velY[slot] = entity.getPositionVelocityY();
+		this.velZ[slot] = entity.getPositionVelocityZ();
+		this.accX[slot] = entity.getPositionAccelerationX();
+		this.accY[slot] = entity.getPositionAccelerationY();
+		this.accZ[slot] = entity.getPositionAccelerationZ();
+		this.sizeX[slot] = entity.getSizeX();
+		this.sizeY[slot] = entity.getSizeY();
+		this.sizeZ[slot] = entity.getSizeZ();
+		this.mass[slot] = entity.getMass();
+		this.invMass[slot] = 1.0f / entity.getMass();
+		this.drag[slot] = 0.5f * Force.FRICTION.getFluidDensity() * Force.FRICTION.getDragCoefficient(entity);
+		this.forceX[slot] = 0.0f;
+		this.forceY[slot] = 0.0f;
+		this.forceZ[slot] = 0.0f;
+		entity.simulation = this;
+		entity.slot = slot;
+
+		// a new entity is awake
+		this.swap(slot, this.active++);
+	}
+
+	/**
+	 * remove an entity from the simulation: its state is copied back in the
+	 * entity. The last slot is moved in its slot
+	 */
+	public final void remove(WorldEntity entity) {
+		if (entity.simulation != this) {
+			return;
+		}
+		// move it to the sleeping slots first, so the last slot can fill its
+		// slot
+		if (entity.slot < this.active) {
+			this.swap(entity.slot, --this.active);
+		}
+		int slot = entity.slot;
+		entity.simulation = null;
+		entity.slot = -1;
+		entity.setPosition(this.posX[slot], this.posY[slot], this.posZ[slot]);
+		entity.setPositionVelocity(this.velX[slot], this.velY[slot], this.velZ[slot]);
+		entity.setPositionAcceleration(this.accX[slot], this.accY[slot], this.accZ[slot]);
+		entity.setMass(this.mass[slot]);
+
+		int last = --this.size;
+		if (slot != last) {
+			this.move(last, slot);
+		}
+		this.entities[last] = null;
+	}
+
+	private final void move(int from, int to) {
+		this.entities[to] = this.entities[from];
+		this.entities[to].slot = to;
+		this.posX[to] = this.posX[from];
+		this.posY[to] = this.posY[from];
+		this.posZ[to] = this.posZ[from];
+		this.velX[to] = this.velX[from];
+		this.velY[to] = this.velY[from];
+		this.velZ[to] = this.velZ[from];
+		this.accX[to] = this.accX[from];
+		this.accY[to] = this.accY[from];
+		this.accZ[to] = this.accZ[from];
+		this.sizeX[to] = this.sizeX[from];
+		this.sizeY[to] = this.sizeY[from];
+		this.sizeZ[to] = this.sizeZ[from];
+		this.mass[to] = this.mass[from];
+		this.invMass[to] = this.invMass[from];
+		this.drag[to] = this.drag[from];
+		this.forceX[to] = this.forceX[from];
+		this.forceY[to] = this.forceY[from];
+		this.forceZ[to] = this.forceZ[from];
+	}
+
+	/** swap two slots */
+	private final void swap(int a, int b) {
+		if (a == b) {
+			return;
+		}
+		WorldEntity entity = this.entities[a];
+		this.entities[a] = this.entities[b];
+		this.entities[b] = entity;
+		this.entities[a].slot = a;
+		this.entities[b].slot = b;
+		this.swap(this.posX, a, b);
+		this.swap(this.posY, a, b);
+		this.swap(this.posZ, a, b);
+		this.swap(this.velX, a, b);
+		this.swap(this.velY, a, b);
+		this.swap(this.velZ, a, b);
+		this.swap(this.accX, a, b);
+		this.swap(this.accY, a, b);
+		this.swap(this.accZ, a, b);
+		this.swap(this.sizeX, a, b);
+		this.swap(this.sizeY, a, b);
+		this.swap(this.sizeZ, a, b);
+		this.swap(this.mass, a, b);
+		this.swap(this.invMass, a, b);
+		this.swap(this.drag, a, b);
+		this.swap(this.forceX, a, b);
+		this.swap(this.forceY, a, b);
+		this.swap(this.forceZ, a, b);
+	}
+
+	private final void swap(float[] array, int a, int b) {
+		float value = array[a];
+		array[a] = array[b];
+		array[b] = value;
+	}
+
+	/**
+	 * put an entity to sleep: it is not updated anymore until it is woken up
+	 * (see {@link #wakeUp(WorldEntity)})
+	 */
+	public final void sleep(WorldEntity entity) {
+		if (entity.simulation == this && entity.slot < this.active) {
+			this.swap(entity.slot, --this.active);
+		}
+	}
+
+	/** wake up a sleeping entity */
+	public final void wakeUp(WorldEntity entity) {
+		if (entity.simulation == this && entity.slot >= this.active) {
+			this.swap(entity.slot, this.active++);
+		}
+	}
+
+	/** remove every entities */
+	public final void clear() {
+		while (this.size > 0) {
+			this.remove(this.entities[this.size - 1]);
+		}
+	}
+
+	/**
+	 * update the awake simulated entities: apply the forces, then move them
+	 * for 'dt' (with the block collisions if 'world' isnt null)
+	 */
+	public final void update(World world, double dt) {
+		if (this.pool == null || this.active <= THRESHOLD) {
+			this.update(world, (float) dt, 0, this.active);
+		} else {
+			this.pool.invoke(new UpdateAction(world, (float) dt, 0, this.active));
+		}
+	}
+
+	/** update the slots in [from, to[ */
+	private final void update(World world, float dt, int from, int to) {
+		this.integrateForces(dt, from, to);
+		if (world == null) {
+			this.integratePositions(dt, from, to);
+		} else {
+			for (int slot = from; slot < to; slot++) {
+				if (this.velX[slot] != 0.0f || this.velY[slot] != 0.0f || this.velZ[slot] != 0.0f) {
+					WorldObject.move(world, this.entities[slot], dt);
+				}
+			}
+		}
+	}
+
+	/**
+	 * m.a = F, with the gravity, the air friction (F = 1/2 * p * v * C * A)
+	 * and the added forces, then integrate the velocity
+	 */
+	private final void integrateForces(float dt, int from, int to) {
+		float gravity = -ForceGravity.G * WorldObjectTerrain.BLOCKS_PER_METER;
+		float scale = WorldObjectTerrain.BLOCKS_PER_METER;
+		for (int slot = from; slot < to; slot++) {
+			float k = this.drag[slot] * this.invMass[slot];
+			float ax = (this.forceX[slot] * this.invMass[slot] - this.velX[slot] * this.sizeY[slot] * this.sizeZ[slot]
+					* k) * scale;
+			float ay = (this.forceY[slot] * this.invMass[slot] - this.velY[slot] * this.sizeX[slot] * this.sizeZ[slot]
+					* k) * scale;
+			float az = (this.forceZ[slot] * this.invMass[slot] - this.velZ[slot] * this.sizeX[slot] * this.sizeY[slot]
+					* k) * scale + gravity;
+			this.accX[slot] = ax;
+			this.accY[slot] = ay;
+			this.accZ[slot] = az;
+			this.velX[slot] += ax * dt;
+			this.velY[slot] += ay * dt;
+			this.velZ[slot] += az * dt;
+			this.forceX[slot] = 0.0f;
+			this.forceY[slot] = 0.0f;
+			this.forceZ[slot] = 0.0f;
+		}
+	}
+
+	/** integrate the positions, without collisions */
+	private final void integratePositions(float dt, int from, int to) {
+		for (int slot = from; slot < to; slot++) {
+			this.posX[slot] += this.velX[slot] * dt;
+			this.posY[slot] += this.velY[slot] * dt;
+			this.posZ[slot] += this.velZ[slot] * dt;
+		}
+	}
+
+	/** a range of slots to be updated, split in two while it is too large */
+	private final class UpdateAction extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final World world;
+		private final float dt;
+		private final int from, to;
+
+		UpdateAction(World world, float dt, int from, int to) {
+			this.world = world;
+			this.dt = dt;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (this.to - this.from <= THRESHOLD) {
+				update(this.world, this.dt, this.from, this.to);
+				return;
+			}
+			int middle = (this.from + this.to) >>> 1;
+			invokeAll(new UpdateAction(this.world, this.dt, this.from, middle),
+					new UpdateAction(this.world, this.dt, middle, this.to));
+		}
+	}
+
+	/** add a force to the entity in the given slot, for the next update */
+	final void addForce(int slot, float fx, float fy, float fz) {
+		this.forceX[slot] += fx;
+		this.forceY[slot] += fy;
+		this.forceZ[slot] += fz;
+	}
+
+	/** set the pool running the updates (null to run on the caller thread) */
+	public final void setPool(ForkJoinPool pool) {
+		this.pool = pool;
+	}
+
+	/** number of simulated entities */
+	public final int size() {
+		return (this.size);
+	}
+
+	/** number of awake simulated entities */
+	public final int getActiveCount() {
+		return (this.active);
+	}
+
+	/** number of sleeping simulated entities */
+	public final int getSleepingCount() {
+		return (this.size - this.active);
+	}
+
+	/** the entity in the given slot */
+	public final WorldEntity getEntity(int slot) {
+		return (this.entities[slot]);
+	}
+}
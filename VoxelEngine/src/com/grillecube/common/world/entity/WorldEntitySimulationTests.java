@@ -0,0 +1,138 @@
+package com.grillecube.common.world.entity;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+import com.grillecube.common.world.physic.ForceGravity;
+import com.grillecube.common.world.terrain.WorldObjectTerrain;
+
+import junit.framework.Assert;
+
+public class WorldEntitySimulationTests {
+
+	public WorldEntitySimulationTests() {
+
+	}
+
+	private static final WorldEntity createEntity() {
+		return (new WorldEntity() {
+			@Override
+			protected void onUpdate(double dt) {
+			}
+
+			@Override
+			public boolean isSimulated() {
+				return (true);
+			}
+		});
+	}
+
+	private static final ArrayList<WorldEntity> createEntities(WorldEntitySimulation simulation, int count) {
+		Random random = new Random(42);
+		ArrayList<WorldEntity> entities = new ArrayList<WorldEntity>();
+		for (int i = 0; i < count; i++) {
+			WorldEntity entity = createEntity();
+			simulation.add(entity);
+			entity.setPosition(random.nextFloat() * 100.0f, random.nextFloat() * 100.0f, random.nextFloat() * 100.0f);
+			entity.setPositionVelocity(random.nextFloat() - 0.5f, random.nextFloat() - 0.5f, random.nextFloat());
+			entities.add(entity);
+		}
+		return (entities);
+	}
+
+	@Test
+	public void testFreeFall() {
+		WorldEntitySimulation simulation = new WorldEntitySimulation(null);
+		WorldEntity entity = createEntity();
+		simulation.add(entity);
+		entity.setPosition(1.0f, 2.0f, 3.0f);
+		simulation.update(null, 0.05);
+
+		float vz = -ForceGravity.G * WorldObjectTerrain.BLOCKS_PER_METER * 0.05f;
+		Assert.assertEquals(vz, entity.getPositionVelocityZ(), 1e-6f);
+		Assert.assertEquals(0.0f, entity.getPositionVelocityX(), 0.0f);
+		Assert.assertEquals(3.0f + vz * 0.05f, entity.getPositionZ(), 1e-6f);
+		Assert.assertEquals(1.0f, entity.getPositionX(), 0.0f);
+	}
+
+	@Test
+	public void testRemove() {
+		WorldEntitySimulation simulation = new WorldEntitySimulation(null);
+		ArrayList<WorldEntity> entities = createEntities(simulation, 100);
+		float[] positions = new float[entities.size()];
+		for (int i = 0; i < entities.size(); i++) {
+			positions[i] = entities.get(i).getPositionX();
+		}
+		for (int i = 0; i < entities.size(); i += 3) {
+			simulation.remove(entities.get(i));
+		}
+		Assert.assertEquals(66, simulation.size());
+		for (int i = 0; i < entities.size(); i++) {
+			WorldEntity entity = entities.get(i);
+			if (i % 3 == 0) {
+				Assert.assertEquals(-1, entity.slot);
+			} else {
+				Assert.assertSame(entity, simulation.getEntity(entity.slot));
+				Assert.assertEquals(positions[i], entity.getPositionX(), 0.0f);
+			}
+		}
+	}
+
+	@Test
+	public void testSleep() {
+		WorldEntitySimulation simulation = new WorldEntitySimulation(null);
+		ArrayList<WorldEntity> entities = createEntities(simulation, 100);
+		for (int i = 0; i < entities.size(); i += 2) {
+			simulation.sleep(entities.get(i));
+		}
+		simulation.remove(entities.get(2));
+		simulation.remove(entities.get(3));
+		Assert.assertEquals(49, simulation.getActiveCount());
+		Assert.assertEquals(49, simulation.getSleepingCount());
+
+		float[] positions = new float[entities.size()];
+		for (int i = 0; i < entities.size(); i++) {
+			positions[i] = entities.get(i).getPositionZ();
+		}
+		simulation.update(null, 0.05);
+		for (int i = 0; i < entities.size(); i++) {
+			WorldEntity entity = entities.get(i);
+			if (i == 2 || i == 3) {
+				Assert.assertEquals(-1, entity.slot);
+				continue;
+			}
+			Assert.assertSame(entity, simulation.getEntity(entity.slot));
+			if (i % 2 == 0) {
+				Assert.assertEquals(positions[i], entity.getPositionZ(), 0.0f);
+			} else {
+				Assert.assertTrue(entity.getPositionZ() != positions[i]);
+			}
+		}
+
+		simulation.wakeUp(entities.get(0));
+		simulation.update(null, 0.05);
+		Assert.assertTrue(entities.get(0).getPositionZ() != positions[0]);
+		Assert.assertEquals(50, simulation.getActiveCount());
+	}
+
+	@Test
+	public void testParallel() {
+		int count = WorldEntitySimulation.THRESHOLD * 5 + 7;
+		WorldEntitySimulation sequential = new WorldEntitySimulation(null);
+		WorldEntitySimulation parallel = new WorldEntitySimulation(new ForkJoinPool(4));
+		ArrayList<WorldEntity> a = createEntities(sequential, count);
+		ArrayList<WorldEntity> b = createEntities(parallel, count);
+		for (int i = 0; i < 10; i++) {
+			sequential.update(null, 0.05);
+			parallel.update(null, 0.05);
+		}
+		for (int i = 0; i < count; i++) {
+			Assert.assertEquals(a.get(i).getPositionX(), b.get(i).getPositionX(), 0.0f);
+			Assert.assertEquals(a.get(i).getPositionZ(), b.get(i).getPositionZ(), 0.0f);
+			Assert.assertEquals(a.get(i).getPositionVelocityZ(), b.get(i).getPositionVelocityZ(), 0.0f);
+		}
+	}
+}
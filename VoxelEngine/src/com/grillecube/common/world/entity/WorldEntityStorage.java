@@ -1,11 +1,14 @@
 package com.grillecube.common.world.entity;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 import com.grillecube.common.Logger;
 import com.grillecube.common.Logger.Level;
+import com.grillecube.common.TaskScheduler;
 import com.grillecube.common.Taskable;
 import com.grillecube.common.VoxelEngine;
 import com.grillecube.common.event.world.entity.EventEntityDespawn;
@@ -28,10 +31,57 @@ public class WorldEntityStorage extends WorldStorage<WorldEntity> implements Ite
 	/** the list of the entities sharing the class */
 	private HashMap<Class<? extends WorldEntity>, ArrayList<WorldEntity>> entitiesByClass;
 
+	/** the entities by their position */
+	private final WorldEntityGrid grid;
+
+	/** the simulated entities (see {@link WorldEntity#isSimulated()}) */
+	private final WorldEntitySimulation simulation;
+
+	/** maximum number of batches the entities are updated in */
+	public static final int BATCHES = Runtime.getRuntime().availableProcessors();
+
+	/** minimum number of entities per batch */
+	public static final int BATCH_SIZE = 256;
+
+	/** the entities updated on this tick, and the command buffer of each batch */
+	private final ArrayList<WorldEntity> updated;
+	private final ArrayList<WorldEntityCommandBuffer> buffers;
+
+	/** number of ticks an entity has to stay idle before it sleeps */
+	public static final int SLEEP_TICKS = 40;
+
+	/** velocity (in blocks per second) under which an entity is idle */
+	public static final float SLEEP_VELOCITY = 0.25f;
+
+	/** the awake entities (the others sleep, see {@link WorldEntity#isSleeping()}) */
+	private final ArrayList<WorldEntity> active;
+
+	/** the sleeping entities to be woken up, from any thread */
+	private final ConcurrentLinkedQueue<WorldEntity> wakeUps;
+
+	/**
+	 * the boxes whose sleeping entities are to be woken up, from any thread:
+	 * 6 floats per box (guarded by 'wakeUps')
+	 */
+	private float[] wakeUpBoxes;
+	private int wakeUpBoxCount;
+
+	/** entities touched by a moving entity (or in a box), reused at each update */
+	private final ArrayList<WorldEntity> touched;
+
 	public WorldEntityStorage(World world) {
 		super(world);
 		this.entities = new HashMap<Integer, WorldEntity>();
 		this.entitiesByClass = new HashMap<Class<? extends WorldEntity>, ArrayList<WorldEntity>>();
+		this.grid = new WorldEntityGrid();
+		this.simulation = new WorldEntitySimulation();
+		this.updated = new ArrayList<WorldEntity>();
+		this.buffers = new ArrayList<WorldEntityCommandBuffer>();
+		this.active = new ArrayList<WorldEntity>();
+		this.wakeUps = new ConcurrentLinkedQueue<WorldEntity>();
+		this.wakeUpBoxes = new float[6 * 8];
+		this.wakeUpBoxCount = 0;
+		this.touched = new ArrayList<WorldEntity>();
 	}
 
 	/** get all entities */
@@ -103,6 +153,18 @@ public class WorldEntityStorage extends WorldStorage<WorldEntity> implements Ite
 		// add it to the type list
 		this.addEntityToTypeList(entity);
 
+		// add it to the simulation
+		if (entity.isSimulated()) {
+			this.simulation.add(entity);
+		}
+
+		// add it to the grid
+		this.grid.add(entity);
+
+		// a spawned entity is awake
+		entity.sleeping = false;
+		this.addActive(entity);
+
 		// invoke events
 		this.invokeEvent(new EventEntitySpawn(entity));
 
@@ -156,6 +218,17 @@ public class WorldEntityStorage extends WorldStorage<WorldEntity> implements Ite
 			}
 		}
 
+		// remove from the grid and the simulation
+		this.grid.remove(entity);
+		this.simulation.remove(entity);
+
+		// remove from the awake entities
+		if (entity.sleeping) {
+			entity.sleeping = false;
+		} else {
+			this.removeActive(entity);
+		}
+
 		// invoke events
 		this.invokeEvent(new EventEntityDespawn(entity));
 
@@ -164,30 +237,330 @@ public class WorldEntityStorage extends WorldStorage<WorldEntity> implements Ite
 
 	/** clean the entity storage, remove every entities */
 	public void removeAll() {
+		for (WorldEntityCommandBuffer buffer : this.buffers) {
+			buffer.clear();
+		}
+		for (WorldEntity entity : this.entities.values()) {
+			entity.sleeping = false;
+			entity.activeIndex = -1;
+		}
+		this.active.clear();
+		this.wakeUps.clear();
+		synchronized (this.wakeUps) {
+			this.wakeUpBoxCount = 0;
+		}
+		this.simulation.clear();
 		this.entities.clear();
 		this.entitiesByClass.clear();
+		this.grid.clear();
+	}
+
+	/**
+	 * update the cells of the entities in the grid, to be called once they
+	 * moved
+	 */
+	public void updateGrid() {
+		for (int i = 0; i < this.active.size(); i++) {
+			this.grid.update(this.active.get(i));
+		}
+	}
+
+	/**
+	 * update the cell of an entity in the grid, to be called if it moved
+	 * outside of the world update (i.e teleported)
+	 */
+	public void updateGrid(WorldEntity entity) {
+		this.grid.update(entity);
+	}
+
+	/** the simulated entities */
+	public WorldEntitySimulation getSimulation() {
+		return (this.simulation);
+	}
+
+	/**
+	 * the entities by their position, to get the entities in a box, in a
+	 * radius, or the nearest ones
+	 */
+	public WorldEntityGrid getGrid() {
+		return (this.grid);
 	}
 
 	@Override
 	public void getTasks(VoxelEngine engine, ArrayList<com.grillecube.common.VoxelEngine.Callable<Taskable>> tasks) {
 
+		// split the entities in batches, updated in parallel: batches share a
+		// scheduler group, as each entity is updated by a single batch
+		int batches = this.prepareBatches();
+		for (int i = 0; i < batches; i++) {
+			final int batch = i;
+			final int from = (int) ((long) this.updated.size() * i / batches);
+			final int to = (int) ((long) this.updated.size() * (i + 1) / batches);
+			tasks.add(engine.new Callable<Taskable>() {
+				@Override
+				public WorldEntityStorage call() throws Exception {
+					double dt = engine.getTimer().getDt();
+					updateBatch(batch, from, to, dt);
+					return (WorldEntityStorage.this);
+				}
+
+				@Override
+				public String getName() {
+					return ("EntityStorage update (batch)");
+				}
+
+				@Override
+				public int getReads() {
+					return (TaskScheduler.RESOURCE_TERRAIN);
+				}
+
+				@Override
+				public int getWrites() {
+					return (TaskScheduler.RESOURCE_ENTITIES);
+				}
+
+				@Override
+				public Object getGroup() {
+					return (WorldEntityStorage.this);
+				}
+			});
+		}
+
+		// then move the entities and apply the commands of the batches, in
+		// their order
+		final int count = batches;
 		tasks.add(engine.new Callable<Taskable>() {
 			@Override
 			public WorldEntityStorage call() throws Exception {
 				double dt = engine.getTimer().getDt();
-				for (WorldEntity entity : WorldEntityStorage.this) {
-					entity.update(dt);
-				}
+				commitBatches(count, dt);
 				return (WorldEntityStorage.this);
 			}
 
 			@Override
 			public String getName() {
-				return ("EntityStorage update");
+				return ("EntityStorage commands");
+			}
+
+			@Override
+			public int getReads() {
+				return (TaskScheduler.RESOURCE_TERRAIN);
+			}
+
+			@Override
+			public int getWrites() {
+				return (TaskScheduler.RESOURCE_ENTITIES | TaskScheduler.RESOURCE_TERRAIN);
 			}
 		});
 	}
 
+	/**
+	 * update the awake entities on the caller thread: the batches are updated one
+	 * after the other, then committed (same result as the world tasks)
+	 */
+	public void update(double dt) {
+		int batches = this.prepareBatches();
+		for (int i = 0; i < batches; i++) {
+			this.updateBatch(i, (int) ((long) this.updated.size() * i / batches),
+					(int) ((long) this.updated.size() * (i + 1) / batches), dt);
+		}
+		this.commitBatches(batches, dt);
+	}
+
+	/**
+	 * get the (awake) entities to be updated on this tick, and the command
+	 * buffers of their batches
+	 * 
+	 * @return the number of batches
+	 */
+	private final int prepareBatches() {
+		this.wakeUpRequested();
+		this.updated.clear();
+		this.updated.addAll(this.active);
+		int batches = Math.min(BATCHES, (this.updated.size() + BATCH_SIZE - 1) / BATCH_SIZE);
+		while (this.buffers.size() < batches) {
+			this.buffers.add(new WorldEntityCommandBuffer());
+		}
+		return (batches);
+	}
+
+	/**
+	 * update the entities of a batch, their structural changes are recorded in
+	 * the batch command buffer
+	 */
+	private final void updateBatch(int batch, int from, int to, double dt) {
+		WorldEntityCommandBuffer commands = this.buffers.get(batch);
+		for (int i = from; i < to; i++) {
+			WorldEntity entity = this.updated.get(i);
+			entity.commands = commands;
+			try {
+				entity.update(dt);
+			} finally {
+				entity.commands = null;
+			}
+		}
+	}
+
+	/**
+	 * move the simulated entities, then apply the command buffers of the
+	 * batches, in their order
+	 */
+	private final void commitBatches(int batches, double dt) {
+		this.simulation.update(this.getWorld(), dt);
+		for (int i = 0; i < batches; i++) {
+			this.buffers.get(i).apply(this.getWorld());
+		}
+		this.updated.clear();
+		this.wakeUpRequested();
+		this.updateGrid();
+		this.updateSleep(dt);
+	}
+
+	/**
+	 * the awake entities which stayed idle for {@link #SLEEP_TICKS} are put
+	 * to sleep (unless they arent sleepable, see
+	 * {@link WorldEntity#isSleepable()}), the moving ones wake up the sleeping
+	 * entities they touch
+	 */
+	private final void updateSleep(double dt) {
+		float distance = (float) (SLEEP_VELOCITY * dt);
+		// backward, so an entity put to sleep is replaced by a visited one
+		for (int i = this.active.size() - 1; i >= 0; i--) {
+			WorldEntity entity = this.active.get(i);
+			float x = entity.getPositionX();
+			float y = entity.getPositionY();
+			float z = entity.getPositionZ();
+			float dx = x - entity.lastX;
+			float dy = y - entity.lastY;
+			float dz = z - entity.lastZ;
+			entity.lastX = x;
+			entity.lastY = y;
+			entity.lastZ = z;
+			if (dx * dx + dy * dy + dz * dz > distance * distance) {
+				entity.idleTicks = 0;
+				this.grid.getEntities(entity, x, y, z, x + entity.getSizeX(), y + entity.getSizeY(),
+						z + entity.getSizeZ(), this.touched);
+				for (int j = 0; j < this.touched.size(); j++) {
+					this.wakeUp(this.touched.get(j));
+				}
+			} else if (!entity.isSleepable()) {
+				entity.idleTicks = 0;
+			} else if (++entity.idleTicks >= SLEEP_TICKS) {
+				this.sleep(entity);
+			}
+		}
+		this.touched.clear();
+	}
+
+	/** put an awake entity to sleep (its residual velocity is dropped) */
+	private final void sleep(WorldEntity entity) {
+		entity.setPositionVelocity(0.0f, 0.0f, 0.0f);
+		this.removeActive(entity);
+		this.simulation.sleep(entity);
+		entity.sleeping = true;
+	}
+
+	/** wake up a sleeping entity */
+	private final void wakeUp(WorldEntity entity) {
+		if (!entity.sleeping) {
+			return;
+		}
+		entity.sleeping = false;
+		entity.idleTicks = 0;
+		this.simulation.wakeUp(entity);
+		this.addActive(entity);
+	}
+
+	/**
+	 * wake up the entities requested by {@link #requestWakeUp(WorldEntity)},
+	 * and the ones in the boxes requested by
+	 * {@link #wakeUp(float, float, float, float, float, float)}
+	 */
+	private final void wakeUpRequested() {
+		WorldEntity entity;
+		while ((entity = this.wakeUps.poll()) != null) {
+			if (this.getEntityByID(entity.getEntityID()) == entity) {
+				this.wakeUp(entity);
+			}
+		}
+
+		synchronized (this.wakeUps) {
+			float[] boxes = this.wakeUpBoxes;
+			for (int box = 0; box < this.wakeUpBoxCount; box++) {
+				int i = 6 * box;
+				this.grid.getEntities(null, boxes[i], boxes[i + 1], boxes[i + 2], boxes[i + 3], boxes[i + 4],
+						boxes[i + 5], this.touched);
+				for (int j = 0; j < this.touched.size(); j++) {
+					this.wakeUp(this.touched.get(j));
+				}
+				this.touched.clear();
+			}
+			this.wakeUpBoxCount = 0;
+		}
+	}
+
+	/**
+	 * request a sleeping entity to be woken up before the next update (can be
+	 * called from any thread)
+	 */
+	final void requestWakeUp(WorldEntity entity) {
+		this.wakeUps.add(entity);
+	}
+
+	/**
+	 * wake up the sleeping entities in the given box (i.e around a block which
+	 * changed), before the next update (can be called from any thread: the
+	 * box is queued, and the entities in it are found on the tick thread)
+	 */
+	public void wakeUp(float minx, float miny, float minz, float maxx, float maxy, float maxz) {
+		synchronized (this.wakeUps) {
+			if (6 * this.wakeUpBoxCount == this.wakeUpBoxes.length) {
+				this.wakeUpBoxes = Arrays.copyOf(this.wakeUpBoxes, this.wakeUpBoxes.length * 2);
+			}
+			float[] boxes = this.wakeUpBoxes;
+			int i = 6 * this.wakeUpBoxCount;
+			boxes[i] = minx;
+			boxes[i + 1] = miny;
+			boxes[i + 2] = minz;
+			boxes[i + 3] = maxx;
+			boxes[i + 4] = maxy;
+			boxes[i + 5] = maxz;
+			++this.wakeUpBoxCount;
+		}
+	}
+
+	private final void addActive(WorldEntity entity) {
+		entity.activeIndex = this.active.size();
+		entity.lastX = entity.getPositionX();
+		entity.lastY = entity.getPositionY();
+		entity.lastZ = entity.getPositionZ();
+		this.active.add(entity);
+	}
+
+	private final void removeActive(WorldEntity entity) {
+		WorldEntity last = this.active.remove(this.active.size() - 1);
+		if (last != entity) {
+			this.active.set(entity.activeIndex, last);
+			last.activeIndex = entity.activeIndex;
+		}
+		entity.activeIndex = -1;
+	}
+
+	/** the awake entities */
+	public ArrayList<WorldEntity> getActiveEntities() {
+		return (this.active);
+	}
+
+	/** number of awake entities */
+	public int getActiveCount() {
+		return (this.active.size());
+	}
+
+	/** number of sleeping entities */
+	public int getSleepingCount() {
+		return (this.entities.size() - this.active.size());
+	}
+
 	@Override
 	public void delete() {
 		this.removeAll();
@@ -0,0 +1,197 @@
+package com.grillecube.common.world.entity;
+
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+import com.grillecube.common.world.World;
+import com.grillecube.common.world.WorldFlat;
+import com.grillecube.common.world.block.Blocks;
+import com.grillecube.common.world.entity.ai.EntityAI;
+import com.grillecube.common.world.physic.Force;
+
+import junit.framework.Assert;
+
+public class WorldEntityStorageTests {
+
+	public WorldEntityStorageTests() {
+
+	}
+
+	/** an entity counting its updates, which can split in two on update */
+	private static class WorldEntityTest extends WorldEntity {
+
+		int updates = 0;
+		boolean split = false;
+		WorldEntityTest child = null;
+
+		WorldEntityTest(World world) {
+			super(world);
+		}
+
+		@Override
+		protected void onUpdate(double dt) {
+			++this.updates;
+			if (this.split) {
+				this.child = new WorldEntityTest(this.getWorld());
+				this.spawnEntity(this.child);
+				this.despawn();
+				// deferred until every entities are updated
+				Assert.assertTrue(this.getWorld().getEntityStorage().contains(this));
+				Assert.assertFalse(this.getWorld().getEntityStorage().contains(this.child));
+			}
+		}
+	}
+
+	private static final World createWorld() {
+		return (new WorldFlat() {
+			@Override
+			public String getName() {
+				return ("Test world");
+			}
+		});
+	}
+
+	@Test
+	public void testUpdateOnce() {
+		World world = createWorld();
+		ArrayList<WorldEntityTest> entities = new ArrayList<WorldEntityTest>();
+		for (int i = 0; i < WorldEntityStorage.BATCH_SIZE * 3 + 5; i++) {
+			entities.add((WorldEntityTest) world.spawnEntity(new WorldEntityTest(world)));
+		}
+		for (int i = 0; i < 3; i++) {
+			world.getEntityStorage().update(0.05);
+		}
+		for (WorldEntityTest entity : entities) {
+			Assert.assertEquals(3, entity.updates);
+		}
+	}
+
+	@Test
+	public void testSleep() {
+		World world = createWorld();
+		WorldEntityStorage storage = world.getEntityStorage();
+		ArrayList<WorldEntityTest> entities = new ArrayList<WorldEntityTest>();
+		for (int i = 0; i < 100; i++) {
+			WorldEntityTest entity = new WorldEntityTest(world);
+			entity.setPositionVelocity(0.0f, 0.0f, 0.0f);
+			entities.add((WorldEntityTest) storage.add(entity));
+		}
+		// a residual velocity, under the sleep velocity
+		entities.get(3).setPositionVelocity(0.5f * WorldEntityStorage.SLEEP_VELOCITY, 0.0f, 0.0f);
+		for (int i = 0; i < WorldEntityStorage.SLEEP_TICKS; i++) {
+			Assert.assertEquals(100, storage.getActiveCount());
+			storage.update(0.05);
+		}
+		Assert.assertEquals(0, storage.getActiveCount());
+		Assert.assertEquals(100, storage.getSleepingCount());
+		Assert.assertEquals(0.0f, entities.get(3).getPositionVelocityX(), 0.0f);
+
+		// sleeping entities arent updated
+		storage.update(0.05);
+		Assert.assertEquals(WorldEntityStorage.SLEEP_TICKS, entities.get(0).updates);
+
+		// explicit wake up, and inputs
+		entities.get(0).wakeUp();
+		entities.get(1).addForce(Force.JUMP);
+		storage.update(0.05);
+		Assert.assertEquals(WorldEntityStorage.SLEEP_TICKS + 1, entities.get(0).updates);
+		Assert.assertEquals(WorldEntityStorage.SLEEP_TICKS + 1, entities.get(1).updates);
+		Assert.assertEquals(WorldEntityStorage.SLEEP_TICKS, entities.get(2).updates);
+		Assert.assertEquals(2, storage.getActiveCount());
+
+		// removing a sleeping entity
+		storage.remove(entities.get(2));
+		Assert.assertEquals(97, storage.getSleepingCount());
+	}
+
+	@Test
+	public void testAIKeepsAwake() {
+		World world = createWorld();
+		WorldEntityStorage storage = world.getEntityStorage();
+		WorldEntityTest entity = new WorldEntityTest(world);
+		entity.setPositionVelocity(0.0f, 0.0f, 0.0f);
+		storage.add(entity);
+
+		// an ai which doesnt move the entity still keeps it awake
+		final int[] aiUpdates = { 0 };
+		EntityAI<WorldEntity> ai = new EntityAI<WorldEntity>() {
+			@Override
+			protected void onUpdate(WorldEntity entity, double dt) {
+				++aiUpdates[0];
+			}
+
+			@Override
+			protected void onTimedUpdate(WorldEntity entity) {
+			}
+		};
+		entity.addAI(ai);
+		Assert.assertFalse(entity.isSleepable());
+		for (int i = 0; i < WorldEntityStorage.SLEEP_TICKS * 3; i++) {
+			storage.update(0.05);
+		}
+		Assert.assertFalse(entity.isSleeping());
+		Assert.assertEquals(WorldEntityStorage.SLEEP_TICKS * 3, entity.updates);
+		Assert.assertEquals(WorldEntityStorage.SLEEP_TICKS * 3, aiUpdates[0]);
+
+		// once removed, the entity falls asleep
+		entity.removeAI(ai);
+		for (int i = 0; i < WorldEntityStorage.SLEEP_TICKS; i++) {
+			storage.update(0.05);
+		}
+		Assert.assertTrue(entity.isSleeping());
+
+		// adding an ai wakes it up
+		entity.addAI(ai);
+		storage.update(0.05);
+		Assert.assertFalse(entity.isSleeping());
+		Assert.assertEquals(WorldEntityStorage.SLEEP_TICKS * 4 + 1, entity.updates);
+		Assert.assertEquals(WorldEntityStorage.SLEEP_TICKS * 3 + 1, aiUpdates[0]);
+	}
+
+	@Test
+	public void testWakeUpOnBlockChange() {
+		World world = createWorld();
+		WorldEntityStorage storage = world.getEntityStorage();
+		WorldEntityTest entity = new WorldEntityTest(world);
+		storage.add(entity);
+		for (int i = 0; i <= WorldEntityStorage.SLEEP_TICKS; i++) {
+			storage.update(0.05);
+		}
+		Assert.assertTrue(entity.isSleeping());
+
+		// a block changes far from the entity, then under it
+		world.setBlock(Blocks.AIR, 20.5f, 20.5f, -0.5f);
+		storage.update(0.05);
+		Assert.assertTrue(entity.isSleeping());
+		world.setBlock(Blocks.AIR, entity.getPositionX() + 0.5f, entity.getPositionY() + 0.5f,
+				entity.getPositionZ() - 0.5f);
+		storage.update(0.05);
+		Assert.assertFalse(entity.isSleeping());
+	}
+
+	@Test
+	public void testDeferredCommands() {
+		World world = createWorld();
+		ArrayList<WorldEntityTest> entities = new ArrayList<WorldEntityTest>();
+		for (int i = 0; i < WorldEntityStorage.BATCH_SIZE * 3 + 5; i++) {
+			WorldEntityTest entity = new WorldEntityTest(world);
+			entity.split = (i % 2 == 0);
+			entities.add((WorldEntityTest) world.spawnEntity(entity));
+		}
+		int size = world.getEntityStorage().size();
+		world.getEntityStorage().update(0.05);
+		Assert.assertEquals(size, world.getEntityStorage().size());
+
+		for (WorldEntityTest entity : entities) {
+			if (entity.split) {
+				Assert.assertFalse(world.getEntityStorage().contains(entity));
+				Assert.assertTrue(world.getEntityStorage().contains(entity.child));
+				Assert.assertEquals(0, entity.child.updates);
+			} else {
+				Assert.assertTrue(world.getEntityStorage().contains(entity));
+				Assert.assertNull(entity.child);
+			}
+		}
+	}
+}
@@ -57,4 +57,12 @@ public abstract class EntityAI<T extends WorldEntity> {
 	public final double getAccumulator() {
 		return (this.accumulator);
 	}
+
+	/**
+	 * true if the entity can be put to sleep while this ai runs: by default an
+	 * ai may move the entity at any time, so it keeps it awake
+	 */
+	public boolean isSleepable() {
+		return (false);
+	}
 }
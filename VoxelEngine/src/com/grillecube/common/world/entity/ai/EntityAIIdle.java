@@ -22,4 +22,9 @@ public class EntityAIIdle<T extends WorldEntity> extends EntityAI<T> {
 		// }
 	}
 
+	@Override
+	public boolean isSleepable() {
+		return (true);
+	}
+
 }
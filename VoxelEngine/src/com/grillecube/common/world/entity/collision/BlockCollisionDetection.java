@@ -0,0 +1,216 @@
+package com.grillecube.common.world.entity.collision;
+
+import com.grillecube.common.maths.Maths;
+import com.grillecube.common.world.World;
+import com.grillecube.common.world.block.Block;
+import com.grillecube.common.world.block.Blocks;
+import com.grillecube.common.world.physic.WorldObject;
+import com.grillecube.common.world.terrain.TerrainBlockStorage;
+import com.grillecube.common.world.terrain.WorldObjectTerrain;
+
+/**
+ * Swept AABB collision of a moving object against the world blocks.
+ *
+ * This is the same test as {@link CollisionDetection#detectAABB(WorldObject,
+ * WorldObject, double)} against each block of
+ * {@link World#getCollidingPhysicObjects(WorldObject, float, float, float, float, float, float)},
+ * but the blocks are read directly in the terrain block storages: no block
+ * object, list or detection is allocated. The result is stored in this
+ * object, which can be reused for every detection.
+ */
+public class BlockCollisionDetection {
+
+	/** true if a collision was detected */
+	public boolean collided;
+
+	/** normal of the collided block face */
+	public float nx, ny, nz;
+
+	/** time until the collision will happens */
+	public float dt;
+
+	/** the collided block, and its world coordinates */
+	public Block block;
+	public int blockX, blockY, blockZ;
+
+	public BlockCollisionDetection() {
+		this.reset();
+	}
+
+	private final void reset() {
+		this.collided = false;
+		this.nx = 0.0f;
+		this.ny = 0.0f;
+		this.nz = 0.0f;
+		this.dt = Float.POSITIVE_INFINITY;
+		this.block = null;
+	}
+
+	/**
+	 * detect the first block the object collides with, if it moves for 'dt'
+	 * with its current velocity
+	 *
+	 * @return true if a collision was detected (the collision is stored in
+	 *         this object)
+	 */
+	public final boolean detect(World world, WorldObject moving, double dt) {
+		this.reset();
+
+		float vx = moving.getPositionVelocityX();
+		float vy = moving.getPositionVelocityY();
+		float vz = moving.getPositionVelocityZ();
+		if (vx == 0.0f && vy == 0.0f && vz == 0.0f) {
+			return (false);
+		}
+
+		float x = moving.getPositionX();
+		float y = moving.getPositionY();
+		float z = moving.getPositionZ();
+		float sx = moving.getSizeX() - CollisionDetection.MARGIN;
+		float sy = moving.getSizeY() - CollisionDetection.MARGIN;
+		float sz = moving.getSizeZ() - CollisionDetection.MARGIN;
+		float dx = (float) (vx * dt);
+		float dy = (float) (vy * dt);
+		float dz = (float) (vz * dt);
+
+		// the blocks in the swept box
+		int mx = Maths.floor(Math.min(x, x + dx));
+		int my = Maths.floor(Math.min(y, y + dy));
+		int mz = Maths.floor(Math.min(z, z + dz));
+		int Mx = Maths.ceil(Math.max(x + sx, x + sx + dx));
+		int My = Maths.ceil(Math.max(y + sy, y + sy + dy));
+		int Mz = Maths.ceil(Math.max(z + sz, z + sz + dz));
+
+		// visit them terrain by terrain
+		for (int tz = Math.floorDiv(mz, WorldObjectTerrain.DIMZ); tz <= Math.floorDiv(Mz - 1,
+				WorldObjectTerrain.DIMZ); tz++) {
+			for (int ty = Math.floorDiv(my, WorldObjectTerrain.DIMY); ty <= Math.floorDiv(My - 1,
+					WorldObjectTerrain.DIMY); ty++) {
+				for (int tx = Math.floorDiv(mx, WorldObjectTerrain.DIMX); tx <= Math.floorDiv(Mx - 1,
+						WorldObjectTerrain.DIMX); tx++) {
+					WorldObjectTerrain terrain = world.getTerrain(tx, ty, tz);
+					if (terrain == null) {
+						continue;
+					}
+					TerrainBlockStorage blocks = terrain.getBlockStorage();
+					if (blocks == null) {
+						continue;
+					}
+					int ox = tx * WorldObjectTerrain.DIMX;
+					int oy = ty * WorldObjectTerrain.DIMY;
+					int oz = tz * WorldObjectTerrain.DIMZ;
+					int x0 = Math.max(mx - ox, 0), x1 = Math.min(Mx - ox, WorldObjectTerrain.DIMX);
+					int y0 = Math.max(my - oy, 0), y1 = Math.min(My - oy, WorldObjectTerrain.DIMY);
+					int z0 = Math.max(mz - oz, 0), z1 = Math.min(Mz - oz, WorldObjectTerrain.DIMZ);
+					for (int bz = z0; bz < z1; bz++) {
+						for (int by = y0; by < y1; by++) {
+							int index = terrain.getIndex(x0, by, bz);
+							for (int bx = x0; bx < x1; bx++, index++) {
+								short id = blocks.get(index);
+								if (id == Blocks.AIR_ID) {
+									continue;
+								}
+								Block block = Blocks.getBlockByID(id);
+								if (block == null || block.isCrossable()) {
+									continue;
+								}
+								this.detectBlock(x, y, z, sx, sy, sz, vx, vy, vz, block, ox + bx, oy + by, oz + bz);
+							}
+						}
+					}
+				}
+			}
+		}
+		return (this.collided);
+	}
+
+	/**
+	 * swept AABB against a block, keep it if it collides before the current
+	 * collision (see {@link CollisionDetection#detectAABB(WorldObject,
+	 * WorldObject, double)})
+	 */
+	private final void detectBlock(float x1, float y1, float z1, float sx1, float sy1, float sz1, float vx, float vy,
+			float vz, Block block, int bx, int by, int bz) {
+		float x2 = bx;
+		float y2 = by;
+		float z2 = bz;
+		float sx2 = WorldObjectTerrain.BLOCK_SIZE - CollisionDetection.MARGIN;
+		float sy2 = WorldObjectTerrain.BLOCK_SIZE - CollisionDetection.MARGIN;
+		float sz2 = WorldObjectTerrain.BLOCK_SIZE - CollisionDetection.MARGIN;
+
+		if (vx == 0.0f && (x1 + sx1 <= x2 || x1 >= x2 + sx2)) {
+			return;
+		}
+		if (vy == 0.0f && (y1 + sy1 <= y2 || y1 >= y2 + sy2)) {
+			return;
+		}
+		if (vz == 0.0f && (z1 + sz1 <= z2 || z1 >= z2 + sz2)) {
+			return;
+		}
+
+		// time of collision and time of leaving for each axis
+		float xEntry, yEntry, zEntry;
+		float xExit, yExit, zExit;
+		if (vx == 0.0f) {
+			xEntry = Float.NEGATIVE_INFINITY;
+			xExit = Float.POSITIVE_INFINITY;
+		} else if (vx > 0.0f) {
+			xEntry = (x2 - (x1 + sx1)) / vx;
+			xExit = ((x2 + sx2) - x1) / vx;
+		} else {
+			xEntry = ((x2 + sx2) - x1) / vx;
+			xExit = (x2 - (x1 + sx1)) / vx;
+		}
+		if (vy == 0.0f) {
+			yEntry = Float.NEGATIVE_INFINITY;
+			yExit = Float.POSITIVE_INFINITY;
+		} else if (vy > 0.0f) {
+			yEntry = (y2 - (y1 + sy1)) / vy;
+			yExit = ((y2 + sy2) - y1) / vy;
+		} else {
+			yEntry = ((y2 + sy2) - y1) / vy;
+			yExit = (y2 - (y1 + sy1)) / vy;
+		}
+		if (vz == 0.0f) {
+			zEntry = Float.NEGATIVE_INFINITY;
+			zExit = Float.POSITIVE_INFINITY;
+		} else if (vz > 0.0f) {
+			zEntry = (z2 - (z1 + sz1)) / vz;
+			zExit = ((z2 + sz2) - z1) / vz;
+		} else {
+			zEntry = ((z2 + sz2) - z1) / vz;
+			zExit = (z2 - (z1 + sz1)) / vz;
+		}
+
+		// the earliest/latest times of collision
+		float entryTime = Maths.max(xEntry, Maths.max(yEntry, zEntry));
+		float exitTime = Maths.min(xExit, Maths.min(yExit, zExit));
+		if (entryTime >= exitTime || entryTime < 0.0f || entryTime >= this.dt) {
+			return;
+		}
+
+		// normal of the collided face
+		this.nx = 0.0f;
+		this.ny = 0.0f;
+		this.nz = 0.0f;
+		if (xEntry > yEntry && xEntry > zEntry) {
+			this.nx = vx < 0.0f ? 1.0f : -1.0f;
+		} else if (yEntry > xEntry && yEntry > zEntry) {
+			this.ny = vy < 0.0f ? 1.0f : -1.0f;
+		} else {
+			this.nz = vz < 0.0f ? 1.0f : -1.0f;
+		}
+		this.collided = true;
+		this.dt = entryTime;
+		this.block = block;
+		this.blockX = bx;
+		this.blockY = by;
+		this.blockZ = bz;
+	}
+
+	@Override
+	public String toString() {
+		return ("BlockCollisionDetection{nx=" + this.nx + ";ny=" + this.ny + ";nz=" + this.nz + ";dt=" + this.dt
+				+ ";block=" + this.block + "}");
+	}
+}
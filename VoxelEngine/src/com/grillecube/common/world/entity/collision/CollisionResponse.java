@@ -47,17 +47,30 @@ public class CollisionResponse {
 	 */
 	public static final void deflects(WorldObject physicObject, CollisionDetection collisionResponse, float vx,
 			float vy, float vz, float absorption) {
-		if (Maths.abs(collisionResponse.nx) > Maths.ESPILON) {
+		deflects(physicObject, collisionResponse.nx, collisionResponse.ny, collisionResponse.nz, vx, vy, vz,
+				absorption);
+	}
+
+	/** deflection on a face of normal (nx, ny, nz) */
+	public static final void deflects(WorldObject physicObject, float nx, float ny, float nz, float vx, float vy,
+			float vz, float absorption) {
+		if (Maths.abs(nx) > Maths.ESPILON) {
 			physicObject.setPositionVelocityX(-vx * absorption);
 		}
-		if (Maths.abs(collisionResponse.ny) > Maths.ESPILON) {
+		if (Maths.abs(ny) > Maths.ESPILON) {
 			physicObject.setPositionVelocityY(-vy * absorption);
 		}
-		if (Maths.abs(collisionResponse.nz) > Maths.ESPILON) {
+		if (Maths.abs(nz) > Maths.ESPILON) {
 			physicObject.setPositionVelocityZ(-vz * absorption);
 		}
 	}
 
+	/** deflection after a block collision */
+	public static final void deflects(WorldObject physicObject, BlockCollisionDetection collision, float absorption) {
+		deflects(physicObject, collision.nx, collision.ny, collision.nz, physicObject.getPositionVelocityX(),
+				physicObject.getPositionVelocityY(), physicObject.getPositionVelocityZ(), absorption);
+	}
+
 	public static final void deflects(WorldObject physicObject, CollisionDetection collisionResponse,
 			float absorption) {
 		float vx = physicObject.getPositionVelocityX();
@@ -1,5 +1,6 @@
 package com.grillecube.common.world.generator;
 
+import java.util.Arrays;
 import java.util.Random;
 
 /** http://stackoverflow.com/questions/18279456/any-simplex-noise-tutorials-or-resources */
@@ -65,4 +66,41 @@ public class SimplexNoise {
 		return result;
 
 	}
+
+	/**
+	 * sample the noise on a grid of sizeX * sizeY points, see
+	 * {@link SimplexNoiseOctave#noise(double[], double, double, double, double, int, int, int)}
+	 */
+	public void getNoise(double[] out, double x0, double y0, double dx, double dy, int sizeX, int sizeY, int step) {
+		int size = sizeX * sizeY;
+		double[] octave = new double[size];
+		Arrays.fill(out, 0, size, 0.0);
+		for (int i = 0; i < octaves.length; i++) {
+			double f = frequencys[i];
+			octaves[i].noise(octave, x0 / f, y0 / f, dx / f, dy / f, sizeX, sizeY, step);
+			double amplitude = amplitudes[i];
+			for (int j = 0; j < size; j++) {
+				out[j] += octave[j] * amplitude;
+			}
+		}
+	}
+
+	/**
+	 * sample the noise on a grid of sizeX * sizeY * sizeZ points, see
+	 * {@link SimplexNoiseOctave#noise(double[], double, double, double, double, double, double, int, int, int, int)}
+	 */
+	public void getNoise(double[] out, double x0, double y0, double z0, double dx, double dy, double dz, int sizeX,
+			int sizeY, int sizeZ, int step) {
+		int size = sizeX * sizeY * sizeZ;
+		double[] octave = new double[size];
+		Arrays.fill(out, 0, size, 0.0);
+		for (int i = 0; i < octaves.length; i++) {
+			double f = frequencys[i];
+			octaves[i].noise(octave, x0 / f, y0 / f, z0 / f, dx / f, dy / f, dz / f, sizeX, sizeY, sizeZ, step);
+			double amplitude = amplitudes[i];
+			for (int j = 0; j < size; j++) {
+				out[j] += octave[j] * amplitude;
+			}
+		}
+	}
 }
\ No newline at end of file
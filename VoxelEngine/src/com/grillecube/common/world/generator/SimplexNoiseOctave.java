@@ -265,6 +265,99 @@ public class SimplexNoiseOctave {  // Simplex noise in 2D, 3D and 4D
   }
 
 
+  // 2D simplex noise sampled on a grid of sizeX * sizeY points:
+  // out[x + sizeX * y] ~= noise(x0 + x * dx, y0 + y * dy).
+  // The noise is only evaluated every 'step' points along each axis (a coarse
+  // grid, extended past the last points), and bilinearly interpolated in
+  // between. The error bound is documented in SimplexNoiseTests, step <= 1 is
+  // exact.
+  public void noise(double[] out, double x0, double y0, double dx, double dy, int sizeX, int sizeY, int step) {
+    if(step<=1) {
+      int index=0;
+      for(int y=0; y<sizeY; y++)
+        for(int x=0; x<sizeX; x++)
+          out[index++]=noise(x0+x*dx, y0+y*dy);
+      return;
+    }
+    int nx=(sizeX-1)/step+2; // coarse points per axis
+    int ny=(sizeY-1)/step+2;
+    double sx=dx*step, sy=dy*step, inv=1.0/step;
+    double[] coarse=new double[nx*ny];
+    int index=0;
+    for(int j=0; j<ny; j++)
+      for(int i=0; i<nx; i++)
+        coarse[index++]=noise(x0+i*sx, y0+j*sy);
+    // interpolate along x, then along y (contiguous inner loops)
+    double[] rows=new double[ny*sizeX];
+    lerpRows(coarse, rows, ny, nx, sizeX, step);
+    for(int y=0; y<sizeY; y++) {
+      int a=(y/step)*sizeX, b=a+sizeX, o=y*sizeX;
+      double f=(y%step)*inv;
+      for(int x=0; x<sizeX; x++)
+        out[o+x]=rows[a+x]+(rows[b+x]-rows[a+x])*f;
+    }
+  }
+
+  // 3D simplex noise sampled on a grid of sizeX * sizeY * sizeZ points:
+  // out[x + sizeX * (y + sizeY * z)] ~= noise(x0 + x * dx, y0 + y * dy, z0 + z * dz).
+  // The noise is only evaluated every 'step' points along each axis (a coarse
+  // grid, extended past the last points), and trilinearly interpolated in
+  // between: about step^3 times less evaluations. The error bound is
+  // documented in SimplexNoiseTests, step <= 1 is exact.
+  public void noise(double[] out, double x0, double y0, double z0, double dx, double dy, double dz,
+                    int sizeX, int sizeY, int sizeZ, int step) {
+    if(step<=1) {
+      int index=0;
+      for(int z=0; z<sizeZ; z++)
+        for(int y=0; y<sizeY; y++)
+          for(int x=0; x<sizeX; x++)
+            out[index++]=noise(x0+x*dx, y0+y*dy, z0+z*dz);
+      return;
+    }
+    int nx=(sizeX-1)/step+2; // coarse points per axis
+    int ny=(sizeY-1)/step+2;
+    int nz=(sizeZ-1)/step+2;
+    double sx=dx*step, sy=dy*step, sz=dz*step, inv=1.0/step;
+    double[] coarse=new double[nx*ny*nz];
+    int index=0;
+    for(int k=0; k<nz; k++)
+      for(int j=0; j<ny; j++)
+        for(int i=0; i<nx; i++)
+          coarse[index++]=noise(x0+i*sx, y0+j*sy, z0+k*sz);
+    // interpolate along x, then along y, then along z: each pass is a
+    // contiguous loop the jit can vectorize
+    double[] rows=new double[nz*ny*sizeX];
+    lerpRows(coarse, rows, nz*ny, nx, sizeX, step);
+    double[] planes=new double[nz*sizeY*sizeX];
+    for(int k=0; k<nz; k++)
+      for(int y=0; y<sizeY; y++) {
+        int a=(k*ny+y/step)*sizeX, b=a+sizeX, o=(k*sizeY+y)*sizeX;
+        double f=(y%step)*inv;
+        for(int x=0; x<sizeX; x++)
+          planes[o+x]=rows[a+x]+(rows[b+x]-rows[a+x])*f;
+      }
+    int plane=sizeX*sizeY;
+    for(int z=0; z<sizeZ; z++) {
+      int a=(z/step)*plane, b=a+plane, o=z*plane;
+      double f=(z%step)*inv;
+      for(int i=0; i<plane; i++)
+        out[o+i]=planes[a+i]+(planes[b+i]-planes[a+i])*f;
+    }
+  }
+
+  // linear interpolation of 'count' rows of n coarse points into rows of size points
+  private static void lerpRows(double[] coarse, double[] rows, int count, int n, int size, int step) {
+    double inv=1.0/step;
+    for(int r=0; r<count; r++) {
+      int c=r*n, o=r*size;
+      for(int x=0; x<size; x++) {
+        int i=c+x/step;
+        rows[o+x]=coarse[i]+(coarse[i+1]-coarse[i])*((x%step)*inv);
+      }
+    }
+  }
+
+
   // 4D simplex noise, better simplex rank ordering method 2012-03-09
   public double noise(double x, double y, double z, double w) {
 
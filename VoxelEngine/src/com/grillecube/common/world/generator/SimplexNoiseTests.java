@@ -0,0 +1,115 @@
+package com.grillecube.common.world.generator;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import junit.framework.Assert;
+
+public class SimplexNoiseTests {
+
+	/**
+	 * the batch noise is linearly interpolated between points of a coarse grid
+	 * of cell size 'h' (in noise units: step * the largest sample spacing). The
+	 * interpolation error is bounded by h^2 / 8 times the largest second
+	 * derivative of the noise: it was measured under 10 * h^2 (0.037 for h =
+	 * 1/16, 0.14 for h = 1/8), this bound leaves a margin
+	 */
+	public static final double ERROR_BOUND = 12.0;
+
+	public SimplexNoiseTests() {
+
+	}
+
+	@Test
+	public void testExact3D() {
+		SimplexNoiseOctave noise = new SimplexNoiseOctave(42);
+		double[] out = new double[8 * 4 * 6];
+		noise.noise(out, -12.3, 4.5, 0.25, 0.1, 0.2, 0.05, 8, 4, 6, 1);
+		int index = 0;
+		for (int z = 0; z < 6; z++) {
+			for (int y = 0; y < 4; y++) {
+				for (int x = 0; x < 8; x++) {
+					Assert.assertEquals(noise.noise(-12.3 + x * 0.1, 4.5 + y * 0.2, 0.25 + z * 0.05), out[index++], 0.0);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testGridPoints() {
+		SimplexNoiseOctave noise = new SimplexNoiseOctave(42);
+		double[] out = new double[16 * 16 * 64];
+		noise.noise(out, 3.0, -7.0, 1.0, 1 / 64.0, 1 / 32.0, 1 / 64.0, 16, 16, 64, 4);
+		for (int z = 0; z < 64; z += 4) {
+			for (int y = 0; y < 16; y += 4) {
+				for (int x = 0; x < 16; x += 4) {
+					double expected = noise.noise(3.0 + x / 64.0, -7.0 + y / 32.0, 1.0 + z / 64.0);
+					Assert.assertEquals(expected, out[x + 16 * (y + 16 * z)], 1e-9);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testErrorBound3D() {
+		SimplexNoiseOctave noise = new SimplexNoiseOctave(42);
+		Random random = new Random(42);
+		int sizeX = 16, sizeY = 16, sizeZ = 64;
+		double[] out = new double[sizeX * sizeY * sizeZ];
+		for (int step = 2; step <= 8; step *= 2) {
+			for (double d = 1 / 64.0; d <= 1 / 32.0; d *= 2) {
+				double h = step * d;
+				for (int test = 0; test < 8; test++) {
+					double x0 = random.nextDouble() * 1000.0 - 500.0;
+					double y0 = random.nextDouble() * 1000.0 - 500.0;
+					double z0 = random.nextDouble() * 100.0;
+					noise.noise(out, x0, y0, z0, d, d, d, sizeX, sizeY, sizeZ, step);
+					int index = 0;
+					for (int z = 0; z < sizeZ; z++) {
+						for (int y = 0; y < sizeY; y++) {
+							for (int x = 0; x < sizeX; x++) {
+								double expected = noise.noise(x0 + x * d, y0 + y * d, z0 + z * d);
+								Assert.assertEquals(expected, out[index++], ERROR_BOUND * h * h);
+							}
+						}
+					}
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testErrorBound2D() {
+		SimplexNoiseOctave noise = new SimplexNoiseOctave(42);
+		Random random = new Random(42);
+		double[] out = new double[16 * 16];
+		for (int step = 2; step <= 8; step *= 2) {
+			for (double d = 1 / 64.0; d <= 1 / 16.0; d *= 2) {
+				double h = step * d;
+				for (int test = 0; test < 64; test++) {
+					double x0 = random.nextDouble() * 1000.0 - 500.0;
+					double y0 = random.nextDouble() * 1000.0 - 500.0;
+					noise.noise(out, x0, y0, d, d, 16, 16, step);
+					for (int y = 0; y < 16; y++) {
+						for (int x = 0; x < 16; x++) {
+							Assert.assertEquals(noise.noise(x0 + x * d, y0 + y * d), out[x + 16 * y], ERROR_BOUND * h * h);
+						}
+					}
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testOctaves() {
+		SimplexNoise noise = new SimplexNoise(64, 0.5, 42);
+		double[] out = new double[8 * 8];
+		noise.getNoise(out, -4, 10, 1, 1, 8, 8, 1);
+		for (int y = 0; y < 8; y++) {
+			for (int x = 0; x < 8; x++) {
+				Assert.assertEquals(noise.getNoise(-4 + x, 10 + y), out[x + 8 * y], 1e-12);
+			}
+		}
+	}
+}
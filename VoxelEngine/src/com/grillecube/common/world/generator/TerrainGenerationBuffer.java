@@ -0,0 +1,173 @@
+package com.grillecube.common.world.generator;
+
+import java.util.Random;
+
+import com.grillecube.common.maths.Vector3f;
+import com.grillecube.common.maths.Vector3i;
+import com.grillecube.common.world.block.Block;
+import com.grillecube.common.world.block.Blocks;
+import com.grillecube.common.world.terrain.WorldObjectTerrain;
+
+/**
+ * The blocks of a terrain being generated, detached from the world, so
+ * terrains can be generated on any thread (see
+ * {@link TerrainGenerationService}).
+ *
+ * The random generator is seeded from the world seed and the terrain index:
+ * a generator which only uses it (and immutable data such as the world noise)
+ * always generates the same blocks for a terrain, whatever the thread or the
+ * order the terrains are generated in. Blocks set outside of the terrain are
+ * ignored: the blocks of the neighbor terrains are set through a
+ * {@link TerrainGenerationRegion}.
+ */
+public class TerrainGenerationBuffer {
+
+	/** terrain index and world position */
+	private final Vector3i worldIndex;
+	private final Vector3f worldPos;
+
+	/** seed of this terrain */
+	private final long seed;
+
+	/** random generator, seeded with 'seed' */
+	private final Random rng;
+
+	/** block ids (null while every block is air) */
+	private short[] blocks;
+
+	/** z coordinate of the first air block above each column */
+	private final byte[] heightmap;
+
+	/** number of non-air blocks */
+	private int blockCount;
+
+	public TerrainGenerationBuffer(long worldSeed, int ix, int iy, int iz) {
+		this.worldIndex = new Vector3i(ix, iy, iz);
+		this.worldPos = new Vector3f(ix * WorldObjectTerrain.DIMX_SIZE, iy * WorldObjectTerrain.DIMY_SIZE,
+				iz * WorldObjectTerrain.DIMZ_SIZE);
+		this.seed = getSeed(worldSeed, ix, iy, iz);
+		this.rng = new Random(this.seed);
+		this.blocks = null;
+		this.heightmap = new byte[WorldObjectTerrain.DIMX * WorldObjectTerrain.DIMY];
+		this.blockCount = 0;
+	}
+
+	/**
+	 * the seed of a terrain: the world seed and the terrain index are mixed
+	 * (splitmix64 finalizer), so neighbor terrains get unrelated sequences
+	 */
+	public static final long getSeed(long worldSeed, int ix, int iy, int iz) {
+		long h = worldSeed;
+		h = mix(h + 0x9E3779B97F4A7C15L * (ix + 1));
+		h = mix(h + 0x9E3779B97F4A7C15L * (iy + 1));
+		h = mix(h + 0x9E3779B97F4A7C15L * (iz + 1));
+		return (h);
+	}
+
+	private static final long mix(long h) {
+		h = (h ^ (h >>> 30)) * 0xBF58476D1CE4E5B9L;
+		h = (h ^ (h >>> 27)) * 0x94D049BB133111EBL;
+		return (h ^ (h >>> 31));
+	}
+
+	/** set a block, ignored if the coordinates are outside of the terrain */
+	public final void setBlock(Block block, int x, int y, int z) {
+		if (x < 0 || x >= WorldObjectTerrain.DIMX || y < 0 || y >= WorldObjectTerrain.DIMY || z < 0
+				|| z >= WorldObjectTerrain.DIMZ) {
+			return;
+		}
+		this.setBlockAt(block, x, y, z);
+	}
+
+	/** set a block, this function doesnt check bounds */
+	public final void setBlockAt(Block block, int x, int y, int z) {
+		this.setBlockAt(block.getID(), x, y, z);
+	}
+
+	/** set a block id at the given index */
+	final void setBlockAt(short id, int index) {
+		int z = index / (WorldObjectTerrain.DIMX * WorldObjectTerrain.DIMY);
+		int y = (index / WorldObjectTerrain.DIMX) % WorldObjectTerrain.DIMY;
+		int x = index % WorldObjectTerrain.DIMX;
+		this.setBlockAt(id, x, y, z);
+	}
+
+	private final void setBlockAt(short id, int x, int y, int z) {
+		if (this.blocks == null) {
+			if (id == Blocks.AIR_ID) {
+				return;
+			}
+			// (air id is 0)
+			this.blocks = new short[WorldObjectTerrain.MAX_BLOCK_INDEX];
+		}
+
+		int index = getIndex(x, y, z);
+		short previous = this.blocks[index];
+		this.blocks[index] = id;
+
+		int column = x + WorldObjectTerrain.DIMX * y;
+		if (previous == Blocks.AIR_ID && id != Blocks.AIR_ID) {
+			++this.blockCount;
+			if (this.heightmap[column] <= z) {
+				this.heightmap[column] = (byte) (z + 1);
+			}
+		} else if (previous != Blocks.AIR_ID && id == Blocks.AIR_ID) {
+			--this.blockCount;
+			int zmax = this.heightmap[column];
+			while (zmax > 0 && this.blocks[getIndex(x, y, zmax - 1)] == Blocks.AIR_ID) {
+				--zmax;
+			}
+			this.heightmap[column] = (byte) zmax;
+		}
+	}
+
+	/** get a block, this function doesnt check bounds */
+	public final Block getBlockAt(int x, int y, int z) {
+		if (this.blocks == null) {
+			return (Blocks.AIR);
+		}
+		Block block = Blocks.getBlockByID(this.blocks[getIndex(x, y, z)]);
+		return (block != null ? block : Blocks.AIR);
+	}
+
+	/**
+	 * @return the z coordinate of the first air block above this column (0 if
+	 *         the column is full of air), as
+	 *         {@link WorldObjectTerrain#getHeightAt(int, int)}
+	 */
+	public final int getHeightAt(int x, int y) {
+		return (this.heightmap[x + WorldObjectTerrain.DIMX * y]);
+	}
+
+	static final int getIndex(int x, int y, int z) {
+		return (x + WorldObjectTerrain.DIMX * (y + WorldObjectTerrain.DIMY * z));
+	}
+
+	public final Vector3i getWorldIndex() {
+		return (this.worldIndex);
+	}
+
+	public final Vector3f getWorldPosition() {
+		return (this.worldPos);
+	}
+
+	/** the seed of this terrain (see {@link #getSeed(long, int, int, int)}) */
+	public final long getSeed() {
+		return (this.seed);
+	}
+
+	/** the random generator to be used to generate this terrain */
+	public final Random getRNG() {
+		return (this.rng);
+	}
+
+	/** the block ids (null if every block is air) */
+	public final short[] getBlocks() {
+		return (this.blocks);
+	}
+
+	/** number of non-air blocks */
+	public final int getBlockCount() {
+		return (this.blockCount);
+	}
+}
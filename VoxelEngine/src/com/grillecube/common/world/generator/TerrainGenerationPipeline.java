@@ -0,0 +1,527 @@
+package com.grillecube.common.world.generator;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.grillecube.common.Logger;
+import com.grillecube.common.Logger.Level;
+import com.grillecube.common.utils.LongKeys;
+
+/**
+ * Runs the stages of a {@link WorldGenerator} on the terrains (i.e density
+ * -> surface -> decorations), each stage once per terrain.
+ *
+ * A stage runs on a terrain once the terrains within its radius reached the
+ * previous stage. The blocks it writes in the neighbor terrains are kept by the
+ * terrain which wrote them, and applied to each neighbor once every terrain
+ * within the radius ran the stage, in a fixed order: a terrain always gets the
+ * same blocks, whatever the threads or the order the stages ran in. The
+ * stages of different terrains run concurrently on the executor.
+ *
+ * A terrain becomes idle once nothing around it waits for its stages: it
+ * isnt requested (or it was handed), and every terrain within the largest
+ * radius ran the stages it was required to. This holds for the neighbors
+ * generated for a requested terrain too, once every requester around them was
+ * handed. The most recent idle terrains are kept (so the stages of the
+ * neighbors of the terrains generated one after the other are not run again),
+ * and the oldest ones are dropped: if they are required later, their stages
+ * are run again (with the same result, see above).
+ *
+ * The lighting is the last step: it is done by the world once the terrain is
+ * spawned (see {@link TerrainGenerationService#update()}), as it propagates
+ * through the loaded terrains.
+ */
+public class TerrainGenerationPipeline {
+
+	/** default number of idle terrains kept */
+	public static final int DEFAULT_KEPT_TERRAINS = 256;
+
+	/** a terrain in the pipeline */
+	private final class Chunk {
+
+		final int x, y, z;
+
+		/** the blocks */
+		final TerrainGenerationBuffer buffer;
+
+		/** number of stages which should be run */
+		int demand;
+
+		/** number of stages run */
+		int done;
+
+		/** number of stages whose neighbor writes were applied */
+		int applied;
+
+		/** true while a stage is running */
+		boolean running;
+
+		/** true if the terrain should be added to the generated queue */
+		boolean requested;
+
+		/** number of threads waiting for it in {@link #generate(int, int, int)} */
+		int waiting;
+
+		/** for each stage, the writes in the neighbor terrains */
+		final long[][] writes;
+		final int[] writeCounts;
+
+		Chunk(int x, int y, int z) {
+			this.x = x;
+			this.y = y;
+			this.z = z;
+			this.buffer = new TerrainGenerationBuffer(seed, x, y, z);
+			this.writes = new long[stages.length][];
+			this.writeCounts = new int[stages.length];
+		}
+
+		final boolean isGenerated() {
+			return (this.applied == stages.length);
+		}
+
+	}
+
+	/** a stage to be run on a terrain */
+	private final class StageTask {
+
+		final Chunk chunk;
+		final int stage;
+
+		StageTask(Chunk chunk, int stage) {
+			this.chunk = chunk;
+			this.stage = stage;
+		}
+	}
+
+	/** the generator */
+	private final WorldGenerator generator;
+
+	/** its stages */
+	private final WorldGeneratorStage[] stages;
+
+	/** largest stage radius */
+	private final int maxRadius;
+
+	/** the world seed */
+	private final long seed;
+
+	/** runs the stages */
+	private final Executor executor;
+
+	/** terrains in the pipeline, by key (guarded by 'this') */
+	private final HashMap<Long, Chunk> chunks;
+
+	/** the terrains which may be idle, oldest first (guarded by 'this') */
+	private final LinkedHashMap<Long, Chunk> idle;
+
+	/** number of idle terrains kept */
+	private final int kept;
+
+	/** requested terrains which are generated */
+	private final ConcurrentLinkedQueue<TerrainGenerationBuffer> generated;
+
+	/** metrics, per stage */
+	private final AtomicLongArray stageRuns;
+	private final AtomicLongArray stageTimes;
+
+	/**
+	 * @param generator
+	 *            : the generator
+	 * @param seed
+	 *            : the world seed
+	 * @param executor
+	 *            : executor running the stages
+	 */
+	public TerrainGenerationPipeline(WorldGenerator generator, long seed, Executor executor) {
+		this(generator, seed, executor, DEFAULT_KEPT_TERRAINS);
+	}
+
+	/**
+	 * @param generator
+	 *            : the generator
+	 * @param seed
+	 *            : the world seed
+	 * @param executor
+	 *            : executor running the stages
+	 * @param kept
+	 *            : number of idle terrains kept
+	 */
+	public TerrainGenerationPipeline(WorldGenerator generator, long seed, Executor executor, int kept) {
+		this.generator = generator;
+		this.stages = generator.getStages().clone();
+		int maxRadius = 0;
+		for (WorldGeneratorStage stage : this.stages) {
+			maxRadius = Math.max(maxRadius, stage.getRadius());
+		}
+		this.maxRadius = maxRadius;
+		this.seed = seed;
+		this.executor = executor;
+		this.chunks = new HashMap<Long, Chunk>();
+		this.idle = new LinkedHashMap<Long, Chunk>();
+		this.kept = kept;
+		this.generated = new ConcurrentLinkedQueue<TerrainGenerationBuffer>();
+		this.stageRuns = new AtomicLongArray(this.stages.length);
+		this.stageTimes = new AtomicLongArray(this.stages.length);
+	}
+
+	/**
+	 * request a terrain to be generated on the executor. Once done, it is added
+	 * to the generated queue (see {@link #pollGenerated()})
+	 */
+	public final void request(int x, int y, int z) {
+		ArrayList<StageTask> tasks = new ArrayList<StageTask>();
+		synchronized (this) {
+			Chunk chunk = this.getChunk(x, y, z);
+			chunk.requested = true;
+			this.require(chunk, tasks);
+			this.advance(chunk, tasks);
+		}
+		this.submit(tasks);
+	}
+
+	/**
+	 * generate a terrain on the caller thread (the stages running on the
+	 * executor are waited for)
+	 *
+	 * @return the generated blocks (which shouldnt be modified), or null if
+	 *         the thread was interrupted
+	 */
+	public final TerrainGenerationBuffer generate(int x, int y, int z) {
+		ArrayList<StageTask> tasks = new ArrayList<StageTask>();
+		Chunk chunk;
+		synchronized (this) {
+			chunk = this.getChunk(x, y, z);
+			++chunk.waiting;
+			this.require(chunk, tasks);
+		}
+		while (true) {
+			while (!tasks.isEmpty()) {
+				tasks.addAll(this.run(tasks.remove(tasks.size() - 1)));
+			}
+			synchronized (this) {
+				if (chunk.isGenerated()) {
+					--chunk.waiting;
+					this.dropAround(chunk, this.maxRadius);
+					return (chunk.buffer);
+				}
+				try {
+					this.wait();
+				} catch (InterruptedException exception) {
+					Thread.currentThread().interrupt();
+					--chunk.waiting;
+					this.dropAround(chunk, this.maxRadius);
+					return (null);
+				}
+			}
+		}
+	}
+
+	/** @return the next requested terrain which is generated, or null */
+	public final TerrainGenerationBuffer pollGenerated() {
+		return (this.generated.poll());
+	}
+
+	/** drop every terrains */
+	public final synchronized void clear() {
+		this.chunks.clear();
+		this.idle.clear();
+		this.generated.clear();
+	}
+
+	private final Chunk getChunk(int x, int y, int z) {
+		long key = LongKeys.pack(x, y, z);
+		Chunk chunk = this.chunks.get(key);
+		if (chunk == null) {
+			chunk = new Chunk(x, y, z);
+			this.chunks.put(key, chunk);
+		}
+		return (chunk);
+	}
+
+	/**
+	 * require a terrain to be generated: every stages should run on it, and
+	 * the terrains within the radius of the last stage should run it too (so
+	 * its writes can be applied)
+	 */
+	private final void require(Chunk chunk, ArrayList<StageTask> tasks) {
+		if (chunk.isGenerated()) {
+			// (the terrains around it may be dropped)
+			return;
+		}
+		int last = this.stages.length - 1;
+		this.demand(chunk, this.stages.length, tasks);
+		this.demandRing(chunk, this.stages[last].getRadius(), this.stages.length, tasks);
+	}
+
+	/**
+	 * require 'stages' stages to be run on a terrain. Before a stage runs, the
+	 * writes of the previous stages should be applied (the terrains within
+	 * their radius should have run them), and the terrains within its radius
+	 * should have run the previous stage
+	 */
+	private final void demand(Chunk chunk, int stages, ArrayList<StageTask> tasks) {
+		if (chunk.demand >= stages) {
+			return;
+		}
+		chunk.demand = stages;
+		for (int stage = 0; stage < stages; stage++) {
+			int required = (stage < stages - 1) ? stage + 1 : stage;
+			this.demandRing(chunk, this.stages[stage].getRadius(), required, tasks);
+		}
+		this.advance(chunk, tasks);
+	}
+
+	/** require 'stages' stages to be run on the terrains around the given one */
+	private final void demandRing(Chunk chunk, int r, int stages, ArrayList<StageTask> tasks) {
+		if (stages == 0) {
+			return;
+		}
+		for (int dy = -r; dy <= r; dy++) {
+			for (int dx = -r; dx <= r; dx++) {
+				if (dx != 0 || dy != 0) {
+					this.demand(this.getChunk(chunk.x + dx, chunk.y + dy, chunk.z), stages, tasks);
+				}
+			}
+		}
+	}
+
+	/** apply the neighbor writes and start the next stage of a terrain, if possible */
+	private final void advance(Chunk chunk, ArrayList<StageTask> tasks) {
+		while (true) {
+			if (chunk.applied < chunk.done) {
+				int stage = chunk.applied;
+				if (!this.isRingDone(chunk, this.stages[stage].getRadius(), stage + 1)) {
+					break;
+				}
+				this.applyWrites(chunk, stage);
+				++chunk.applied;
+				continue;
+			}
+			if (chunk.running || chunk.done >= chunk.demand) {
+				break;
+			}
+			int stage = chunk.done;
+			if (!this.isRingDone(chunk, this.stages[stage].getRadius(), stage)) {
+				break;
+			}
+			chunk.running = true;
+			tasks.add(new StageTask(chunk, stage));
+			break;
+		}
+
+		if (chunk.isGenerated() && chunk.requested) {
+			chunk.requested = false;
+			this.generated.add(chunk.buffer);
+			this.dropAround(chunk, this.maxRadius);
+		}
+	}
+
+	/** true if every terrain around the given one ran 'stages' stages */
+	private final boolean isRingDone(Chunk chunk, int r, int stages) {
+		for (int dy = -r; dy <= r; dy++) {
+			for (int dx = -r; dx <= r; dx++) {
+				if (dx == 0 && dy == 0) {
+					continue;
+				}
+				Chunk neighbor = this.chunks.get(LongKeys.pack(chunk.x + dx, chunk.y + dy, chunk.z));
+				if (neighbor == null || neighbor.done < stages) {
+					return (false);
+				}
+			}
+		}
+		return (true);
+	}
+
+	/**
+	 * apply the writes of the neighbors in a terrain, for the given stage. The
+	 * neighbors are visited in a fixed order, and their writes in the order
+	 * they were made
+	 */
+	private final void applyWrites(Chunk chunk, int stage) {
+		int r = this.stages[stage].getRadius();
+		for (int dy = -r; dy <= r; dy++) {
+			for (int dx = -r; dx <= r; dx++) {
+				if (dx == 0 && dy == 0) {
+					continue;
+				}
+				Chunk neighbor = this.chunks.get(LongKeys.pack(chunk.x + dx, chunk.y + dy, chunk.z));
+				long[] writes = neighbor.writes[stage];
+				int count = neighbor.writeCounts[stage];
+				for (int i = 0; i < count; i++) {
+					long write = writes[i];
+					if (TerrainGenerationRegion.getWriteX(write) == -dx
+							&& TerrainGenerationRegion.getWriteY(write) == -dy) {
+						chunk.buffer.setBlockAt(TerrainGenerationRegion.getWriteBlock(write),
+								TerrainGenerationRegion.getWriteIndex(write));
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * mark the terrains within 'r' of the given one as idle, if nothing waits
+	 * for them nor for the terrains around them (their writes and stages are
+	 * not needed anymore), and drop the oldest idle terrains
+	 */
+	private final void dropAround(Chunk chunk, int r) {
+		for (int dy = -r; dy <= r; dy++) {
+			for (int dx = -r; dx <= r; dx++) {
+				long key = LongKeys.pack(chunk.x + dx, chunk.y + dy, chunk.z);
+				Chunk neighbor = this.chunks.get(key);
+				if (neighbor != null && this.isRingIdle(neighbor)) {
+					this.idle.remove(key);
+					this.idle.put(key, neighbor);
+				}
+			}
+		}
+
+		// (a terrain required again since it was marked isnt idle anymore: it
+		// is marked again once it is)
+		Iterator<Map.Entry<Long, Chunk>> iterator = this.idle.entrySet().iterator();
+		while (this.idle.size() > this.kept && iterator.hasNext()) {
+			Map.Entry<Long, Chunk> entry = iterator.next();
+			iterator.remove();
+			if (this.isRingIdle(entry.getValue())) {
+				this.chunks.remove(entry.getKey());
+			}
+		}
+	}
+
+	/**
+	 * true if nothing waits for a terrain: it isnt requested, it ran the
+	 * stages it was required to, and it wont apply more writes unless it is
+	 * required again (the terrains it waits the writes of were not required
+	 * to run the stage)
+	 */
+	private final boolean isIdle(Chunk chunk) {
+		if (chunk.running || chunk.done < chunk.demand || chunk.requested || chunk.waiting > 0) {
+			return (false);
+		}
+		if (chunk.applied == chunk.done) {
+			return (true);
+		}
+		int stage = chunk.applied;
+		int r = this.stages[stage].getRadius();
+		for (int dy = -r; dy <= r; dy++) {
+			for (int dx = -r; dx <= r; dx++) {
+				Chunk neighbor = this.chunks.get(LongKeys.pack(chunk.x + dx, chunk.y + dy, chunk.z));
+				if (neighbor == null || neighbor.demand <= stage) {
+					return (true);
+				}
+			}
+		}
+		return (false);
+	}
+
+	/**
+	 * true if the given terrain and every terrain around it are idle (a
+	 * terrain which isnt idle may still need the stages or the writes of the
+	 * terrains within its radius)
+	 */
+	private final boolean isRingIdle(Chunk chunk) {
+		int r = this.maxRadius;
+		for (int dy = -r; dy <= r; dy++) {
+			for (int dx = -r; dx <= r; dx++) {
+				Chunk neighbor = this.chunks.get(LongKeys.pack(chunk.x + dx, chunk.y + dy, chunk.z));
+				if (neighbor != null && !this.isIdle(neighbor)) {
+					return (false);
+				}
+			}
+		}
+		return (true);
+	}
+
+	/**
+	 * run a stage on the caller thread
+	 *
+	 * @return the stages which can be run next
+	 */
+	private final ArrayList<StageTask> run(StageTask task) {
+		Chunk chunk = task.chunk;
+		WorldGeneratorStage stage = this.stages[task.stage];
+		TerrainGenerationRegion region = new TerrainGenerationRegion(chunk.buffer, stage.getRadius());
+		long start = System.nanoTime();
+		try {
+			stage.generate(region);
+		} catch (RuntimeException exception) {
+			Logger.get().log(Level.ERROR, "Couldnt run generation stage " + stage.getName() + " on terrain " + chunk.x
+					+ ", " + chunk.y + ", " + chunk.z + " : " + exception.getLocalizedMessage());
+		}
+		this.stageTimes.addAndGet(task.stage, System.nanoTime() - start);
+		this.stageRuns.incrementAndGet(task.stage);
+
+		ArrayList<StageTask> tasks = new ArrayList<StageTask>();
+		synchronized (this) {
+			chunk.writes[task.stage] = region.getWrites();
+			chunk.writeCounts[task.stage] = region.getWriteCount();
+			chunk.running = false;
+			++chunk.done;
+
+			// this terrain, and the ones around it may be waiting for it
+			int r = this.maxRadius;
+			for (int dy = -r; dy <= r; dy++) {
+				for (int dx = -r; dx <= r; dx++) {
+					Chunk neighbor = this.chunks.get(LongKeys.pack(chunk.x + dx, chunk.y + dy, chunk.z));
+					if (neighbor != null) {
+						this.advance(neighbor, tasks);
+					}
+				}
+			}
+			// (the terrains around it may now be idle, and so the terrains
+			// around them)
+			this.dropAround(chunk, 2 * this.maxRadius);
+			this.notifyAll();
+		}
+		return (tasks);
+	}
+
+	/** run the given stages on the executor */
+	private final void submit(ArrayList<StageTask> tasks) {
+		for (final StageTask task : tasks) {
+			try {
+				this.executor.execute(new Runnable() {
+					@Override
+					public void run() {
+						submit(TerrainGenerationPipeline.this.run(task));
+					}
+				});
+			} catch (RejectedExecutionException exception) {
+				// the executor was stopped
+				return;
+			}
+		}
+	}
+
+	/** the generator */
+	public final WorldGenerator getGenerator() {
+		return (this.generator);
+	}
+
+	/** the stages */
+	public final WorldGeneratorStage[] getStages() {
+		return (this.stages);
+	}
+
+	/** number of terrains in the pipeline (being generated, or kept for later) */
+	public final synchronized int getTerrainCount() {
+		return (this.chunks.size());
+	}
+
+	/** number of times the given stage was run */
+	public final long getStageRuns(int stage) {
+		return (this.stageRuns.get(stage));
+	}
+
+	/** total time spent in the given stage, in nanoseconds */
+	public final long getStageTime(int stage) {
+		return (this.stageTimes.get(stage));
+	}
+}
@@ -0,0 +1,166 @@
+package com.grillecube.common.world.generator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Test;
+
+import com.grillecube.common.maths.Vector3i;
+import com.grillecube.common.tests.TestResources;
+import com.grillecube.common.world.block.Block;
+import com.grillecube.common.world.block.Blocks;
+import com.grillecube.common.world.terrain.WorldObjectTerrain;
+
+import junit.framework.Assert;
+
+public class TerrainGenerationPipelineTests {
+
+	/** the generated region: [-RADIUS, RADIUS] terrains along x and y */
+	public static final int RADIUS = 3;
+
+	public TerrainGenerationPipelineTests() {
+
+	}
+
+	/**
+	 * a generator whose stages write in their neighbors, where they overlap:
+	 * the blocks depend on the order the writes are applied in
+	 */
+	private static class WorldGeneratorTest extends WorldGenerator {
+
+		private final WorldGeneratorStage[] stages = new WorldGeneratorStage[] {
+				new WorldGeneratorStage("ground", 0) {
+					@Override
+					public void generate(TerrainGenerationRegion region) {
+						Random rng = region.getRNG();
+						for (int x = 0; x < WorldObjectTerrain.DIMX; x++) {
+							for (int y = 0; y < WorldObjectTerrain.DIMY; y++) {
+								int height = 1 + rng.nextInt(8);
+								for (int z = 0; z < height; z++) {
+									region.setBlock(Blocks.STONE, x, y, z);
+								}
+							}
+						}
+					}
+				}, new WorldGeneratorStage("spread", 2) {
+					@Override
+					public void generate(TerrainGenerationRegion region) {
+						this.scatter(region, Blocks.DIRT, 2);
+					}
+
+					private final void scatter(TerrainGenerationRegion region, Block block, int r) {
+						Random rng = region.getRNG();
+						for (int i = 0; i < 256; i++) {
+							int x = rng.nextInt((2 * r + 1) * WorldObjectTerrain.DIMX) - r * WorldObjectTerrain.DIMX;
+							int y = rng.nextInt((2 * r + 1) * WorldObjectTerrain.DIMY) - r * WorldObjectTerrain.DIMY;
+							region.setBlock(i % 2 == 0 ? block : Blocks.GRASS, x, y, 8 + rng.nextInt(4));
+						}
+					}
+				}, new WorldGeneratorStage("decorations", 1) {
+					@Override
+					public void generate(TerrainGenerationRegion region) {
+						Random rng = region.getRNG();
+						for (int i = 0; i < 64; i++) {
+							int x = rng.nextInt(3 * WorldObjectTerrain.DIMX) - WorldObjectTerrain.DIMX;
+							int y = rng.nextInt(3 * WorldObjectTerrain.DIMY) - WorldObjectTerrain.DIMY;
+							int z = region.getHeightAt(Math.floorMod(x, WorldObjectTerrain.DIMX),
+									Math.floorMod(y, WorldObjectTerrain.DIMY));
+							region.setBlock(i % 3 == 0 ? Blocks.LOG : Blocks.LEAVES, x, y, z + 1);
+						}
+					}
+				} };
+
+		@Override
+		public WorldGeneratorStage[] getStages() {
+			return (this.stages);
+		}
+	}
+
+	/** the terrains of the region, in a row order */
+	private static final ArrayList<Vector3i> getRegion() {
+		ArrayList<Vector3i> indices = new ArrayList<Vector3i>();
+		for (int y = -RADIUS; y <= RADIUS; y++) {
+			for (int x = -RADIUS; x <= RADIUS; x++) {
+				indices.add(new Vector3i(x, y, 0));
+			}
+		}
+		return (indices);
+	}
+
+	/** request the given terrains, and wait for them */
+	private static final HashMap<Vector3i, short[]> request(WorldGenerator generator, ArrayList<Vector3i> indices,
+			int threads, int kept) throws InterruptedException {
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			TerrainGenerationPipeline pipeline = new TerrainGenerationPipeline(generator, 42, executor, kept);
+			for (Vector3i index : indices) {
+				pipeline.request(index.x, index.y, index.z);
+			}
+			HashMap<Vector3i, short[]> blocks = new HashMap<Vector3i, short[]>();
+			long timeout = System.currentTimeMillis() + 30000;
+			while (blocks.size() < indices.size()) {
+				Assert.assertTrue("generation timed out", System.currentTimeMillis() < timeout);
+				TerrainGenerationBuffer buffer = pipeline.pollGenerated();
+				if (buffer == null) {
+					Thread.sleep(1);
+					continue;
+				}
+				Assert.assertNull(blocks.put(buffer.getWorldIndex(), buffer.getBlocks()));
+			}
+			// nothing waits for the terrains left in the pipeline
+			Assert.assertTrue(pipeline.getTerrainCount() <= kept);
+			return (blocks);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/** generate the given terrains one by one on the caller thread */
+	private static final HashMap<Vector3i, short[]> generate(WorldGenerator generator, ArrayList<Vector3i> indices,
+			int threads, int kept) {
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			TerrainGenerationPipeline pipeline = new TerrainGenerationPipeline(generator, 42, executor, kept);
+			HashMap<Vector3i, short[]> blocks = new HashMap<Vector3i, short[]>();
+			for (Vector3i index : indices) {
+				TerrainGenerationBuffer buffer = pipeline.generate(index.x, index.y, index.z);
+				blocks.put(index, buffer.getBlocks());
+				// the neighbors generated for it are idle
+				Assert.assertTrue(pipeline.getTerrainCount() <= kept);
+			}
+			return (blocks);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private static final void assertEquals(HashMap<Vector3i, short[]> expected, HashMap<Vector3i, short[]> blocks) {
+		Assert.assertEquals(expected.size(), blocks.size());
+		for (Vector3i index : expected.keySet()) {
+			Assert.assertTrue("blocks differ at " + index, Arrays.equals(expected.get(index), blocks.get(index)));
+		}
+	}
+
+	@Test
+	public void testDeterminism() throws InterruptedException {
+		TestResources.initialize();
+		WorldGenerator generator = new WorldGeneratorTest();
+		ArrayList<Vector3i> indices = getRegion();
+		ArrayList<Vector3i> shuffled = new ArrayList<Vector3i>(indices);
+		Collections.shuffle(shuffled, new Random(42));
+
+		HashMap<Vector3i, short[]> expected = request(generator, indices, 1, 0);
+		for (int kept : new int[] { 0, 16, TerrainGenerationPipeline.DEFAULT_KEPT_TERRAINS }) {
+			assertEquals(expected, request(generator, shuffled, 1, kept));
+			assertEquals(expected, request(generator, indices, 4, kept));
+			assertEquals(expected, request(generator, shuffled, 4, kept));
+			assertEquals(expected, generate(generator, shuffled, 1, kept));
+			assertEquals(expected, generate(generator, indices, 4, kept));
+		}
+	}
+}
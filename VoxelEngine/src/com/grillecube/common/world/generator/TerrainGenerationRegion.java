@@ -0,0 +1,122 @@
+package com.grillecube.common.world.generator;
+
+import java.util.Random;
+
+import com.grillecube.common.world.block.Block;
+import com.grillecube.common.world.terrain.WorldObjectTerrain;
+
+/**
+ * The terrain a {@link WorldGeneratorStage} is run on, and its neighborhood.
+ *
+ * The blocks of the terrain are read and written directly in its
+ * {@link TerrainGenerationBuffer}. The blocks written in the neighbor terrains
+ * (up to the stage radius, horizontally) are recorded, to be applied by the
+ * {@link TerrainGenerationPipeline}. Blocks written further away, or above or
+ * under the terrain, are lost.
+ */
+public class TerrainGenerationRegion {
+
+	/** largest stage radius (the neighbor offsets are packed on 4 bits) */
+	public static final int MAX_RADIUS = 7;
+
+	/** the terrain being generated */
+	private final TerrainGenerationBuffer buffer;
+
+	/** the stage radius */
+	private final int radius;
+
+	/** writes in the neighbor terrains, packed (see {@link #pack(int, int, int, short)}) */
+	private long[] writes;
+	private int writeCount;
+
+	public TerrainGenerationRegion(TerrainGenerationBuffer buffer, int radius) {
+		this.buffer = buffer;
+		this.radius = radius;
+		this.writes = null;
+		this.writeCount = 0;
+	}
+
+	/**
+	 * set a block, the coordinates are relative to the generated terrain and
+	 * can be in the neighbor terrains within the stage radius
+	 */
+	public final void setBlock(Block block, int x, int y, int z) {
+		if (z < 0 || z >= WorldObjectTerrain.DIMZ) {
+			return;
+		}
+		int dx = Math.floorDiv(x, WorldObjectTerrain.DIMX);
+		int dy = Math.floorDiv(y, WorldObjectTerrain.DIMY);
+		if (dx == 0 && dy == 0) {
+			this.buffer.setBlockAt(block, x, y, z);
+			return;
+		}
+		if (Math.abs(dx) > this.radius || Math.abs(dy) > this.radius) {
+			return;
+		}
+		int index = TerrainGenerationBuffer.getIndex(x - dx * WorldObjectTerrain.DIMX,
+				y - dy * WorldObjectTerrain.DIMY, z);
+		if (this.writes == null) {
+			this.writes = new long[64];
+		} else if (this.writeCount == this.writes.length) {
+			long[] writes = new long[this.writeCount * 2];
+			System.arraycopy(this.writes, 0, writes, 0, this.writeCount);
+			this.writes = writes;
+		}
+		this.writes[this.writeCount++] = pack(dx, dy, index, block.getID());
+	}
+
+	/** get a block of the generated terrain, this function doesnt check bounds */
+	public final Block getBlockAt(int x, int y, int z) {
+		return (this.buffer.getBlockAt(x, y, z));
+	}
+
+	/** @see TerrainGenerationBuffer#getHeightAt(int, int) */
+	public final int getHeightAt(int x, int y) {
+		return (this.buffer.getHeightAt(x, y));
+	}
+
+	/** the generated terrain */
+	public final TerrainGenerationBuffer getBuffer() {
+		return (this.buffer);
+	}
+
+	/** the random generator of the generated terrain */
+	public final Random getRNG() {
+		return (this.buffer.getRNG());
+	}
+
+	/** the stage radius */
+	public final int getRadius() {
+		return (this.radius);
+	}
+
+	/** the writes in the neighbor terrains, in the order they were made */
+	final long[] getWrites() {
+		return (this.writes);
+	}
+
+	final int getWriteCount() {
+		return (this.writeCount);
+	}
+
+	/** pack a write: neighbor offset, block index in the neighbor, block id */
+	static final long pack(int dx, int dy, int index, short id) {
+		return (((long) (dx + 8) << 36) | ((long) (dy + 8) << 32) | ((long) index << 16) | (id & 0xFFFFL));
+	}
+
+	static final int getWriteX(long write) {
+		return ((int) ((write >>> 36) & 0xF) - 8);
+	}
+
+	static final int getWriteY(long write) {
+		return ((int) ((write >>> 32) & 0xF) - 8);
+	}
+
+	static final int getWriteIndex(long write) {
+		return ((int) ((write >>> 16) & 0xFFFF));
+	}
+
+	static final short getWriteBlock(long write) {
+		return ((short) (write & 0xFFFF));
+	}
+}
@@ -0,0 +1,199 @@
+package com.grillecube.common.world.generator;
+
+import java.util.HashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import com.grillecube.common.Logger;
+import com.grillecube.common.Logger.Level;
+import com.grillecube.common.maths.Vector3i;
+import com.grillecube.common.utils.LongKeys;
+import com.grillecube.common.world.World;
+import com.grillecube.common.world.terrain.WorldObjectTerrain;
+
+/**
+ * Asynchronous terrain generation.
+ *
+ * Terrains are generated on a thread pool, each in its own detached
+ * {@link TerrainGenerationBuffer}, by a {@link TerrainGenerationPipeline}
+ * running the stages of the world generator: the generation threads share
+ * nothing but immutable data, so the throughput grows with the number of
+ * threads. The generated blocks are handed back to the world storage on the
+ * tick thread in {@link #update()}, where the terrain is lit.
+ *
+ * Each terrain is generated from a seed derived from the world seed and its
+ * index, so its blocks are the same whatever the thread or the order it was
+ * generated in.
+ */
+public class TerrainGenerationService {
+
+	/** default number of generation threads (a core is left to the tick) */
+	public static final int DEFAULT_THREADS = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+
+	/** the world */
+	private final World world;
+
+	/** thread pool */
+	private final ThreadPoolExecutor executor;
+
+	/** runs the stages of the world generator (guarded by 'pending') */
+	private TerrainGenerationPipeline pipeline;
+
+	/** terrains being generated, by key */
+	private final HashMap<Long, Vector3i> pending;
+
+	/** number of terrains generated by this service */
+	private long generatedCount;
+
+	public TerrainGenerationService(World world) {
+		this(world, DEFAULT_THREADS);
+	}
+
+	public TerrainGenerationService(World world, int threads) {
+		this.world = world;
+		this.pipeline = null;
+		this.pending = new HashMap<Long, Vector3i>();
+		this.generatedCount = 0;
+		this.executor = new ThreadPoolExecutor(threads, threads, 30L, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable runnable) {
+						Thread thread = new Thread(runnable, "Terrain generation");
+						thread.setDaemon(true);
+						return (thread);
+					}
+				});
+		this.executor.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * request the given terrain to be generated with the current world
+	 * generator. Once done, it is spawned in the world on the tick thread
+	 * (unless a terrain was spawned at this location in the meantime)
+	 */
+	public final void requestGeneration(int x, int y, int z) {
+		TerrainGenerationPipeline pipeline;
+		synchronized (this.pending) {
+			pipeline = this.getPipeline();
+			if (this.pending.put(LongKeys.pack(x, y, z), new Vector3i(x, y, z)) != null) {
+				return;
+			}
+		}
+		pipeline.request(x, y, z);
+	}
+
+	/**
+	 * generate a terrain with the current world generator on the caller
+	 * thread (its neighbors are generated as far as its stages need them)
+	 *
+	 * @return the generated blocks
+	 */
+	public final TerrainGenerationBuffer generate(int x, int y, int z) {
+		TerrainGenerationPipeline pipeline;
+		synchronized (this.pending) {
+			pipeline = this.getPipeline();
+			++this.generatedCount;
+		}
+		return (pipeline.generate(x, y, z));
+	}
+
+	/**
+	 * the pipeline of the current world generator. If the generator changed,
+	 * the terrains being generated are requested again with the new one
+	 */
+	private final TerrainGenerationPipeline getPipeline() {
+		WorldGenerator generator = this.world.getWorldGenerator();
+		if (this.pipeline == null || this.pipeline.getGenerator() != generator) {
+			if (this.pipeline != null) {
+				this.pipeline.clear();
+			}
+			this.pipeline = new TerrainGenerationPipeline(generator, World.seed, this.executor);
+			for (Vector3i index : this.pending.values()) {
+				this.pipeline.request(index.x, index.y, index.z);
+			}
+		}
+		return (this.pipeline);
+	}
+
+	/** to be called on the tick thread: spawn the generated terrains */
+	public final void update() {
+		TerrainGenerationPipeline pipeline;
+		synchronized (this.pending) {
+			pipeline = this.pipeline;
+		}
+		if (pipeline == null) {
+			return;
+		}
+		TerrainGenerationBuffer buffer;
+		while ((buffer = pipeline.pollGenerated()) != null) {
+			int x = buffer.getWorldIndex().x;
+			int y = buffer.getWorldIndex().y;
+			int z = buffer.getWorldIndex().z;
+			synchronized (this.pending) {
+				if (this.pending.remove(LongKeys.pack(x, y, z)) == null) {
+					continue;
+				}
+				++this.generatedCount;
+			}
+			if (this.world.getTerrain(x, y, z) != null) {
+				continue;
+			}
+			WorldObjectTerrain terrain = new WorldObjectTerrain(this.world, x, y, z);
+			if (this.world.spawnTerrain(terrain) != terrain) {
+				continue;
+			}
+			terrain.preGenerated();
+			terrain.setBlocks(buffer.getBlocks());
+			terrain.postGenerated();
+		}
+	}
+
+	/** discard the queued generations, and stop the threads */
+	public final void stop() {
+		this.executor.shutdownNow();
+		try {
+			this.executor.awaitTermination(30, TimeUnit.SECONDS);
+		} catch (InterruptedException exception) {
+			Logger.get().log(Level.WARNING, "Terrain generation interrupted: " + exception.getLocalizedMessage());
+		}
+		synchronized (this.pending) {
+			if (this.pipeline != null) {
+				this.pipeline.clear();
+			}
+			this.pending.clear();
+		}
+	}
+
+	/** number of generation threads */
+	public final int getThreadCount() {
+		return (this.executor.getMaximumPoolSize());
+	}
+
+	/** number of terrains waiting to be generated */
+	public final int getQueueDepth() {
+		return (this.executor.getQueue().size());
+	}
+
+	/** number of terrains requested and not spawned yet */
+	public final int getPendingCount() {
+		synchronized (this.pending) {
+			return (this.pending.size());
+		}
+	}
+
+	/** number of terrains generated by this service */
+	public final long getGeneratedCount() {
+		synchronized (this.pending) {
+			return (this.generatedCount);
+		}
+	}
+
+	/** the pipeline of the current world generator (null until a terrain is generated) */
+	public final TerrainGenerationPipeline getCurrentPipeline() {
+		synchronized (this.pending) {
+			return (this.pipeline);
+		}
+	}
+}
@@ -0,0 +1,93 @@
+package com.grillecube.common.world.generator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.grillecube.common.maths.Vector3i;
+import com.grillecube.common.tests.TestResources;
+import com.grillecube.common.world.World;
+import com.grillecube.common.world.WorldFlat;
+
+import junit.framework.Assert;
+
+public class TerrainGenerationServiceTests {
+
+	/** the generated region: [0, SIZE[ terrains along x and y */
+	public static final int SIZE = 6;
+
+	public TerrainGenerationServiceTests() {
+
+	}
+
+	private static final World createWorld() {
+		World world = new WorldFlat() {
+			@Override
+			public String getName() {
+				return ("Test world");
+			}
+		};
+		world.setWorldGenerator(new WorldGeneratorHoles());
+		return (world);
+	}
+
+	/** request the given terrains to a new service, and wait for them */
+	private static final World request(ArrayList<Vector3i> indices, int threads) throws InterruptedException {
+		World world = createWorld();
+		TerrainGenerationService service = new TerrainGenerationService(world, threads);
+		try {
+			for (Vector3i index : indices) {
+				service.requestGeneration(index.x, index.y, index.z);
+			}
+			long timeout = System.currentTimeMillis() + 30000;
+			while (service.getPendingCount() > 0) {
+				Assert.assertTrue("generation timed out", System.currentTimeMillis() < timeout);
+				service.update();
+				Thread.sleep(1);
+			}
+			Assert.assertEquals(indices.size(), service.getGeneratedCount());
+		} finally {
+			service.stop();
+		}
+		return (world);
+	}
+
+	private static final void assertEquals(World expected, World world, ArrayList<Vector3i> indices) {
+		for (Vector3i index : indices) {
+			short[] blocks = world.getTerrain(index.x, index.y, index.z).getRawBlocks();
+			Assert.assertTrue("blocks differ at " + index,
+					Arrays.equals(expected.getTerrain(index.x, index.y, index.z).getRawBlocks(), blocks));
+		}
+	}
+
+	@Test
+	public void testDeterminism() throws InterruptedException {
+		TestResources.initialize();
+		ArrayList<Vector3i> indices = new ArrayList<Vector3i>();
+		for (int x = 0; x < SIZE; x++) {
+			for (int y = 0; y < SIZE; y++) {
+				indices.add(new Vector3i(x, y, 0));
+			}
+		}
+		ArrayList<Vector3i> shuffled = new ArrayList<Vector3i>(indices);
+		Collections.shuffle(shuffled, new Random(42));
+
+		World expected = request(indices, 1);
+		for (Vector3i index : indices) {
+			Assert.assertNotNull(expected.getTerrain(index.x, index.y, index.z).getRawBlocks());
+		}
+		assertEquals(expected, request(shuffled, 1), indices);
+		assertEquals(expected, request(indices, 4), indices);
+		assertEquals(expected, request(shuffled, 4), indices);
+
+		// on the caller thread
+		World world = createWorld();
+		for (Vector3i index : shuffled) {
+			world.generateTerrain(index.x, index.y, index.z);
+		}
+		assertEquals(expected, world, indices);
+	}
+}
@@ -1,7 +1,55 @@
 package com.grillecube.common.world.generator;
 
+import com.grillecube.common.maths.Vector3i;
+import com.grillecube.common.world.World;
 import com.grillecube.common.world.terrain.WorldObjectTerrain;
 
+/**
+ * Generates the blocks of the terrains, as a list of stages (see
+ * {@link #getStages()}) run by a {@link TerrainGenerationPipeline}.
+ *
+ * The stages are run from the generation threads (see
+ * {@link TerrainGenerationService}), possibly for several terrains at once:
+ * they should only use the buffer random generator and immutable shared data
+ * (such as {@link World#NOISE_OCTAVE}).
+ */
 public abstract class WorldGenerator {
-	public abstract void generate(WorldObjectTerrain terrain);
+
+	/** the stages of a generator which only overrides {@link #generate(TerrainGenerationBuffer)} */
+	private final WorldGeneratorStage[] stages = new WorldGeneratorStage[] { new WorldGeneratorStage("generate", 0) {
+		@Override
+		public void generate(TerrainGenerationRegion region) {
+			WorldGenerator.this.generate(region.getBuffer());
+		}
+	} };
+
+	/**
+	 * generate the blocks of a terrain, on the caller thread. The terrain is
+	 * generated alone: the blocks its stages write in the neighbor terrains
+	 * are lost, and it doesnt get the ones of its neighbors (see
+	 * {@link World#generateTerrain(WorldObjectTerrain)})
+	 */
+	public void generate(WorldObjectTerrain terrain) {
+		Vector3i index = terrain.getWorldIndex();
+		TerrainGenerationBuffer buffer = new TerrainGenerationBuffer(World.seed, index.x, index.y, index.z);
+		for (WorldGeneratorStage stage : this.getStages()) {
+			stage.generate(new TerrainGenerationRegion(buffer, 0));
+		}
+		terrain.setBlocks(buffer.getBlocks());
+	}
+
+	/**
+	 * generate the blocks of a terrain in the given detached buffer: a
+	 * generator with a single stage can only override this function
+	 */
+	public void generate(TerrainGenerationBuffer buffer) {
+	}
+
+	/**
+	 * @return the stages of this generator, in order. By default, a single
+	 *         stage calling {@link #generate(TerrainGenerationBuffer)}
+	 */
+	public WorldGeneratorStage[] getStages() {
+		return (this.stages);
+	}
 }
@@ -1,11 +1,9 @@
 package com.grillecube.common.world.generator;
 
-import com.grillecube.common.world.terrain.WorldObjectTerrain;
-
 public class WorldGeneratorEmpty extends WorldGenerator {
 
 	@Override
-	public void generate(WorldObjectTerrain terrain) {
+	public void generate(TerrainGenerationBuffer terrain) {
 		// DO NOT GENERATE
 	}
 
@@ -6,7 +6,7 @@ import com.grillecube.common.world.terrain.WorldObjectTerrain;
 public class WorldGeneratorFlat extends WorldGenerator {
 
 	@Override
-	public void generate(WorldObjectTerrain terrain) {
+	public void generate(TerrainGenerationBuffer terrain) {
 //		for (int x = 0; x < Terrain.DIMX; x++) {
 //			for (int y = 0; y < Terrain.DIMY; y++) {
 //				// terrain.setBlockAt((x + z) % 2 == 0 ? Blocks.GRASS :
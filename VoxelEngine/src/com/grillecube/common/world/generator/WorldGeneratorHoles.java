@@ -2,14 +2,43 @@ package com.grillecube.common.world.generator;
 
 import java.util.Random;
 
+import com.grillecube.common.maths.Vector3f;
 import com.grillecube.common.world.World;
 import com.grillecube.common.world.block.Blocks;
 import com.grillecube.common.world.terrain.WorldObjectTerrain;
 
 public class WorldGeneratorHoles extends WorldGenerator {
 
+	/**
+	 * the 3D noise is evaluated every 'NOISE_STEP' blocks along each axis, and
+	 * interpolated in between (see the batch {@link SimplexNoiseOctave} noise)
+	 */
+	public static final int NOISE_STEP = 4;
+
+	/** the stages: stone, then grass and plants, then trees */
+	private final WorldGeneratorStage[] stages = new WorldGeneratorStage[] { new WorldGeneratorStage("density", 0) {
+		@Override
+		public void generate(TerrainGenerationRegion region) {
+			generateDensity(region.getBuffer());
+		}
+	}, new WorldGeneratorStage("surface", 0) {
+		@Override
+		public void generate(TerrainGenerationRegion region) {
+			generateSurface(region.getBuffer());
+		}
+	}, new WorldGeneratorStage("decorations", 1) {
+		@Override
+		public void generate(TerrainGenerationRegion region) {
+			generateDecorations(region);
+		}
+	} };
+
 	@Override
-	public void generate(WorldObjectTerrain terrain) {
+	public WorldGeneratorStage[] getStages() {
+		return (this.stages);
+	}
+
+	private final void generateDensity(TerrainGenerationBuffer terrain) {
 		//
 		// if ((terrain.getWorldIndex().x == 0 && terrain.getWorldIndex().y < 2
 		// && terrain.getWorldIndex().z == 0)
@@ -26,23 +55,37 @@ public class WorldGeneratorHoles extends WorldGenerator {
 		//
 		// }
 
-		for (int x = 0; x < WorldObjectTerrain.DIMX; x++) {
+		// the noise of every blocks, sampled at once (indexed as the terrain
+		// blocks), the buffer is filled with air
+		Vector3f pos = terrain.getWorldPosition();
+		float sx = 64.0f * WorldObjectTerrain.BLOCK_SIZE;
+		float sy = 32.0f * WorldObjectTerrain.BLOCK_SIZE;
+		float sz = 64.0f * WorldObjectTerrain.BLOCK_SIZE;
+		double[] density = new double[WorldObjectTerrain.MAX_BLOCK_INDEX];
+		World.NOISE_OCTAVE.noise(density, pos.x / sx, pos.y / sy, pos.z / sz, WorldObjectTerrain.BLOCK_SIZE / sx,
+				WorldObjectTerrain.BLOCK_SIZE / sy, WorldObjectTerrain.BLOCK_SIZE / sz, WorldObjectTerrain.DIMX,
+				WorldObjectTerrain.DIMY, WorldObjectTerrain.DIMZ, NOISE_STEP);
+		int index = 0;
+		for (int z = 0; z < WorldObjectTerrain.DIMZ; z++) {
 			for (int y = 0; y < WorldObjectTerrain.DIMY; y++) {
-				for (int z = 0; z < WorldObjectTerrain.DIMZ; z++) {
-					double d = World.NOISE_OCTAVE.noise(
-							(terrain.getWorldPosition().x + x * WorldObjectTerrain.BLOCK_SIZE) / (64.0f * WorldObjectTerrain.BLOCK_SIZE),
-							(terrain.getWorldPosition().y + y * WorldObjectTerrain.BLOCK_SIZE) / (32.0f * WorldObjectTerrain.BLOCK_SIZE),
-							(terrain.getWorldPosition().z + z * WorldObjectTerrain.BLOCK_SIZE) / (64.0f * WorldObjectTerrain.BLOCK_SIZE));
-					if (d < 0.2f) {
+				for (int x = 0; x < WorldObjectTerrain.DIMX; x++) {
+					if (density[index++] < 0.2f) {
 						terrain.setBlockAt(Blocks.STONE, x, y, z);
-					} else {
-						terrain.setBlockAt(Blocks.AIR, x, y, z);
 					}
 				}
 			}
 		}
+	}
 
-		Random rng = new Random();
+	private final void generateSurface(TerrainGenerationBuffer terrain) {
+		// the plants noise of every columns
+		Vector3f pos = terrain.getWorldPosition();
+		float sp = 16.0f * WorldObjectTerrain.BLOCK_SIZE;
+		double[] plants = new double[WorldObjectTerrain.DIMX * WorldObjectTerrain.DIMY];
+		World.NOISE_OCTAVE.noise(plants, pos.x / sp, pos.y / sp, WorldObjectTerrain.BLOCK_SIZE / sp,
+				WorldObjectTerrain.BLOCK_SIZE / sp, WorldObjectTerrain.DIMX, WorldObjectTerrain.DIMY, 1);
+
+		Random rng = terrain.getRNG();
 
 		for (int x = 0; x < WorldObjectTerrain.DIMX; x++) {
 			for (int y = 0; y < WorldObjectTerrain.DIMY; y++) {
@@ -51,30 +94,31 @@ public class WorldGeneratorHoles extends WorldGenerator {
 					continue;
 				}
 
-				double d = World.NOISE_OCTAVE.noise(
-						(terrain.getWorldPosition().x + x * WorldObjectTerrain.BLOCK_SIZE) / (16.0f * WorldObjectTerrain.BLOCK_SIZE),
-						(terrain.getWorldPosition().y+ y * WorldObjectTerrain.BLOCK_SIZE) / (16.0f * WorldObjectTerrain.BLOCK_SIZE));
-
-				if (d < -0.6) {
+				if (plants[x + WorldObjectTerrain.DIMX * y] < -0.6) {
 					terrain.setBlock(Blocks.PLANTS[rng.nextInt(Blocks.PLANTS.length)], x, y, z + 1);
 				}
 				terrain.setBlock(Blocks.GRASS, x, y, z);
 
 			}
 		}
+	}
 
+	private final void generateDecorations(TerrainGenerationRegion region) {
+		// the tree can be anywhere in the terrain: its leaves may be in the
+		// neighbor terrains
+		Random rng = region.getRNG();
 		int x = rng.nextInt(WorldObjectTerrain.DIMX);
 		int y = rng.nextInt(WorldObjectTerrain.DIMY);
-		int z = terrain.getHeightAt(x, y);
+		int z = region.getHeightAt(x, y);
 
 		if (z != -1) {
 			int max = 4 + rng.nextInt(4);
 			for (int i = 0; i < max; i++) {
-				terrain.setBlock(Blocks.LOG, x, y, z + i);
+				region.setBlock(Blocks.LOG, x, y, z + i);
 			}
 			for (int dx = -3; dx <= 3; dx++) {
 				for (int dy = -3; dy <= 3; dy++) {
-					terrain.setBlock(Blocks.LEAVES, x + dx, y + dy, z + max);
+					region.setBlock(Blocks.LEAVES, x + dx, y + dy, z + max);
 
 				}
 			}
@@ -0,0 +1,50 @@
+package com.grillecube.common.world.generator;
+
+/**
+ * A stage of a world generator (i.e density, surface, decorations...), run
+ * once per terrain by a {@link TerrainGenerationPipeline}.
+ *
+ * A stage only reads the terrain it generates, but it can write blocks up to
+ * 'radius' terrains away (horizontally): these writes are buffered, and applied
+ * to the neighbor terrains once every terrain around them ran the stage. The
+ * stage only runs once the terrains within its radius reached the previous
+ * stage.
+ */
+public abstract class WorldGeneratorStage {
+
+	/** name of the stage (for the metrics) */
+	private final String name;
+
+	/** neighborhood radius, in terrains */
+	private final int radius;
+
+	public WorldGeneratorStage(String name, int radius) {
+		if (radius < 0 || radius > TerrainGenerationRegion.MAX_RADIUS) {
+			throw new IllegalArgumentException("stage radius should be in [0, " + TerrainGenerationRegion.MAX_RADIUS
+					+ "]: " + radius);
+		}
+		this.name = name;
+		this.radius = radius;
+	}
+
+	/**
+	 * generate the stage for a terrain. This may be called concurrently for
+	 * different terrains: it should only use the region (and its random
+	 * generator) and immutable shared data
+	 */
+	public abstract void generate(TerrainGenerationRegion region);
+
+	public final String getName() {
+		return (this.name);
+	}
+
+	/** the neighborhood radius, in terrains */
+	public final int getRadius() {
+		return (this.radius);
+	}
+
+	@Override
+	public String toString() {
+		return (this.name + " (radius " + this.radius + ")");
+	}
+}
@@ -1,12 +1,10 @@
 package com.grillecube.common.world.physic;
 
-import java.util.ArrayList;
-
 import com.grillecube.common.Logger;
 import com.grillecube.common.maths.Maths;
 import com.grillecube.common.maths.Vector3f;
 import com.grillecube.common.world.World;
-import com.grillecube.common.world.entity.collision.CollisionDetection;
+import com.grillecube.common.world.entity.collision.BlockCollisionDetection;
 import com.grillecube.common.world.entity.collision.CollisionResponse;
 
 /**
@@ -17,6 +15,14 @@ import com.grillecube.common.world.entity.collision.CollisionResponse;
  */
 public abstract class WorldObject implements Positioneable, Rotationable, Sizeable {
 
+	/** block collision of the objects moved by {@link #move(World, WorldObject, double)}, per thread */
+	private static final ThreadLocal<BlockCollisionDetection> COLLISION = new ThreadLocal<BlockCollisionDetection>() {
+		@Override
+		protected BlockCollisionDetection initialValue() {
+			return (new BlockCollisionDetection());
+		}
+	};
+
 	private World world;
 
 	public WorldObject(World world) {
@@ -162,73 +168,26 @@ public abstract class WorldObject implements Positioneable, Rotationable, Sizeab
 	 * @param dt
 	 */
 	public static final boolean move(World world, WorldObject worldObject, double dt) {
-		// swept
-		float x = worldObject.getPositionX();
-		float y = worldObject.getPositionY();
-		float z = worldObject.getPositionZ();
-		float vx = worldObject.getPositionVelocityX();
-		float vy = worldObject.getPositionVelocityY();
-		float vz = worldObject.getPositionVelocityZ();
-		float sx = worldObject.getSizeX();
-		float sy = worldObject.getSizeY();
-		float sz = worldObject.getSizeZ();
-		float dx = (float) (vx * dt);
-		float dy = (float) (vy * dt);
-		float dz = (float) (vz * dt);
-
-		float minx, miny, minz;
-		float maxx, maxy, maxz;
-
-		if (dx >= 0) {
-			minx = x;
-			maxx = x + sx + dx;
-		} else {
-			minx = x + dx - sx;
-			maxx = x + sx;
-		}
-
-		if (dy >= 0) {
-			miny = y;
-			maxy = y + sy + dy;
-		} else {
-			miny = y + dy - sy;
-			maxy = y + sy;
-		}
-
-		if (dz >= 0) {
-			minz = z;
-			maxz = z + sz + dz;
-		} else {
-			minz = z + dz - sz;
-			maxz = z + sz;
-		}
-
+		// swept, against the world blocks
+		BlockCollisionDetection collision = COLLISION.get();
 		boolean deflected = false;
-		// Logger.get().log(Level.DEBUG, minx, miny, minz, maxx, maxy, maxz);
 		int i = 0;
 		while (dt > Maths.ESPILON) {
-			ArrayList<WorldObject> objects = world.getCollidingPhysicObjects(worldObject, minx, miny, minz, maxx, maxy,
-					maxz);
-			CollisionDetection collisionDetection = CollisionDetection.detect(worldObject, objects, dt);
-
 			// if no collision, move
-			// System.out.println(collisionResponse);;
-
-			if (collisionDetection == null || collisionDetection.dt >= dt) {
+			if (!collision.detect(world, worldObject, dt) || collision.dt >= dt) {
 				Positioneable.position(worldObject, dt);
 				break;
 			}
 
 			// if collision, move just before it collides
-			Positioneable.position(worldObject, collisionDetection.dt);
+			Positioneable.position(worldObject, collision.dt);
 
 			// dt now contains the remaning time
-			dt -= collisionDetection.dt;
+			dt -= collision.dt;
 
 			// stick right before collision, and continue collisions
-			CollisionResponse.deflects(worldObject, collisionDetection, 0.15f);
+			CollisionResponse.deflects(worldObject, collision, 0.15f);
 			deflected = true;
-			// CollisionResponse.push(physicObject, collisionDetection);
 
 			if (++i >= 5) {
 				Logger.get().log(Logger.Level.WARNING,
@@ -62,12 +62,12 @@ public abstract class WorldObjectEntity extends WorldObject {
 	}
 
 	@Override
-	public final float getMass() {
+	public float getMass() {
 		return (this.mass);
 	}
 
 	@Override
-	public final void setMass(float mass) {
+	public void setMass(float mass) {
 		this.mass = mass;
 		// TODO : intertia
 		this.rigidBody.setMassProps(mass, new Vector3f(0, 0, 0));
@@ -17,6 +17,7 @@ package com.grillecube.common.world.sky;
 import java.util.ArrayList;
 import java.util.Random;
 
+import com.grillecube.common.TaskScheduler;
 import com.grillecube.common.Taskable;
 import com.grillecube.common.VoxelEngine;
 import com.grillecube.common.maths.Maths;
@@ -390,6 +391,11 @@ public class Sky implements Taskable {
 			public String getName() {
 				return ("Weather update");
 			}
+
+			@Override
+			public int getPhase() {
+				return (TaskScheduler.PHASE_PRE_UPDATE);
+			}
 		};
 
 		tasks.add(call);
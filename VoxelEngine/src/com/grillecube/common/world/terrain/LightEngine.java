@@ -0,0 +1,394 @@
+package com.grillecube.common.world.terrain;
+
+import java.util.ArrayList;
+
+import com.grillecube.common.TaskScheduler;
+import com.grillecube.common.Taskable;
+import com.grillecube.common.VoxelEngine;
+import com.grillecube.common.VoxelEngine.Callable;
+import com.grillecube.common.event.Event;
+import com.grillecube.common.event.world.EventTerrainBlocklightUpdate;
+import com.grillecube.common.event.world.EventTerrainSunlightUpdate;
+import com.grillecube.common.faces.Face;
+import com.grillecube.common.resources.EventManager;
+
+/**
+ * Flood fill light propagation, for every terrains of a world.
+ *
+ * Light changes are queued during the tick, and propagated all at once (across
+ * terrains) by a single task. Nodes are stored in primitive int queues: (terrain
+ * slot, block index, light level) packed in an int, where the terrain slot is
+ * an index in a per-batch table of the terrains reached by the propagation.
+ *
+ * Once the queues are empty, a single sunlight / blocklight update event is
+ * invoked for each modified terrain.
+ *
+ * The algorithm is based on this work:
+ * https://www.seedofandromeda.com/blogs/29-fast-flood-fill-lighting-in-a-blocky-voxel-game-pt-1
+ */
+public class LightEngine implements Taskable {
+
+	/** light channels */
+	public static final int CHANNEL_SUN = 0;
+	public static final int CHANNEL_BLOCK = 1;
+	private static final int CHANNELS = 2;
+
+	/** max light level */
+	public static final byte MAX_LIGHT = 15;
+
+	/** node encoding: | slot (14 bits) | block index (14 bits) | level (4 bits) | */
+	private static final int LEVEL_BITS = 4;
+	private static final int INDEX_BITS = 14;
+	private static final int MAX_SLOTS = 1 << 14;
+
+	/** propagation directions */
+	private static final int[] FACES = { Face.BACK, Face.FRONT, Face.LEFT, Face.RIGHT, Face.BOT, Face.TOP };
+
+	/** growable int FIFO */
+	private static final class IntQueue {
+		private int[] data = new int[1024];
+		private int head;
+		private int tail;
+		private int size;
+
+		final void push(int value) {
+			if (this.size == this.data.length) {
+				int[] data = new int[this.data.length * 2];
+				for (int i = 0; i < this.size; i++) {
+					data[i] = this.data[(this.head + i) & (this.data.length - 1)];
+				}
+				this.data = data;
+				this.head = 0;
+				this.tail = this.size;
+			}
+			this.data[this.tail] = value;
+			this.tail = (this.tail + 1) & (this.data.length - 1);
+			++this.size;
+		}
+
+		final int pop() {
+			int value = this.data[this.head];
+			this.head = (this.head + 1) & (this.data.length - 1);
+			--this.size;
+			return (value);
+		}
+
+		final boolean isEmpty() {
+			return (this.size == 0);
+		}
+	}
+
+	/** terrains reached by the current batch */
+	private WorldObjectTerrain[] slots;
+	private int slotCount;
+
+	/** modified channels of each slot (1 << channel) */
+	private byte[] slotFlags;
+
+	/** queues, for each channel */
+	private final IntQueue[] addQueues;
+	private final IntQueue[] removalQueues;
+
+	/** number of nodes processed on the last update */
+	private int processedNodes;
+
+	public LightEngine() {
+		this.slots = new WorldObjectTerrain[64];
+		this.slotFlags = new byte[64];
+		this.slotCount = 0;
+		this.addQueues = new IntQueue[CHANNELS];
+		this.removalQueues = new IntQueue[CHANNELS];
+		for (int i = 0; i < CHANNELS; i++) {
+			this.addQueues[i] = new IntQueue();
+			this.removalQueues[i] = new IntQueue();
+		}
+	}
+
+	/** set a light source (the light is propagated on the next update) */
+	public final synchronized void addLight(int channel, WorldObjectTerrain terrain, int index, byte level) {
+		if (level <= 0) {
+			return;
+		}
+		int slot = this.getSlot(terrain);
+		this.setLight(channel, terrain, index, level);
+		this.slotFlags[slot] |= 1 << channel;
+		this.addQueues[channel].push(encode(slot, index, level));
+	}
+
+	/** remove the light at the given index (and the light it propagated) */
+	public final synchronized void removeLight(int channel, WorldObjectTerrain terrain, int index) {
+		byte level = this.getLight(channel, terrain, index);
+		if (level <= 0) {
+			return;
+		}
+		int slot = this.getSlot(terrain);
+		this.setLight(channel, terrain, index, (byte) 0);
+		this.slotFlags[slot] |= 1 << channel;
+		this.removalQueues[channel].push(encode(slot, index, level));
+	}
+
+	@Override
+	public void getTasks(VoxelEngine engine, ArrayList<Callable<Taskable>> tasks) {
+		tasks.add(engine.new Callable<Taskable>() {
+			@Override
+			public Taskable call() throws Exception {
+				LightEngine.this.update();
+				return (LightEngine.this);
+			}
+
+			@Override
+			public String getName() {
+				return ("Light update");
+			}
+
+			@Override
+			public int getWrites() {
+				return (TaskScheduler.RESOURCE_TERRAIN);
+			}
+		});
+	}
+
+	/** propagate every pending light changes */
+	public final synchronized void update() {
+		if (this.slotCount == 0) {
+			this.processedNodes = 0;
+			return;
+		}
+
+		int processed = 0;
+		for (int channel = 0; channel < CHANNELS; channel++) {
+			processed += this.propagateRemoval(channel);
+			processed += this.propagateAdd(channel);
+		}
+		this.processedNodes = processed;
+
+		// one event per modified terrain
+		for (int slot = 0; slot < this.slotCount; slot++) {
+			WorldObjectTerrain terrain = this.slots[slot];
+			int flags = this.slotFlags[slot];
+			if ((flags & (1 << CHANNEL_SUN)) != 0) {
+				this.invokeEvent(new EventTerrainSunlightUpdate(terrain));
+			}
+			if ((flags & (1 << CHANNEL_BLOCK)) != 0) {
+				this.invokeEvent(new EventTerrainBlocklightUpdate(terrain));
+			}
+			terrain.lightSlot = -1;
+			this.slots[slot] = null;
+			this.slotFlags[slot] = 0;
+		}
+		this.slotCount = 0;
+	}
+
+	private final int propagateAdd(int channel) {
+		IntQueue queue = this.addQueues[channel];
+		int processed = 0;
+		while (!queue.isEmpty()) {
+			int node = queue.pop();
+			++processed;
+			int slot = nodeSlot(node);
+			int index = nodeIndex(node);
+			WorldObjectTerrain terrain = this.slots[slot];
+
+			// the level may have been raised since the node was queued
+			byte level = this.getLight(channel, terrain, index);
+			if (level <= 1) {
+				continue;
+			}
+
+			for (int face : FACES) {
+				int neighbor = this.getNeighbor(slot, index, face);
+				if (neighbor == -1) {
+					continue;
+				}
+				int nslot = neighbor >>> INDEX_BITS;
+				int nindex = neighbor & ((1 << INDEX_BITS) - 1);
+				WorldObjectTerrain nterrain = this.slots[nslot];
+
+				// sunlight goes down without attenuation
+				byte next = channel == CHANNEL_SUN && face == Face.BOT && level == MAX_LIGHT ? MAX_LIGHT
+						: (byte) (level - 1);
+				if (this.getLight(channel, nterrain, nindex) < next && nterrain.getBlockAt(nindex).isTransparent()) {
+					this.setLight(channel, nterrain, nindex, next);
+					this.slotFlags[nslot] |= 1 << channel;
+					queue.push(encode(nslot, nindex, next));
+				}
+			}
+		}
+		return (processed);
+	}
+
+	private final int propagateRemoval(int channel) {
+		IntQueue queue = this.removalQueues[channel];
+		IntQueue addQueue = this.addQueues[channel];
+		int processed = 0;
+		while (!queue.isEmpty()) {
+			int node = queue.pop();
+			++processed;
+			int slot = nodeSlot(node);
+			int index = nodeIndex(node);
+			int level = nodeLevel(node);
+
+			for (int face : FACES) {
+				int neighbor = this.getNeighbor(slot, index, face);
+				if (neighbor == -1) {
+					continue;
+				}
+				int nslot = neighbor >>> INDEX_BITS;
+				int nindex = neighbor & ((1 << INDEX_BITS) - 1);
+				WorldObjectTerrain nterrain = this.slots[nslot];
+
+				byte nlevel = this.getLight(channel, nterrain, nindex);
+				if (nlevel == 0) {
+					continue;
+				}
+				boolean fedByNode = nlevel < level
+						|| (channel == CHANNEL_SUN && face == Face.BOT && level == MAX_LIGHT && nlevel == MAX_LIGHT);
+				if (fedByNode) {
+					// this neighbor was lit by the removed light
+					this.setLight(channel, nterrain, nindex, (byte) 0);
+					this.slotFlags[nslot] |= 1 << channel;
+					queue.push(encode(nslot, nindex, nlevel));
+				} else {
+					// lit by another source: propagate it again
+					addQueue.push(encode(nslot, nindex, nlevel));
+				}
+			}
+		}
+		return (processed);
+	}
+
+	/**
+	 * get the neighbor of the given block
+	 *
+	 * @return (slot << INDEX_BITS | index), or -1 if the neighbor terrain isnt
+	 *         loaded
+	 */
+	private final int getNeighbor(int slot, int index, int face) {
+		int x = index % WorldObjectTerrain.DIMX;
+		int y = (index / WorldObjectTerrain.DIMX) % WorldObjectTerrain.DIMY;
+		int z = index / (WorldObjectTerrain.DIMX * WorldObjectTerrain.DIMY);
+
+		int stride;
+		int coord;
+		int dim;
+		int dir;
+		switch (face) {
+		case Face.BACK:
+			stride = 1;
+			coord = x;
+			dim = WorldObjectTerrain.DIMX;
+			dir = -1;
+			break;
+		case Face.FRONT:
+			stride = 1;
+			coord = x;
+			dim = WorldObjectTerrain.DIMX;
+			dir = 1;
+			break;
+		case Face.LEFT:
+			stride = WorldObjectTerrain.DIMX;
+			coord = y;
+			dim = WorldObjectTerrain.DIMY;
+			dir = -1;
+			break;
+		case Face.RIGHT:
+			stride = WorldObjectTerrain.DIMX;
+			coord = y;
+			dim = WorldObjectTerrain.DIMY;
+			dir = 1;
+			break;
+		case Face.BOT:
+			stride = WorldObjectTerrain.DIMX * WorldObjectTerrain.DIMY;
+			coord = z;
+			dim = WorldObjectTerrain.DIMZ;
+			dir = -1;
+			break;
+		default:
+			stride = WorldObjectTerrain.DIMX * WorldObjectTerrain.DIMY;
+			coord = z;
+			dim = WorldObjectTerrain.DIMZ;
+			dir = 1;
+			break;
+		}
+
+		int next = coord + dir;
+		if (next >= 0 && next < dim) {
+			return ((slot << INDEX_BITS) | (index + dir * stride));
+		}
+
+		// crossing a terrain border
+		WorldObjectTerrain neighbor = this.slots[slot].getNeighbor(face);
+		if (neighbor == null) {
+			return (-1);
+		}
+		int nindex = index - dir * stride * (dim - 1);
+		return ((this.getSlot(neighbor) << INDEX_BITS) | nindex);
+	}
+
+	/** get (or assign) the slot of the given terrain for the current batch */
+	private final int getSlot(WorldObjectTerrain terrain) {
+		int slot = terrain.lightSlot;
+		if (slot >= 0 && slot < this.slotCount && this.slots[slot] == terrain) {
+			return (slot);
+		}
+		if (this.slotCount == this.slots.length) {
+			if (this.slotCount == MAX_SLOTS) {
+				throw new IllegalStateException("Too many terrains reached by a single light update");
+			}
+			WorldObjectTerrain[] slots = new WorldObjectTerrain[this.slots.length * 2];
+			System.arraycopy(this.slots, 0, slots, 0, this.slotCount);
+			this.slots = slots;
+			byte[] flags = new byte[this.slotFlags.length * 2];
+			System.arraycopy(this.slotFlags, 0, flags, 0, this.slotCount);
+			this.slotFlags = flags;
+		}
+		slot = this.slotCount++;
+		this.slots[slot] = terrain;
+		terrain.lightSlot = slot;
+		return (slot);
+	}
+
+	private final byte getLight(int channel, WorldObjectTerrain terrain, int index) {
+		return (channel == CHANNEL_SUN ? terrain.getSunLight(index) : terrain.getBlockLight(index));
+	}
+
+	private final void setLight(int channel, WorldObjectTerrain terrain, int index, byte level) {
+		if (channel == CHANNEL_SUN) {
+			terrain.setSunLight(level, index);
+		} else {
+			terrain.setBlockLight(level, index);
+		}
+	}
+
+	private static final int encode(int slot, int index, int level) {
+		return ((slot << (INDEX_BITS + LEVEL_BITS)) | (index << LEVEL_BITS) | level);
+	}
+
+	private static final int nodeSlot(int node) {
+		return (node >>> (INDEX_BITS + LEVEL_BITS));
+	}
+
+	private static final int nodeIndex(int node) {
+		return ((node >>> LEVEL_BITS) & ((1 << INDEX_BITS) - 1));
+	}
+
+	private static final int nodeLevel(int node) {
+		return (node & ((1 << LEVEL_BITS) - 1));
+	}
+
+	private final void invokeEvent(Event event) {
+		if (EventManager.instance() != null) {
+			EventManager.instance().invokeEvent(event);
+		}
+	}
+
+	/** true if light changes are waiting to be propagated */
+	public final synchronized boolean hasPendingUpdates() {
+		return (this.slotCount > 0);
+	}
+
+	/** number of light nodes processed on the last update */
+	public final int getProcessedNodes() {
+		return (this.processedNodes);
+	}
+}
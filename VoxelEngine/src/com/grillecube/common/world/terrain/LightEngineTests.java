@@ -0,0 +1,166 @@
+package com.grillecube.common.world.terrain;
+
+import org.junit.Test;
+
+import com.grillecube.common.tests.TestResources;
+import com.grillecube.common.world.World;
+import com.grillecube.common.world.WorldFlat;
+import com.grillecube.common.world.block.Blocks;
+
+import junit.framework.Assert;
+
+public class LightEngineTests {
+
+	public LightEngineTests() {
+
+	}
+
+	/** a world with 2 empty terrains: (0, 0, 0) and its front neighbor (1, 0, 0) */
+	private static final World createWorld() {
+		TestResources.initialize();
+		World world = new WorldFlat() {
+			@Override
+			public String getName() {
+				return ("Test world");
+			}
+		};
+		Assert.assertNotNull(world.spawnTerrain(new WorldObjectTerrain(world, 0, 0, 0)));
+		Assert.assertNotNull(world.spawnTerrain(new WorldObjectTerrain(world, 1, 0, 0)));
+		return (world);
+	}
+
+	/** the block light at the given coordinates, in blocks, across both terrains */
+	private static final int getBlockLight(World world, int x, int y, int z) {
+		WorldObjectTerrain terrain = world.getTerrain(x / WorldObjectTerrain.DIMX, 0, 0);
+		return (terrain.getBlockLight(x % WorldObjectTerrain.DIMX, y, z));
+	}
+
+	/** the expected light of a source of the given level: 1 less per block */
+	private static final int getExpectedLight(int level, int sx, int sy, int sz, int x, int y, int z) {
+		int distance = Math.abs(x - sx) + Math.abs(y - sy) + Math.abs(z - sz);
+		return (Math.max(0, level - distance));
+	}
+
+	/** set a block, given coordinates in blocks across both terrains */
+	private static final void setBlock(World world, int x, int y, int z, boolean light) {
+		WorldObjectTerrain terrain = world.getTerrain(x / WorldObjectTerrain.DIMX, 0, 0);
+		terrain.setBlockAt(light ? Blocks.LIGHT : Blocks.STONE, x % WorldObjectTerrain.DIMX, y, z);
+	}
+
+	/** check the light of the blocks around the given source (which is opaque) */
+	private static final void assertLight(World world, int level, int sx, int sy, int sz) {
+		for (int x = 0; x < 2 * WorldObjectTerrain.DIMX; x++) {
+			for (int y = 0; y < WorldObjectTerrain.DIMY; y++) {
+				for (int z = sz - 16; z <= sz + 16; z++) {
+					int expected = getExpectedLight(level, sx, sy, sz, x, y, z);
+					Assert.assertEquals(expected, getBlockLight(world, x, y, z));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testPropagationAcrossTerrains() {
+		World world = createWorld();
+		LightEngine engine = world.getLightEngine();
+
+		// a light on the last block of the first terrain
+		int x = WorldObjectTerrain.DIMX - 1;
+		setBlock(world, x, 8, 20, true);
+		Assert.assertTrue(engine.hasPendingUpdates());
+		engine.update();
+		Assert.assertFalse(engine.hasPendingUpdates());
+
+		assertLight(world, LightEngine.MAX_LIGHT, x, 8, 20);
+		Assert.assertEquals(LightEngine.MAX_LIGHT - 1, world.getTerrain(1, 0, 0).getBlockLight(0, 8, 20));
+		Assert.assertEquals(LightEngine.MAX_LIGHT - 4, world.getTerrain(1, 0, 0).getBlockLight(3, 8, 20));
+	}
+
+	@Test
+	public void testRemovalAfterBlockPlaced() {
+		World world = createWorld();
+		LightEngine engine = world.getLightEngine();
+
+		int x = WorldObjectTerrain.DIMX - 1;
+		setBlock(world, x, 8, 20, true);
+		engine.update();
+		Assert.assertEquals(LightEngine.MAX_LIGHT - 1, world.getTerrain(1, 0, 0).getBlockLight(0, 8, 20));
+
+		// a block replaces the light: its light is removed from both terrains
+		setBlock(world, x, 8, 20, false);
+		engine.update();
+		assertLight(world, 0, x, 8, 20);
+		Assert.assertFalse(engine.hasPendingUpdates());
+	}
+
+	@Test
+	public void testRemovalKeepsOtherLights() {
+		World world = createWorld();
+		LightEngine engine = world.getLightEngine();
+
+		// a light on each side of the border (not aligned, so the stone which
+		// replaces the first one doesnt shadow any block)
+		int x = WorldObjectTerrain.DIMX - 3;
+		int other = WorldObjectTerrain.DIMX + 4;
+		setBlock(world, x, 8, 20, true);
+		setBlock(world, other, 4, 20, true);
+		engine.update();
+
+		// once one light is replaced, the blocks it lit are lit by the other one
+		setBlock(world, x, 8, 20, false);
+		engine.update();
+		for (int bx = 0; bx < 2 * WorldObjectTerrain.DIMX; bx++) {
+			for (int by = 0; by < WorldObjectTerrain.DIMY; by++) {
+				for (int bz = 4; bz <= 36; bz++) {
+					// the stone block itself isnt lit
+					int expected = bx == x && by == 8 && bz == 20 ? 0
+							: getExpectedLight(LightEngine.MAX_LIGHT, other, 4, 20, bx, by, bz);
+					Assert.assertEquals(expected, getBlockLight(world, bx, by, bz));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testDiggingRelightsShaft() {
+		World world = createWorld();
+		LightEngine engine = world.getLightEngine();
+		WorldObjectTerrain terrain = world.getTerrain(0, 0, 0);
+		int top = WorldObjectTerrain.DIMZ - 1;
+
+		// a stone pillar, under a sunlit block
+		for (int x = 4; x <= 6; x++) {
+			for (int y = 4; y <= 6; y++) {
+				for (int z = 0; z < top; z++) {
+					terrain.setBlockAt(Blocks.STONE, x, y, z);
+				}
+			}
+		}
+		terrain.addSunLight(LightEngine.MAX_LIGHT, 5, 5, top);
+		engine.update();
+		Assert.assertEquals(LightEngine.MAX_LIGHT, terrain.getSunLight(5, 5, top));
+
+		// dig a shaft in the pillar: a single update lights all of it
+		int bottom = 4;
+		for (int z = top - 1; z >= bottom; z--) {
+			terrain.setBlockAt(Blocks.AIR, 5, 5, z);
+		}
+		engine.update();
+		Assert.assertFalse(engine.hasPendingUpdates());
+		for (int z = bottom; z < top; z++) {
+			Assert.assertEquals(LightEngine.MAX_LIGHT, terrain.getSunLight(5, 5, z));
+		}
+		Assert.assertEquals(0, terrain.getSunLight(5, 5, bottom - 1));
+
+		// closing it shadows the blocks below
+		int z = (bottom + top) / 2;
+		terrain.setBlockAt(Blocks.STONE, 5, 5, z);
+		engine.update();
+		for (int bz = bottom; bz <= z; bz++) {
+			Assert.assertEquals(0, terrain.getSunLight(5, 5, bz));
+		}
+		for (int bz = z + 1; bz < top; bz++) {
+			Assert.assertEquals(LightEngine.MAX_LIGHT, terrain.getSunLight(5, 5, bz));
+		}
+	}
+}
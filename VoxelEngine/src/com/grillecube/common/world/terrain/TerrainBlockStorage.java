@@ -0,0 +1,302 @@
+package com.grillecube.common.world.terrain;
+
+import java.util.Arrays;
+
+/**
+ * Paletted block storage of a terrain.
+ *
+ * Each terrain holds a palette of the block ids it uses, and a bit-packed array
+ * of palette indices. The number of bits per entry grows (0, 1, 2, 4, 8) with
+ * the palette size, so an entry never overlaps two longs. When more than 256
+ * block types are used, ids are stored directly on 16 bits.
+ *
+ * With 0 bits per entry (uniform terrain), there is no index array at all.
+ *
+ * Readers (i.e the mesher) may run concurrently with a writer: a resize
+ * publishes a whole new {@link Layout}, so a reader never mixes the palette of
+ * a layout with the entries of another one.
+ */
+public class TerrainBlockStorage {
+
+	/** bits per entry when ids are stored directly */
+	private static final int DIRECT_BITS = 16;
+
+	/** maximum palette bits before switching to direct ids */
+	private static final int MAX_PALETTE_BITS = 8;
+
+	/** a packing layout: bits per entry, palette and packed entries */
+	private static final class Layout {
+
+		/** bits per entry */
+		final int bits;
+
+		/** log2(entries per long), entries per long - 1, (1 << bits) - 1 */
+		final int entriesShift;
+		final int entriesMask;
+		final int valueMask;
+
+		/** palette (block ids), of length (1 << bits), null if direct */
+		final short[] palette;
+
+		/** packed entries, null if bits == 0 */
+		final long[] data;
+
+		Layout(int bits, short[] palette, int size) {
+			this.bits = bits;
+			if (bits == 0) {
+				this.entriesShift = 0;
+				this.entriesMask = 0;
+				this.valueMask = 0;
+				this.data = null;
+			} else {
+				this.entriesShift = Integer.numberOfTrailingZeros(64 / bits);
+				this.entriesMask = (64 / bits) - 1;
+				this.valueMask = (1 << bits) - 1;
+				this.data = new long[(size + this.entriesMask) >>> this.entriesShift];
+			}
+			this.palette = palette;
+		}
+
+		final int getEntry(int index) {
+			long word = this.data[index >>> this.entriesShift];
+			int shift = (index & this.entriesMask) * this.bits;
+			return ((int) (word >>> shift) & this.valueMask);
+		}
+
+		final void setEntry(int index, int value) {
+			int i = index >>> this.entriesShift;
+			int shift = (index & this.entriesMask) * this.bits;
+			this.data[i] = (this.data[i] & ~((long) this.valueMask << shift)) | ((long) value << shift);
+		}
+	}
+
+	/** number of entries */
+	private final int size;
+
+	/** current layout */
+	private Layout layout;
+
+	/** number of ids used in the palette */
+	private int paletteSize;
+
+	/** create a storage filled with the given block id */
+	public TerrainBlockStorage(int size, short value) {
+		this.size = size;
+		this.layout = new Layout(0, new short[] { value }, size);
+		this.paletteSize = 1;
+	}
+
+	/** copy constructor */
+	public TerrainBlockStorage(TerrainBlockStorage storage) {
+		Layout layout = storage.layout;
+		this.size = storage.size;
+		this.layout = new Layout(layout.bits, layout.palette == null ? null : layout.palette.clone(), this.size);
+		if (layout.data != null) {
+			System.arraycopy(layout.data, 0, this.layout.data, 0, layout.data.length);
+		}
+		this.paletteSize = storage.paletteSize;
+	}
+
+	/** get the block id at the given index */
+	public final short get(int index) {
+		Layout layout = this.layout;
+		if (layout.bits == 0) {
+			return (layout.palette[0]);
+		}
+		int value = layout.getEntry(index);
+		return (layout.palette == null ? (short) value : layout.palette[value]);
+	}
+
+	/** set the block id at the given index */
+	public final void set(int index, short id) {
+		Layout layout = this.layout;
+		if (layout.palette == null) {
+			layout.setEntry(index, id & 0xFFFF);
+			return;
+		}
+		int entry = this.getPaletteIndex(layout, id);
+		if (entry == -1) {
+			entry = this.addToPalette(id);
+			layout = this.layout;
+			if (layout.palette == null) {
+				entry = id & 0xFFFF;
+			}
+		}
+		if (layout.bits != 0) {
+			layout.setEntry(index, entry);
+		}
+	}
+
+	/** return the palette index of the given id, or -1 */
+	private final int getPaletteIndex(Layout layout, short id) {
+		short[] palette = layout.palette;
+		for (int i = 0; i < this.paletteSize; i++) {
+			if (palette[i] == id) {
+				return (i);
+			}
+		}
+		return (-1);
+	}
+
+	/** add an id to the palette, and grow the entries if needed */
+	private final int addToPalette(short id) {
+		if (this.paletteSize >= this.layout.palette.length && this.layout.bits != 0) {
+			// the palette may hold ids which are no longer used
+			this.compact();
+		}
+		int entry = this.paletteSize;
+		if (entry >= this.layout.palette.length) {
+			int bits = this.layout.bits;
+			this.resize(bits == 0 ? 1 : bits * 2);
+			if (this.layout.palette == null) {
+				return (-1);
+			}
+		}
+		this.layout.palette[entry] = id;
+		++this.paletteSize;
+		return (entry);
+	}
+
+	/** re-pack the entries with the given number of bits */
+	private final void resize(int bits) {
+		Layout previous = this.layout;
+		Layout layout;
+		if (bits > MAX_PALETTE_BITS) {
+			layout = new Layout(DIRECT_BITS, null, this.size);
+			for (int i = 0; i < this.size; i++) {
+				int entry = previous.bits == 0 ? 0 : previous.getEntry(i);
+				layout.setEntry(i, previous.palette[entry] & 0xFFFF);
+			}
+			this.paletteSize = 0;
+		} else {
+			layout = new Layout(bits, Arrays.copyOf(previous.palette, 1 << bits), this.size);
+			if (previous.bits != 0) {
+				// palette indices are unchanged
+				for (int i = 0; i < this.size; i++) {
+					layout.setEntry(i, previous.getEntry(i));
+				}
+			}
+		}
+		this.layout = layout;
+	}
+
+	/**
+	 * set every block ids from the given array. The palette is rebuilt, so it
+	 * only contains the used ids
+	 */
+	public final void set(short[] ids) {
+		// build the palette
+		short[] palette = new short[1 << MAX_PALETTE_BITS];
+		int paletteSize = 0;
+		for (int i = 0; i < this.size && paletteSize <= palette.length; i++) {
+			short id = ids[i];
+			if (i > 0 && id == ids[i - 1]) {
+				continue;
+			}
+			int j = 0;
+			while (j < paletteSize && palette[j] != id) {
+				++j;
+			}
+			if (j == paletteSize) {
+				if (paletteSize == palette.length) {
+					// too many ids: switch to direct storage
+					paletteSize = palette.length + 1;
+					break;
+				}
+				palette[paletteSize++] = id;
+			}
+		}
+
+		int bits = 0;
+		while ((1 << bits) < paletteSize) {
+			bits = bits == 0 ? 1 : bits * 2;
+		}
+
+		Layout layout;
+		if (bits > MAX_PALETTE_BITS) {
+			layout = new Layout(DIRECT_BITS, null, this.size);
+			for (int i = 0; i < this.size; i++) {
+				layout.setEntry(i, ids[i] & 0xFFFF);
+			}
+			this.paletteSize = 0;
+		} else {
+			layout = new Layout(bits, Arrays.copyOf(palette, 1 << bits), this.size);
+			if (bits != 0) {
+				int entry = 0;
+				for (int i = 0; i < this.size; i++) {
+					short id = ids[i];
+					if (layout.palette[entry] != id) {
+						entry = 0;
+						while (layout.palette[entry] != id) {
+							++entry;
+						}
+					}
+					layout.setEntry(i, entry);
+				}
+			}
+			this.paletteSize = paletteSize;
+		}
+		this.layout = layout;
+	}
+
+	/**
+	 * decode the whole storage into the given array (allocated if null or too
+	 * small)
+	 */
+	public final short[] toArray(short[] dst) {
+		if (dst == null || dst.length < this.size) {
+			dst = new short[this.size];
+		}
+		Layout layout = this.layout;
+		if (layout.bits == 0) {
+			Arrays.fill(dst, 0, this.size, layout.palette[0]);
+			return (dst);
+		}
+		for (int i = 0; i < this.size; i++) {
+			int value = layout.getEntry(i);
+			dst[i] = layout.palette == null ? (short) value : layout.palette[value];
+		}
+		return (dst);
+	}
+
+	/** remove unused ids from the palette (and shrink the entries if possible) */
+	public final void compact() {
+		if (this.layout.bits == 0) {
+			return;
+		}
+		this.set(this.toArray(null));
+	}
+
+	/** return true if every entry holds the same block id */
+	public final boolean isUniform() {
+		return (this.layout.bits == 0);
+	}
+
+	/** number of entries */
+	public final int size() {
+		return (this.size);
+	}
+
+	/** number of bits used per entry */
+	public final int getBitsPerEntry() {
+		return (this.layout.bits);
+	}
+
+	/** number of ids in the palette (0 when ids are stored directly) */
+	public final int getPaletteSize() {
+		return (this.paletteSize);
+	}
+
+	/** approximation of the memory used by the palette and entries, in bytes */
+	public final int getMemoryUsage() {
+		Layout layout = this.layout;
+		int bytes = 0;
+		if (layout.palette != null) {
+			bytes += layout.palette.length * 2;
+		}
+		if (layout.data != null) {
+			bytes += layout.data.length * 8;
+		}
+		return (bytes);
+	}
+}
@@ -0,0 +1,167 @@
+package com.grillecube.common.world.terrain;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import junit.framework.Assert;
+
+public class TerrainBlockStorageTests {
+
+	/** number of entries of the tested storages */
+	private static final int SIZE = WorldObjectTerrain.MAX_BLOCK_INDEX;
+
+	public TerrainBlockStorageTests() {
+
+	}
+
+	private static final void assertContent(short[] expected, TerrainBlockStorage storage) {
+		Assert.assertEquals(expected.length, storage.size());
+		for (int i = 0; i < expected.length; i++) {
+			Assert.assertEquals(expected[i], storage.get(i));
+		}
+		short[] array = storage.toArray(null);
+		for (int i = 0; i < expected.length; i++) {
+			Assert.assertEquals(expected[i], array[i]);
+		}
+	}
+
+	/** random ids, taken from 'types' different ids */
+	private static final short[] randomIds(Random random, int types) {
+		short[] ids = new short[SIZE];
+		for (int i = 0; i < ids.length; i++) {
+			ids[i] = (short) (random.nextInt(types) * 7);
+		}
+		return (ids);
+	}
+
+	@Test
+	public void testUniform() {
+		TerrainBlockStorage storage = new TerrainBlockStorage(SIZE, (short) 3);
+		Assert.assertTrue(storage.isUniform());
+		Assert.assertEquals(0, storage.getBitsPerEntry());
+		Assert.assertEquals(1, storage.getPaletteSize());
+		Assert.assertEquals(2, storage.getMemoryUsage());
+		for (int i = 0; i < SIZE; i++) {
+			Assert.assertEquals(3, storage.get(i));
+		}
+
+		// setting the same id doesnt allocate any entry
+		storage.set(42, (short) 3);
+		Assert.assertTrue(storage.isUniform());
+	}
+
+	@Test
+	public void testPaletteGrowth() {
+		TerrainBlockStorage storage = new TerrainBlockStorage(SIZE, (short) 0);
+		short[] expected = new short[SIZE];
+		int[] bits = new int[300];
+
+		// add a new id at each step, and check the number of bits
+		for (int id = 1; id < bits.length; id++) {
+			int index = (id * 131) % SIZE;
+			storage.set(index, (short) id);
+			expected[index] = (short) id;
+			bits[id] = storage.getBitsPerEntry();
+			assertContent(expected, storage);
+		}
+		Assert.assertEquals(1, bits[1]);
+		Assert.assertEquals(2, bits[2]);
+		Assert.assertEquals(2, bits[3]);
+		Assert.assertEquals(4, bits[4]);
+		Assert.assertEquals(4, bits[15]);
+		Assert.assertEquals(8, bits[16]);
+		Assert.assertEquals(8, bits[255]);
+
+		// more than 256 ids: stored directly
+		Assert.assertEquals(16, bits[256]);
+		Assert.assertEquals(16, bits[bits.length - 1]);
+		Assert.assertEquals(0, storage.getPaletteSize());
+	}
+
+	@Test
+	public void testRoundTrip() {
+		Random random = new Random(42);
+		int[] types = { 1, 2, 3, 5, 16, 17, 200, 256, 257, 1000 };
+		int[] bits = { 0, 1, 2, 4, 4, 8, 8, 8, 16, 16 };
+		for (int t = 0; t < types.length; t++) {
+			short[] ids = randomIds(random, types[t]);
+			if (types[t] > 1) {
+				// make sure every id is used
+				for (int i = 0; i < types[t]; i++) {
+					ids[i] = (short) (i * 7);
+				}
+			}
+			TerrainBlockStorage storage = new TerrainBlockStorage(SIZE, (short) 0);
+			storage.set(ids);
+			Assert.assertEquals(bits[t], storage.getBitsPerEntry());
+			assertContent(ids, storage);
+
+			// single writes over the bulk write
+			for (int i = 0; i < 1000; i++) {
+				int index = random.nextInt(SIZE);
+				ids[index] = (short) (random.nextInt(types[t] + 2) * 7);
+				storage.set(index, ids[index]);
+			}
+			assertContent(ids, storage);
+
+			// copies are independent
+			TerrainBlockStorage copy = new TerrainBlockStorage(storage);
+			assertContent(ids, copy);
+			copy.set(0, (short) 12345);
+			Assert.assertEquals(ids[0], storage.get(0));
+		}
+	}
+
+	@Test
+	public void testBitsShrink() {
+		Random random = new Random(7);
+		short[] ids = randomIds(random, 100);
+		TerrainBlockStorage storage = new TerrainBlockStorage(SIZE, (short) 0);
+		storage.set(ids);
+		Assert.assertEquals(8, storage.getBitsPerEntry());
+		int memory = storage.getMemoryUsage();
+
+		// only 2 ids remain: the palette keeps the unused ids until compacted
+		for (int i = 0; i < SIZE; i++) {
+			ids[i] = (short) (i % 2 == 0 ? 1 : 2);
+			storage.set(i, ids[i]);
+		}
+		Assert.assertEquals(8, storage.getBitsPerEntry());
+		storage.compact();
+		Assert.assertEquals(1, storage.getBitsPerEntry());
+		Assert.assertEquals(2, storage.getPaletteSize());
+		Assert.assertTrue(storage.getMemoryUsage() < memory);
+		assertContent(ids, storage);
+
+		// a single id left: no entries at all
+		for (int i = 0; i < SIZE; i++) {
+			ids[i] = 2;
+			storage.set(i, ids[i]);
+		}
+		storage.compact();
+		Assert.assertTrue(storage.isUniform());
+		assertContent(ids, storage);
+	}
+
+	@Test
+	public void testFullPaletteCompaction() {
+		TerrainBlockStorage storage = new TerrainBlockStorage(SIZE, (short) 0);
+		short[] expected = new short[SIZE];
+		storage.set(0, (short) 1);
+		expected[0] = 1;
+		Assert.assertEquals(1, storage.getBitsPerEntry());
+
+		// the palette is full, but 0 is no longer used: it is dropped instead of
+		// growing the entries
+		for (int i = 0; i < SIZE; i++) {
+			storage.set(i, (short) 1);
+			expected[i] = 1;
+		}
+		storage.set(5, (short) 2);
+		expected[5] = 2;
+		Assert.assertEquals(1, storage.getBitsPerEntry());
+		Assert.assertEquals(2, storage.getPaletteSize());
+		assertContent(expected, storage);
+	}
+}
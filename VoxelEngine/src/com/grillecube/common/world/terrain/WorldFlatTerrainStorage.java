@@ -6,6 +6,7 @@ import java.util.HashMap;
 
 import com.grillecube.common.Logger;
 import com.grillecube.common.Logger.Level;
+import com.grillecube.common.TaskScheduler;
 import com.grillecube.common.Taskable;
 import com.grillecube.common.VoxelEngine;
 import com.grillecube.common.VoxelEngine.Callable;
@@ -15,18 +16,53 @@ import com.grillecube.common.maths.Maths;
 import com.grillecube.common.maths.Vector2i;
 import com.grillecube.common.maths.Vector3f;
 import com.grillecube.common.maths.Vector3i;
+import com.grillecube.common.utils.LongKeys;
+import com.grillecube.common.utils.LongObjectHashMap;
 import com.grillecube.common.world.World;
 import com.grillecube.common.world.block.Block;
 import com.grillecube.common.world.block.Blocks;
 import com.grillecube.common.world.block.instances.BlockInstance;
+import com.grillecube.common.world.terrain.region.TerrainIOService;
 
 public class WorldFlatTerrainStorage extends WorldTerrainStorage {
 
-	private final HashMap<Vector3i, WorldObjectTerrain> terrains;
+	/** terrains, indexed by their packed world index (see {@link LongKeys#pack(int, int, int)}) */
+	private final LongObjectHashMap<WorldObjectTerrain> terrains;
 	private final HashMap<Vector2i, WorldObjectTerrain> topTerrains;
 	private final HashMap<Vector2i, WorldObjectTerrain> botTerrains;
 	private final ArrayList<WorldObjectTerrain> loadedTerrains;
 
+	/**
+	 * Terrain updates are split in shards of SHARD_SIZE x SHARD_SIZE terrain
+	 * columns. Shards are colored as a 2x2 checkerboard: shards of a same phase
+	 * never touch each other, so they are updated in parallel (a terrain update
+	 * only reaches its direct neighbors), and phases are updated one after the
+	 * other.
+	 */
+	public static final int SHARD_SIZE = 4;
+	private static final int PHASES = 4;
+
+	/** a shard of terrain columns, updated by a single task */
+	private static final class Shard {
+		final ArrayList<WorldObjectTerrain> terrains = new ArrayList<WorldObjectTerrain>();
+		final long key;
+		final int phase;
+
+		/** duration of the last update, in nanoseconds */
+		long cost;
+
+		Shard(long key, int phase) {
+			this.key = key;
+			this.phase = phase;
+		}
+	}
+
+	/** the shards, indexed by their packed (x, y) shard index */
+	private final LongObjectHashMap<Shard> shards;
+
+	/** the shards of each phase */
+	private final ArrayList<ArrayList<Shard>> phases;
+
 	/**
 	 * the maximum and minimum terrain y coordinates to make a terrain valid for
 	 * this world
@@ -34,12 +70,34 @@ public class WorldFlatTerrainStorage extends WorldTerrainStorage {
 	private int maxY;
 	private int minY;
 
+	/** incremented each time a terrain is added or removed */
+	private volatile int version;
+
+	/** per-thread last terrain lookup */
+	private static final class LastHit {
+		long key;
+		int version = -1;
+		WorldObjectTerrain terrain;
+	}
+
+	private final ThreadLocal<LastHit> lastHit = new ThreadLocal<LastHit>() {
+		@Override
+		protected LastHit initialValue() {
+			return (new LastHit());
+		}
+	};
+
 	public WorldFlatTerrainStorage(World world) {
 		super(world);
-		this.terrains = new HashMap<Vector3i, WorldObjectTerrain>(4096 * 4);
+		this.terrains = new LongObjectHashMap<WorldObjectTerrain>(4096 * 4);
 		this.topTerrains = new HashMap<Vector2i, WorldObjectTerrain>(4096);
 		this.botTerrains = new HashMap<Vector2i, WorldObjectTerrain>(4096);
 		this.loadedTerrains = new ArrayList<WorldObjectTerrain>(128);
+		this.shards = new LongObjectHashMap<Shard>(64);
+		this.phases = new ArrayList<ArrayList<Shard>>(PHASES);
+		for (int i = 0; i < PHASES; i++) {
+			this.phases.add(new ArrayList<Shard>());
+		}
 		this.setMinHeightIndex(-32);
 		this.setMaxHeightIndex(32);
 	}
@@ -47,24 +105,44 @@ public class WorldFlatTerrainStorage extends WorldTerrainStorage {
 	@Override
 	public void getTasks(VoxelEngine engine, ArrayList<Callable<Taskable>> tasks) {
 		this.updateLoadedTerrains();
+		this.updateShards();
+
+		// shards of a same phase share a scheduler group (they never conflict),
+		// while shards of different phases conflict: phases are run in order
+		final int idleTicks = this.getCompressionIdleTicks();
+		for (int phase = 0; phase < PHASES; phase++) {
+			final int shardPhase = phase;
+			final Object group = this.phases.get(phase);
+			for (final Shard shard : this.phases.get(phase)) {
+				tasks.add(engine.new Callable<Taskable>() {
+					@Override
+					public WorldFlatTerrainStorage call() throws Exception {
+						long start = System.nanoTime();
+						for (WorldObjectTerrain terrain : shard.terrains) {
+							terrain.updateCompression(idleTicks);
+							terrain.update();
+						}
+						shard.cost = System.nanoTime() - start;
+						return (WorldFlatTerrainStorage.this);
+					}
 
-		tasks.add(engine.new Callable<Taskable>() {
-			@Override
-			public WorldFlatTerrainStorage call() throws Exception {
-				for (WorldObjectTerrain terrain : loadedTerrains) {
-					terrain.update();
-					if (terrain.getBlockCount() == 0) {
-						remove(terrain);
+					@Override
+					public String getName() {
+						return ("TerrainStorage update (phase " + shardPhase + ")");
+					}
+
+					@Override
+					public int getWrites() {
+						return (TaskScheduler.RESOURCE_TERRAIN);
 					}
-				}
-				return (WorldFlatTerrainStorage.this);
-			}
 
-			@Override
-			public String getName() {
-				return ("TerrainStorage update");
+					@Override
+					public Object getGroup() {
+						return (group);
+					}
+				});
 			}
-		});
+		}
 	}
 
 	private void updateLoadedTerrains() {
@@ -74,6 +152,86 @@ public class WorldFlatTerrainStorage extends WorldTerrainStorage {
 		}
 	}
 
+	/** distribute the loaded terrains into their shards */
+	private void updateShards() {
+		for (Shard shard : this.shards.values()) {
+			shard.terrains.clear();
+		}
+
+		for (WorldObjectTerrain terrain : this.loadedTerrains) {
+			int sx = Math.floorDiv(terrain.getWorldIndex().x, SHARD_SIZE);
+			int sy = Math.floorDiv(terrain.getWorldIndex().y, SHARD_SIZE);
+			long key = LongKeys.pack(sx, sy, 0);
+			Shard shard = this.shards.get(key);
+			if (shard == null) {
+				shard = new Shard(key, (sx & 1) | ((sy & 1) << 1));
+				this.shards.put(key, shard);
+			}
+			shard.terrains.add(terrain);
+		}
+
+		for (ArrayList<Shard> phase : this.phases) {
+			phase.clear();
+		}
+		ArrayList<Shard> empty = null;
+		for (Shard shard : this.shards.values()) {
+			if (shard.terrains.isEmpty()) {
+				if (empty == null) {
+					empty = new ArrayList<Shard>();
+				}
+				empty.add(shard);
+			} else {
+				this.phases.get(shard.phase).add(shard);
+			}
+		}
+		if (empty != null) {
+			for (Shard shard : empty) {
+				this.shards.remove(shard.key);
+			}
+		}
+	}
+
+	/** number of terrain update shards */
+	public final int getShardCount() {
+		return (this.shards.size());
+	}
+
+	/** duration of the last update of each shard, in nanoseconds */
+	public final long[] getShardCosts() {
+		long[] costs = new long[this.shards.size()];
+		int i = 0;
+		for (Shard shard : this.shards.values()) {
+			costs[i++] = shard.cost;
+		}
+		return (costs);
+	}
+
+	/** duration of the last update of each phase (sum of its shards costs) */
+	public final long[] getPhaseCosts() {
+		long[] costs = new long[PHASES];
+		for (Shard shard : this.shards.values()) {
+			costs[shard.phase] += shard.cost;
+		}
+		return (costs);
+	}
+
+	/**
+	 * shard imbalance of the last update: the slowest shard cost divided by the
+	 * mean shard cost (1.0 means perfectly balanced)
+	 */
+	public final float getShardImbalance() {
+		long max = 0;
+		long total = 0;
+		for (Shard shard : this.shards.values()) {
+			max = Math.max(max, shard.cost);
+			total += shard.cost;
+		}
+		if (total == 0) {
+			return (1.0f);
+		}
+		return (max * this.shards.size() / (float) total);
+	}
+
 	@Override
 	public final WorldObjectTerrain add(WorldObjectTerrain terrain) {
 		WorldObjectTerrain previous = this.get(terrain.getWorldIndex());
@@ -98,7 +256,8 @@ public class WorldFlatTerrainStorage extends WorldTerrainStorage {
 
 		terrain.preSpawned();
 
-		this.terrains.put(terrain.getWorldIndex(), terrain);
+		this.terrains.put(LongKeys.pack(terrain.getWorldIndex()), terrain);
+		++this.version;
 		this.loadedTerrains.add(terrain);
 
 		Vector2i index2 = terrain.getWorldIndex();
@@ -121,19 +280,26 @@ public class WorldFlatTerrainStorage extends WorldTerrainStorage {
 
 	@Override
 	public final WorldObjectTerrain remove(WorldObjectTerrain terrain) {
-		if (terrain == null || this.terrains.containsKey(terrain.getWorldIndex())) {
+		if (terrain == null || this.get(terrain.getWorldIndex()) != terrain) {
 			return (null);
 		}
 
+		// save it before it is destroyed
+		TerrainIOService io = this.getWorld().getTerrainIOService();
+		if (io != null && terrain.hasState(WorldObjectTerrain.STATE_DIRTY)) {
+			io.requestSave(terrain);
+		}
+
 		terrain.destroy();
 		this.invokeEvent(new EventTerrainDespawn(terrain));
 
 		Vector3i index = terrain.getWorldIndex();
-		this.terrains.remove(index);
+		this.terrains.remove(LongKeys.pack(index));
+		++this.version;
 		this.loadedTerrains.remove(terrain);
 
 		WorldObjectTerrain topest = this.getTop(index);
-		WorldObjectTerrain botest = this.getTop(index);
+		WorldObjectTerrain botest = this.getBot(index);
 		if (topest == botest) {
 			// this column is now empty
 			this.topTerrains.remove(index);
@@ -141,7 +307,7 @@ public class WorldFlatTerrainStorage extends WorldTerrainStorage {
 		} else if (topest == terrain) {
 			this.topTerrains.remove(index);
 			Vector3i index3 = new Vector3i(terrain.getWorldIndex());
-			while (--index3.y >= this.getMinHeightIndex()) {
+			while (--index3.z >= this.getMinHeightIndex()) {
 				topest = this.get(index3);
 				if (topest != null) {
 					this.topTerrains.put(index, topest);
@@ -151,7 +317,7 @@ public class WorldFlatTerrainStorage extends WorldTerrainStorage {
 		} else if (this.getBot(index) == terrain) {
 			this.botTerrains.remove(index);
 			Vector3i index3 = new Vector3i(terrain.getWorldIndex());
-			while (++index3.y <= this.getMaxHeightIndex()) {
+			while (++index3.z <= this.getMaxHeightIndex()) {
 				botest = this.get(index3);
 				if (botest != null) {
 					this.botTerrains.put(index, botest);
@@ -173,12 +339,22 @@ public class WorldFlatTerrainStorage extends WorldTerrainStorage {
 	/** get the terrain at the given index */
 	@Override
 	public WorldObjectTerrain get(int indexx, int indexy, int indexz) {
-		return (this.get(new Vector3i(indexx, indexy, indexz)));
+		long key = LongKeys.pack(indexx, indexy, indexz);
+		int version = this.version;
+		LastHit hit = this.lastHit.get();
+		if (hit.key == key && hit.version == version) {
+			return (hit.terrain);
+		}
+		WorldObjectTerrain terrain = this.terrains.get(key);
+		hit.key = key;
+		hit.version = version;
+		hit.terrain = terrain;
+		return (terrain);
 	}
 
 	@Override
 	public WorldObjectTerrain get(Vector3i index) {
-		return (this.terrains.get(index));
+		return (this.get(index.x, index.y, index.z));
 	}
 
 	/** return every terrains */
@@ -264,7 +440,7 @@ public class WorldFlatTerrainStorage extends WorldTerrainStorage {
 	}
 
 	public boolean hasTerrain(WorldObjectTerrain terrain) {
-		return (this.terrains.containsValue(terrain));
+		return (terrain != null && this.terrains.get(LongKeys.pack(terrain.getWorldIndex())) == terrain);
 	}
 
 	/** get the block at the given world relative position */
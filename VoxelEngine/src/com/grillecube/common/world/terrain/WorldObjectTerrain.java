@@ -14,21 +14,23 @@
 
 package com.grillecube.common.world.terrain;
 
-import java.util.ArrayList;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.util.Arrays;
 import java.util.HashMap;
-import java.util.Stack;
 
 import com.grillecube.common.event.Event;
-import com.grillecube.common.event.world.EventTerrainBlocklightUpdate;
 import com.grillecube.common.event.world.EventTerrainDurabilityChanged;
 import com.grillecube.common.event.world.EventTerrainSetBlock;
-import com.grillecube.common.event.world.EventTerrainSunlightUpdate;
 import com.grillecube.common.faces.Face;
 import com.grillecube.common.maths.Maths;
 import com.grillecube.common.maths.Vector3f;
 import com.grillecube.common.maths.Vector3i;
 import com.grillecube.common.resources.EventManager;
+import com.grillecube.common.world.Compress;
 import com.grillecube.common.world.World;
 import com.grillecube.common.world.block.Block;
 import com.grillecube.common.world.block.Blocks;
@@ -38,6 +40,8 @@ import com.grillecube.common.world.physic.WorldObject;
 public class WorldObjectTerrain extends WorldObject {
 	/** terrain states */
 	public static final int STATE_FACE_VISIBILTY_UP_TO_DATE = 1 << 0;
+	/** set when the terrain data changed since it was last saved */
+	public static final int STATE_DIRTY = 1 << 1;
 
 	/** terrain dimensions */
 	// block size unit
@@ -81,8 +85,8 @@ public class WorldObjectTerrain extends WorldObject {
 	/** block instances */
 	private HashMap<Integer, BlockInstance> blockInstances;
 
-	/** block ids */
-	protected short[] blocks;
+	/** block ids (paletted) */
+	protected TerrainBlockStorage blocks;
 
 	/** this terrain heightmap */
 	protected byte[] heightmap;
@@ -104,14 +108,20 @@ public class WorldObjectTerrain extends WorldObject {
 	/** terrain states */
 	private int state;
 
-	/** the lights lists */
-	private Stack<LightNodeAdd> lightBlockAddQueue;
-	private Stack<LightNodeRemoval> lightBlockRemovalQueue;
-	private Stack<LightNodeAdd> sunLightAddQueue;
-	private Stack<LightNodeRemoval> sunLightRemovalQueue;
+	/** RLE compressed data of an idle terrain (null if not compressed) */
+	private volatile CompressedData compressed;
+
+	/** true if the terrain data was accessed since the last idle check */
+	private volatile boolean accessed;
+
+	/** number of consecutive idle checks without any access */
+	private int idleTicks;
+
+	/** slot of this terrain in the current light engine batch (-1 if none) */
+	int lightSlot;
 
 	/** which face can see another */
-	private boolean[][] facesVisibility;
+	private volatile boolean[][] facesVisibility;
 
 	public WorldObjectTerrain(World world, Vector3i index) {
 		this(world, index.x, index.y, index.z);
@@ -133,8 +143,7 @@ public class WorldObjectTerrain extends WorldObject {
 		this.durability = null;
 		this.blockCount = 0;
 		this.facesVisibility = new boolean[6][6];
-		this.lightBlockAddQueue = null;
-		this.lightBlockRemovalQueue = null;
+		this.lightSlot = -1;
 		for (Face a : Face.faces) {
 			for (Face b : Face.faces) {
 				this.facesVisibility[a.getID()][b.getID()] = true;
@@ -152,8 +161,6 @@ public class WorldObjectTerrain extends WorldObject {
 	public void update() {
 		this.updateFaceVisibility();
 		this.updateBlockInstances();
-		this.updateSunLight();
-		this.updateBlockLights();
 		// this.updateBlocks();
 	}
 
@@ -188,7 +195,7 @@ public class WorldObjectTerrain extends WorldObject {
 			return;
 		}
 
-		int index = (short) (Maths.abs(this.getWorld().getRNG().nextInt()) % this.blocks.length);
+		int index = (short) (Maths.abs(this.getWorld().getRNG().nextInt()) % WorldObjectTerrain.MAX_BLOCK_INDEX);
 		int z = this.getZFromIndex(index);
 		int y = this.getYFromIndex(index, z);
 		int x = this.getXFromIndex(index, y, z);
@@ -304,10 +311,12 @@ public class WorldObjectTerrain extends WorldObject {
 	}
 
 	public Block getBlockAt(int index) {
-		if (this.blocks == null) {
+		this.touch();
+		TerrainBlockStorage blocks = this.blocks;
+		if (blocks == null) {
 			return (Blocks.AIR);
 		}
-		Block block = Blocks.getBlockByID(this.blocks[index]);
+		Block block = Blocks.getBlockByID(blocks.get(index));
 		return (block != null ? block : Blocks.AIR);
 
 	}
@@ -354,6 +363,7 @@ public class WorldObjectTerrain extends WorldObject {
 
 	/** function to set a block to this terrain */
 	public final BlockInstance setBlock(Block block, int index, int x, int y, int z) {
+		this.touch();
 
 		// if terrain was empty
 		if (this.blocks == null) {
@@ -363,12 +373,11 @@ public class WorldObjectTerrain extends WorldObject {
 				return (null);
 			}
 			// else, initialize it, fill it with air
-			this.blocks = new short[WorldObjectTerrain.MAX_BLOCK_INDEX];
-			Arrays.fill(this.blocks, (byte) Blocks.AIR_ID);
+			this.blocks = new TerrainBlockStorage(WorldObjectTerrain.MAX_BLOCK_INDEX, (short) Blocks.AIR_ID);
 		}
 
 		// get the previous block in this location
-		Block prevblock = Blocks.getBlockByID(this.blocks[index]);
+		Block prevblock = Blocks.getBlockByID(this.blocks.get(index));
 
 		// unset the previous block
 		prevblock.onUnset(this, x, y, z);
@@ -383,7 +392,12 @@ public class WorldObjectTerrain extends WorldObject {
 		}
 
 		// set the new block
-		this.blocks[index] = block.getID();
+		this.blocks.set(index, block.getID());
+		this.setState(STATE_DIRTY);
+		// the faces connectivity (used by the occlusion culler) may have changed
+		this.requestFaceVisibilityUpdate();
+		// the light going through this block may have changed
+		this.updateLight(prevblock, block, index, x, y, z);
 
 		// set callback
 		block.onSet(this, x, y, z);
@@ -392,7 +406,7 @@ public class WorldObjectTerrain extends WorldObject {
 		if (prevblock.getID() != Blocks.AIR_ID && block.getID() == Blocks.AIR_ID) {
 			--this.blockCount;
 			int zmax = this.heightmap[x + WorldObjectTerrain.DIMY * y];
-			while (zmax > 0 && this.blocks[this.getIndex(x, y, zmax - 1)] == Blocks.AIR_ID) {
+			while (zmax > 0 && this.blocks.get(this.getIndex(x, y, zmax - 1)) == Blocks.AIR_ID) {
 				--zmax;
 			}
 			this.heightmap[x + WorldObjectTerrain.DIMX * y] = (byte) (zmax - 1);
@@ -430,6 +444,54 @@ public class WorldObjectTerrain extends WorldObject {
 		return (instance);
 	}
 
+	/**
+	 * replace every blocks of this terrain at once (i.e with generated blocks).
+	 * The blocks callbacks are called, but a single {@link EventTerrainSetBlock}
+	 * is raised (with a null block)
+	 *
+	 * @param ids
+	 *            : the block ids, indexed as {@link #getIndex(int, int, int)}
+	 *            (null if every block is air). The array is copied
+	 */
+	public final void setBlocks(short[] ids) {
+		this.releaseCompressed();
+
+		TerrainBlockStorage blocks = null;
+		if (ids != null) {
+			blocks = new TerrainBlockStorage(WorldObjectTerrain.MAX_BLOCK_INDEX, (short) Blocks.AIR_ID);
+			blocks.set(ids);
+		}
+		this.blocks = blocks;
+		this.blockInstances = null;
+		this.calculateBlockCount();
+		this.calculateHeightmap();
+		this.calculateMass();
+
+		if (ids != null) {
+			for (int index = 0; index < ids.length; index++) {
+				if (ids[index] == Blocks.AIR_ID) {
+					continue;
+				}
+				Block block = Blocks.getBlockByID(ids[index]);
+				int z = this.getZFromIndex(index);
+				int y = this.getYFromIndex(index, z);
+				int x = this.getXFromIndex(index, y, z);
+				block.onSet(this, x, y, z);
+				BlockInstance instance = block.createBlockInstance(this, index);
+				if (instance != null) {
+					if (this.blockInstances == null) {
+						this.blockInstances = new HashMap<Integer, BlockInstance>();
+					}
+					this.blockInstances.put(index, instance);
+					instance.onSet();
+				}
+			}
+		}
+		this.setState(STATE_DIRTY);
+		this.requestFaceVisibilityUpdate();
+		this.invokeEvent(new EventTerrainSetBlock(this, null, -1));
+	}
+
 	private void invokeEvent(Event event) {
 		EventManager.instance().invokeEvent(event);
 	}
@@ -468,38 +530,7 @@ public class WorldObjectTerrain extends WorldObject {
 	/**
 	 * LIGHT BEGINS HERE:
 	 * 
-	 * THE IMPLEMENTATION IS BASED ON THIS WORK:
-	 * https://www.seedofandromeda.com/blogs/29-fast-flood-fill-lighting-in-a-blocky-voxel-game-pt-1
-	 * 
-	 * SPECIAL THANK TO SOA TEAM FOR THEIR SHARING
-	 */
-
-	public class LightNodeAdd {
-		public final WorldObjectTerrain terrain;
-		public final int index;
-
-		public LightNodeAdd(WorldObjectTerrain terrain, int index) {
-			this.terrain = terrain;
-			this.index = index;
-		}
-	}
-
-	public class LightNodeRemoval {
-		public final WorldObjectTerrain terrain;
-		public final int index;
-		public final byte value;
-
-		public LightNodeRemoval(WorldObjectTerrain terrain, int index, byte value) {
-			this.terrain = terrain;
-			this.index = index;
-			this.value = value;
-		}
-	}
-
-	/**
-	 * 
-	 * SUN LIGHT PROPAGATION ABOVE
-	 * 
+	 * light propagation is done by the world {@link LightEngine}
 	 */
 
 	/** get sunlight value */
@@ -517,281 +548,46 @@ public class WorldObjectTerrain extends WorldObject {
 
 	/** get sunlight value */
 	public final byte getSunLight(int index) {
-		if (this.lights == null) {
+		this.touch();
+		byte[] lights = this.lights;
+		if (lights == null) {
 			return (0);
 		}
-		return (byte) ((this.lights[index] >> 4) & 0xF);
+		return (byte) ((lights[index] >> 4) & 0xF);
 	}
 
-	/** set the sunlight value */
-	private final void setSunLight(byte value, int index) {
+	/** set the sunlight value (without propagating it) */
+	final void setSunLight(byte value, int index) {
+		this.touch();
 		if (this.lights == null) {
 			// initialize it, fill it with 0
 			this.lights = new byte[WorldObjectTerrain.MAX_BLOCK_INDEX];
 			Arrays.fill(this.lights, (byte) 0);
 		}
 		this.lights[index] = (byte) ((this.lights[index] & 0xF) | (value << 4));
+		this.setState(STATE_DIRTY);
 	}
 
-	private void addSunLight(byte lightValue, int x, int y, int z) {
+	public void addSunLight(byte lightValue, int x, int y, int z) {
 		this.addSunLight(lightValue, this.getIndex(x, y, z));
 	}
 
-	/** add a light to the terrain */
-	private void addSunLight(byte lightValue, int index) {
-		if (lightValue <= 0) {
-			return;
+	/** add a sunlight source at the given index */
+	public void addSunLight(byte lightValue, int index) {
+		LightEngine engine = this.getLightEngine();
+		if (engine != null) {
+			engine.addLight(LightEngine.CHANNEL_SUN, this, index, lightValue);
 		}
-		if (this.sunLightAddQueue == null) {
-			this.sunLightAddQueue = new Stack<LightNodeAdd>();
-		}
-		this.sunLightAddQueue.add(new LightNodeAdd(this, index));
-		this.setSunLight(lightValue, index);
 	}
 
-	/** remove the light at given index */
-	private void removeSunLight(int index) {
-		this.removeSunLight(index, this.getBlockLight(index));
-	}
-
-	private void removeSunLight(int index, byte value) {
-		if (value <= 0) {
-			return;
-		}
-		if (this.sunLightRemovalQueue == null) {
-			this.sunLightRemovalQueue = new Stack<LightNodeRemoval>();
+	/** remove the sunlight at given index */
+	public void removeSunLight(int index) {
+		LightEngine engine = this.getLightEngine();
+		if (engine != null) {
+			engine.removeLight(LightEngine.CHANNEL_SUN, this, index);
 		}
-
-		this.sunLightRemovalQueue.push(new LightNodeRemoval(this, index, value));
-		this.setSunLight((byte) 0, index);
 	}
 
-	/** empty the sunlight queue */
-	private void updateSunLight() {
-
-		if (this.sunLightAddQueue == null && this.sunLightRemovalQueue == null) {
-			return;
-		}
-
-		// removing a light
-		// the affected terrains
-		ArrayList<WorldObjectTerrain> processedTerrains = new ArrayList<WorldObjectTerrain>(4);
-
-		if (this.sunLightRemovalQueue != null) {
-			this.propagateSunlightRemovalQueue(processedTerrains);
-			this.sunLightRemovalQueue = null;
-		}
-
-		if (this.sunLightAddQueue != null) {
-			this.propagateSunLightAddQueue(processedTerrains);
-			this.sunLightAddQueue = null;
-		}
-
-		// update meshes
-		for (WorldObjectTerrain terrain : processedTerrains) {
-			terrain.invokeEvent(new EventTerrainSunlightUpdate(terrain));
-		}
-	}
-
-	private void propagateSunLightAddQueue(ArrayList<WorldObjectTerrain> processedTerrains) {
-		// do the algorithm
-		while (!this.sunLightAddQueue.isEmpty()) {
-
-			// get the light value
-			LightNodeAdd lightNode = this.sunLightAddQueue.pop();
-
-			WorldObjectTerrain nodeTerrain = lightNode.terrain;
-
-			if (!processedTerrains.contains(nodeTerrain)) {
-				processedTerrains.add(nodeTerrain);
-			}
-
-			// get the index
-			int index = lightNode.index;
-			byte lightValue = nodeTerrain.getSunLight(index);
-
-			// next value
-			byte nextLightValue = (byte) (lightValue - 1);
-
-			// if reached the end; stop propagation
-			if (nextLightValue == 0) {
-				continue;
-			}
-
-			int z = nodeTerrain.getZFromIndex(index);
-			int y = nodeTerrain.getYFromIndex(index, z);
-			int x = nodeTerrain.getXFromIndex(index, y, z);
-
-			// propagate thought x negative
-			if (x > 0) {
-				nodeTerrain.floodFillSunlightAdd(nodeTerrain.getIndex(x - 1, y, z), nextLightValue);
-			} else {
-				WorldObjectTerrain terrain = nodeTerrain.getNeighbor(Face.BACK);
-				if (terrain != null) {
-					terrain.floodFillSunlightAdd(terrain.getIndex(WorldObjectTerrain.DIMX - 1, y, z), nextLightValue);
-				}
-			}
-
-			// propagate thought y negative
-			if (y > 0) {
-				nodeTerrain.floodFillSunlightAdd(nodeTerrain.getIndex(x, y - 1, z), nextLightValue);
-			} else {
-				WorldObjectTerrain terrain = nodeTerrain.getNeighbor(Face.LEFT);
-				if (terrain != null) {
-					terrain.floodFillSunlightAdd(terrain.getIndex(x, WorldObjectTerrain.DIMX - 1, z), nextLightValue);
-				}
-			}
-
-			// propagate thought z negative
-			if (z > 0) {
-				nodeTerrain.floodFillSunlightAdd(nodeTerrain.getIndex(x, y, z - 1), nextLightValue);
-			} else {
-				WorldObjectTerrain terrain = nodeTerrain.getNeighbor(Face.BOT);
-				if (terrain != null) {
-					terrain.floodFillSunlightAdd(terrain.getIndex(x, y, WorldObjectTerrain.DIMZ - 1), nextLightValue);
-				}
-			}
-
-			// propagate thought x positive
-			if (x < WorldObjectTerrain.DIMX - 1) {
-				nodeTerrain.floodFillSunlightAdd(nodeTerrain.getIndex(x + 1, y, z), nextLightValue);
-			} else {
-				WorldObjectTerrain terrain = nodeTerrain.getNeighbor(Face.FRONT);
-				if (terrain != null) {
-					terrain.floodFillSunlightAdd(terrain.getIndex(0, y, z), nextLightValue);
-				}
-			}
-
-			// propagate thought y positive
-			if (y < WorldObjectTerrain.DIMY - 1) {
-				nodeTerrain.floodFillSunlightAdd(nodeTerrain.getIndex(x, y + 1, z), nextLightValue);
-			} else {
-				WorldObjectTerrain terrain = nodeTerrain.getNeighbor(Face.RIGHT);
-				if (terrain != null) {
-					terrain.floodFillSunlightAdd(terrain.getIndex(x, 0, z), nextLightValue);
-				}
-			}
-
-			// propagate thought z positive
-			if (z < WorldObjectTerrain.DIMZ - 1) {
-				nodeTerrain.floodFillSunlightAdd(nodeTerrain.getIndex(x, y, z + 1), nextLightValue);
-			} else {
-				WorldObjectTerrain terrain = nodeTerrain.getNeighbor(Face.TOP);
-				if (terrain != null) {
-					terrain.floodFillSunlightAdd(terrain.getIndex(x, y, 0), nextLightValue);
-				}
-			}
-		}
-	}
-
-	private void floodFillSunlightAdd(int index, byte nextLightValue) {
-		Block next = this.getBlockAt(index);
-		if (next.isTransparent()) {
-			if (this.getSunLight(index) < nextLightValue) {
-				this.addSunLight(nextLightValue, index);
-			}
-		}
-	}
-
-	private void propagateSunlightRemovalQueue(ArrayList<WorldObjectTerrain> processedTerrains) {
-
-		// bfs algorithm
-		int x, y, z;
-
-		while (!this.sunLightRemovalQueue.isEmpty()) {
-
-			// get the light value
-			LightNodeRemoval lightValueNode = sunLightRemovalQueue.pop();
-			WorldObjectTerrain nodeTerrain = lightValueNode.terrain;
-
-			if (!processedTerrains.contains(nodeTerrain)) {
-				processedTerrains.add(nodeTerrain);
-			}
-
-			// clear the light value
-			int nodeIndex = lightValueNode.index;
-			byte lightLevel = lightValueNode.value;
-
-			z = nodeTerrain.getZFromIndex(nodeIndex);
-			y = nodeTerrain.getYFromIndex(nodeIndex, z);
-			x = nodeTerrain.getXFromIndex(nodeIndex, y, z);
-
-			// propagate thought x negative
-			if (x > 0) {
-				nodeTerrain.floodFillSunlightRemove(nodeTerrain.getIndex(x - 1, y, z), lightLevel);
-			} else {
-				WorldObjectTerrain terrain = nodeTerrain.getNeighbor(Face.BACK);
-				if (terrain != null) {
-					terrain.floodFillSunlightRemove(terrain.getIndex(WorldObjectTerrain.DIMX - 1, y, z), lightLevel);
-				}
-			}
-
-			// propagate thought y negative
-			if (y > 0) {
-				nodeTerrain.floodFillSunlightRemove(nodeTerrain.getIndex(x, y - 1, z), lightLevel);
-			} else {
-				WorldObjectTerrain terrain = nodeTerrain.getNeighbor(Face.LEFT);
-				if (terrain != null) {
-					terrain.floodFillSunlightRemove(terrain.getIndex(x, WorldObjectTerrain.DIMY - 1, z), lightLevel);
-				}
-			}
-
-			// propagate thought z negative
-			if (z > 0) {
-				nodeTerrain.floodFillSunlightRemove(nodeTerrain.getIndex(x, y, z - 1), lightLevel);
-			} else {
-				WorldObjectTerrain terrain = nodeTerrain.getNeighbor(Face.BOT);
-				if (terrain != null) {
-					terrain.floodFillSunlightRemove(terrain.getIndex(x, y, WorldObjectTerrain.DIMZ - 1), lightLevel);
-				}
-			}
-
-			// propagate thought x positive
-			if (x < WorldObjectTerrain.DIMX - 1) {
-				nodeTerrain.floodFillSunlightRemove(nodeTerrain.getIndex(x + 1, y, z), lightLevel);
-			} else {
-				WorldObjectTerrain terrain = nodeTerrain.getNeighbor(Face.FRONT);
-				if (terrain != null) {
-					terrain.floodFillSunlightRemove(terrain.getIndex(0, y, z), lightLevel);
-				}
-			}
-
-			// propagate thought y positive
-			if (y < WorldObjectTerrain.DIMY - 1) {
-				nodeTerrain.floodFillSunlightRemove(nodeTerrain.getIndex(x, y + 1, z), lightLevel);
-			} else {
-				WorldObjectTerrain terrain = nodeTerrain.getNeighbor(Face.RIGHT);
-				if (terrain != null) {
-					terrain.floodFillSunlightRemove(terrain.getIndex(x, 0, z), lightLevel);
-				}
-			}
-
-			// propagate thought z positive
-			if (z < WorldObjectTerrain.DIMZ - 1) {
-				nodeTerrain.floodFillSunlightRemove(nodeTerrain.getIndex(x, y, z + 1), lightLevel);
-			} else {
-				WorldObjectTerrain terrain = nodeTerrain.getNeighbor(Face.TOP);
-				if (terrain != null) {
-					terrain.floodFillSunlightRemove(terrain.getIndex(x, y, 0), lightLevel);
-				}
-			}
-		}
-	}
-
-	private void floodFillSunlightRemove(int index, byte lightLevel) {
-		byte neighborLevel = this.getBlockLight(index);
-		if (neighborLevel != 0 && neighborLevel < lightLevel) {
-			this.removeSunLight(index);
-		} else if (neighborLevel >= lightLevel) {
-			this.addSunLight(neighborLevel, index);
-		}
-	}
-
-	/**
-	 * 
-	 * BLOCK LIGHT PROPAGATION ABOVE
-	 * 
-	 */
 	/** get the block light value */
 	public final byte getBlockLight(int xyz[]) {
 		WorldObjectTerrain terrain = this.getRelativeTerrain(xyz);
@@ -807,20 +603,24 @@ public class WorldObjectTerrain extends WorldObject {
 
 	/** get the block light value */
 	public byte getBlockLight(int index) {
-		if (this.lights == null) {
+		this.touch();
+		byte[] lights = this.lights;
+		if (lights == null) {
 			return (0);
 		}
-		return ((byte) (this.lights[index] & 0xF));
+		return ((byte) (lights[index] & 0xF));
 	}
 
-	/** set tje block light value */
-	private final void setBlockLight(byte val, int index) {
+	/** set the block light value (without propagating it) */
+	final void setBlockLight(byte val, int index) {
+		this.touch();
 		if (this.lights == null) {
 			// initialize it, fill it with 0
 			this.lights = new byte[WorldObjectTerrain.MAX_BLOCK_INDEX];
 			Arrays.fill(this.lights, (byte) 0);
 		}
 		this.lights[index] = (byte) ((this.lights[index] & 0xF0) | val);
+		this.setState(STATE_DIRTY);
 	}
 
 	public void addBlockLight(byte lightValue, int x, int y, int z) {
@@ -829,14 +629,10 @@ public class WorldObjectTerrain extends WorldObject {
 
 	/** add a light to the terrain */
 	public void addBlockLight(byte lightValue, int index) {
-		if (lightValue == 0) {
-			return;
-		}
-		if (this.lightBlockAddQueue == null) {
-			this.lightBlockAddQueue = new Stack<LightNodeAdd>();
+		LightEngine engine = this.getLightEngine();
+		if (engine != null) {
+			engine.addLight(LightEngine.CHANNEL_BLOCK, this, index, lightValue);
 		}
-		this.lightBlockAddQueue.add(new LightNodeAdd(this, index));
-		this.setBlockLight(lightValue, index);
 	}
 
 	/** remove the light at given coordinates */
@@ -846,242 +642,48 @@ public class WorldObjectTerrain extends WorldObject {
 
 	/** remove the light at given index */
 	public void removeLight(int index) {
-		this.removeLight(index, this.getBlockLight(index));
-	}
-
-	private void removeLight(int index, byte value) {
-
-		if (value <= 0) {
-			return;
-		}
-
-		if (this.lightBlockRemovalQueue == null) {
-			this.lightBlockRemovalQueue = new Stack<LightNodeRemoval>();
+		LightEngine engine = this.getLightEngine();
+		if (engine != null) {
+			engine.removeLight(LightEngine.CHANNEL_BLOCK, this, index);
 		}
-
-		this.lightBlockRemovalQueue.push(new LightNodeRemoval(this, index, value));
-		this.setBlockLight((byte) 0, index);
 	}
 
-	/** update the lighting */
-	private void updateBlockLights() {
-
-		if (this.lightBlockAddQueue == null && this.lightBlockRemovalQueue == null) {
+	/**
+	 * update the light of a replaced block: an opaque block stops the light at
+	 * its location, a transparent block replacing an opaque one is lit again by
+	 * its 6 neighbors (propagated on the next light engine update)
+	 */
+	private final void updateLight(Block prevblock, Block block, int index, int x, int y, int z) {
+		if (prevblock.isTransparent() == block.isTransparent()) {
 			return;
 		}
-
-		// removing a light
-		// the affected terrains
-		ArrayList<WorldObjectTerrain> processedTerrains = new ArrayList<WorldObjectTerrain>(27);
-
-		if (this.lightBlockRemovalQueue != null) {
-			this.propagateLightRemovalQueue(processedTerrains);
-			this.lightBlockRemovalQueue = null;
-		}
-
-		if (this.lightBlockAddQueue != null) {
-			this.propagateLightAddQueue(processedTerrains);
-			this.lightBlockAddQueue = null;
+		LightEngine engine = this.getLightEngine();
+		if (engine == null) {
+			return;
 		}
-
-		// update meshes
-		for (WorldObjectTerrain terrain : processedTerrains) {
-			terrain.invokeEvent(new EventTerrainBlocklightUpdate(terrain));
+		if (!block.isTransparent()) {
+			engine.removeLight(LightEngine.CHANNEL_SUN, this, index);
+			engine.removeLight(LightEngine.CHANNEL_BLOCK, this, index);
+			return;
 		}
-	}
-
-	private void propagateLightAddQueue(ArrayList<WorldObjectTerrain> processedTerrains) {
-		// do the algorithm
-		while (!this.lightBlockAddQueue.isEmpty()) {
-
-			// get the light value
-			LightNodeAdd lightNode = this.lightBlockAddQueue.pop();
-
-			WorldObjectTerrain nodeTerrain = lightNode.terrain;
-
-			if (!processedTerrains.contains(nodeTerrain)) {
-				processedTerrains.add(nodeTerrain);
-			}
-
-			// get the index
-			int index = lightNode.index;
-			byte lightValue = nodeTerrain.getBlockLight(index);
-
-			// next value
-			byte nextLightValue = (byte) (lightValue - 1);
-
-			// if reached the end; stop propagation
-			if (nextLightValue == 0) {
+		int[] xyz = new int[3];
+		for (Face face : Face.values()) {
+			Vector3i vec = face.getVector();
+			xyz[0] = x + vec.x;
+			xyz[1] = y + vec.y;
+			xyz[2] = z + vec.z;
+			WorldObjectTerrain terrain = this.getRelativeTerrain(xyz);
+			if (terrain == null) {
 				continue;
 			}
-
-			int z = nodeTerrain.getZFromIndex(index);
-			int y = nodeTerrain.getYFromIndex(index, z);
-			int x = nodeTerrain.getXFromIndex(index, y, z);
-
-			// propagate thought x negative
-			if (x > 0) {
-				nodeTerrain.floodFillLightAdd(nodeTerrain.getIndex(x - 1, y, z), nextLightValue);
-			} else {
-				WorldObjectTerrain terrain = nodeTerrain.getNeighbor(Face.BACK);
-				if (terrain != null) {
-					terrain.floodFillLightAdd(terrain.getIndex(WorldObjectTerrain.DIMX - 1, y, z), nextLightValue);
-				}
-			}
-
-			// propagate thought y negative
-			if (y > 0) {
-				nodeTerrain.floodFillLightAdd(nodeTerrain.getIndex(x, y - 1, z), nextLightValue);
-			} else {
-				WorldObjectTerrain terrain = nodeTerrain.getNeighbor(Face.LEFT);
-				if (terrain != null) {
-					terrain.floodFillLightAdd(terrain.getIndex(x, WorldObjectTerrain.DIMY - 1, z), nextLightValue);
-				}
-			}
-
-			// propagate thought z negative
-			if (z > 0) {
-				nodeTerrain.floodFillLightAdd(nodeTerrain.getIndex(x, y, z - 1), nextLightValue);
-			} else {
-				WorldObjectTerrain terrain = nodeTerrain.getNeighbor(Face.BOT);
-				if (terrain != null) {
-					terrain.floodFillLightAdd(terrain.getIndex(x, y, WorldObjectTerrain.DIMZ - 1), nextLightValue);
-				}
-			}
-
-			// propagate thought x positive
-			if (x < WorldObjectTerrain.DIMX - 1) {
-				nodeTerrain.floodFillLightAdd(nodeTerrain.getIndex(x + 1, y, z), nextLightValue);
-			} else {
-				WorldObjectTerrain terrain = nodeTerrain.getNeighbor(Face.FRONT);
-				if (terrain != null) {
-					terrain.floodFillLightAdd(terrain.getIndex(0, y, z), nextLightValue);
-				}
-			}
-
-			// propagate thought y positive
-			if (y < WorldObjectTerrain.DIMY - 1) {
-				nodeTerrain.floodFillLightAdd(nodeTerrain.getIndex(x, y + 1, z), nextLightValue);
-			} else {
-				WorldObjectTerrain terrain = nodeTerrain.getNeighbor(Face.RIGHT);
-				if (terrain != null) {
-					terrain.floodFillLightAdd(terrain.getIndex(x, 0, z), nextLightValue);
-				}
-			}
-
-			// propagate thought z positive
-			if (z < WorldObjectTerrain.DIMZ - 1) {
-				nodeTerrain.floodFillLightAdd(nodeTerrain.getIndex(x, y, z + 1), nextLightValue);
-			} else {
-				WorldObjectTerrain terrain = nodeTerrain.getNeighbor(Face.TOP);
-				if (terrain != null) {
-					terrain.floodFillLightAdd(terrain.getIndex(x, y, 0), nextLightValue);
-				}
-			}
-		}
-	}
-
-	private void floodFillLightAdd(int index, byte nextLightValue) {
-		Block next = this.getBlockAt(index);
-		if (next.isTransparent()) {
-			if (this.getBlockLight(index) < nextLightValue) {
-				this.addBlockLight(nextLightValue, index);
-			}
-		}
-	}
-
-	private void propagateLightRemovalQueue(ArrayList<WorldObjectTerrain> processedTerrains) {
-
-		// bfs algorithm
-		int x, y, z;
-
-		while (!this.lightBlockRemovalQueue.isEmpty()) {
-
-			// get the light value
-			LightNodeRemoval lightValueNode = lightBlockRemovalQueue.pop();
-			WorldObjectTerrain nodeTerrain = lightValueNode.terrain;
-
-			if (!processedTerrains.contains(nodeTerrain)) {
-				processedTerrains.add(nodeTerrain);
-			}
-
-			// clear the light value
-			int nodeIndex = lightValueNode.index;
-			byte lightLevel = lightValueNode.value;
-
-			z = nodeTerrain.getZFromIndex(nodeIndex);
-			y = nodeTerrain.getYFromIndex(nodeIndex, z);
-			x = nodeTerrain.getXFromIndex(nodeIndex, y, z);
-
-			// propagate thought x negative
-			if (x > 0) {
-				nodeTerrain.floodFillLightRemove(nodeTerrain.getIndex(x - 1, y, z), lightLevel);
-			} else {
-				WorldObjectTerrain terrain = nodeTerrain.getNeighbor(Face.BACK);
-				if (terrain != null) {
-					terrain.floodFillLightRemove(terrain.getIndex(WorldObjectTerrain.DIMX - 1, y, z), lightLevel);
-				}
-			}
-
-			// propagate thought y negative
-			if (y > 0) {
-				nodeTerrain.floodFillLightRemove(nodeTerrain.getIndex(x, y - 1, z), lightLevel);
-			} else {
-				WorldObjectTerrain terrain = nodeTerrain.getNeighbor(Face.LEFT);
-				if (terrain != null) {
-					terrain.floodFillLightRemove(terrain.getIndex(x, WorldObjectTerrain.DIMX - 1, z), lightLevel);
-				}
-			}
-
-			// propagate thought z negative
-			if (z > 0) {
-				nodeTerrain.floodFillLightRemove(nodeTerrain.getIndex(x, y, z - 1), lightLevel);
-			} else {
-				WorldObjectTerrain terrain = nodeTerrain.getNeighbor(Face.BOT);
-				if (terrain != null) {
-					terrain.floodFillLightRemove(terrain.getIndex(x, y, WorldObjectTerrain.DIMZ - 1), lightLevel);
-				}
-			}
-
-			// propagate thought x positive
-			if (x < WorldObjectTerrain.DIMX - 1) {
-				nodeTerrain.floodFillLightRemove(nodeTerrain.getIndex(x + 1, y, z), lightLevel);
-			} else {
-				WorldObjectTerrain terrain = nodeTerrain.getNeighbor(Face.FRONT);
-				if (terrain != null) {
-					terrain.floodFillLightRemove(terrain.getIndex(0, y, z), lightLevel);
-				}
-			}
-
-			// propagate thought y positive
-			if (y < WorldObjectTerrain.DIMY - 1) {
-				nodeTerrain.floodFillLightRemove(nodeTerrain.getIndex(x, y + 1, z), lightLevel);
-			} else {
-				WorldObjectTerrain terrain = nodeTerrain.getNeighbor(Face.RIGHT);
-				if (terrain != null) {
-					terrain.floodFillLightRemove(terrain.getIndex(x, 0, z), lightLevel);
-				}
-			}
-
-			// propagate thought z positive
-			if (z < WorldObjectTerrain.DIMZ - 1) {
-				nodeTerrain.floodFillLightRemove(nodeTerrain.getIndex(x, y, z + 1), lightLevel);
-			} else {
-				WorldObjectTerrain terrain = nodeTerrain.getNeighbor(Face.TOP);
-				if (terrain != null) {
-					terrain.floodFillLightRemove(terrain.getIndex(x, y, 0), lightLevel);
-				}
-			}
+			int nindex = terrain.getIndex(xyz);
+			engine.addLight(LightEngine.CHANNEL_SUN, terrain, nindex, terrain.getSunLight(nindex));
+			engine.addLight(LightEngine.CHANNEL_BLOCK, terrain, nindex, terrain.getBlockLight(nindex));
 		}
 	}
 
-	private void floodFillLightRemove(int index, byte lightLevel) {
-		byte neighborLevel = this.getBlockLight(index);
-		if (neighborLevel != 0 && neighborLevel < lightLevel) {
-			this.removeLight(index);
-		} else if (neighborLevel >= lightLevel) {
-			this.addBlockLight(neighborLevel, index);
-		}
+	private final LightEngine getLightEngine() {
+		return (this.getWorld() == null ? null : this.getWorld().getLightEngine());
 	}
 
 	/** LIGHTS ENDS HERE */
@@ -1253,108 +855,113 @@ public class WorldObjectTerrain extends WorldObject {
 	 * this set the 'this.facesVisibility' bits to 1 if faces can be seen from
 	 * another
 	 * 
-	 * This uses an explicit stack (to avoid stackoverflow in recursive)
+	 * This uses an explicit stack (to avoid stackoverflow in recursive). The
+	 * visibility is built in a new array which replaces the old one, so the
+	 * renderer never reads a partially updated graph.
 	 **/
 	private void updateFaceVisiblity() {
 
 		this.setState(STATE_FACE_VISIBILTY_UP_TO_DATE);
 
-		if (this.facesVisibility == null) {
-			this.facesVisibility = new boolean[6][6];
-		}
+		boolean[][] visibility = new boolean[6][6];
 
-		// reset visibility
-		for (Face a : Face.faces) {
-			for (Face b : Face.faces) {
-				this.facesVisibility[a.getID()][b.getID()] = false;
+		// an empty terrain connects every faces
+		if (this.blockCount == 0) {
+			for (Face a : Face.faces) {
+				for (Face b : Face.faces) {
+					visibility[a.getID()][b.getID()] = true;
+				}
 			}
+			this.facesVisibility = visibility;
+			return;
 		}
 
-		// virtual stack
-		Stack<Vector3i> stack = new Stack<Vector3i>();
-		short[][][] flood = new short[WorldObjectTerrain.DIMX][WorldObjectTerrain.DIMY][WorldObjectTerrain.DIMZ];
-		short color = 1;
-		boolean[] touchedByFlood = new boolean[6];
+		// cells which can be flooded (not opaque), and already flooded cells
+		boolean[] open = new boolean[WorldObjectTerrain.MAX_BLOCK_INDEX];
+		boolean[] flooded = new boolean[WorldObjectTerrain.MAX_BLOCK_INDEX];
+		for (int index = 0; index < WorldObjectTerrain.MAX_BLOCK_INDEX; index++) {
+			open[index] = this.getBlockAt(index).isTransparent();
+		}
 
-		for (int x = 0; x < WorldObjectTerrain.DIMX; x++) {
-			for (int y = 0; y < WorldObjectTerrain.DIMY; y++) {
-				for (int z = 0; z < WorldObjectTerrain.DIMZ; z++) {
-					if (this.getBlockAt(x, y, z).isTransparent() && flood[x][y][z] == 0) {
-						for (int i = 0; i < 6; i++) {
-							touchedByFlood[i] = false;
-						}
+		// virtual stack of block indices (a cell is pushed once at most)
+		int[] stack = new int[WorldObjectTerrain.MAX_BLOCK_INDEX];
+		int strideY = WorldObjectTerrain.DIMX;
+		int strideZ = WorldObjectTerrain.DIMX * WorldObjectTerrain.DIMY;
 
-						stack.push(new Vector3i(x, y, z));
-						// this loop will empty the stack and propagate the
-						// flood
-						while (!stack.isEmpty()) {
-							Vector3i pos = stack.pop();
-
-							if (pos.x < 0) {
-								touchedByFlood[Face.BACK] = true;
-								continue;
-							}
-
-							if (pos.y < 0) {
-								touchedByFlood[Face.LEFT] = true;
-								continue;
-							}
-
-							if (pos.z < 0) {
-								touchedByFlood[Face.BOT] = true;
-								continue;
-							}
-
-							if (pos.x >= WorldObjectTerrain.DIMX) {
-								touchedByFlood[Face.FRONT] = true;
-								continue;
-							}
-
-							if (pos.y >= WorldObjectTerrain.DIMY) {
-								touchedByFlood[Face.RIGHT] = true;
-								continue;
-							}
-
-							if (pos.z >= WorldObjectTerrain.DIMZ) {
-								touchedByFlood[Face.TOP] = true;
-								continue;
-							}
-
-							if (this.getBlockAt(pos.x, pos.y, pos.z).isTransparent()
-									|| flood[pos.x][pos.y][pos.z] != 0) {
-								// hitted a full block
-								continue;
-							}
-
-							flood[pos.x][pos.y][pos.z] = color;
-
-							stack.push(new Vector3i(pos.x + 1, pos.y + 0, pos.z + 0));
-							stack.push(new Vector3i(pos.x - 1, pos.y + 0, pos.z + 0));
-							stack.push(new Vector3i(pos.x + 0, pos.y + 1, pos.z + 0));
-							stack.push(new Vector3i(pos.x + 0, pos.y - 1, pos.z + 0));
-							stack.push(new Vector3i(pos.x + 0, pos.y + 0, pos.z + 1));
-							stack.push(new Vector3i(pos.x + 0, pos.y + 0, pos.z - 1));
-						}
+		for (int seed = 0; seed < WorldObjectTerrain.MAX_BLOCK_INDEX; seed++) {
+			if (!open[seed] || flooded[seed]) {
+				continue;
+			}
 
-						for (int i = 0; i < 6; i++) {
-							if (touchedByFlood[i]) {
-								for (int j = 0; j < 6; j++) {
-									if (touchedByFlood[j]) {
-										this.facesVisibility[i][j] = true;
-										this.facesVisibility[j][i] = true;
-									}
-								}
-							}
+			// this loop will empty the stack and propagate the flood
+			int touchedByFlood = 0;
+			int size = 0;
+			stack[size++] = seed;
+			flooded[seed] = true;
+			while (size > 0) {
+				int index = stack[--size];
+				int x = index % WorldObjectTerrain.DIMX;
+				int y = (index / strideY) % WorldObjectTerrain.DIMY;
+				int z = index / strideZ;
+
+				if (x == 0) {
+					touchedByFlood |= (1 << Face.BACK);
+				} else if (open[index - 1] && !flooded[index - 1]) {
+					flooded[index - 1] = true;
+					stack[size++] = index - 1;
+				}
+				if (x == WorldObjectTerrain.DIMX - 1) {
+					touchedByFlood |= (1 << Face.FRONT);
+				} else if (open[index + 1] && !flooded[index + 1]) {
+					flooded[index + 1] = true;
+					stack[size++] = index + 1;
+				}
+
+				if (y == 0) {
+					touchedByFlood |= (1 << Face.LEFT);
+				} else if (open[index - strideY] && !flooded[index - strideY]) {
+					flooded[index - strideY] = true;
+					stack[size++] = index - strideY;
+				}
+				if (y == WorldObjectTerrain.DIMY - 1) {
+					touchedByFlood |= (1 << Face.RIGHT);
+				} else if (open[index + strideY] && !flooded[index + strideY]) {
+					flooded[index + strideY] = true;
+					stack[size++] = index + strideY;
+				}
+
+				if (z == 0) {
+					touchedByFlood |= (1 << Face.BOT);
+				} else if (open[index - strideZ] && !flooded[index - strideZ]) {
+					flooded[index - strideZ] = true;
+					stack[size++] = index - strideZ;
+				}
+				if (z == WorldObjectTerrain.DIMZ - 1) {
+					touchedByFlood |= (1 << Face.TOP);
+				} else if (open[index + strideZ] && !flooded[index + strideZ]) {
+					flooded[index + strideZ] = true;
+					stack[size++] = index + strideZ;
+				}
+			}
+
+			for (int i = 0; i < 6; i++) {
+				if ((touchedByFlood & (1 << i)) != 0) {
+					for (int j = 0; j < 6; j++) {
+						if ((touchedByFlood & (1 << j)) != 0) {
+							visibility[i][j] = true;
+							visibility[j][i] = true;
 						}
 					}
 				}
 			}
 		}
+		this.facesVisibility = visibility;
 	}
 
 	/** return true if the given faces id can be seen from another */
 	public final boolean canFaceBeSeenFrom(int faceA, int faceB) {
-		return (this.facesVisibility[faceA][faceB]);
+		boolean[][] visibility = this.facesVisibility;
+		return (visibility == null || visibility[faceA][faceB]);
 	}
 
 	public final boolean canFaceBeSeenFrom(Face faceA, Face faceB) {
@@ -1362,8 +969,10 @@ public class WorldObjectTerrain extends WorldObject {
 	}
 
 	public final void destroy() {
+		this.releaseCompressed();
 		this.blocks = null;
 		this.lights = null;
+		this.durability = null;
 		this.blockCount = 0;
 		if (this.blockInstances != null) {
 			this.blockInstances.clear();
@@ -1377,16 +986,184 @@ public class WorldObjectTerrain extends WorldObject {
 
 	}
 
-	/** return raw block data */
+	/**
+	 * return a copy of the raw block data (null if the terrain is empty).
+	 * Prefer {@link #getBlockStorage()} which doesnt decode the whole terrain
+	 */
 	public final short[] getRawBlocks() {
+		this.touch();
+		TerrainBlockStorage blocks = this.blocks;
+		return (blocks == null ? null : blocks.toArray(null));
+	}
+
+	/** return the paletted block storage (null if the terrain is empty) */
+	public final TerrainBlockStorage getBlockStorage() {
+		this.touch();
 		return (this.blocks);
 	}
 
 	/** get the raw light map */
 	public final byte[] getRawLights() {
+		this.touch();
 		return (this.lights);
 	}
 
+	/** get the raw durability map */
+	public final byte[] getRawDurability() {
+		this.touch();
+		return (this.durability);
+	}
+
+	/** serialization flags */
+	private static final int SERIAL_BLOCKS = 1 << 0;
+	private static final int SERIAL_LIGHTS = 1 << 1;
+	private static final int SERIAL_DURABILITY = 1 << 2;
+
+	/**
+	 * write this terrain data (blocks, lights, durability, block instances) to
+	 * the given stream
+	 */
+	public void write(DataOutputStream out) throws IOException {
+		this.touch();
+		TerrainBlockStorage blocks = this.blocks;
+		byte[] lights = this.lights;
+		byte[] durability = this.durability;
+
+		int flags = 0;
+		flags |= blocks != null ? SERIAL_BLOCKS : 0;
+		flags |= lights != null ? SERIAL_LIGHTS : 0;
+		flags |= durability != null ? SERIAL_DURABILITY : 0;
+		out.writeByte(flags);
+
+		if (blocks != null) {
+			for (short block : blocks.toArray(null)) {
+				out.writeShort(block);
+			}
+		}
+		if (lights != null) {
+			out.write(lights);
+		}
+		if (durability != null) {
+			out.write(durability);
+		}
+
+		// block instances
+		HashMap<Integer, BlockInstance> instances = this.blockInstances;
+		if (instances == null) {
+			out.writeInt(0);
+			return;
+		}
+		out.writeInt(instances.size());
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+		DataOutputStream data = new DataOutputStream(bytes);
+		for (BlockInstance instance : instances.values()) {
+			bytes.reset();
+			instance.write(data);
+			data.flush();
+			out.writeInt(instance.getIndex());
+			out.writeShort(instance.getBlock().getID());
+			out.writeInt(bytes.size());
+			bytes.writeTo(out);
+		}
+	}
+
+	/**
+	 * read this terrain data from the given stream (previously written using
+	 * {@link #write(DataOutputStream)})
+	 */
+	public void read(DataInputStream in) throws IOException {
+		int flags = in.readUnsignedByte();
+
+		TerrainBlockStorage blocks = null;
+		if ((flags & SERIAL_BLOCKS) != 0) {
+			short[] ids = new short[WorldObjectTerrain.MAX_BLOCK_INDEX];
+			for (int i = 0; i < ids.length; i++) {
+				ids[i] = in.readShort();
+			}
+			blocks = new TerrainBlockStorage(WorldObjectTerrain.MAX_BLOCK_INDEX, (short) Blocks.AIR_ID);
+			blocks.set(ids);
+		}
+
+		byte[] lights = null;
+		if ((flags & SERIAL_LIGHTS) != 0) {
+			lights = new byte[WorldObjectTerrain.MAX_BLOCK_INDEX];
+			in.readFully(lights);
+		}
+
+		byte[] durability = null;
+		if ((flags & SERIAL_DURABILITY) != 0) {
+			durability = new byte[WorldObjectTerrain.MAX_BLOCK_INDEX];
+			in.readFully(durability);
+		}
+
+		this.releaseCompressed();
+		this.blocks = blocks;
+		this.lights = lights;
+		this.durability = durability;
+		this.blockInstances = null;
+		this.calculateBlockCount();
+		this.calculateHeightmap();
+		this.calculateMass();
+
+		// block instances
+		int count = in.readInt();
+		for (int i = 0; i < count; i++) {
+			int index = in.readInt();
+			short blockID = in.readShort();
+			byte[] data = new byte[in.readInt()];
+			in.readFully(data);
+
+			Block block = this.getBlockAt(index);
+			if (block.getID() != blockID) {
+				continue;
+			}
+			BlockInstance instance = block.createBlockInstance(this, index);
+			if (instance == null) {
+				continue;
+			}
+			instance.read(new DataInputStream(new ByteArrayInputStream(data)));
+			if (this.blockInstances == null) {
+				this.blockInstances = new HashMap<Integer, BlockInstance>();
+			}
+			this.blockInstances.put(index, instance);
+		}
+		this.requestFaceVisibilityUpdate();
+		this.unsetState(STATE_DIRTY);
+	}
+
+	/** recalculate the number of non-air blocks */
+	private final void calculateBlockCount() {
+		this.blockCount = 0;
+		if (this.blocks == null) {
+			return;
+		}
+		for (int i = 0; i < WorldObjectTerrain.MAX_BLOCK_INDEX; i++) {
+			if (this.blocks.get(i) != Blocks.AIR_ID) {
+				++this.blockCount;
+			}
+		}
+	}
+
+	/** recalculate the heightmap */
+	private final void calculateHeightmap() {
+		if (this.blocks == null) {
+			this.heightmap = null;
+			return;
+		}
+		if (this.heightmap == null) {
+			this.heightmap = new byte[WorldObjectTerrain.DIMX * WorldObjectTerrain.DIMZ];
+		}
+		for (int x = 0; x < WorldObjectTerrain.DIMX; x++) {
+			for (int y = 0; y < WorldObjectTerrain.DIMY; y++) {
+				int z = WorldObjectTerrain.DIMZ;
+				while (z > 0 && this.blocks.get(this.getIndex(x, y, z - 1)) == Blocks.AIR_ID) {
+					--z;
+				}
+				this.heightmap[x + WorldObjectTerrain.DIMX * y] = (byte) z;
+			}
+		}
+	}
+
 	/**
 	 * @return the number of non-air blocks set in this terrain
 	 */
@@ -1404,6 +1181,7 @@ public class WorldObjectTerrain extends WorldObject {
 	 *            {@link #MAX_DURABILITY} ])
 	 */
 	public final void setDurabilityAt(int index, byte durability) {
+		this.touch();
 		if (this.durability == null) {
 			if (this.blocks == null) {
 				return;
@@ -1413,6 +1191,7 @@ public class WorldObjectTerrain extends WorldObject {
 		byte old = this.durability[index];
 		this.durability[index] = durability < WorldObjectTerrain.MIN_DURABILITY ? WorldObjectTerrain.MIN_DURABILITY
 				: durability > WorldObjectTerrain.MAX_DURABILITY ? WorldObjectTerrain.MAX_DURABILITY : durability;
+		this.setState(STATE_DIRTY);
 		this.invokeEvent(new EventTerrainDurabilityChanged(this, old, index));
 	}
 
@@ -1434,18 +1213,22 @@ public class WorldObjectTerrain extends WorldObject {
 
 	/** decrease the durabiltiy of a block */
 	public final void decreaseDurability(int index) {
-		if (this.durability == null) {
+		this.touch();
+		byte[] durability = this.durability;
+		if (durability == null) {
 			return;
 		}
-		this.setDurabilityAt(index, (byte) (this.durability[index] + 1));
+		this.setDurabilityAt(index, (byte) (durability[index] + 1));
 	}
 
 	/** increase the durabiltiy of a block */
 	public final void increaseDurability(int index) {
-		if (this.durability == null) {
+		this.touch();
+		byte[] durability = this.durability;
+		if (durability == null) {
 			return;
 		}
-		this.setDurabilityAt(index, (byte) (this.durability[index] - 1));
+		this.setDurabilityAt(index, (byte) (durability[index] - 1));
 	}
 
 	/**
@@ -1455,10 +1238,12 @@ public class WorldObjectTerrain extends WorldObject {
 	 * @return
 	 */
 	public final byte getDurabilityAt(int index) {
-		if (this.durability == null) {
+		this.touch();
+		byte[] durability = this.durability;
+		if (durability == null) {
 			return (WorldObjectTerrain.MIN_DURABILITY);
 		}
-		return (this.durability[index]);
+		return (durability[index]);
 	}
 
 	public final byte getDurabilityAt(int x, int y, int z) {
@@ -1785,12 +1570,164 @@ public class WorldObjectTerrain extends WorldObject {
 	 * modified explicitly)
 	 */
 	public final void calculateMass() {
+		this.touch();
 		if (this.blocks == null) {
 			return;
 		}
 		this.mass = 0.0f;
-		for (short blockID : this.blocks) {
-			this.mass += Blocks.getBlockByID(blockID).getMass();
+		for (int i = 0; i < WorldObjectTerrain.MAX_BLOCK_INDEX; i++) {
+			this.mass += Blocks.getBlockByID(this.blocks.get(i)).getMass();
+		}
+	}
+
+	/** RLE compressed arrays of an idle terrain (null when left uncompressed) */
+	private static final class CompressedData {
+		short[] blocks;
+		byte[] lights;
+		byte[] durability;
+
+		/** number of bytes saved by the compression */
+		int gain;
+	}
+
+	/**
+	 * mark the terrain as accessed, and decompress it if needed. Every access to
+	 * the blocks, lights and durability arrays goes through this function
+	 */
+	private final void touch() {
+		if (!this.accessed) {
+			this.accessed = true;
+		}
+		if (this.compressed != null) {
+			this.decompress();
+		}
+	}
+
+	/**
+	 * count the ticks this terrain wasnt accessed for, and compress it once it
+	 * has been idle for 'maxIdleTicks' ticks (called in the terrain update task)
+	 */
+	public final void updateCompression(int maxIdleTicks) {
+		if (this.accessed) {
+			this.accessed = false;
+			this.idleTicks = 0;
+			return;
 		}
+		if (maxIdleTicks > 0 && this.compressed == null && ++this.idleTicks >= maxIdleTicks) {
+			this.compress();
+		}
+	}
+
+	/**
+	 * RLE compress the blocks, lights and durability arrays. An array is only
+	 * compressed if it saves memory
+	 */
+	public final synchronized void compress() {
+		if (this.compressed != null) {
+			return;
+		}
+
+		TerrainBlockStorage blocks = this.blocks;
+		byte[] lights = this.lights;
+		byte[] durability = this.durability;
+		CompressedData data = new CompressedData();
+
+		if (blocks != null && !blocks.isUniform()) {
+			short[] rle = Compress.compressShortArray(blocks.toArray(null));
+			if (rle.length * 2 < blocks.getMemoryUsage()) {
+				data.blocks = rle;
+				data.gain += blocks.getMemoryUsage() - rle.length * 2;
+			}
+		}
+		if (lights != null) {
+			byte[] rle = Compress.compressByteArray(lights);
+			if (rle.length < lights.length) {
+				data.lights = rle;
+				data.gain += lights.length - rle.length;
+			}
+		}
+		if (durability != null) {
+			byte[] rle = Compress.compressByteArray(durability);
+			if (rle.length < durability.length) {
+				data.durability = rle;
+				data.gain += durability.length - rle.length;
+			}
+		}
+		if (data.gain <= 0) {
+			return;
+		}
+
+		// publish the compressed data before dropping the arrays: an accessor
+		// which didnt see it has already set 'accessed', so cancel
+		this.compressed = data;
+		if (this.accessed) {
+			this.compressed = null;
+			return;
+		}
+		if (data.blocks != null) {
+			this.blocks = null;
+		}
+		if (data.lights != null) {
+			this.lights = null;
+		}
+		if (data.durability != null) {
+			this.durability = null;
+		}
+
+		WorldTerrainStorage storage = this.getWorld().getTerrainStorage();
+		if (storage != null) {
+			storage.onTerrainCompressed(data.gain);
+		}
+	}
+
+	/** decompress the terrain arrays (if they were compressed) */
+	public final synchronized void decompress() {
+		CompressedData data = this.compressed;
+		if (data == null) {
+			return;
+		}
+		if (data.blocks != null) {
+			TerrainBlockStorage blocks = new TerrainBlockStorage(WorldObjectTerrain.MAX_BLOCK_INDEX,
+					(short) Blocks.AIR_ID);
+			blocks.set(Compress.decompressShortArray(data.blocks, WorldObjectTerrain.MAX_BLOCK_INDEX));
+			this.blocks = blocks;
+		}
+		if (data.lights != null) {
+			this.lights = Compress.decompressByteArray(data.lights, WorldObjectTerrain.MAX_BLOCK_INDEX);
+		}
+		if (data.durability != null) {
+			this.durability = Compress.decompressByteArray(data.durability, WorldObjectTerrain.MAX_BLOCK_INDEX);
+		}
+		this.compressed = null;
+		this.idleTicks = 0;
+
+		WorldTerrainStorage storage = this.getWorld().getTerrainStorage();
+		if (storage != null) {
+			storage.onTerrainDecompressed(data.gain);
+		}
+	}
+
+	/** drop the compressed data without decompressing it */
+	private final synchronized void releaseCompressed() {
+		CompressedData data = this.compressed;
+		if (data == null) {
+			return;
+		}
+		this.compressed = null;
+		WorldTerrainStorage storage = this.getWorld().getTerrainStorage();
+		if (storage != null) {
+			storage.onTerrainDecompressed(data.gain);
+		}
+	}
+
+	/** true if the terrain arrays are currently compressed */
+	public final boolean isCompressed() {
+		return (this.compressed != null);
+	}
+
+	/** number of bytes saved by the compression (0 if not compressed) */
+	public final int getCompressionGain() {
+		CompressedData data = this.compressed;
+		return (data == null ? 0 : data.gain);
 	}
 }
\ No newline at end of file
@@ -1,5 +1,8 @@
 package com.grillecube.common.world.terrain;
 
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
 import com.grillecube.common.maths.Vector3f;
 import com.grillecube.common.maths.Vector3i;
 import com.grillecube.common.world.World;
@@ -9,8 +12,21 @@ import com.grillecube.common.world.block.instances.BlockInstance;
 
 public abstract class WorldTerrainStorage extends WorldStorage<WorldObjectTerrain> {
 
+	/** default number of idle ticks before a terrain is compressed */
+	public static final int DEFAULT_COMPRESSION_IDLE_TICKS = 1200;
+
+	/** number of idle ticks before a terrain is compressed (0 to disable) */
+	private int compressionIdleTicks;
+
+	/** compression counters */
+	private final AtomicInteger compressedTerrains;
+	private final AtomicLong compressionBytesSaved;
+
 	public WorldTerrainStorage(World world) {
 		super(world);
+		this.compressionIdleTicks = DEFAULT_COMPRESSION_IDLE_TICKS;
+		this.compressedTerrains = new AtomicInteger(0);
+		this.compressionBytesSaved = new AtomicLong(0);
 	}
 
 	/** get the terrain index of the given world position */
@@ -77,7 +93,7 @@ public abstract class WorldTerrainStorage extends WorldStorage<WorldObjectTerrai
 
 	@Override
 	public void delete() {
-		for (WorldObjectTerrain terrain : this) {
+		for (WorldObjectTerrain terrain : this.get().toArray(new WorldObjectTerrain[this.size()])) {
 			this.remove(terrain);
 		}
 		this.onDeleted();
@@ -85,4 +101,36 @@ public abstract class WorldTerrainStorage extends WorldStorage<WorldObjectTerrai
 
 	protected void onDeleted() {
 	}
+
+	/**
+	 * set the number of ticks a terrain should be left untouched before its
+	 * data is compressed (0 disables the compression)
+	 */
+	public final void setCompressionIdleTicks(int ticks) {
+		this.compressionIdleTicks = ticks < 0 ? 0 : ticks;
+	}
+
+	public final int getCompressionIdleTicks() {
+		return (this.compressionIdleTicks);
+	}
+
+	/** number of terrains which are currently compressed */
+	public final int getCompressedTerrainCount() {
+		return (this.compressedTerrains.get());
+	}
+
+	/** number of bytes currently saved by the terrain compression */
+	public final long getCompressionBytesSaved() {
+		return (this.compressionBytesSaved.get());
+	}
+
+	final void onTerrainCompressed(int gain) {
+		this.compressedTerrains.incrementAndGet();
+		this.compressionBytesSaved.addAndGet(gain);
+	}
+
+	final void onTerrainDecompressed(int gain) {
+		this.compressedTerrains.decrementAndGet();
+		this.compressionBytesSaved.addAndGet(-gain);
+	}
 }
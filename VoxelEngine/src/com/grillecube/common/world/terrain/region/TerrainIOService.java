@@ -0,0 +1,461 @@
+package com.grillecube.common.world.terrain.region;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.grillecube.common.Logger;
+import com.grillecube.common.Logger.Level;
+import com.grillecube.common.maths.Vector3f;
+import com.grillecube.common.utils.LongKeys;
+import com.grillecube.common.world.World;
+import com.grillecube.common.world.generator.TerrainGenerationService;
+import com.grillecube.common.world.terrain.WorldObjectTerrain;
+
+/**
+ * Asynchronous terrain loading / saving.
+ *
+ * Disk I/O runs on a bounded thread pool. Loads are ordered by their distance
+ * to the observers (players, camera...), repeated saves of a chunk are merged
+ * while they are queued, and loaded terrains are handed back to the world
+ * storage on the tick thread in {@link #update()}. Terrains which were never
+ * saved are generated by the world {@link TerrainGenerationService}.
+ */
+public class TerrainIOService {
+
+	/** default number of I/O threads */
+	public static final int DEFAULT_THREADS = 2;
+
+	/** default number of ticks between two flushes of dirty terrains */
+	public static final int DEFAULT_FLUSH_INTERVAL = 20 * 60;
+
+	/** number of load latencies kept for the percentiles */
+	private static final int LATENCY_SAMPLES = 1024;
+
+	/** the world */
+	private final World world;
+
+	/** the region files */
+	private final TerrainRegionStorage regions;
+
+	/** thread pool */
+	private final ThreadPoolExecutor executor;
+
+	/** positions used to prioritize loads */
+	private final CopyOnWriteArrayList<Vector3f> observers;
+
+	/** pending requests, by terrain key */
+	private final HashMap<Long, SaveJob> pendingSaves;
+	private final HashSet<Long> pendingLoads;
+
+	/** terrains loaded, waiting to be added on the tick thread */
+	private final ConcurrentLinkedQueue<LoadJob> loaded;
+
+	/** ticks between 2 flushes */
+	private int flushInterval;
+
+	/** metrics */
+	private final AtomicLong bytesRead;
+	private final AtomicLong bytesWritten;
+	private final AtomicLong mergedSaves;
+	private final long[] latencies;
+	private int latencyIndex;
+	private int latencyCount;
+	private long rateTime;
+	private long rateBytes;
+	private double bytesPerSecond;
+
+	public TerrainIOService(World world, TerrainRegionStorage regions) {
+		this(world, regions, DEFAULT_THREADS);
+	}
+
+	public TerrainIOService(World world, TerrainRegionStorage regions, int threads) {
+		this.world = world;
+		this.regions = regions;
+		this.observers = new CopyOnWriteArrayList<Vector3f>();
+		this.pendingSaves = new HashMap<Long, SaveJob>();
+		this.pendingLoads = new HashSet<Long>();
+		this.loaded = new ConcurrentLinkedQueue<LoadJob>();
+		this.flushInterval = DEFAULT_FLUSH_INTERVAL;
+		this.bytesRead = new AtomicLong();
+		this.bytesWritten = new AtomicLong();
+		this.mergedSaves = new AtomicLong();
+		this.latencies = new long[LATENCY_SAMPLES];
+		this.rateTime = System.nanoTime();
+		this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+				new PriorityBlockingQueue<Runnable>(), new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable runnable) {
+						Thread thread = new Thread(runnable, "Terrain I/O");
+						thread.setDaemon(true);
+						return (thread);
+					}
+				});
+	}
+
+	/** a queued I/O operation */
+	private abstract class Job implements Runnable, Comparable<Job> {
+
+		final long key;
+		final int x, y, z;
+		final double priority;
+		final long requestTime;
+
+		Job(int x, int y, int z, double priority) {
+			this.key = LongKeys.pack(x, y, z);
+			this.x = x;
+			this.y = y;
+			this.z = z;
+			this.priority = priority;
+			this.requestTime = System.nanoTime();
+		}
+
+		@Override
+		public int compareTo(Job job) {
+			return (Double.compare(this.priority, job.priority));
+		}
+	}
+
+	private class LoadJob extends Job {
+
+		WorldObjectTerrain terrain;
+
+		LoadJob(int x, int y, int z, double priority) {
+			super(x, y, z, priority);
+		}
+
+		@Override
+		public void run() {
+			this.terrain = read(this.x, this.y, this.z);
+			addLatency(System.nanoTime() - this.requestTime);
+			loaded.add(this);
+		}
+	}
+
+	private class SaveJob extends Job {
+
+		/** serialized terrain, replaced if the terrain is saved again */
+		byte[] data;
+
+		/** true once the job is running (it cannot be merged anymore) */
+		boolean started;
+
+		/** the save of the same terrain requested while this one was running */
+		SaveJob next;
+
+		SaveJob(int x, int y, int z, byte[] data) {
+			// saves go before any loads
+			super(x, y, z, -1.0d);
+			this.data = data;
+		}
+
+		@Override
+		public void run() {
+			byte[] data;
+			synchronized (pendingSaves) {
+				this.started = true;
+				data = this.data;
+			}
+			try {
+				byte[] payload = regions.compress(data);
+				regions.write(this.x, this.y, this.z, payload);
+				bytesWritten.addAndGet(payload.length);
+			} catch (IOException exception) {
+				Logger.get().log(Level.ERROR, "Couldnt save terrain " + this.x + ", " + this.y + ", " + this.z + " : "
+						+ exception.getLocalizedMessage());
+			}
+			SaveJob next;
+			synchronized (pendingSaves) {
+				next = this.next;
+				if (pendingSaves.get(this.key) == this) {
+					pendingSaves.remove(this.key);
+					// wake up the threads waiting for the saves (see save())
+					pendingSaves.notifyAll();
+				}
+			}
+			// only one save per terrain is running at once, so writes stay ordered
+			if (next != null) {
+				if (executor.isShutdown()) {
+					next.run();
+				} else {
+					executor.execute(next);
+				}
+			}
+		}
+	}
+
+	/**
+	 * request the given terrain to be loaded. Once done, it is spawned in the
+	 * world on the tick thread, or generated if it was never saved
+	 */
+	public final void requestLoad(int x, int y, int z) {
+		long key = LongKeys.pack(x, y, z);
+		synchronized (this.pendingLoads) {
+			if (!this.pendingLoads.add(key)) {
+				return;
+			}
+		}
+		this.executor.execute(new LoadJob(x, y, z, this.getPriority(x, y, z)));
+	}
+
+	/**
+	 * request the given terrain to be saved. Its data are copied immediately, so
+	 * it can be modified or destroyed right after this call. If a save of the
+	 * same terrain is still queued, it is replaced
+	 */
+	public final void requestSave(WorldObjectTerrain terrain) {
+		byte[] data;
+		try {
+			data = this.regions.serialize(terrain);
+		} catch (IOException exception) {
+			Logger.get().log(Level.ERROR,
+					"Couldnt serialize terrain " + terrain.getWorldIndex() + " : " + exception.getLocalizedMessage());
+			return;
+		}
+		terrain.unsetState(WorldObjectTerrain.STATE_DIRTY);
+
+		int x = terrain.getWorldIndex().x;
+		int y = terrain.getWorldIndex().y;
+		int z = terrain.getWorldIndex().z;
+		long key = LongKeys.pack(x, y, z);
+		SaveJob job;
+		synchronized (this.pendingSaves) {
+			job = this.pendingSaves.get(key);
+			if (job != null && !job.started) {
+				job.data = data;
+				this.mergedSaves.incrementAndGet();
+				return;
+			}
+			SaveJob running = job;
+			job = new SaveJob(x, y, z, data);
+			this.pendingSaves.put(key, job);
+			if (running != null) {
+				running.next = job;
+				return;
+			}
+		}
+		this.executor.execute(job);
+	}
+
+	/**
+	 * load a terrain synchronously (on the caller thread), taking care of the
+	 * saves which are still queued
+	 *
+	 * @return the terrain, or null if it was never saved
+	 */
+	public final WorldObjectTerrain load(int x, int y, int z) {
+		long start = System.nanoTime();
+		WorldObjectTerrain terrain = this.read(x, y, z);
+		this.addLatency(System.nanoTime() - start);
+		return (terrain);
+	}
+
+	private final WorldObjectTerrain read(int x, int y, int z) {
+		byte[] data = null;
+		synchronized (this.pendingSaves) {
+			SaveJob save = this.pendingSaves.get(LongKeys.pack(x, y, z));
+			if (save != null) {
+				data = save.data;
+			}
+		}
+
+		WorldObjectTerrain terrain = null;
+		try {
+			if (data == null) {
+				byte[] payload = this.regions.read(x, y, z);
+				if (payload != null) {
+					this.bytesRead.addAndGet(payload.length);
+					data = this.regions.decompress(payload);
+				}
+			}
+			if (data != null) {
+				terrain = new WorldObjectTerrain(this.world, x, y, z);
+				this.regions.deserialize(terrain, data);
+			}
+		} catch (IOException exception) {
+			Logger.get().log(Level.ERROR,
+					"Corrupted terrain payload at " + x + ", " + y + ", " + z + " : " + exception.getLocalizedMessage());
+			terrain = null;
+		}
+		return (terrain);
+	}
+
+	/**
+	 * to be called on the tick thread: spawn loaded terrains (or request the
+	 * generation of the ones which were never saved), and periodically save
+	 * dirty terrains
+	 */
+	public final void update() {
+		LoadJob job;
+		while ((job = this.loaded.poll()) != null) {
+			synchronized (this.pendingLoads) {
+				this.pendingLoads.remove(job.key);
+			}
+			if (this.world.getTerrain(job.x, job.y, job.z) != null) {
+				continue;
+			}
+			if (job.terrain != null) {
+				this.world.spawnTerrain(job.terrain);
+			} else {
+				this.world.getTerrainGenerationService().requestGeneration(job.x, job.y, job.z);
+			}
+		}
+
+		if (this.flushInterval > 0 && this.world.getTick() % this.flushInterval == 0) {
+			this.flush();
+		}
+
+		long time = System.nanoTime();
+		if (time - this.rateTime >= 1000000000L) {
+			long bytes = this.bytesRead.get() + this.bytesWritten.get();
+			this.bytesPerSecond = (bytes - this.rateBytes) * 1000000000.0d / (time - this.rateTime);
+			this.rateBytes = bytes;
+			this.rateTime = time;
+		}
+	}
+
+	/** request a save for every dirty loaded terrains */
+	public final void flush() {
+		for (WorldObjectTerrain terrain : this.world.getLoadedTerrains()) {
+			if (terrain.hasState(WorldObjectTerrain.STATE_DIRTY)) {
+				this.requestSave(terrain);
+			}
+		}
+	}
+
+	/**
+	 * save every dirty loaded terrains, and wait until every queued saves are
+	 * written on disk (called on world save, so no terrain is lost if the
+	 * program exits right after)
+	 */
+	public final void save() {
+		this.flush();
+		try {
+			synchronized (this.pendingSaves) {
+				while (!this.pendingSaves.isEmpty()) {
+					this.pendingSaves.wait();
+				}
+			}
+		} catch (InterruptedException exception) {
+			Logger.get().log(Level.WARNING, "Terrain save interrupted: " + exception.getLocalizedMessage());
+			Thread.currentThread().interrupt();
+		}
+		this.regions.flush();
+	}
+
+	/** wait for every queued operations, and stop the threads */
+	public final void stop() {
+		this.executor.shutdown();
+		try {
+			if (!this.executor.awaitTermination(30, TimeUnit.SECONDS)) {
+				Logger.get().log(Level.WARNING, "Terrain I/O timeout, some terrains may not be saved");
+			}
+		} catch (InterruptedException exception) {
+			Logger.get().log(Level.WARNING, "Terrain I/O interrupted: " + exception.getLocalizedMessage());
+		}
+		this.regions.flush();
+	}
+
+	/** priority of a load: squared distance to the nearest observer */
+	private final double getPriority(int x, int y, int z) {
+		if (this.observers.isEmpty()) {
+			return (0.0d);
+		}
+		float cx = (x + 0.5f) * WorldObjectTerrain.DIMX_SIZE;
+		float cy = (y + 0.5f) * WorldObjectTerrain.DIMY_SIZE;
+		float cz = (z + 0.5f) * WorldObjectTerrain.DIMZ_SIZE;
+		double min = Double.MAX_VALUE;
+		for (Vector3f observer : this.observers) {
+			double dx = observer.x - cx;
+			double dy = observer.y - cy;
+			double dz = observer.z - cz;
+			double d = dx * dx + dy * dy + dz * dz;
+			if (d < min) {
+				min = d;
+			}
+		}
+		return (min);
+	}
+
+	private final void addLatency(long latency) {
+		synchronized (this.latencies) {
+			this.latencies[this.latencyIndex] = latency;
+			this.latencyIndex = (this.latencyIndex + 1) % LATENCY_SAMPLES;
+			if (this.latencyCount < LATENCY_SAMPLES) {
+				++this.latencyCount;
+			}
+		}
+	}
+
+	/** add a position which is used to prioritize terrain loads */
+	public final void addObserver(Vector3f position) {
+		this.observers.add(position);
+	}
+
+	public final void removeObserver(Vector3f position) {
+		this.observers.remove(position);
+	}
+
+	/** number of ticks between two flushes of dirty terrains (0 to disable) */
+	public final void setFlushInterval(int ticks) {
+		this.flushInterval = ticks;
+	}
+
+	public final int getFlushInterval() {
+		return (this.flushInterval);
+	}
+
+	/** number of I/O operations waiting to be run */
+	public final int getQueueDepth() {
+		return (this.executor.getQueue().size());
+	}
+
+	/** disk throughput (read + written), measured over the last second */
+	public final double getBytesPerSecond() {
+		return (this.bytesPerSecond);
+	}
+
+	public final long getBytesRead() {
+		return (this.bytesRead.get());
+	}
+
+	public final long getBytesWritten() {
+		return (this.bytesWritten.get());
+	}
+
+	/** number of saves which were merged with an already queued save */
+	public final long getMergedSaves() {
+		return (this.mergedSaves.get());
+	}
+
+	/**
+	 * @param percentile
+	 *            : in range [0, 1] (i.e 0.99 for p99)
+	 * @return the load latency percentile in nanoseconds, over the last loads
+	 */
+	public final long getLoadLatency(double percentile) {
+		long[] samples;
+		synchronized (this.latencies) {
+			samples = Arrays.copyOf(this.latencies, this.latencyCount);
+		}
+		if (samples.length == 0) {
+			return (0);
+		}
+		Arrays.sort(samples);
+		int index = (int) Math.ceil(percentile * samples.length) - 1;
+		return (samples[index < 0 ? 0 : index >= samples.length ? samples.length - 1 : index]);
+	}
+
+	/** the region files */
+	public final TerrainRegionStorage getRegionStorage() {
+		return (this.regions);
+	}
+}
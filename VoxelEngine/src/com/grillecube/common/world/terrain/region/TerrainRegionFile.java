@@ -0,0 +1,195 @@
+package com.grillecube.common.world.terrain.region;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.BitSet;
+
+/**
+ * A region file holds a fixed cube of terrains (see {@link #SIZEX},
+ * {@link #SIZEY}, {@link #SIZEZ}).
+ *
+ * File layout:
+ *
+ * - header: for each terrain slot, an (int sector, int length) entry
+ *
+ * - payloads: each terrain payload starts on a sector boundary
+ *
+ * The header is read once when the file is opened, so reading a terrain costs
+ * a single positional read.
+ */
+public class TerrainRegionFile {
+
+	/** number of terrains per region on each axis */
+	public static final int SIZEX = 16;
+	public static final int SIZEY = 16;
+	public static final int SIZEZ = 16;
+	public static final int SIZE3 = SIZEX * SIZEY * SIZEZ;
+
+	/** sector size in bytes */
+	public static final int SECTOR_SIZE = 4096;
+
+	/** header size: one (sector, length) entry per terrain */
+	public static final int HEADER_ENTRY_SIZE = 8;
+	public static final int HEADER_SIZE = SIZE3 * HEADER_ENTRY_SIZE;
+	public static final int HEADER_SECTORS = (HEADER_SIZE + SECTOR_SIZE - 1) / SECTOR_SIZE;
+
+	/** the file */
+	private final File file;
+	private final RandomAccessFile raf;
+	private final FileChannel channel;
+
+	/** cached header */
+	private final int[] sectors;
+	private final int[] lengths;
+
+	/** used sectors */
+	private final BitSet usedSectors;
+
+	public TerrainRegionFile(File file) throws IOException {
+		this.file = file;
+		this.raf = new RandomAccessFile(file, "rw");
+		this.channel = this.raf.getChannel();
+		this.sectors = new int[SIZE3];
+		this.lengths = new int[SIZE3];
+		this.usedSectors = new BitSet();
+		this.usedSectors.set(0, HEADER_SECTORS);
+
+		if (this.channel.size() < HEADER_SIZE) {
+			// new file, write an empty header
+			this.write(ByteBuffer.allocate(HEADER_SIZE), 0);
+		} else {
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			this.read(header, 0);
+			header.flip();
+			for (int i = 0; i < SIZE3; i++) {
+				this.sectors[i] = header.getInt();
+				this.lengths[i] = header.getInt();
+				if (this.sectors[i] != 0) {
+					this.usedSectors.set(this.sectors[i], this.sectors[i] + this.getSectorCount(this.lengths[i]));
+				}
+			}
+		}
+	}
+
+	/** get the slot of the given terrain index in this region */
+	public static final int getSlot(int x, int y, int z) {
+		int rx = Math.floorMod(x, SIZEX);
+		int ry = Math.floorMod(y, SIZEY);
+		int rz = Math.floorMod(z, SIZEZ);
+		return (rx + SIZEX * (ry + SIZEY * rz));
+	}
+
+	/** return true if a payload is stored for the given slot */
+	public final synchronized boolean contains(int slot) {
+		return (this.sectors[slot] != 0);
+	}
+
+	/**
+	 * read the payload stored for the given slot (synchronized with the
+	 * writes, which may move the payloads to other sectors)
+	 *
+	 * @return the payload, or null if there is none
+	 */
+	public final synchronized byte[] read(int slot) throws IOException {
+		int sector = this.sectors[slot];
+		if (sector == 0) {
+			return (null);
+		}
+		byte[] payload = new byte[this.lengths[slot]];
+		this.read(ByteBuffer.wrap(payload), (long) sector * SECTOR_SIZE);
+		return (payload);
+	}
+
+	/** write the given payload for the given slot */
+	public final synchronized void write(int slot, byte[] payload, int length) throws IOException {
+		int previousSector = this.sectors[slot];
+		int previousCount = previousSector == 0 ? 0 : this.getSectorCount(this.lengths[slot]);
+		int count = this.getSectorCount(length);
+
+		int sector;
+		if (previousSector != 0 && count <= previousCount) {
+			// fits in place
+			sector = previousSector;
+			this.usedSectors.clear(sector + count, sector + previousCount);
+		} else {
+			if (previousSector != 0) {
+				this.usedSectors.clear(previousSector, previousSector + previousCount);
+			}
+			sector = this.findFreeSectors(count);
+			this.usedSectors.set(sector, sector + count);
+		}
+
+		this.write(ByteBuffer.wrap(payload, 0, length), (long) sector * SECTOR_SIZE);
+		this.setHeaderEntry(slot, sector, length);
+	}
+
+	/** remove the payload stored for the given slot */
+	public final synchronized void remove(int slot) throws IOException {
+		int sector = this.sectors[slot];
+		if (sector == 0) {
+			return;
+		}
+		this.usedSectors.clear(sector, sector + this.getSectorCount(this.lengths[slot]));
+		this.setHeaderEntry(slot, 0, 0);
+	}
+
+	private final void setHeaderEntry(int slot, int sector, int length) throws IOException {
+		this.sectors[slot] = sector;
+		this.lengths[slot] = length;
+		ByteBuffer entry = ByteBuffer.allocate(HEADER_ENTRY_SIZE);
+		entry.putInt(sector);
+		entry.putInt(length);
+		entry.flip();
+		this.write(entry, (long) slot * HEADER_ENTRY_SIZE);
+	}
+
+	/** first fit search of 'count' contiguous free sectors */
+	private final int findFreeSectors(int count) {
+		int sector = this.usedSectors.nextClearBit(HEADER_SECTORS);
+		while (true) {
+			int next = this.usedSectors.nextSetBit(sector);
+			if (next == -1 || next - sector >= count) {
+				return (sector);
+			}
+			sector = this.usedSectors.nextClearBit(next);
+		}
+	}
+
+	private final int getSectorCount(int length) {
+		return ((length + SECTOR_SIZE - 1) / SECTOR_SIZE);
+	}
+
+	private final void read(ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			int read = this.channel.read(buffer, position);
+			if (read < 0) {
+				throw new IOException("Unexpected end of region file: " + this.file);
+			}
+			position += read;
+		}
+	}
+
+	private final void write(ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			position += this.channel.write(buffer, position);
+		}
+	}
+
+	/** force the file content to be written on the disk */
+	public final void flush() throws IOException {
+		this.channel.force(false);
+	}
+
+	/** close the file */
+	public final void close() throws IOException {
+		this.channel.close();
+		this.raf.close();
+	}
+
+	public final File getFile() {
+		return (this.file);
+	}
+}
@@ -0,0 +1,202 @@
+package com.grillecube.common.world.terrain.region;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import com.grillecube.common.Logger;
+import com.grillecube.common.Logger.Level;
+import com.grillecube.common.utils.LongKeys;
+import com.grillecube.common.world.World;
+import com.grillecube.common.world.terrain.WorldObjectTerrain;
+
+/**
+ * Directory of region files. Terrains are stored as deflated payloads
+ * ({@link WorldObjectTerrain#write(DataOutputStream)}) inside the
+ * {@link TerrainRegionFile} which contains them.
+ */
+public class TerrainRegionStorage {
+
+	/** region file extension */
+	public static final String EXTENSION = ".vxr";
+
+	/** the directory holding the region files */
+	private final File directory;
+
+	/** opened region files */
+	private final HashMap<Long, TerrainRegionFile> regions;
+
+	public TerrainRegionStorage(File directory) {
+		this.directory = directory;
+		this.regions = new HashMap<Long, TerrainRegionFile>();
+		if (!this.directory.exists()) {
+			this.directory.mkdirs();
+		}
+	}
+
+	public TerrainRegionStorage(String directory) {
+		this(new File(directory));
+	}
+
+	/**
+	 * load the terrain at the given index from the disk
+	 *
+	 * @return the loaded terrain, or null if it was never saved
+	 */
+	public final WorldObjectTerrain load(World world, int x, int y, int z) {
+		byte[] payload = this.read(x, y, z);
+		if (payload == null) {
+			return (null);
+		}
+		WorldObjectTerrain terrain = new WorldObjectTerrain(world, x, y, z);
+		try {
+			this.decode(terrain, payload);
+		} catch (IOException exception) {
+			Logger.get().log(Level.ERROR, "Corrupted terrain payload at " + terrain.getWorldIndex() + " : "
+					+ exception.getLocalizedMessage());
+			return (null);
+		}
+		return (terrain);
+	}
+
+	/** save the given terrain on the disk */
+	public final void save(WorldObjectTerrain terrain) {
+		try {
+			this.write(terrain.getWorldIndex().x, terrain.getWorldIndex().y, terrain.getWorldIndex().z,
+					this.encode(terrain));
+		} catch (IOException exception) {
+			Logger.get().log(Level.ERROR,
+					"Couldnt save terrain " + terrain.getWorldIndex() + " : " + exception.getLocalizedMessage());
+		}
+	}
+
+	/** read the raw (compressed) payload of the given terrain */
+	public final byte[] read(int x, int y, int z) {
+		try {
+			TerrainRegionFile region = this.getRegion(x, y, z, false);
+			if (region == null) {
+				return (null);
+			}
+			return (region.read(TerrainRegionFile.getSlot(x, y, z)));
+		} catch (IOException exception) {
+			Logger.get().log(Level.ERROR,
+					"Couldnt read terrain " + x + ", " + y + ", " + z + " : " + exception.getLocalizedMessage());
+			return (null);
+		}
+	}
+
+	/** write a raw (compressed) payload for the given terrain */
+	public final void write(int x, int y, int z, byte[] payload) throws IOException {
+		TerrainRegionFile region = this.getRegion(x, y, z, true);
+		region.write(TerrainRegionFile.getSlot(x, y, z), payload, payload.length);
+	}
+
+	/** serialize and compress the given terrain */
+	public final byte[] encode(WorldObjectTerrain terrain) throws IOException {
+		return (this.compress(this.serialize(terrain)));
+	}
+
+	/** decompress and deserialize the given payload into the terrain */
+	public final void decode(WorldObjectTerrain terrain, byte[] payload) throws IOException {
+		this.deserialize(terrain, this.decompress(payload));
+	}
+
+	/** serialize the given terrain (uncompressed) */
+	public final byte[] serialize(WorldObjectTerrain terrain) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(WorldObjectTerrain.MAX_BLOCK_INDEX * 4);
+		DataOutputStream out = new DataOutputStream(bytes);
+		terrain.write(out);
+		out.close();
+		return (bytes.toByteArray());
+	}
+
+	/** deserialize the given data into the terrain */
+	public final void deserialize(WorldObjectTerrain terrain, byte[] data) throws IOException {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+		terrain.read(in);
+		in.close();
+	}
+
+	/** compress serialized data */
+	public final byte[] compress(byte[] data) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(4096);
+		DeflaterOutputStream out = new DeflaterOutputStream(bytes);
+		out.write(data);
+		out.close();
+		return (bytes.toByteArray());
+	}
+
+	/** decompress a payload */
+	public final byte[] decompress(byte[] payload) throws IOException {
+		InflaterInputStream in = new InflaterInputStream(new ByteArrayInputStream(payload));
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(WorldObjectTerrain.MAX_BLOCK_INDEX * 4);
+		byte[] buffer = new byte[4096];
+		int read;
+		while ((read = in.read(buffer)) != -1) {
+			bytes.write(buffer, 0, read);
+		}
+		in.close();
+		return (bytes.toByteArray());
+	}
+
+	/** get the region file containing the given terrain index */
+	private final TerrainRegionFile getRegion(int x, int y, int z, boolean create) throws IOException {
+		int rx = Math.floorDiv(x, TerrainRegionFile.SIZEX);
+		int ry = Math.floorDiv(y, TerrainRegionFile.SIZEY);
+		int rz = Math.floorDiv(z, TerrainRegionFile.SIZEZ);
+		Long key = LongKeys.pack(rx, ry, rz);
+
+		synchronized (this.regions) {
+			TerrainRegionFile region = this.regions.get(key);
+			if (region == null) {
+				File file = new File(this.directory, "r." + rx + "." + ry + "." + rz + EXTENSION);
+				if (!create && !file.exists()) {
+					return (null);
+				}
+				region = new TerrainRegionFile(file);
+				this.regions.put(key, region);
+			}
+			return (region);
+		}
+	}
+
+	/** flush every opened region files */
+	public final void flush() {
+		synchronized (this.regions) {
+			for (TerrainRegionFile region : this.regions.values()) {
+				try {
+					region.flush();
+				} catch (IOException exception) {
+					Logger.get().log(Level.ERROR, "Couldnt flush region file " + region.getFile() + " : "
+							+ exception.getLocalizedMessage());
+				}
+			}
+		}
+	}
+
+	/** close every opened region files */
+	public final void close() {
+		synchronized (this.regions) {
+			for (TerrainRegionFile region : this.regions.values()) {
+				try {
+					region.close();
+				} catch (IOException exception) {
+					Logger.get().log(Level.ERROR, "Couldnt close region file " + region.getFile() + " : "
+							+ exception.getLocalizedMessage());
+				}
+			}
+			this.regions.clear();
+		}
+	}
+
+	/** the directory holding the region files */
+	public final File getDirectory() {
+		return (this.directory);
+	}
+}